@@ -27,8 +27,10 @@
  */
 package org.brackit.xquery;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.brackit.xquery.atomic.AbstractTimeInstant;
 import org.brackit.xquery.atomic.AnyURI;
@@ -37,11 +39,14 @@ import org.brackit.xquery.atomic.Date;
 import org.brackit.xquery.atomic.DateTime;
 import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.atomic.Time;
+import org.brackit.xquery.function.UDF;
 import org.brackit.xquery.jsonitem.SimpleJsonStore;
 import org.brackit.xquery.node.SimpleNodeStore;
+import org.brackit.xquery.node.array.ArrayNodeFactory;
 import org.brackit.xquery.node.d2linked.D2NodeFactory;
 import org.brackit.xquery.update.UpdateList;
 import org.brackit.xquery.update.op.UpdateOp;
+import org.brackit.xquery.util.Cfg;
 import org.brackit.xquery.xdm.Item;
 import org.brackit.xquery.xdm.Sequence;
 import org.brackit.xquery.xdm.json.JsonStore;
@@ -59,6 +64,15 @@ public class BrackitQueryContext implements QueryContext {
 
   protected static final NodeStore STORE = null;
 
+  public static final String DOCUMENT_MODEL_CFG = "org.brackit.xquery.documentModel";
+
+  /**
+   * Document model of stored documents: <code>d2linked</code> or the
+   * compact, read-only <code>array</code> model. Constructed nodes are
+   * always created with {@link #FACTORY}.
+   */
+  public static String DOCUMENT_MODEL = Cfg.asString(DOCUMENT_MODEL_CFG, "d2linked");
+
   private final NodeFactory<?> nodeFactory;
 
   private final NodeStore nodeStore;
@@ -85,9 +99,11 @@ public class BrackitQueryContext implements QueryContext {
 
   private final DTD implicitTimezone = AbstractTimeInstant.LOCAL_TIMEZONE;
 
+  private final Map<UDF, UDF.Memo> memos = Collections.synchronizedMap(new WeakHashMap<>());
+
   public BrackitQueryContext() {
     this.nodeFactory = FACTORY;
-    this.nodeStore = new SimpleNodeStore();
+    this.nodeStore = new SimpleNodeStore(documentFactory());
     this.jsonStore = new SimpleJsonStore();
   }
 
@@ -99,7 +115,7 @@ public class BrackitQueryContext implements QueryContext {
 
   public BrackitQueryContext(JsonStore store) {
     this.nodeFactory = FACTORY;
-    this.nodeStore = new SimpleNodeStore();
+    this.nodeStore = new SimpleNodeStore(documentFactory());
     this.jsonStore = store;
   }
 
@@ -109,6 +125,10 @@ public class BrackitQueryContext implements QueryContext {
     this.jsonStore = jsonStore;
   }
 
+  private static NodeFactory<?> documentFactory() {
+    return ("array".equals(DOCUMENT_MODEL)) ? new ArrayNodeFactory() : new D2NodeFactory();
+  }
+
   @Override
   public void addPendingUpdate(UpdateOp op) {
     if (updates == null) {
@@ -229,4 +249,9 @@ public class BrackitQueryContext implements QueryContext {
   public JsonStore getJsonItemStore() {
     return jsonStore;
   }
+
+  @Override
+  public UDF.Memo getMemo(UDF function) {
+    return memos.computeIfAbsent(function, f -> new UDF.Memo());
+  }
 }
@@ -39,6 +39,7 @@ import org.brackit.xquery.compiler.CompileChain;
 import org.brackit.xquery.node.parser.DocumentParser;
 import org.brackit.xquery.node.parser.SubtreeParser;
 import org.brackit.xquery.util.io.URIHandler;
+import org.brackit.xquery.util.serialize.ByteSerializer;
 import org.brackit.xquery.xdm.node.Node;
 import org.brackit.xquery.xdm.node.NodeCollection;
 import org.brackit.xquery.xdm.node.NodeFactory;
@@ -147,7 +148,7 @@ public class Main {
     }
     System.out.println();
     System.out.println("Query result:");
-    xq.serialize(ctx, System.out);
+    xq.serialize(ctx, new ByteSerializer(System.out).setFormat(xq.isPrettyPrint()).setStreaming(true));
     System.out.println();
     System.out.println();
   }
@@ -6,6 +6,7 @@ import org.brackit.xquery.atomic.Date;
 import org.brackit.xquery.atomic.DateTime;
 import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.atomic.Time;
+import org.brackit.xquery.function.UDF;
 import org.brackit.xquery.update.UpdateList;
 import org.brackit.xquery.update.op.UpdateOp;
 import org.brackit.xquery.xdm.Item;
@@ -68,4 +69,12 @@ public interface QueryContext {
 
   JsonStore getJsonItemStore();
 
+  /**
+   * Returns the table of cached results of a memoized function
+   * in this context or <code>null</code> if results are not cached.
+   */
+  default UDF.Memo getMemo(UDF function) {
+    return null;
+  }
+
 }
@@ -31,6 +31,7 @@ import java.io.PrintStream;
 import java.io.PrintWriter;
 
 import org.brackit.xquery.compiler.CompileChain;
+import org.brackit.xquery.compiler.PlanCache;
 import org.brackit.xquery.module.Module;
 import org.brackit.xquery.operator.TupleImpl;
 import org.brackit.xquery.util.Cfg;
@@ -65,6 +66,21 @@ public class XQuery {
     this.module = chain.compile(query);
   }
 
+  /**
+   * Creates a query with a module from the given plan cache.
+   */
+  public XQuery(PlanCache cache, String query) {
+    this.module = cache.compile(query);
+  }
+
+  /**
+   * Creates a query with a module from the given plan cache, which is
+   * compiled with the given chain if it is not cached.
+   */
+  public XQuery(PlanCache cache, CompileChain chain, String query) {
+    this.module = cache.compile(chain, query);
+  }
+
   public Module getModule() {
     return module;
   }
@@ -33,6 +33,7 @@ import org.brackit.xquery.ErrorCode;
 import org.brackit.xquery.QueryException;
 import org.brackit.xquery.Tuple;
 import org.brackit.xquery.util.forkjoin.Deque;
+import org.brackit.xquery.util.forkjoin.ForkJoinPoolAdapter;
 import org.brackit.xquery.util.forkjoin.Task;
 import org.brackit.xquery.util.forkjoin.Worker;
 
@@ -160,18 +161,18 @@ public abstract class ChainedSink implements Sink {
     int s = state;
     if (s == NO_TOKEN) {
       boolean hasPending = hasPending();
-      Worker worker = null;
+      Thread me = null;
       Deque<Task> queue = null;
 
       if (hasPending) {
         // deposit reference to work queue
         // for expected hand-over
-        worker = (Worker) Thread.currentThread();
+        me = Thread.currentThread();
         if (!SUSPEND) {
-          queue = worker.getQueue();
+          queue = ((Worker) me).getQueue();
           deposit = queue;
         } else {
-          blocked = worker;
+          blocked = me;
         }
       }
 
@@ -183,9 +184,9 @@ public abstract class ChainedSink implements Sink {
         if (hasPending && (this.yield() || !compareAndSet(queue, null))) {
           if (!SUSPEND) {
             // drop local queue
-            worker.dropQueue();
+            ((Worker) me).dropQueue();
           } else {
-            LockSupport.park(this);
+            ForkJoinPoolAdapter.block(this);
           }
         }
         return;
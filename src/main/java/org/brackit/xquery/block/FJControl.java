@@ -27,18 +27,30 @@
  */
 package org.brackit.xquery.block;
 
+import java.util.function.Function;
+
 import org.brackit.xquery.util.Cfg;
+import org.brackit.xquery.util.forkjoin.ForkJoinPoolAdapter;
+import org.brackit.xquery.util.forkjoin.ParallelStream;
 import org.brackit.xquery.util.forkjoin.Pool;
+import org.brackit.xquery.util.forkjoin.WorkStealingPool;
 import org.brackit.xquery.util.forkjoin.WorkerFactory;
+import org.brackit.xquery.xdm.Stream;
 
 /**
  * @author Sebastian Baechle
  */
 public class FJControl {
+  public static final String SCHEDULER_CFG = "org.brackit.xquery.scheduler";
+  public static final String WORK_STEALING = "workstealing";
+  public static final String FORK_JOIN = "forkjoin";
   public static int POOL_SIZE = Cfg.asInt("org.brackit.xquery.poolsize", Runtime.getRuntime().availableProcessors());
+  public static String SCHEDULER = Cfg.asString(SCHEDULER_CFG, WORK_STEALING);
   public static WorkerFactory FACTORY = new WorkerFactory();
-  public static Pool POOL = new Pool(POOL_SIZE, FACTORY);
+  public static Pool POOL = createPool(SCHEDULER, POOL_SIZE);
   public static int PERMITS = 30000;
+  public static boolean PARALLEL_INGEST = Cfg.asBool("org.brackit.xquery.parallelIngest", true);
+  public static int INGEST_WINDOW = Cfg.asInt("org.brackit.xquery.ingestWindow", 4 * POOL_SIZE);
 
   public static void resizePool(int newSize) {
     if (newSize <= 0) {
@@ -46,6 +58,35 @@ public class FJControl {
     }
     POOL.shutdown();
     POOL_SIZE = newSize;
-    POOL = new Pool(POOL_SIZE, FACTORY);
+    POOL = createPool(SCHEDULER, POOL_SIZE);
+  }
+
+  /**
+   * Replaces the pool with one of the given scheduler, i.e.,
+   * {@link #WORK_STEALING} or {@link #FORK_JOIN}.
+   */
+  public static void useScheduler(String scheduler) {
+    Pool pool = createPool(scheduler, POOL_SIZE);
+    POOL.shutdown();
+    SCHEDULER = scheduler;
+    POOL = pool;
+  }
+
+  private static Pool createPool(String scheduler, int size) {
+    if (FORK_JOIN.equals(scheduler)) {
+      return new ForkJoinPoolAdapter(size);
+    }
+    if (WORK_STEALING.equals(scheduler)) {
+      return new WorkStealingPool(size, FACTORY);
+    }
+    throw new IllegalArgumentException("Unknown scheduler: " + scheduler);
+  }
+
+  /**
+   * Maps the elements of a stream concurrently in the pool, e.g., parses
+   * the documents of a bulk load, and delivers the results in input order.
+   */
+  public static <S, T> Stream<T> ingest(Stream<? extends S> in, Function<? super S, ? extends T> function) {
+    return new ParallelStream<>(PARALLEL_INGEST ? POOL : null, INGEST_WINDOW, in, function);
   }
-}
\ No newline at end of file
+}
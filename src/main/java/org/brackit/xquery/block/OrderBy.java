@@ -44,10 +44,16 @@ public class OrderBy implements Block {
 
   final Expr[] orderByExprs;
   final OrderModifier[] modifier;
+  final long maxSize;
 
   public OrderBy(Expr[] orderByExprs, OrderModifier[] modifier) {
+    this(orderByExprs, modifier, Ordering.MAX_SORT_SIZE);
+  }
+
+  public OrderBy(Expr[] orderByExprs, OrderModifier[] modifier, long maxSize) {
     this.orderByExprs = orderByExprs;
     this.modifier = modifier;
+    this.maxSize = maxSize;
   }
 
   @Override
@@ -80,7 +86,7 @@ public class OrderBy implements Block {
     OrderBySink(Sink sink, QueryContext ctx) {
       this.sink = sink;
       this.ctx = ctx;
-      this.sort = new Ordering(orderByExprs, modifier);
+      this.sort = new Ordering(orderByExprs, modifier, maxSize);
     }
 
     public Sink partition(Sink stopAt) {
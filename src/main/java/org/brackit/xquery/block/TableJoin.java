@@ -37,10 +37,9 @@ import org.brackit.xquery.atomic.Atomic;
 import org.brackit.xquery.compiler.translator.Reference;
 import org.brackit.xquery.util.Cmp;
 import org.brackit.xquery.util.join.FastList;
-import org.brackit.xquery.util.join.MultiTypeJoinTable;
+import org.brackit.xquery.util.join.PartitionedJoinTable;
 import org.brackit.xquery.xdm.Expr;
 import org.brackit.xquery.xdm.Sequence;
-import org.brackit.xquery.xdm.node.Node;
 
 /**
  * @author Sebastian Baechle
@@ -93,12 +92,14 @@ public class TableJoin implements Block {
       sink = o.create(ctx, pe);
     }
     Sink probe = new Probe(sink, pe, ctx, join);
-    Sink leftIn = l.create(ctx, probe);
-    return new TableJoinSink(FJControl.PERMITS, ctx, leftIn, join);
+    // the table is built from the first tuple of the left input
+    // to see the same bindings as the serial TableJoin operator
+    Sink build = new TableJoinSink(FJControl.PERMITS, ctx, probe, join);
+    return l.create(ctx, build);
   }
 
   private static class Join {
-    volatile MultiTypeJoinTable table;
+    volatile PartitionedJoinTable table;
     volatile Atomic gk;
   }
 
@@ -150,9 +151,7 @@ public class TableJoin implements Block {
           if (hasToken) {
             // load table with first tuple in probe window
             Tuple t = buf[start];
-            System.out.println("START LOAD");
             load(t);
-            System.out.println("END LOAD");
             end = start;
             continue;
           } else {
@@ -175,7 +174,7 @@ public class TableJoin implements Block {
 
     private void load(Tuple t) throws QueryException {
       int offset = t.getSize();
-      MultiTypeJoinTable table = new MultiTypeJoinTable(cmp, isGCmp, skipSort);
+      PartitionedJoinTable table = new PartitionedJoinTable(cmp, isGCmp, skipSort);
       Sink load = new Load(ctx, table, offset);
       load = (ordRight) ? new SerialValve(rPermits, load) : load;
       Sink rightIn = r.create(ctx, load);
@@ -187,6 +186,7 @@ public class TableJoin implements Block {
         rightIn.fail();
         throw e;
       }
+      table.build(FJControl.POOL);
       join.gk = (groupVar >= 0) ? (Atomic) t.get(groupVar) : null;
       join.table = table;
     }
@@ -235,6 +235,7 @@ public class TableJoin implements Block {
     final QueryContext ctx;
     final Join join;
     final Sequence[] padding;
+    final FastList<Sequence[]> matches = new FastList<Sequence[]>();
     Sink sink;
     PartitionEnd pe;
 
@@ -279,9 +280,30 @@ public class TableJoin implements Block {
       Sink s = sink;
       sink = sink.fork();
       s.begin();
+      // probe the whole batch at once to group the lookups by partition
+      Sequence[] keys = new Sequence[len];
+      for (int i = 0; i < len; i++) {
+        keys[i] = (isGCmp) ? lExpr.evaluate(ctx, buf[i]) : lExpr.evaluateToItem(ctx, buf[i]);
+      }
+      int[] ranges = new int[2 * len];
+      matches.clear();
+      join.table.probe(keys, len, matches, ranges);
+      Tuple[] out = new Tuple[matches.getSize() + ((leftJoin) ? len : 0)];
+      int n = 0;
       for (int i = 0; i < len; i++) {
         Tuple t = buf[i];
-        probe(t, s, s);
+        int start = ranges[2 * i];
+        int end = ranges[2 * i + 1];
+        if (start < end) {
+          for (int j = start; j < end; j++) {
+            out[n++] = t.concat(matches.get(j));
+          }
+        } else if (leftJoin) {
+          out[n++] = t.concat(padding);
+        }
+      }
+      if (n > 0) {
+        s.output(out, n);
       }
       s.end();
     }
@@ -304,7 +326,8 @@ public class TableJoin implements Block {
 
     private void probe(Tuple t, Sink matchSink, Sink ljoinSink) throws QueryException {
       Sequence keys = (isGCmp) ? lExpr.evaluate(ctx, t) : lExpr.evaluateToItem(ctx, t);
-      FastList<Sequence[]> matches = join.table.probe(keys);
+      matches.clear();
+      join.table.probe(keys, matches);
       int itSize = matches.getSize();
       if (itSize > 0) {
         Tuple[] buf2 = new Tuple[itSize];
@@ -343,11 +366,10 @@ public class TableJoin implements Block {
 
   private final class Load extends ConcurrentSink {
     final QueryContext ctx;
-    final MultiTypeJoinTable table;
+    final PartitionedJoinTable table;
     final int offset;
-    int pos = 1;
 
-    Load(QueryContext ctx, MultiTypeJoinTable table, int offset) {
+    Load(QueryContext ctx, PartitionedJoinTable table, int offset) {
       this.ctx = ctx;
       this.table = table;
       this.offset = offset;
@@ -366,9 +388,7 @@ public class TableJoin implements Block {
         if (keys != null) {
           Sequence[] tmp = t.array();
           Sequence[] bindings = Arrays.copyOfRange(tmp, offset, tmp.length);
-          bindings[0] = null;
-          bindings[1] = ((Node<?>) bindings[1].iterate().next()).getFirstChild().getFirstChild().getValue();
-          table.add(keys, bindings, pos++);
+          table.add(keys, bindings);
         }
       }
     }
@@ -27,6 +27,8 @@
  */
 package org.brackit.xquery.compiler;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import org.brackit.xquery.QueryException;
@@ -35,9 +37,11 @@ import org.brackit.xquery.atomic.AnyURI;
 import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.atomic.Str;
 import org.brackit.xquery.compiler.analyzer.Analyzer;
+import org.brackit.xquery.compiler.optimizer.DefaultOptimizer;
 import org.brackit.xquery.compiler.optimizer.Optimizer;
 import org.brackit.xquery.compiler.optimizer.TopDownOptimizer;
 import org.brackit.xquery.compiler.parser.XQParser;
+import org.brackit.xquery.compiler.translator.BlockTranslator;
 import org.brackit.xquery.compiler.translator.TopDownTranslator;
 import org.brackit.xquery.compiler.translator.Translator;
 import org.brackit.xquery.function.bit.ArrayValues;
@@ -132,6 +136,9 @@ public class CompileChain {
   }
 
   protected Translator getTranslator(Map<QNm, Str> options) {
+    if (BlockTranslator.enabled(options)) {
+      return new BlockTranslator(options);
+    }
     return new TopDownTranslator(options);
   }
 
@@ -139,6 +146,18 @@ public class CompileChain {
     return resolver;
   }
 
+  /**
+   * Returns the settings besides the query, the base URI and the module
+   * resolver that determine the compiled plan. Chains with equal settings
+   * share the plans of a {@link PlanCache}, so subclasses with additional
+   * settings must add them.
+   */
+  protected List<Object> getPlanSettings() {
+    return Arrays.asList(getClass(), BlockTranslator.PARALLEL_DEFAULT, DefaultOptimizer.UNNEST,
+        DefaultOptimizer.JOIN_DETECTION, DefaultOptimizer.JSON_PROJECTION, DefaultOptimizer.PATH_STACK,
+        DefaultOptimizer.STREAMING);
+  }
+
   protected AST parse(String query) throws QueryException {
     return new XQParser(query).parse();
   }
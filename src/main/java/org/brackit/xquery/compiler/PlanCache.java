@@ -0,0 +1,201 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.AnyURI;
+import org.brackit.xquery.module.Module;
+import org.brackit.xquery.util.Cfg;
+
+/**
+ * Bounded cache of compiled {@link Module modules}.
+ * <p>
+ * Modules are cached by their query text, the base URI, the module resolver
+ * and the {@link CompileChain#getPlanSettings() settings} of the chain that
+ * compiled them, which determine the optimizer and the translator. Options
+ * declared in the query prolog are part of the query text. Leading and
+ * trailing whitespace and line endings of the query text are normalized.
+ * </p>
+ * <p>
+ * A compiled module does not hold any state of an evaluation. External
+ * variables, the context item and the values of declared variables are bound
+ * in the {@link org.brackit.xquery.QueryContext}, so a cached module can be
+ * evaluated concurrently with different query contexts. Library modules
+ * imported by a query are registered with the module resolver of the chain
+ * that compiled it, which is the resolver of every chain that hits the cached
+ * module.
+ * </p>
+ */
+public class PlanCache {
+
+  public static final String MAX_SIZE_CFG = "org.brackit.xquery.planCache.maxSize";
+
+  /**
+   * Default max. number of cached modules.
+   */
+  public static int MAX_SIZE = Cfg.asInt(MAX_SIZE_CFG, 512);
+
+  private final int maxSize;
+
+  private final Map<Key, Module> modules;
+
+  private final CompileChain chain = new CompileChain();
+
+  private long hits;
+
+  private long misses;
+
+  private long evictions;
+
+  public PlanCache() {
+    this(MAX_SIZE);
+  }
+
+  public PlanCache(int maxSize) {
+    this.maxSize = maxSize;
+    this.modules = new LinkedHashMap<Key, Module>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Module> eldest) {
+        if (size() > PlanCache.this.maxSize) {
+          evictions++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Returns the cached module for the given query or compiles it with the
+   * default chain of this cache.
+   */
+  public Module compile(String query) throws QueryException {
+    return compile(chain, query);
+  }
+
+  /**
+   * Returns the cached module for the given query or compiles it with the
+   * given chain.
+   */
+  public Module compile(CompileChain chain, String query) throws QueryException {
+    String text = normalize(query);
+    Key key = new Key(chain.getPlanSettings(), chain.getModuleResolver(), chain.baseURI, text);
+    synchronized (modules) {
+      Module module = modules.get(key);
+      if (module != null) {
+        hits++;
+        return module;
+      }
+      misses++;
+    }
+    // compile outside the lock; concurrent misses
+    // of the same query compile it more than once
+    Module module = chain.compile(text);
+    synchronized (modules) {
+      modules.put(key, module);
+    }
+    return module;
+  }
+
+  public long getHits() {
+    synchronized (modules) {
+      return hits;
+    }
+  }
+
+  public long getMisses() {
+    synchronized (modules) {
+      return misses;
+    }
+  }
+
+  public long getEvictions() {
+    synchronized (modules) {
+      return evictions;
+    }
+  }
+
+  public double getHitRate() {
+    synchronized (modules) {
+      long lookups = hits + misses;
+      return (lookups > 0) ? (double) hits / lookups : 0;
+    }
+  }
+
+  public int size() {
+    synchronized (modules) {
+      return modules.size();
+    }
+  }
+
+  public void clear() {
+    synchronized (modules) {
+      modules.clear();
+    }
+  }
+
+  private static String normalize(String query) {
+    return query.replace("\r\n", "\n").replace('\r', '\n').strip();
+  }
+
+  private static final class Key {
+    final List<Object> settings;
+    final ModuleResolver resolver;
+    final AnyURI baseURI;
+    final String query;
+
+    Key(List<Object> settings, ModuleResolver resolver, AnyURI baseURI, String query) {
+      this.settings = settings;
+      this.resolver = resolver;
+      this.baseURI = baseURI;
+      this.query = query;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      // resolvers hold the registered library modules and are compared by identity
+      return (resolver == other.resolver) && query.equals(other.query) && settings.equals(other.settings)
+          && Objects.equals(baseURI, other.baseURI);
+    }
+
+    @Override
+    public int hashCode() {
+      int h = 31 * settings.hashCode() + System.identityHashCode(resolver);
+      return (31 * h + query.hashCode()) * 31 + Objects.hashCode(baseURI);
+    }
+  }
+}
@@ -31,18 +31,38 @@ import org.brackit.xquery.QueryException;
 import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.compiler.AST;
 import org.brackit.xquery.compiler.Target;
+import org.brackit.xquery.compiler.XQ;
 import org.brackit.xquery.compiler.translator.Translator;
 import org.brackit.xquery.function.UDF;
+import org.brackit.xquery.module.Functions;
 import org.brackit.xquery.module.Module;
+import org.brackit.xquery.module.Namespaces;
+import org.brackit.xquery.util.Cfg;
 import org.brackit.xquery.xdm.Expr;
+import org.brackit.xquery.xdm.Function;
+import org.brackit.xquery.xdm.type.AtomicType;
+import org.brackit.xquery.xdm.type.SequenceType;
 
 /**
  * @author Sebastian Baechle
  */
 public class FunctionDecl extends ForwardDeclaration {
+  public static final String AUTO_MEMOIZE_CFG = "org.brackit.xquery.autoMemoize";
+
+  /**
+   * Memoize deterministic functions with an atomic signature even without
+   * an explicit %bit:memoize. Disabled by default, because every distinct
+   * argument list occupies a cache entry and cheap functions pay for
+   * hashing the arguments without ever hitting the cache.
+   */
+  public static boolean AUTO_MEMOIZE = Cfg.asBool(AUTO_MEMOIZE_CFG, false);
+
   final UDF udf;
   final QNm[] params;
   AST body;
+  // body calls only functions, which yield
+  // the same result for the same arguments
+  boolean deterministic = true;
 
   public FunctionDecl(Module module, UDF udf, QNm[] params, AST body) {
     super(module, udf);
@@ -56,6 +76,9 @@ public class FunctionDecl extends ForwardDeclaration {
       params[i] = bind(params[i]);
     }
     functionBody(body);
+    if ((AUTO_MEMOIZE) && (deterministic) && (!udf.isUpdating()) && (atomicSignature())) {
+      udf.setMemoize(true);
+    }
     return new Target(module, sctx, body, unit, udf.isUpdating()) {
 
       @Override
@@ -65,4 +88,49 @@ public class FunctionDecl extends ForwardDeclaration {
       }
     };
   }
+
+  private boolean atomicSignature() {
+    for (SequenceType param : udf.getSignature().getParams()) {
+      if ((!(param.getItemType() instanceof AtomicType)) || (param.getCardinality().many())) {
+        return false;
+      }
+    }
+    return (udf.getSignature().getResultType().getItemType() instanceof AtomicType);
+  }
+
+  @Override
+  protected boolean functionCall(AST expr) throws QueryException {
+    if (!super.functionCall(expr)) {
+      return false;
+    }
+    if (expr.getType() == XQ.FunctionCall) {
+      QNm name = (QNm) expr.getValue();
+      Function fun = sctx.getFunctions().resolve(name, expr.getChildCount());
+      deterministic &= deterministic(fun);
+    }
+    return true;
+  }
+
+  @Override
+  protected boolean postFixExpr(AST expr) throws QueryException {
+    if (expr.getType() == XQ.DynamicFunctionCallExpr) {
+      deterministic = false;
+    }
+    return super.postFixExpr(expr);
+  }
+
+  private boolean deterministic(Function fun) {
+    if (fun instanceof UDF callee) {
+      return (callee == udf) || (callee.isMemoized());
+    }
+    if (!fun.isBuiltIn()) {
+      return false;
+    }
+    QNm name = fun.getName();
+    String uri = name.getNamespaceURI();
+    if (uri.equals(Namespaces.FN_NSURI)) {
+      return !name.equals(Functions.FN_TRACE);
+    }
+    return (uri.equals(Namespaces.FNMATH_NSURI)) || (uri.equals(Namespaces.XS_NSURI));
+  }
 }
\ No newline at end of file
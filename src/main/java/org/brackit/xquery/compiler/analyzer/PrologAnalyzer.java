@@ -33,6 +33,7 @@ import org.brackit.xquery.atomic.AnyURI;
 import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.atomic.Str;
 import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.Bits;
 import org.brackit.xquery.compiler.XQ;
 import org.brackit.xquery.expr.DeclVariable;
 import org.brackit.xquery.expr.DefaultCtxItem;
@@ -522,6 +523,7 @@ public class PrologAnalyzer extends AbstractAnalyzer {
     // Begin XQuery Update 1.0
     boolean updating = false;
     // End XQuery Update 1.0
+    boolean memoize = false;
     int pos = 0;
     AST child = decl.getChild(pos++);
     while (child.getType() == XQ.Annotation) {
@@ -536,6 +538,9 @@ public class PrologAnalyzer extends AbstractAnalyzer {
       } else if ("updating".equals(annotation)) {
         updating = true;
         ignored = false;
+      } else if (memoizeAnnotation(child)) {
+        memoize = true;
+        ignored = false;
       }
       // TODO process annotations
       if (ignored) {
@@ -603,6 +608,7 @@ public class PrologAnalyzer extends AbstractAnalyzer {
     // register function beforehand to support recursion
     Signature signature = new Signature(resultType, pTypes);
     UDF udf = new UDF(name, signature, updating);
+    udf.setMemoize(memoize && !updating);
     sctx.getFunctions().declare(udf);
 
     // defer function body because functions
@@ -613,6 +619,18 @@ public class PrologAnalyzer extends AbstractAnalyzer {
     return true;
   }
 
+  private boolean memoizeAnnotation(AST annotation) {
+    if (!(annotation.getValue() instanceof QNm name)) {
+      return false;
+    }
+    String uri = name.getNamespaceURI();
+    String prefix = name.getPrefix();
+    if (uri.isEmpty() && (prefix != null) && (!prefix.isEmpty())) {
+      uri = sctx.getNamespaces().resolve(prefix);
+    }
+    return Bits.BIT_NSURI.equals(uri) && "memoize".equals(name.getLocalName());
+  }
+
   private boolean optionDecl(AST option) throws QueryException {
     if (option.getType() != XQ.OptionDeclaration) {
       return false;
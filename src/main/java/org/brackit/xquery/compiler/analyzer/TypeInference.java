@@ -0,0 +1,207 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.analyzer;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.XQ;
+import org.brackit.xquery.function.UDF;
+import org.brackit.xquery.module.StaticContext;
+import org.brackit.xquery.xdm.Function;
+import org.brackit.xquery.xdm.Type;
+import org.brackit.xquery.xdm.type.AtomicType;
+import org.brackit.xquery.xdm.type.Cardinality;
+import org.brackit.xquery.xdm.type.ItemType;
+import org.brackit.xquery.xdm.type.SequenceType;
+
+/**
+ * Infers static types of expressions bottom-up and annotates the AST nodes
+ * with them. The inference is conservative: only expressions with a type
+ * that is guaranteed at runtime get a type, all others remain
+ * <code>null</code>, i.e., unknown.
+ */
+public class TypeInference {
+  public static final String STATIC_TYPE = "staticType";
+
+  private static final SequenceType BOOLEAN = new SequenceType(AtomicType.BOOL, Cardinality.One);
+
+  private static final SequenceType OPTIONAL_BOOLEAN = new SequenceType(AtomicType.BOOL, Cardinality.ZeroOrOne);
+
+  /**
+   * Types of variables in scope.
+   */
+  public interface Variables {
+    SequenceType typeOf(QNm name) throws QueryException;
+  }
+
+  private final StaticContext sctx;
+  private final Variables variables;
+
+  public TypeInference(StaticContext sctx, Variables variables) {
+    this.sctx = sctx;
+    this.variables = variables;
+  }
+
+  public SequenceType infer(AST node) throws QueryException {
+    if (node.checkProperty(STATIC_TYPE)) {
+      return (SequenceType) node.getProperty(STATIC_TYPE);
+    }
+    SequenceType type = type(node);
+    if (type != null) {
+      node.setProperty(STATIC_TYPE, type);
+    }
+    return type;
+  }
+
+  private SequenceType type(AST node) throws QueryException {
+    switch (node.getType()) {
+      case XQ.Int, XQ.Dbl, XQ.Dec, XQ.QNm, XQ.AnyURI, XQ.Bool:
+        return new SequenceType(new AtomicType(((Atomic) node.getValue()).type()), Cardinality.One);
+      case XQ.Str:
+      case XQ.StringConcatExpr:
+        return SequenceType.STRING;
+      case XQ.AndExpr, XQ.OrExpr, XQ.QuantifiedExpr, XQ.InstanceofExpr, XQ.CastableExpr:
+        return BOOLEAN;
+      case XQ.VariableRef:
+        return variables.typeOf((QNm) node.getValue());
+      case XQ.EnclosedExpr, XQ.ParenthesizedExpr, XQ.SequenceExpr:
+        return (node.getChildCount() == 1) ? infer(node.getChild(0)) : null;
+      case XQ.IfExpr:
+        return join(infer(node.getChild(1)), infer(node.getChild(2)));
+      case XQ.ComparisonExpr:
+        return comparison(node);
+      case XQ.ArithmeticExpr:
+        return arithmetic(node);
+      case XQ.CastExpr:
+        return cast(node);
+      case XQ.FunctionCall:
+        return functionCall(node);
+      default:
+        return null;
+    }
+  }
+
+  private SequenceType comparison(AST node) throws QueryException {
+    switch (node.getChild(0).getType()) {
+      case XQ.GeneralCompEQ, XQ.GeneralCompNE, XQ.GeneralCompLT, XQ.GeneralCompLE, XQ.GeneralCompGT,
+          XQ.GeneralCompGE:
+        return BOOLEAN;
+      default:
+        // value and node comparisons yield
+        // the empty sequence for empty operands
+        SequenceType left = infer(node.getChild(1));
+        SequenceType right = infer(node.getChild(2));
+        return ((left != null) && (right != null) && (left.getCardinality() == Cardinality.One)
+            && (right.getCardinality() == Cardinality.One)) ? BOOLEAN : OPTIONAL_BOOLEAN;
+    }
+  }
+
+  private SequenceType arithmetic(AST node) throws QueryException {
+    SequenceType left = infer(node.getChild(1));
+    SequenceType right = infer(node.getChild(2));
+    if ((left == null) || (right == null)) {
+      return null;
+    }
+    Cardinality card = join(left.getCardinality(), right.getCardinality());
+    if (card.many()) {
+      return null;
+    }
+    Type l = atomicType(left);
+    Type r = atomicType(right);
+    if ((l == null) || (r == null) || (!l.instanceOf(Type.DEC)) || (!r.instanceOf(Type.DEC))) {
+      return null;
+    }
+    int op = node.getChild(0).getType();
+    if (op == XQ.IDivideOp) {
+      return new SequenceType(AtomicType.INR, card);
+    }
+    if ((op != XQ.DivideOp) && (l.instanceOf(Type.INR)) && (r.instanceOf(Type.INR))) {
+      return new SequenceType(AtomicType.INR, card);
+    }
+    return new SequenceType(AtomicType.DEC, card);
+  }
+
+  private SequenceType cast(AST node) throws QueryException {
+    AST type = node.getChild(1);
+    QNm name = (QNm) type.getChild(0).getChild(0).getValue();
+    Type target = sctx.getTypes().resolveAtomicType(name);
+    boolean allowEmptySequence =
+        ((type.getChildCount() == 2) && (type.getChild(1).getType() == XQ.CardinalityZeroOrOne));
+    return new SequenceType(new AtomicType(target), (allowEmptySequence) ? Cardinality.ZeroOrOne : Cardinality.One);
+  }
+
+  private SequenceType functionCall(AST node) throws QueryException {
+    for (int i = 0; i < node.getChildCount(); i++) {
+      if (node.getChild(i).getType() == XQ.ArgumentPlaceHolder) {
+        return null;
+      }
+    }
+    Function function = sctx.getFunctions().resolve((QNm) node.getValue(), node.getChildCount());
+    // results of built-in functions are not checked
+    // against their signature, so we cannot rely on them
+    return (function instanceof UDF) ? function.getSignature().getResultType() : null;
+  }
+
+  private static Type atomicType(SequenceType type) {
+    ItemType itemType = type.getItemType();
+    return (itemType instanceof AtomicType) ? ((AtomicType) itemType).getType() : null;
+  }
+
+  private static SequenceType join(SequenceType a, SequenceType b) {
+    if ((a == null) || (b == null)) {
+      return null;
+    }
+    Cardinality card = join(a.getCardinality(), b.getCardinality());
+    if (a.getItemType().equals(b.getItemType())) {
+      return new SequenceType(a.getItemType(), card);
+    }
+    Type l = atomicType(a);
+    Type r = atomicType(b);
+    if ((l == null) || (r == null)) {
+      return null;
+    }
+    if (l.instanceOf(r)) {
+      return new SequenceType(b.getItemType(), card);
+    }
+    if (r.instanceOf(l)) {
+      return new SequenceType(a.getItemType(), card);
+    }
+    return null;
+  }
+
+  private static Cardinality join(Cardinality a, Cardinality b) {
+    boolean zero = (!a.moreThanZero()) || (!b.moreThanZero());
+    boolean many = (a.many()) || (b.many());
+    if (many) {
+      return (zero) ? Cardinality.ZeroOrMany : Cardinality.OneOrMany;
+    }
+    return (zero) ? Cardinality.ZeroOrOne : Cardinality.One;
+  }
+}
@@ -32,8 +32,11 @@ import org.brackit.xquery.atomic.Str;
 import org.brackit.xquery.compiler.AST;
 import org.brackit.xquery.compiler.Bits;
 import org.brackit.xquery.compiler.optimizer.walker.DoSNStepMerger;
+import org.brackit.xquery.compiler.optimizer.walker.JsonProjectionAnalysis;
 import org.brackit.xquery.compiler.optimizer.walker.OrderForGroupBy;
 import org.brackit.xquery.compiler.optimizer.walker.PathDDOElimination;
+import org.brackit.xquery.compiler.optimizer.walker.PathStackDetection;
+import org.brackit.xquery.compiler.optimizer.walker.StreamingPathDetection;
 import org.brackit.xquery.module.StaticContext;
 import org.brackit.xquery.util.Cfg;
 
@@ -56,6 +59,18 @@ public class DefaultOptimizer implements Optimizer {
 
   public static boolean JOIN_DETECTION = Cfg.asBool(JOIN_DETECTION_CFG, true);
 
+  public static final String JSON_PROJECTION_CFG = "org.brackit.xquery.jsonProjection";
+
+  public static boolean JSON_PROJECTION = Cfg.asBool(JSON_PROJECTION_CFG, true);
+
+  public static final String PATH_STACK_CFG = "org.brackit.xquery.pathStack";
+
+  public static boolean PATH_STACK = Cfg.asBool(PATH_STACK_CFG, true);
+
+  public static final String STREAMING_CFG = "org.brackit.xquery.streaming";
+
+  public static boolean STREAMING = Cfg.asBool(STREAMING_CFG, false);
+
   protected final List<Stage> stages;
   protected final Map<QNm, Str> options;
 
@@ -90,12 +105,21 @@ public class DefaultOptimizer implements Optimizer {
       if (enabled(SEQUENTIAL_GROUPBY)) {
         ast = new OrderForGroupBy().walk(ast);
       }
+      if (JSON_PROJECTION) {
+        ast = new JsonProjectionAnalysis().walk(ast);
+      }
       return ast;
     }
   }
 
   protected static class Finalize implements Stage {
     public AST rewrite(StaticContext sctx, AST ast) {
+      if (STREAMING) {
+        ast = new StreamingPathDetection().walk(ast);
+      }
+      if (PATH_STACK) {
+        ast = new PathStackDetection().walk(ast);
+      }
       ast = new PathDDOElimination(sctx).walk(ast);
       return ast;
     }
@@ -0,0 +1,182 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer.walker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.XQ;
+import org.brackit.xquery.function.json.JSONFun;
+import org.brackit.xquery.module.Functions;
+import org.brackit.xquery.module.Namespaces;
+import org.brackit.xquery.xdm.json.JsonProjection;
+
+/**
+ * <p>
+ * This walker collects the object fields that a query can reach from a
+ * <code>jn:doc()</code> call with a literal URI and attaches them as
+ * {@link JsonProjection} to the call. The store may then skip all other
+ * fields while it loads the document.
+ * </p>
+ * <p>
+ * The analysis is conservative: a value is only narrowed while it flows
+ * through field dereferences with literal names, array lookups, positional
+ * filters, sequence construction and variable bindings of FLWOR clauses. Any
+ * other use of a value, e.g., as function argument, in comparisons or in
+ * constructors requires the complete value.
+ * </p>
+ */
+public class JsonProjectionAnalysis extends Walker {
+
+  private static final QNm DOC = new QNm(JSONFun.JSON_NSURI, JSONFun.JSON_PREFIX, "doc");
+
+  // functions that only look at the number of items in their argument
+  private static final Set<QNm> COUNTING = Set.of(Functions.FN_COUNT,
+                                                  new QNm(Namespaces.FN_NSURI, Namespaces.FN_PREFIX, "exists"),
+                                                  new QNm(Namespaces.FN_NSURI, Namespaces.FN_PREFIX, "empty"));
+
+  private final List<AST> calls = new ArrayList<>();
+  private final Map<Object, List<AST>> varRefs = new HashMap<>();
+
+  @Override
+  protected AST prepare(AST root) {
+    collect(root);
+    Map<String, JsonProjection> projections = new HashMap<>();
+    for (AST call : calls) {
+      String uri = call.getChild(0).getStringValue();
+      uses(call, projections.computeIfAbsent(uri, u -> new JsonProjection()));
+    }
+    for (AST call : calls) {
+      JsonProjection projection = projections.get(call.getChild(0).getStringValue());
+      if (!projection.isAll()) {
+        call.setProperty("projection", projection);
+      }
+    }
+    return root;
+  }
+
+  @Override
+  protected AST visit(AST node) {
+    return node;
+  }
+
+  private void collect(AST node) {
+    if (node.getType() == XQ.VariableRef) {
+      varRefs.computeIfAbsent(node.getValue(), v -> new ArrayList<>()).add(node);
+    } else if ((node.getType() == XQ.FunctionCall) && (DOC.equals(node.getValue())) && (node.getChildCount() == 1)
+        && (node.getChild(0).getType() == XQ.Str)) {
+      calls.add(node);
+    }
+    for (int i = 0; i < node.getChildCount(); i++) {
+      collect(node.getChild(i));
+    }
+  }
+
+  private void uses(AST node, JsonProjection projection) {
+    if (projection.isAll()) {
+      return;
+    }
+    AST parent = node.getParent();
+    if (parent == null) {
+      projection.all();
+      return;
+    }
+    int pos = node.getChildIndex();
+    switch (parent.getType()) {
+      case XQ.DerefExpr:
+        String field = (pos == 0) ? fieldName(parent.getChild(1)) : null;
+        if (field != null) {
+          uses(parent, projection.add(field));
+          return;
+        }
+        break;
+      case XQ.ArrayAccess:
+        if (pos == 0) {
+          uses(parent, projection);
+          return;
+        }
+        break;
+      case XQ.FilterExpr:
+        if ((pos == 0) && (positional(parent))) {
+          uses(parent, projection);
+          return;
+        }
+        break;
+      case XQ.ParenthesizedExpr:
+      case XQ.SequenceExpr:
+        uses(parent, projection);
+        return;
+      case XQ.ReturnClause:
+        uses(parent.getParent(), projection);
+        return;
+      case XQ.ForClause:
+      case XQ.LetClause:
+        AST binding = parent.getChild(0);
+        if ((pos == parent.getChildCount() - 1) && (binding.getChildCount() == 1)) {
+          for (AST ref : varRefs.getOrDefault(binding.getChild(0).getValue(), List.of())) {
+            uses(ref, projection);
+          }
+          return;
+        }
+        break;
+      case XQ.FunctionCall:
+        if (COUNTING.contains(parent.getValue())) {
+          return;
+        }
+        break;
+      default:
+    }
+    projection.all();
+  }
+
+  private static String fieldName(AST field) {
+    if (field.getType() == XQ.Str) {
+      return field.getStringValue();
+    }
+    if (field.getType() == XQ.QNm) {
+      QNm name = (QNm) field.getValue();
+      return ((name.getPrefix() == null) || (name.getPrefix().isEmpty())) ? name.getLocalName() : null;
+    }
+    return null;
+  }
+
+  private static boolean positional(AST filter) {
+    for (int i = 1; i < filter.getChildCount(); i++) {
+      AST predicate = filter.getChild(i);
+      if ((predicate.getChildCount() != 1) || (predicate.getChild(0).getType() != XQ.Int)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer.walker;
+
+import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.XQ;
+
+/**
+ * Marks paths E/descendant::a//b/c, which consist only of child and descendant
+ * element steps without predicates and start with a descendant step, for the
+ * evaluation with a holistic path join.
+ * <p>
+ * The first descendant step requires a scan of the whole subtree of the
+ * context node anyway, so the path join matches all following steps in the
+ * same scan instead of navigating and sorting step by step.
+ * </p>
+ */
+public class PathStackDetection extends Walker {
+  @Override
+  protected AST visit(AST node) {
+    if ((node.getType() != XQ.PathExpr) || (node.getChildCount() < 3) || (node.checkProperty("pathStack"))) {
+      return node;
+    }
+    for (int i = 1; i < node.getChildCount(); i++) {
+      int axis = axis(node.getChild(i));
+      if ((axis != XQ.DESCENDANT) && ((i == 1) || (axis != XQ.CHILD))) {
+        return node;
+      }
+    }
+    node.setProperty("pathStack", Boolean.TRUE);
+    return node;
+  }
+
+  static int axis(AST step) {
+    if ((step.getType() != XQ.StepExpr) || (step.getChildCount() != 2) // no predicate
+        || (step.getChild(0).getType() != XQ.AxisSpec) || (step.getChild(1).getType() != XQ.NameTest)) {
+      return -1;
+    }
+    int test = step.getChild(1).getChild(0).getType();
+    if ((test != XQ.QNm) && (test != XQ.Wildcard)) {
+      return -1;
+    }
+    return step.getChild(0).getChild(0).getType();
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.optimizer.walker;
+
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.XQ;
+import org.brackit.xquery.module.Namespaces;
+
+/**
+ * Marks paths fn:doc("uri")/a//b/c, which consist only of child and
+ * descendant element steps without predicates, for the streaming evaluation
+ * while the document is parsed.
+ * <p>
+ * The document is never built as a whole. Only the subtrees of the matched
+ * elements are materialized, so that the result nodes have no parent and
+ * each evaluation of the path yields new nodes.
+ * </p>
+ */
+public class StreamingPathDetection extends Walker {
+  private static final QNm DOC = new QNm(Namespaces.FN_NSURI, Namespaces.FN_PREFIX, "doc");
+
+  /**
+   * Maximum number of steps of a streamed path.
+   */
+  public static final int MAX_STEPS = 62;
+
+  @Override
+  protected AST visit(AST node) {
+    if ((node.getType() != XQ.PathExpr) || (node.getChildCount() < 2) || (node.getChildCount() > MAX_STEPS + 1)
+        || (node.checkProperty("streaming"))) {
+      return node;
+    }
+    AST doc = node.getChild(0);
+    if ((doc.getType() != XQ.FunctionCall) || (!DOC.eq((QNm) doc.getValue())) || (doc.getChildCount() != 1)
+        || (doc.getChild(0).getType() != XQ.Str)) {
+      return node;
+    }
+    for (int i = 1; i < node.getChildCount(); i++) {
+      int axis = PathStackDetection.axis(node.getChild(i));
+      if ((axis != XQ.DESCENDANT) && (axis != XQ.CHILD)) {
+        return node;
+      }
+    }
+    node.setProperty("streaming", Boolean.TRUE);
+    return node;
+  }
+}
@@ -108,12 +108,6 @@ public class ProfileExpr extends ProfilingNode implements Expr {
       seqSkipCnt += skipCnt;
       seqSkipTotal += skipTime;
     }
-
-    @Override
-    public Split split(int min, int max) throws QueryException {
-      // TODO Auto-generated method stub
-      return null;
-    }
   }
 
   private class StatSequence extends AbstractSequence {
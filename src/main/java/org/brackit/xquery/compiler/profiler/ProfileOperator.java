@@ -81,6 +81,16 @@ public class ProfileOperator extends ProfilingNode implements Operator {
       return next;
     }
 
+    @Override
+    public int next(QueryContext ctx, Tuple[] buf) throws QueryException {
+      long start = System.nanoTime();
+      int len = c.next(ctx, buf);
+      long end = System.nanoTime();
+      time += (end - start);
+      deliverCnt += len;
+      return len;
+    }
+
     @Override
     public void open(QueryContext ctx) throws QueryException {
       openCnt++;
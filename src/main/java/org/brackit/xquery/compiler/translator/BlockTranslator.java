@@ -0,0 +1,381 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.translator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.block.Block;
+import org.brackit.xquery.block.BlockChain;
+import org.brackit.xquery.block.Count;
+import org.brackit.xquery.block.ForBind;
+import org.brackit.xquery.block.GroupBy;
+import org.brackit.xquery.block.LetBind;
+import org.brackit.xquery.block.OrderBy;
+import org.brackit.xquery.block.Select;
+import org.brackit.xquery.block.TableJoin;
+import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.Bits;
+import org.brackit.xquery.compiler.XQ;
+import org.brackit.xquery.expr.BlockExpr;
+import org.brackit.xquery.util.Cfg;
+import org.brackit.xquery.util.Cmp;
+import org.brackit.xquery.util.aggregator.Aggregate;
+import org.brackit.xquery.util.sort.Ordering.OrderModifier;
+import org.brackit.xquery.xdm.Expr;
+import org.brackit.xquery.xdm.Function;
+import org.brackit.xquery.xdm.type.SequenceType;
+
+/**
+ * Extended compiler which translates unnested flwor pipelines into a
+ * {@link BlockChain} of the push-based fork/join engine in
+ * {@link org.brackit.xquery.block}. Pipelines containing constructs the block
+ * engine does not support yet (lifted iteration checks, left joins,
+ * positional variables, global aggregation or updating return expressions)
+ * are compiled to the serial operator tree of {@link TopDownTranslator}.
+ */
+public class BlockTranslator extends TopDownTranslator {
+
+  public static final QNm PARALLEL = new QNm(Bits.BIT_NSURI, Bits.BIT_PREFIX, "parallel");
+
+  public static final String PARALLEL_CFG = "org.brackit.xquery.parallel";
+
+  public static boolean PARALLEL_DEFAULT = Cfg.asBool(PARALLEL_CFG, false);
+
+  private int pipeDepth;
+
+  public BlockTranslator(Map<QNm, Str> options) {
+    super(options);
+  }
+
+  /**
+   * Checks whether parallel evaluation is requested either by the module
+   * option <code>bit:parallel</code> or by the global configuration.
+   */
+  public static boolean enabled(Map<QNm, Str> options) {
+    Str opt = options.get(PARALLEL);
+    return (opt != null) ? Boolean.parseBoolean(opt.stringValue()) : PARALLEL_DEFAULT;
+  }
+
+  @Override
+  protected Expr pipeExpr(AST node) throws QueryException {
+    // only the outermost pipeline is evaluated in parallel;
+    // nested pipelines are already executed by pool workers
+    if ((pipeDepth > 0) || (!supported(node.getChild(0))) || (updating(returnExpr(node.getChild(0))))) {
+      pipeDepth++;
+      try {
+        return super.pipeExpr(node);
+      } finally {
+        pipeDepth--;
+      }
+    }
+    pipeDepth++;
+    try {
+      return blockExpr(node);
+    } finally {
+      pipeDepth--;
+    }
+  }
+
+  protected Expr blockExpr(AST node) throws QueryException {
+    int initialBindSize = table.bound().length;
+    List<Block> blocks = new ArrayList<>();
+    anyBlock(blocks, node.getChild(0));
+    Expr expr = anyExpr(returnExpr(node.getChild(0)).getChild(0));
+
+    // clear block bindings
+    int unbind = table.bound().length - initialBindSize;
+    for (int i = 0; i < unbind; i++) {
+      table.unbind();
+    }
+
+    return new BlockExpr(new BlockChain(blocks), expr, ctx.isOrderingModeOrdered());
+  }
+
+  protected void anyBlock(List<Block> blocks, AST node) throws QueryException {
+    switch (node.getType()) {
+      case XQ.Start:
+        if (node.getChildCount() > 0) {
+          anyBlock(blocks, node.getLastChild());
+        }
+        return;
+      case XQ.End:
+        return;
+      case XQ.ForBind:
+        forBindBlock(blocks, node);
+        return;
+      case XQ.LetBind:
+        letBindBlock(blocks, node);
+        return;
+      case XQ.Selection:
+        selectBlock(blocks, node);
+        return;
+      case XQ.OrderBy:
+        orderByBlock(blocks, node);
+        return;
+      case XQ.GroupBy:
+        groupByBlock(blocks, node);
+        return;
+      case XQ.Count:
+        countBlock(blocks, node);
+        return;
+      case XQ.Join:
+        joinBlock(blocks, node);
+        return;
+      default:
+        throw new QueryException(ErrorCode.BIT_DYN_RT_ILLEGAL_STATE_ERROR,
+                                 "Unexpected AST operator node '%s' of type: %s",
+                                 node,
+                                 node.getType());
+    }
+  }
+
+  protected void forBindBlock(List<Block> blocks, AST node) throws QueryException {
+    AST runVarDecl = node.getChild(0);
+    QNm runVarName = (QNm) runVarDecl.getChild(0).getValue();
+    SequenceType runVarType = SequenceType.ITEM_SEQUENCE;
+    if (runVarDecl.getChildCount() == 2) {
+      runVarType = sequenceType(runVarDecl.getChild(1));
+    }
+    Expr sourceExpr = expr(node.getChild(1), true);
+    table.bind(runVarName, runVarType);
+    // Fake binding of run variable because set-oriented processing requires
+    // the variable anyway
+    table.resolve(runVarName);
+    blocks.add(new ForBind(sourceExpr, false));
+    anyBlock(blocks, node.getLastChild());
+  }
+
+  protected void letBindBlock(List<Block> blocks, AST node) throws QueryException {
+    AST letVarDecl = node.getChild(0);
+    QNm letVarName = (QNm) letVarDecl.getChild(0).getValue();
+    SequenceType letVarType = SequenceType.ITEM_SEQUENCE;
+    if (letVarDecl.getChildCount() == 2) {
+      letVarType = sequenceType(letVarDecl.getChild(1));
+    }
+    Expr sourceExpr = expr(node.getChild(1), true);
+    table.bind(letVarName, letVarType);
+    // Fake binding of let variable because set-oriented processing requires
+    // the variable anyway
+    table.resolve(letVarName);
+    blocks.add(new LetBind(sourceExpr));
+    anyBlock(blocks, node.getLastChild());
+  }
+
+  protected void selectBlock(List<Block> blocks, AST node) throws QueryException {
+    Expr expr = anyExpr(node.getChild(0));
+    blocks.add(new Select(expr));
+    anyBlock(blocks, node.getLastChild());
+  }
+
+  protected void countBlock(List<Block> blocks, AST node) throws QueryException {
+    AST posVarDecl = node.getChild(0);
+    QNm posVarName = (QNm) posVarDecl.getChild(0).getValue();
+    SequenceType posVarType = SequenceType.ITEM_SEQUENCE;
+    if (posVarDecl.getChildCount() == 2) {
+      posVarType = sequenceType(posVarDecl.getChild(1));
+    }
+    table.bind(posVarName, posVarType);
+    // Fake binding of count variable because set-oriented processing requires
+    // the variable anyway
+    table.resolve(posVarName);
+    blocks.add(new Count());
+    anyBlock(blocks, node.getLastChild());
+  }
+
+  protected void orderByBlock(List<Block> blocks, AST node) throws QueryException {
+    int orderBySpecCount = node.getChildCount() - 1;
+    Expr[] orderByExprs = new Expr[orderBySpecCount];
+    OrderModifier[] orderBySpec = new OrderModifier[orderBySpecCount];
+    for (int i = 0; i < orderBySpecCount; i++) {
+      AST orderBy = node.getChild(i);
+      orderByExprs[i] = expr(orderBy.getChild(0), true);
+      orderBySpec[i] = orderModifier(orderBy);
+    }
+    blocks.add(new OrderBy(orderByExprs, orderBySpec));
+    anyBlock(blocks, node.getLastChild());
+  }
+
+  protected void groupByBlock(List<Block> blocks, AST node) throws QueryException {
+    int pos = 0;
+    while (node.getChild(pos).getType() == XQ.GroupBySpec) {
+      pos++;
+    }
+    int grpSpecCnt = pos;
+    // collect additional aggregate bindings
+    List<AggregateBinding> bnds = new ArrayList<>();
+    while (node.getChild(pos).getType() == XQ.AggregateSpec) {
+      AST aggSpec = node.getChild(pos);
+      QNm var = (QNm) aggSpec.getChild(0).getValue();
+      for (int j = 1; j < aggSpec.getChildCount(); j++) {
+        AST aggBinding = aggSpec.getChild(j);
+        AST typedVarBnd = aggBinding.getChild(0);
+        Aggregate agg = aggregate(aggBinding.getChild(1));
+        QNm aggVar = (QNm) typedVarBnd.getChild(0).getValue();
+        SequenceType aggType = SequenceType.ITEM_SEQUENCE;
+        if (typedVarBnd.getChildCount() == 2) {
+          aggType = sequenceType(typedVarBnd.getChild(1));
+        }
+        bnds.add(new AggregateBinding(var, aggVar, aggType, agg));
+      }
+      pos++;
+    }
+    Aggregate dftAgg = aggregate(node.getChild(pos).getChild(0));
+    Aggregate[] addAggs = new Aggregate[bnds.size()];
+    for (int i = 0; i < bnds.size(); i++) {
+      addAggs[i] = bnds.get(i).agg;
+    }
+    boolean sequential = node.checkProperty("sequential");
+    GroupBy groupBy = new GroupBy(dftAgg, addAggs, grpSpecCnt, sequential);
+    // resolve positions grouping variables
+    for (int i = 0; i < grpSpecCnt; i++) {
+      QNm grpVarName = (QNm) node.getChild(i).getChild(0).getValue();
+      table.resolve(grpVarName, groupBy.group(i));
+    }
+    // resolve positions for additional aggregates
+    for (int i = 0; i < bnds.size(); i++) {
+      table.resolve(bnds.get(i).srcVar, groupBy.aggregate(i));
+    }
+    // bind additional aggregates
+    for (AggregateBinding bnd : bnds) {
+      table.bind(bnd.aggVar, bnd.aggVarType);
+      // fake binding
+      table.resolve(bnd.aggVar);
+    }
+    blocks.add(groupBy);
+    anyBlock(blocks, node.getLastChild());
+  }
+
+  protected void joinBlock(List<Block> blocks, AST node) throws QueryException {
+    Cmp cmp = (Cmp) node.getProperty("cmp");
+    boolean isGcmp = node.checkProperty("GCmp");
+
+    // compile left (outer) join branch (skip initial start)
+    List<Block> left = new ArrayList<>();
+    anyBlock(left, node.getChild(0).getChild(0));
+    Expr leftExpr = anyExpr(returnExpr(node.getChild(0)).getChild(0));
+
+    // compile right (inner) join branch
+    List<Block> right = new ArrayList<>();
+    anyBlock(right, node.getChild(1));
+    Expr rightExpr = anyExpr(returnExpr(node.getChild(1)).getChild(0));
+
+    // compile post join pipeline
+    List<Block> post = new ArrayList<>();
+    anyBlock(post, node.getChild(2).getChild(0));
+
+    boolean skipSort = node.checkProperty("skipSort");
+    TableJoin join = new TableJoin(cmp,
+                                   isGcmp,
+                                   false,
+                                   skipSort,
+                                   new BlockChain(left),
+                                   leftExpr,
+                                   new BlockChain(right),
+                                   rightExpr,
+                                   (post.isEmpty()) ? null : new BlockChain(post));
+
+    QNm prop = (QNm) node.getProperty("group");
+    if (prop != null) {
+      table.resolve(prop, join.group());
+    }
+    blocks.add(join);
+    anyBlock(blocks, node.getLastChild());
+  }
+
+  /**
+   * Checks if the pipeline rooted at the given operator node can be
+   * evaluated by the block engine.
+   */
+  protected boolean supported(AST node) {
+    if (node.getProperty("check") != null) {
+      return false;
+    }
+    switch (node.getType()) {
+      case XQ.Start:
+        return (node.getChildCount() == 0) || supported(node.getLastChild());
+      case XQ.End:
+        return true;
+      case XQ.ForBind:
+        // positions are counted per split of the input
+        return (node.getChild(1).getType() != XQ.TypedVariableBinding) && supported(node.getLastChild());
+      case XQ.LetBind:
+      case XQ.Selection:
+      case XQ.OrderBy:
+      case XQ.Count:
+        return supported(node.getLastChild());
+      case XQ.GroupBy:
+        // global aggregation must emit a group for empty input
+        return (node.getChild(0).getType() == XQ.GroupBySpec) && supported(node.getLastChild());
+      case XQ.Join:
+        return (!node.checkProperty("leftJoin")) && supported(node.getChild(0).getChild(0)) && supported(node.getChild(
+            1)) && supported(node.getChild(2).getChild(0)) && supported(node.getLastChild());
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Checks conservatively if the given expression may produce pending
+   * updates, which must not be collected concurrently.
+   */
+  protected boolean updating(AST node) throws QueryException {
+    int type = node.getType();
+    if (((type >= XQ.InsertExpr) && (type <= XQ.RenameExpr)) || ((type >= XQ.InsertJsonExpr) && (type
+        <= XQ.AppendJsonExpr))) {
+      return true;
+    }
+    if (type == XQ.FunctionCall) {
+      Function function = ctx.getFunctions().resolve((QNm) node.getValue(), node.getChildCount());
+      if ((function != null) && (function.isUpdating())) {
+        return true;
+      }
+    }
+    for (int i = 0; i < node.getChildCount(); i++) {
+      if (updating(node.getChild(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private AST returnExpr(AST node) {
+    // for simpler scoping, the return expression is
+    // at the right-most leaf
+    AST returnExpr = node;
+    while (returnExpr.getType() != XQ.End) {
+      returnExpr = returnExpr.getLastChild();
+    }
+    return returnExpr;
+  }
+}
@@ -33,6 +33,7 @@ import org.brackit.xquery.atomic.*;
 import org.brackit.xquery.compiler.AST;
 import org.brackit.xquery.compiler.Bits;
 import org.brackit.xquery.compiler.XQ;
+import org.brackit.xquery.compiler.analyzer.TypeInference;
 import org.brackit.xquery.expr.*;
 import org.brackit.xquery.expr.ArithmeticExpr.ArithmeticOp;
 import org.brackit.xquery.expr.NodeCmpExpr.NodeCmp;
@@ -44,6 +45,8 @@ import org.brackit.xquery.function.FunctionExpr;
 import org.brackit.xquery.function.InlineFunctionExpr;
 import org.brackit.xquery.function.UDF;
 import org.brackit.xquery.function.bit.BitFun;
+import org.brackit.xquery.function.fn.RegEx;
+import org.brackit.xquery.function.json.Doc;
 import org.brackit.xquery.function.json.JSONFun;
 import org.brackit.xquery.module.Module;
 import org.brackit.xquery.module.StaticContext;
@@ -54,14 +57,19 @@ import org.brackit.xquery.update.json.*;
 import org.brackit.xquery.util.Cmp;
 import org.brackit.xquery.util.Whitespace;
 import org.brackit.xquery.util.aggregator.Aggregate;
+import org.brackit.xquery.util.path.Path;
 import org.brackit.xquery.util.sort.Ordering.OrderModifier;
 import org.brackit.xquery.xdm.*;
+import org.brackit.xquery.xdm.json.JsonProjection;
 import org.brackit.xquery.xdm.type.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Sebastian Baechle
@@ -102,7 +110,11 @@ public class Compiler implements Translator {
 
   protected VariableTable table;
   protected StaticContext ctx;
+  protected TypeInference typeInference;
   protected final Map<QNm, Str> options;
+  // function calls and let-only FLWORs in tail position
+  // of the function body currently compiled
+  protected Set<AST> tailPositions = Collections.emptySet();
 
   public Compiler(Map<QNm, Str> options) {
     this.options = options;
@@ -112,6 +124,7 @@ public class Compiler implements Translator {
   public Expr expression(Module module, StaticContext ctx, AST expr, boolean allowUpdate) throws QueryException {
     this.table = new VariableTable(module);
     this.ctx = ctx;
+    this.typeInference = new TypeInference(ctx, name -> table.typeOf(name));
     Expr e = expr(expr, !allowUpdate);
     table.resolvePositions();
     return e;
@@ -128,6 +141,7 @@ public class Compiler implements Translator {
       table.resolve(binding.getName());
     }
     this.ctx = ctx;
+    this.typeInference = new TypeInference(ctx, name -> table.typeOf(name));
     // bind parameter
     SequenceType[] types = udf.getSignature().getParams();
     for (int i = 0; i < params.length; i++) {
@@ -152,6 +166,7 @@ public class Compiler implements Translator {
       throws QueryException {
     this.table = new VariableTable(module);
     this.ctx = ctx;
+    this.typeInference = new TypeInference(ctx, name -> table.typeOf(name));
     // bind parameter
     SequenceType[] types = udf.getSignature().getParams();
     for (int i = 0; i < params.length; i++) {
@@ -161,8 +176,20 @@ public class Compiler implements Translator {
     for (final QNm param : params) {
       table.resolve(param);
     }
-    // compile body
-    Expr body = expr(expr, !allowUpdate);
+    // compile body and turn calls in tail position into
+    // tail calls, which are resolved iteratively by the UDF
+    if (!udf.isUpdating()) {
+      tailPositions = Collections.newSetFromMap(new IdentityHashMap<>());
+      tailPosition(expr);
+    }
+    Expr body;
+    try {
+      body = expr(expr, !allowUpdate);
+    } finally {
+      tailPositions = Collections.emptySet();
+    }
+    SequenceType bodyType = typeInference.infer(expr);
+    udf.setResultTyped((bodyType != null) && (bodyType.subtypeOf(udf.getSignature().getResultType())));
     // unbind parameters
     for (int i = 0; i < params.length; i++) {
       table.unbind();
@@ -171,6 +198,63 @@ public class Compiler implements Translator {
     return body;
   }
 
+  /**
+   * Collects function calls whose result is directly the result
+   * of the enclosing function body, i.e., calls which are only
+   * nested in parentheses, in branches of conditionals, or in the
+   * return clause of FLWORs consisting of let clauses only.
+   */
+  protected void tailPosition(AST node) {
+    switch (node.getType()) {
+      case XQ.FunctionCall -> tailPositions.add(node);
+      case XQ.EnclosedExpr, XQ.ParenthesizedExpr, XQ.SequenceExpr -> {
+        if (node.getChildCount() == 1) {
+          tailPositions.add(node);
+          tailPosition(node.getChild(0));
+        }
+      }
+      case XQ.IfExpr -> {
+        tailPosition(node.getChild(1));
+        tailPosition(node.getChild(2));
+      }
+      case XQ.SwitchExpr -> {
+        for (int i = 1; i < node.getChildCount() - 1; i++) {
+          tailPosition(node.getChild(i).getLastChild());
+        }
+        tailPosition(node.getLastChild());
+      }
+      case XQ.TypeSwitch -> {
+        for (int i = 1; i < node.getChildCount(); i++) {
+          tailPosition(node.getChild(i).getLastChild());
+        }
+      }
+      case XQ.FlowrExpr -> {
+        for (int i = 0; i < node.getChildCount() - 1; i++) {
+          if (node.getChild(i).getType() != XQ.LetClause) {
+            return;
+          }
+        }
+        tailPositions.add(node);
+        tailPosition(node.getLastChild().getChild(0));
+      }
+      case XQ.PipeExpr -> {
+        AST op = node.getChild(0);
+        if (op.getType() == XQ.Start && op.getChildCount() > 0) {
+          op = op.getLastChild();
+        }
+        while (op.getType() == XQ.LetBind) {
+          op = op.getLastChild();
+        }
+        if (op.getType() == XQ.End) {
+          tailPositions.add(node);
+          tailPosition(op.getChild(0));
+        }
+      }
+      default -> {
+      }
+    }
+  }
+
   protected Expr expr(AST node, boolean disallowUpdatingExpr) throws QueryException {
     Expr expr = anyExpr(node);
 
@@ -684,17 +768,24 @@ public class Compiler implements Translator {
 
     Function function = ctx.getFunctions().resolve(name, childCount);
 
+    JsonProjection projection = (JsonProjection) node.getProperty("projection");
+    if ((projection != null) && (function instanceof Doc doc)) {
+      function = doc.project(projection);
+    }
+
     final var signature = function.getSignature();
 
     final List<SequenceType> newParamTypes = new ArrayList<>();
     final var params = signature.getParams();
 
     Expr[] args;
+    SequenceType[] argTypes = null;
 
     final List<Expr> argumentPlaceHolderExprs = new ArrayList<>();
 
     if (childCount > 0) {
       args = new Expr[childCount];
+      argTypes = new SequenceType[childCount];
       for (int i = 0; i < childCount; i++) {
         AST arg = node.getChild(i);
         if (arg.getType() == XQ.ArgumentPlaceHolder) {
@@ -702,6 +793,7 @@ public class Compiler implements Translator {
           newParamTypes.add(params[i]);
         } else {
           args[i] = expr(arg, true);
+          argTypes[i] = typeInference.infer(arg);
         }
       }
     } else if (signature.defaultCtxItemType() != null) {
@@ -712,7 +804,12 @@ public class Compiler implements Translator {
     }
 
     if (argumentPlaceHolderExprs.isEmpty()) {
-      return new FunctionExpr(node.getStaticContext(), function, args);
+      if (function instanceof RegEx regex) {
+        // compile literal patterns only once
+        function = regex.precompile(args);
+      }
+      boolean tailCall = (function instanceof UDF) && !function.isUpdating() && tailPositions.contains(node);
+      return new FunctionExpr(node.getStaticContext(), function, tailCall, argTypes, args);
     } else {
       final UDF udf = new UDF(name, new Signature(signature.getResultType(), newParamTypes.toArray(new SequenceType[0])), function.isUpdating());
       udf.setExpr(function);
@@ -944,6 +1041,17 @@ public class Compiler implements Translator {
    */
   protected Expr pathExpr(AST node) throws QueryException {
     Expr e1 = expr(node.getChild(0), true);
+    if (node.checkProperty("streaming")) {
+      String uri = node.getChild(0).getChild(0).getStringValue();
+      return new StreamingPathExpr(node.getStaticContext(), uri, pathStackPath(node), pathSteps(node, e1));
+    }
+    return pathSteps(node, e1);
+  }
+
+  protected Expr pathSteps(AST node, Expr e1) throws QueryException {
+    if (node.checkProperty("pathStack")) {
+      return new PathStackExpr(e1, pathStackPath(node));
+    }
     for (int i = 1; i < node.getChildCount(); i++) {
       Binding itemBinding = table.bind(Bits.FS_DOT, SequenceType.NODE);
       Binding posBinding = table.bind(Bits.FS_POSITION, SequenceType.INTEGER);
@@ -966,6 +1074,21 @@ public class Compiler implements Translator {
     return e1;
   }
 
+  protected Path<QNm> pathStackPath(AST node) throws QueryException {
+    Path<QNm> path = new Path<>();
+    for (int i = 1; i < node.getChildCount(); i++) {
+      AST step = node.getChild(i);
+      AST test = step.getChild(1).getChild(0);
+      QNm name = (test.getType() == XQ.Wildcard) ? null : (QNm) test.getValue();
+      if (step.getChild(0).getChild(0).getType() == XQ.DESCENDANT) {
+        path.descendant(name);
+      } else {
+        path.child(name);
+      }
+    }
+    return path;
+  }
+
   protected Expr stepExpr(AST node) throws QueryException {
     AST child = node.getChild(0);
     Accessor axis;
@@ -1204,6 +1327,10 @@ public class Compiler implements Translator {
         }
       }
     }
+    if (tailPositions.contains(node)) {
+      // do not hide a tail call in a lazy sequence
+      return subExpr[0];
+    }
     return new SequenceExpr(subExpr);
   }
 
@@ -1212,7 +1339,7 @@ public class Compiler implements Translator {
     final ClauseBinding cb = flowrClause(new ClauseBinding(null, new Start()), node, 0, childCount - 2);
     final Expr returnExpr = expr(node.getChild(childCount - 1).getChild(0), false);
     cb.unbind();
-    final Expr pipeExpr = new PipeExpr(cb.operator, returnExpr);
+    final Expr pipeExpr = new PipeExpr(cb.operator, returnExpr, tailPositions.contains(node));
     return pipeExpr;
   }
 
@@ -100,7 +100,7 @@ public class TopDownTranslator extends Compiler {
       table.unbind();
     }
 
-    return new PipeExpr(root, expr);
+    return new PipeExpr(root, expr, tailPositions.contains(node));
   }
 
   protected Operator anyOp(Operator in, AST node) throws QueryException {
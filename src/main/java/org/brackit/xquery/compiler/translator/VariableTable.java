@@ -105,6 +105,23 @@ public class VariableTable {
     throw new QueryException(ErrorCode.BIT_DYN_RT_ILLEGAL_STATE_ERROR, "Could not resolve variable %s", name);
   }
 
+  /**
+   * Returns the declared type of a variable, which
+   * is checked on every access of the variable.
+   *
+   * @param name
+   * @return declared type or <code>null</code>
+   */
+  public SequenceType typeOf(QNm name) {
+    for (int i = bLength - 1; i > -1; i--) {
+      if (bTable[bTableCounts][i].name.equals(name)) {
+        return bTable[bTableCounts][i].type;
+      }
+    }
+    Variable varRef = module.getVariables().resolve(name);
+    return (varRef != null) ? varRef.getType() : null;
+  }
+
   public Binding bind(QNm name, SequenceType type) {
     if (log.isTraceEnabled()) {
       log.trace(String.format("Binding %s", name));
@@ -170,12 +170,6 @@ public final class ArrayAccessExpr implements Expr {
           @Override
           public void close() {
           }
-
-          @Override
-          public Split split(int min, int max) throws QueryException {
-            // TODO Auto-generated method stub
-            return null;
-          }
         };
       }
     };
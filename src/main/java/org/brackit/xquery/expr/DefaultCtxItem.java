@@ -52,7 +52,6 @@ public class DefaultCtxItem extends Variable implements Unit {
   private Expr expr;
   private ItemType type = AnyItemType.ANY;
   private boolean external = true;
-  private Item item;
 
   public DefaultCtxItem() {
     super(Bits.FS_DOT);
@@ -78,8 +77,11 @@ public class DefaultCtxItem extends Variable implements Unit {
 
   @Override
   public Item evaluateToItem(QueryContext ctx, Tuple tuple) {
-    if (item != null) {
-      return item;
+    // the item is kept in the query context and not here,
+    // because a compiled module may be evaluated repeatedly
+    Sequence bound = ctx.resolve(name);
+    if (bound != null) {
+      return (Item) bound;
     }
     Item i = null;
     if (external) {
@@ -93,7 +95,8 @@ public class DefaultCtxItem extends Variable implements Unit {
                                "Dynamic context variable %s is not assigned a value",
                                name);
     }
-    item = TypedSequence.toTypedItem(new SequenceType(type, Cardinality.One), i);
-    return i;
+    Item item = TypedSequence.toTypedItem(new SequenceType(type, Cardinality.One), i);
+    ctx.bind(name, item);
+    return item;
   }
-}
\ No newline at end of file
+}
@@ -171,12 +171,6 @@ public class DerefDescendantExpr implements Expr {
           @Override
           public void close() {
           }
-
-          @Override
-          public Split split(int min, int max) throws QueryException {
-            // TODO Auto-generated method stub
-            return null;
-          }
         };
       }
     };
@@ -27,10 +27,14 @@
  */
 package org.brackit.xquery.expr;
 
+import java.lang.ref.WeakReference;
+
 import org.brackit.xquery.QueryContext;
 import org.brackit.xquery.QueryException;
 import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Bool;
 import org.brackit.xquery.util.Cmp;
+import org.brackit.xquery.util.GCmpIndex;
 import org.brackit.xquery.xdm.Expr;
 import org.brackit.xquery.xdm.Item;
 import org.brackit.xquery.xdm.Sequence;
@@ -39,6 +43,41 @@ import org.brackit.xquery.xdm.Sequence;
  * @author Sebastian Baechle
  */
 public class GCmpExpr extends VCmpExpr {
+  /**
+   * Number of evaluations in a row with new operands after which we stop
+   * looking for a repeated operand to index.
+   */
+  private static final int MAX_MISSES = 8;
+
+  private static final class Operands {
+    // only non-item operands are tracked because single items are never indexed
+    final WeakReference<Sequence> left;
+    final WeakReference<Sequence> right;
+    final GCmpIndex index;
+    final boolean indexesLeft;
+    final int misses;
+
+    Operands(WeakReference<Sequence> left, WeakReference<Sequence> right, GCmpIndex index, boolean indexesLeft,
+        int misses) {
+      this.left = left;
+      this.right = right;
+      this.index = index;
+      this.indexesLeft = indexesLeft;
+      this.misses = misses;
+    }
+
+    boolean isLeft(Sequence s) {
+      return (left != null) && (left.get() == s);
+    }
+
+    boolean isRight(Sequence s) {
+      return (right != null) && (right.get() == s);
+    }
+  }
+
+  // operands of the previous evaluation
+  private volatile Operands operands;
+
   public GCmpExpr(Cmp cmp, Expr leftExpr, Expr rightExpr) {
     super(cmp, leftExpr, rightExpr);
   }
@@ -48,9 +87,53 @@ public class GCmpExpr extends VCmpExpr {
     // Begin evaluate operands 3.5.2
     Sequence left = leftExpr.evaluate(ctx, tuple);
     Sequence right = rightExpr.evaluate(ctx, tuple);
+    if ((left == null) || (right == null)) {
+      return null;
+    }
+    if ((left instanceof Item) && (right instanceof Item)) {
+      return cmp.gCmpAsBool(ctx, left, right);
+    }
+    Operands o = index(left, right);
+    if (o != null) {
+      return o.index.probe(ctx, o.indexesLeft ? right : left) ? Bool.TRUE : Bool.FALSE;
+    }
     return cmp.gCmpAsBool(ctx, left, right);
   }
 
+  private Operands index(Sequence left, Sequence right) throws QueryException {
+    // one operand is often the same sequence in each evaluation,
+    // e.g., [@id = $ids], so we index it when we see it the
+    // second time in a row
+    Operands o = operands;
+    int misses = 0;
+    if (o != null) {
+      if (o.index != null) {
+        if (o.indexesLeft ? o.isLeft(left) : o.isRight(right)) {
+          return o;
+        }
+      } else if (o.isRight(right)) {
+        o = new Operands(null, o.right, new GCmpIndex(cmp, right), false, 0);
+        operands = o;
+        return o;
+      } else if (o.isLeft(left)) {
+        o = new Operands(o.left, null, new GCmpIndex(cmp.swap(), left), true, 0);
+        operands = o;
+        return o;
+      } else if (o.misses == MAX_MISSES) {
+        // operands change in every evaluation, stop tracking them
+        return null;
+      } else {
+        misses = o.misses + 1;
+      }
+    }
+    operands = new Operands((left instanceof Item) ? null : new WeakReference<>(left),
+                            (right instanceof Item) ? null : new WeakReference<>(right),
+                            null,
+                            false,
+                            misses);
+    return null;
+  }
+
   public String toString() {
     return leftExpr + " " + toGcmpString(cmp) + " " + rightExpr;
   }
@@ -0,0 +1,235 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.expr;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.node.PathStackStream;
+import org.brackit.xquery.node.stream.DocumentOrderMergeStream;
+import org.brackit.xquery.sequence.BaseIter;
+import org.brackit.xquery.sequence.LazySequence;
+import org.brackit.xquery.sequence.SortedNodeSequence;
+import org.brackit.xquery.util.ExprUtil;
+import org.brackit.xquery.util.path.Path;
+import org.brackit.xquery.util.path.Path.Step;
+import org.brackit.xquery.xdm.Axis;
+import org.brackit.xquery.xdm.Expr;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.node.Node;
+import org.brackit.xquery.xdm.type.ElementType;
+
+/**
+ * <p>
+ * Evaluates a path of child and descendant element steps
+ * E/descendant::a//b/c in a single scan of the subtree of the context node with
+ * a {@link PathStackStream} instead of step by step with {@link PathStepExpr}.
+ * </p>
+ * <p>
+ * The result of a single context node is already in document order and free
+ * of duplicates. Only if E yields several context nodes, the results must be
+ * sorted and deduplicated.
+ * </p>
+ */
+public class PathStackExpr implements Expr {
+  private static final Comparator<Tuple> cmp = (o1, o2) -> ((Node<?>) o1).cmp((Node<?>) o2);
+
+  final Expr in;
+  final Path<QNm> path;
+
+  public PathStackExpr(Expr in, Path<QNm> path) {
+    this.in = in;
+    this.path = path;
+  }
+
+  @Override
+  public Sequence evaluate(QueryContext ctx, Tuple t) {
+    Sequence s = in.evaluate(ctx, t);
+    if (s == null) {
+      return null;
+    }
+    if (s instanceof Item) {
+      return new PathStackSequence(node((Item) s));
+    }
+    return new SortedNodeSequence(cmp, new ContextSequence(s), true);
+  }
+
+  private static Node<?> node(Item item) {
+    if (!(item instanceof Node<?>)) {
+      throw new QueryException(ErrorCode.ERR_PATH_STEP_RETURNED_NON_NODE_VALUE,
+          "Intermediate step in path expression returned a non-node: %s",
+          item.itemType());
+    }
+    return (Node<?>) item;
+  }
+
+  /**
+   * Returns only the elements named in the path, if the node supports the
+   * pushdown of descendant steps, e.g., through an element index. Otherwise,
+   * the whole subtree must be scanned.
+   */
+  private Stream<? extends Node<?>> input(Node<?> node) {
+    Set<QNm> names = new LinkedHashSet<>();
+    for (Step<QNm> step : path.steps()) {
+      if (step.getValue() == null) {
+        return node.getSubtree();
+      }
+      names.add(step.getValue());
+    }
+    List<Stream<? extends Node<?>>> in = new ArrayList<>(names.size());
+    for (QNm name : names) {
+      Stream<? extends Node<?>> s = node.performStep(Axis.DESCENDANT, new ElementType(name));
+      if (s == null) {
+        for (Stream<? extends Node<?>> open : in) {
+          open.close();
+        }
+        return node.getSubtree();
+      }
+      in.add(s);
+    }
+    return (in.size() == 1) ? in.get(0) : new DocumentOrderMergeStream<Node<?>>(in);
+  }
+
+  private class PathStackSequence extends LazySequence {
+    final Node<?> node;
+
+    PathStackSequence(Node<?> node) {
+      this.node = node;
+    }
+
+    @Override
+    public Iter iterate() {
+      return new PathStackIter(node);
+    }
+  }
+
+  private class PathStackIter extends BaseIter {
+    final Node<?> node;
+    Stream<Node<?>> s;
+
+    PathStackIter(Node<?> node) {
+      this.node = node;
+    }
+
+    @Override
+    public Item next() {
+      if (s == null) {
+        s = new PathStackStream.Default(node, input(node), path);
+      }
+      return s.next();
+    }
+
+    @Override
+    public void close() {
+      if (s != null) {
+        s.close();
+      }
+    }
+  }
+
+  /**
+   * Concatenation of the path results for several context nodes.
+   */
+  private class ContextSequence extends LazySequence {
+    final Sequence context;
+
+    ContextSequence(Sequence context) {
+      this.context = context;
+    }
+
+    @Override
+    public Iter iterate() {
+      return new BaseIter() {
+        Iter it;
+        Iter out;
+
+        @Override
+        public Item next() {
+          if (it == null) {
+            it = context.iterate();
+          }
+          while (true) {
+            if (out != null) {
+              Item next = out.next();
+              if (next != null) {
+                return next;
+              }
+              out.close();
+              out = null;
+            }
+            Item item = it.next();
+            if (item == null) {
+              return null;
+            }
+            out = new PathStackIter(node(item));
+          }
+        }
+
+        @Override
+        public void close() {
+          if (it != null) {
+            it.close();
+          }
+          if (out != null) {
+            out.close();
+          }
+        }
+      };
+    }
+  }
+
+  @Override
+  public Item evaluateToItem(QueryContext ctx, Tuple tuple) {
+    return ExprUtil.asItem(evaluate(ctx, tuple));
+  }
+
+  @Override
+  public boolean isUpdating() {
+    return in.isUpdating();
+  }
+
+  @Override
+  public boolean isVacuous() {
+    return false;
+  }
+
+  public String toString() {
+    return in + path.toString();
+  }
+}
@@ -225,12 +225,6 @@ public class PathStepExpr implements Expr {
         out.close();
       }
     }
-
-    @Override
-    public Split split(int min, int max) throws QueryException {
-      // TODO Auto-generated method stub
-      return null;
-    }
   }
 
   private class SequenceContextPathStepIter extends BaseIter {
@@ -307,12 +301,6 @@ public class PathStepExpr implements Expr {
         out.close();
       }
     }
-
-    @Override
-    public Split split(int min, int max) throws QueryException {
-      // TODO Auto-generated method stub
-      return null;
-    }
   }
 
   @Override
@@ -0,0 +1,366 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.expr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.Cleaner;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.function.fn.Doc;
+import org.brackit.xquery.module.StaticContext;
+import org.brackit.xquery.node.parser.DocumentParser;
+import org.brackit.xquery.node.parser.PathFilter;
+import org.brackit.xquery.node.parser.SubtreeParser;
+import org.brackit.xquery.sequence.BaseIter;
+import org.brackit.xquery.sequence.ItemSequence;
+import org.brackit.xquery.sequence.LazySequence;
+import org.brackit.xquery.util.Cfg;
+import org.brackit.xquery.util.ExprUtil;
+import org.brackit.xquery.util.path.Path;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Expr;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.node.Node;
+import org.brackit.xquery.xdm.node.NodeFactory;
+import org.xml.sax.InputSource;
+
+/**
+ * <p>
+ * Evaluates a path fn:doc("uri")/a//b/c of child and descendant element steps
+ * while the document is parsed, with a {@link PathFilter}. Only the subtrees
+ * of the matched elements are built, so that documents of arbitrary size can
+ * be filtered in a small heap.
+ * </p>
+ * <p>
+ * The document is parsed in a separate daemon thread, which stays at most
+ * {@link #BUFFER_SIZE} results ahead of the consumer. The thread stops parsing
+ * when the iterator is closed or becomes unreachable. The result nodes are
+ * roots of separate fragments. If the document is not a local file, e.g.,
+ * because it is the name of a stored collection or a remote resource, the path
+ * is evaluated conventionally.
+ * </p>
+ * <p>
+ * The results of a complete iteration are kept for further iterations of the
+ * result sequence if there are at most {@link #CACHE_SIZE} of them. Otherwise,
+ * each iteration parses the document again.
+ * </p>
+ */
+public class StreamingPathExpr implements Expr {
+  public static int BUFFER_SIZE = 256;
+
+  /**
+   * Max. number of results kept for repeated iterations.
+   */
+  public static int CACHE_SIZE = Cfg.asInt("org.brackit.xquery.streaming.cacheSize", 4096);
+
+  private static final Object END = new Object();
+
+  private static final Cleaner CLEANER = Cleaner.create();
+
+  // max. time in ms the producer waits for the consumer before it checks
+  // whether the iteration was canceled
+  private static final long PUT_TIMEOUT = 100;
+
+  final StaticContext sctx;
+  final String uri;
+  final Path<QNm> path;
+  final Expr fallback;
+
+  public StreamingPathExpr(StaticContext sctx, String uri, Path<QNm> path, Expr fallback) {
+    this.sctx = sctx;
+    this.uri = uri;
+    this.path = path;
+    this.fallback = fallback;
+  }
+
+  @Override
+  public Sequence evaluate(QueryContext ctx, Tuple tuple) {
+    return new StreamingSequence(ctx, tuple);
+  }
+
+  private final class StreamingSequence extends LazySequence {
+    final QueryContext ctx;
+    final Tuple tuple;
+    // results of a complete iteration
+    volatile Item[] results;
+
+    StreamingSequence(QueryContext ctx, Tuple tuple) {
+      this.ctx = ctx;
+      this.tuple = tuple;
+    }
+
+    @Override
+    public Iter iterate() {
+      Item[] items = results;
+      if (items != null) {
+        return new ItemSequence(items).iterate();
+      }
+      SubtreeParser parser = open();
+      if (parser != null) {
+        return new StreamingIter(this, ctx.getNodeFactory(), parser);
+      }
+      Sequence s = fallback.evaluate(ctx, tuple);
+      return (s != null) ? s.iterate() : new BaseIter() {
+        @Override
+        public Item next() {
+          return null;
+        }
+
+        @Override
+        public void close() {
+        }
+      };
+    }
+  }
+
+  /**
+   * Returns a parser for the document or <code>null</code> if it is not a
+   * local file.
+   */
+  private SubtreeParser open() {
+    File file;
+    try {
+      file = file(Doc.resolve(sctx, uri).stringValue());
+    } catch (QueryException e) {
+      return null;
+    }
+    if ((file == null) || (!file.isFile())) {
+      return null;
+    }
+    if (file.length() < Integer.MAX_VALUE) {
+      try {
+        return new DocumentParser(file);
+      } catch (FileNotFoundException e) {
+        return null;
+      }
+    }
+    // documents too large to be mapped are parsed with SAX
+    return handler -> {
+      try (InputStream in = new FileInputStream(file)) {
+        new DocumentParser(new InputSource(in)).parse(handler);
+      } catch (IOException e) {
+        throw new DocumentException(e, "Error reading %s", file);
+      }
+    };
+  }
+
+  private static File file(String uri) {
+    try {
+      URI u = new URI(uri);
+      String scheme = u.getScheme();
+      if ((scheme != null) && (!scheme.equals("file"))) {
+        return null;
+      }
+      String path = u.getSchemeSpecificPart();
+      if (path.startsWith("//")) {
+        path = path.substring(1);
+      }
+      return new File(path);
+    } catch (URISyntaxException e) {
+      return new File(uri);
+    }
+  }
+
+  /**
+   * State shared by an iterator and its producer. The producer must not
+   * reference the iterator, so that an unreachable iterator cancels it.
+   */
+  private static final class Channel implements Runnable {
+    final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(BUFFER_SIZE);
+    volatile boolean canceled;
+
+    @Override
+    public void run() {
+      canceled = true;
+    }
+
+    void put(Object o) throws DocumentException {
+      try {
+        while (!queue.offer(o, PUT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+          checkCanceled();
+        }
+      } catch (InterruptedException e) {
+        throw new DocumentException(e, "Streaming evaluation canceled");
+      }
+    }
+
+    void checkCanceled() throws DocumentException {
+      if (canceled) {
+        throw new DocumentException("Streaming evaluation canceled");
+      }
+    }
+  }
+
+  private static final class Producer implements Runnable {
+    final Channel channel;
+    final NodeFactory<?> factory;
+    final SubtreeParser parser;
+    final Path<QNm> path;
+
+    Producer(Channel channel, NodeFactory<?> factory, SubtreeParser parser, Path<QNm> path) {
+      this.channel = channel;
+      this.factory = factory;
+      this.parser = parser;
+      this.path = path;
+    }
+
+    @Override
+    public void run() {
+      Object last = END;
+      try {
+        parser.parse(new PathFilter(factory, path) {
+          @Override
+          public void startElement(QNm name) throws DocumentException {
+            // stop parsing promptly after the iteration was canceled
+            channel.checkCanceled();
+            super.startElement(name);
+          }
+
+          @Override
+          protected void output(Node<?> node) throws DocumentException {
+            channel.put(node);
+          }
+        });
+      } catch (Throwable e) {
+        last = e;
+      }
+      try {
+        channel.put(last);
+      } catch (DocumentException ignored) {
+        // consumer is gone
+      }
+    }
+  }
+
+  private class StreamingIter extends BaseIter {
+    final StreamingSequence sequence;
+    final Channel channel = new Channel();
+    final Cleaner.Cleanable cleanable;
+    final NodeFactory<?> factory;
+    final SubtreeParser parser;
+    Thread producer;
+    List<Item> results = new ArrayList<>();
+    boolean done;
+
+    StreamingIter(StreamingSequence sequence, NodeFactory<?> factory, SubtreeParser parser) {
+      this.sequence = sequence;
+      this.factory = factory;
+      this.parser = parser;
+      this.cleanable = CLEANER.register(this, channel);
+    }
+
+    @Override
+    public Item next() {
+      if (done) {
+        return null;
+      }
+      if (producer == null) {
+        producer = new Thread(new Producer(channel, factory, parser, path), "streaming-path");
+        producer.setDaemon(true);
+        producer.start();
+      }
+      Object next;
+      try {
+        next = channel.queue.take();
+      } catch (InterruptedException e) {
+        close();
+        throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR, "Streaming evaluation interrupted");
+      }
+      if (next == END) {
+        done = true;
+        if (results != null) {
+          sequence.results = results.toArray(new Item[0]);
+          results = null;
+        }
+        cleanable.clean();
+        return null;
+      }
+      if (next instanceof Throwable) {
+        close();
+        if (next instanceof QueryException) {
+          throw (QueryException) next;
+        }
+        throw new QueryException((Throwable) next, ErrorCode.BIT_DYN_INT_ERROR);
+      }
+      if (results != null) {
+        if (results.size() < CACHE_SIZE) {
+          results.add((Item) next);
+        } else {
+          results = null;
+        }
+      }
+      return (Item) next;
+    }
+
+    @Override
+    public void close() {
+      done = true;
+      results = null;
+      cleanable.clean();
+      if (producer != null) {
+        producer.interrupt();
+      }
+    }
+  }
+
+  @Override
+  public Item evaluateToItem(QueryContext ctx, Tuple tuple) {
+    return ExprUtil.asItem(evaluate(ctx, tuple));
+  }
+
+  @Override
+  public boolean isUpdating() {
+    return false;
+  }
+
+  @Override
+  public boolean isVacuous() {
+    return false;
+  }
+
+  public String toString() {
+    return "fn:doc(\"" + uri + "\")" + path;
+  }
+}
@@ -156,11 +156,11 @@ public class DynamicFunctionExpr implements Expr {
           if (sType.getCardinality().many()) {
             args[pos + i] = arguments[i].evaluate(ctx, tuple);
             if (!(sType.getItemType().isAnyItem())) {
-              args[pos + i] = FunctionConversionSequence.asTypedSequence(sType, args[i], false);
+              args[pos + i] = FunctionConversionSequence.asTypedSequence(sType, args[pos + i], false);
             }
           } else {
-            args[pos + i] = arguments[i].evaluateToItem(ctx, tuple);
-            args[pos + i] = FunctionConversionSequence.asTypedSequence(sType, args[i], false);
+            args[pos + i] = arguments[i].evaluate(ctx, tuple);
+            args[pos + i] = FunctionConversionSequence.asTypedSequence(sType, args[pos + i], false);
           }
         }
       }
@@ -48,11 +48,29 @@ public class FunctionExpr implements Expr {
   private final Expr[] exprs;
   private final boolean builtin;
   private final SequenceType dftCtxType;
+  private final boolean tailCall;
+  // arguments that are statically known
+  // to match the parameter type
+  private final boolean[] typed;
 
   public FunctionExpr(StaticContext sctx, Function function, Expr... exprs) throws QueryException {
+    this(sctx, function, false, null, exprs);
+  }
+
+  public FunctionExpr(StaticContext sctx, Function function, boolean tailCall, SequenceType[] argTypes, Expr... exprs)
+      throws QueryException {
     this.sctx = sctx;
     this.function = function;
     this.exprs = exprs;
+    this.tailCall = tailCall;
+    this.typed = new boolean[exprs.length];
+    if (argTypes != null) {
+      SequenceType[] params = function.getSignature().getParams();
+      for (int i = 0; (i < exprs.length) && (params.length > 0); i++) {
+        SequenceType sType = (i < params.length) ? params[i] : params[params.length - 1];
+        typed[i] = (argTypes[i] != null) && (argTypes[i].subtypeOf(sType));
+      }
+    }
     this.builtin = function.isBuiltIn();
     ItemType dftCtxItemType = function.getSignature().defaultCtxItemType();
     if (dftCtxItemType != null) {
@@ -68,6 +86,10 @@ public class FunctionExpr implements Expr {
 
   @Override
   public Sequence evaluate(QueryContext ctx, Tuple tuple) throws QueryException {
+    return evaluate(ctx, tuple, tailCall);
+  }
+
+  private Sequence evaluate(QueryContext ctx, Tuple tuple, boolean tailCall) throws QueryException {
     Sequence res;
     Sequence[] args;
 
@@ -83,16 +105,27 @@ public class FunctionExpr implements Expr {
         SequenceType sType = (i < params.length) ? params[i] : params[params.length - 1];
         if (sType.getCardinality().many()) {
           args[i] = exprs[i].evaluate(ctx, tuple);
-          if (!(sType.getItemType().isAnyItem())) {
+          if ((!typed[i]) && (!(sType.getItemType().isAnyItem()))) {
             args[i] = FunctionConversionSequence.asTypedSequence(sType, args[i], builtin);
           }
         } else {
-          args[i] = exprs[i].evaluateToItem(ctx, tuple);
-          args[i] = FunctionConversionSequence.asTypedSequence(sType, args[i], builtin);
+          // evaluate the argument as sequence to detect
+          // sequences of more than one item
+          args[i] = exprs[i].evaluate(ctx, tuple);
+          if (!typed[i]) {
+            args[i] = FunctionConversionSequence.asTypedSequence(sType, args[i], builtin);
+          } else {
+            args[i] = ExprUtil.asItem(args[i]);
+          }
         }
       }
     }
 
+    if (tailCall) {
+      // defer the call to the enclosing UDF
+      return new TailCall(ctx, (UDF) function, args);
+    }
+
     try {
       res = function.execute(sctx, ctx, args);
     } catch (StackOverflowError e) {
@@ -104,14 +137,16 @@ public class FunctionExpr implements Expr {
     if (function.isBuiltIn()) {
       return res;
     }
-    res = FunctionConversionSequence.asTypedSequence(function.getSignature().getResultType(), res, builtin);
+    if ((!(function instanceof UDF udf)) || (!udf.isResultTyped())) {
+      res = FunctionConversionSequence.asTypedSequence(function.getSignature().getResultType(), res, builtin);
+    }
 
     return ExprUtil.materialize(res);
   }
 
   @Override
   public Item evaluateToItem(QueryContext ctx, Tuple tuple) throws QueryException {
-    return ExprUtil.asItem(evaluate(ctx, tuple));
+    return ExprUtil.asItem(evaluate(ctx, tuple, false));
   }
 
   @Override
@@ -0,0 +1,90 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.function;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.sequence.FunctionConversionSequence;
+import org.brackit.xquery.sequence.LazySequence;
+import org.brackit.xquery.util.ExprUtil;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.type.SequenceType;
+
+/**
+ * Pending call of a user-defined function in tail position. Tail calls are
+ * returned to the calling {@link UDF}, which resolves them in a loop instead
+ * of nesting a new Java stack frame for every recursion step.
+ */
+final class TailCall extends LazySequence {
+  private final QueryContext ctx;
+  private final UDF function;
+  private final Sequence[] args;
+  private volatile Sequence result;
+
+  TailCall(QueryContext ctx, UDF function, Sequence[] args) {
+    this.ctx = ctx;
+    this.function = function;
+    this.args = args;
+  }
+
+  Sequence resolve() throws QueryException {
+    Sequence res = result; // volatile read
+    if (res != null) {
+      return res;
+    }
+    // result types of all functions in the chain;
+    // each one is applied only once because the
+    // function conversion rules are idempotent
+    List<SequenceType> types = new ArrayList<>(1);
+    TailCall call = this;
+    while (true) {
+      SequenceType type = call.function.getSignature().getResultType();
+      if ((!call.function.isResultTyped()) && (!types.contains(type))) {
+        types.add(type);
+      }
+      res = call.function.invoke(ctx, call.args);
+      if (!(res instanceof TailCall next)) {
+        break;
+      }
+      call = next;
+    }
+    for (int i = types.size() - 1; i >= 0; i--) {
+      res = FunctionConversionSequence.asTypedSequence(types.get(i), res, false);
+    }
+    return (result = ExprUtil.materialize(res));
+  }
+
+  @Override
+  public Iter iterate() {
+    return resolve().iterate();
+  }
+}
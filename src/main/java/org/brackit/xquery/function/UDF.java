@@ -27,13 +27,21 @@
  */
 package org.brackit.xquery.function;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.brackit.xquery.QueryContext;
 import org.brackit.xquery.QueryException;
 import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Atomic;
 import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.compiler.Unit;
 import org.brackit.xquery.module.StaticContext;
 import org.brackit.xquery.operator.TupleImpl;
+import org.brackit.xquery.sequence.FunctionConversionSequence;
+import org.brackit.xquery.util.Cfg;
+import org.brackit.xquery.util.ExprUtil;
 import org.brackit.xquery.xdm.Expr;
 import org.brackit.xquery.xdm.Sequence;
 import org.brackit.xquery.xdm.Signature;
@@ -42,7 +50,11 @@ import org.brackit.xquery.xdm.Signature;
  * @author Sebastian Baechle
  */
 public class UDF extends AbstractFunction implements Unit {
+  public static int MEMO_CACHE_SIZE = Cfg.asInt("org.brackit.xquery.memoCacheSize", 1024);
+
   private Expr body;
+  private boolean memoize;
+  private boolean resultTyped;
 
   public UDF(QNm name, Signature signature, boolean updating) {
     super(name, signature, false, updating);
@@ -53,10 +65,132 @@ public class UDF extends AbstractFunction implements Unit {
     this.body = body;
   }
 
+  /**
+   * Enables caching of results for calls with atomic arguments.
+   * Only valid for functions, which are guaranteed to return the
+   * same result for the same arguments within a query.
+   */
+  public void setMemoize(boolean memoize) {
+    this.memoize = memoize;
+  }
+
+  public boolean isMemoized() {
+    return memoize;
+  }
+
+  /**
+   * Marks the body as statically known to yield
+   * results of the declared result type, which
+   * makes checks of results redundant.
+   */
+  public void setResultTyped(boolean resultTyped) {
+    this.resultTyped = resultTyped;
+  }
+
+  public boolean isResultTyped() {
+    return resultTyped;
+  }
+
   @Override
   public Sequence execute(StaticContext sctx, QueryContext ctx, Sequence[] args) throws QueryException {
+    Key key = (memoize) ? Key.of(args) : null;
+    if (key == null) {
+      return call(ctx, args);
+    }
+    // results are cached per query context because
+    // declared variables are bound per context
+    Memo m = ctx.getMemo(this);
+    if (m == null) {
+      return call(ctx, args);
+    }
+    Sequence res;
+    synchronized (m) {
+      res = m.get(key);
+      if ((res != null) || (m.containsKey(key))) {
+        return res;
+      }
+    }
+    res = call(ctx, args);
+    if (!resultTyped) {
+      res = FunctionConversionSequence.asTypedSequence(getSignature().getResultType(), res, false);
+    }
+    res = ExprUtil.materialize(res);
+    synchronized (m) {
+      m.put(key, res);
+    }
+    return res;
+  }
+
+  private Sequence call(QueryContext ctx, Sequence[] args) throws QueryException {
+    Sequence res = invoke(ctx, args);
+    return (res instanceof TailCall tailCall) ? tailCall.resolve() : res;
+  }
+
+  Sequence invoke(QueryContext ctx, Sequence[] args) throws QueryException {
     Tuple tuple = new TupleImpl(args);
     return body.evaluate(ctx, tuple);
   }
 
+  /**
+   * Cached results of a memoized function. Access must be
+   * synchronized on the memo.
+   */
+  public static final class Memo extends LinkedHashMap<Object, Sequence> {
+    private static final long serialVersionUID = 1L;
+
+    public Memo() {
+      super(16, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Object, Sequence> eldest) {
+      return size() > MEMO_CACHE_SIZE;
+    }
+  }
+
+  private static final class Key {
+    private final Atomic[] args;
+    private final int hash;
+
+    private Key(Atomic[] args) {
+      this.args = args;
+      this.hash = Arrays.hashCode(args);
+    }
+
+    static Key of(Sequence[] args) {
+      Atomic[] atomics = new Atomic[args.length];
+      for (int i = 0; i < args.length; i++) {
+        if (args[i] instanceof Atomic atomic) {
+          atomics[i] = atomic;
+        } else if (args[i] != null) {
+          return null;
+        }
+      }
+      return new Key(atomics);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key other) || (other.hash != hash)) {
+        return false;
+      }
+      for (int i = 0; i < args.length; i++) {
+        Atomic a = args[i];
+        Atomic b = other.args[i];
+        // distinguish equal values of different types,
+        // e.g., 1 and 1.0, because they yield different
+        // results in general
+        if ((a == null) ? (b != null) : ((b == null) || (!a.type().equals(b.type())) || (!a.equals(b)))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
 }
@@ -34,11 +34,13 @@ import org.brackit.xquery.QueryContext;
 import org.brackit.xquery.QueryException;
 import org.brackit.xquery.atomic.Atomic;
 import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.block.FJControl;
 import org.brackit.xquery.compiler.Bits;
 import org.brackit.xquery.function.AbstractFunction;
 import org.brackit.xquery.module.StaticContext;
 import org.brackit.xquery.node.parser.DocumentParser;
 import org.brackit.xquery.node.parser.SubtreeParser;
+import org.brackit.xquery.node.parser.SubtreeRecorder;
 import org.brackit.xquery.util.annotation.FunctionAnnotation;
 import org.brackit.xquery.util.io.URIHandler;
 import org.brackit.xquery.xdm.DocumentException;
@@ -115,14 +117,11 @@ public class Load extends AbstractFunction {
       String r = ((Atomic) resources).stringValue();
       coll.add(new DocumentParser(URIHandler.getInputStream(r)));
     } else {
-      ParserStream parsers = new ParserStream(resources);
-      try {
+      try (Stream<SubtreeParser> parsers = FJControl.ingest(new ParserStream(resources), SubtreeRecorder::record)) {
         SubtreeParser parser;
         while ((parser = parsers.next()) != null) {
           coll.add(parser);
         }
-      } finally {
-        parsers.close();
       }
     }
   }
@@ -29,7 +29,6 @@ package org.brackit.xquery.function.bit;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 
 import org.brackit.xquery.QueryContext;
 import org.brackit.xquery.QueryException;
@@ -39,7 +38,7 @@ import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.compiler.Bits;
 import org.brackit.xquery.function.AbstractFunction;
 import org.brackit.xquery.module.StaticContext;
-import org.brackit.xquery.util.serialize.StringSerializer;
+import org.brackit.xquery.util.serialize.ByteSerializer;
 import org.brackit.xquery.xdm.Sequence;
 import org.brackit.xquery.xdm.Signature;
 import org.brackit.xquery.xdm.type.AtomicType;
@@ -77,7 +76,7 @@ public class Silent extends AbstractFunction {
       return Int32.ZERO;
     }
     CountStream out = new CountStream();
-    try (StringSerializer serializer = new StringSerializer(new PrintWriter(out))) {
+    try (ByteSerializer serializer = new ByteSerializer(out)) {
       serializer.serialize(sequence);
     }
     return new Int64(out.count);
@@ -154,7 +154,7 @@ public class Doc extends AbstractFunction {
     }
   }
 
-  static AnyURI resolve(StaticContext sctx, String relStr) throws QueryException {
+  public static AnyURI resolve(StaticContext sctx, String relStr) throws QueryException {
     try {
       AnyURI relative = new AnyURI(relStr);
       return resolve(sctx, null, relative);
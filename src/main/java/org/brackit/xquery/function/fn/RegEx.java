@@ -27,14 +27,18 @@
  */
 package org.brackit.xquery.function.fn;
 
+import java.util.regex.Pattern;
+
 import org.brackit.xquery.QueryContext;
 import org.brackit.xquery.QueryException;
 import org.brackit.xquery.atomic.Atomic;
 import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
 import org.brackit.xquery.function.AbstractFunction;
 import org.brackit.xquery.module.StaticContext;
 import org.brackit.xquery.util.Regex;
 import org.brackit.xquery.util.Regex.Mode;
+import org.brackit.xquery.xdm.Expr;
 import org.brackit.xquery.xdm.Sequence;
 import org.brackit.xquery.xdm.Signature;
 
@@ -54,14 +58,44 @@ public class RegEx extends AbstractFunction {
 
   private Mode mode;
 
+  private final Pattern pattern;
+
   public RegEx(QNm name, Mode mode, Signature signature) {
+    this(name, mode, signature, null);
+  }
+
+  private RegEx(QNm name, Mode mode, Signature signature, Pattern pattern) {
     super(name, signature, true);
     this.mode = mode;
+    this.pattern = pattern;
+  }
+
+  /**
+   * Returns a variant of this function with a pre-compiled pattern if the
+   * pattern and flags arguments are literals. If the literal pattern is
+   * invalid, the error is raised when the function is evaluated.
+   */
+  public RegEx precompile(Expr[] args) {
+    int flagsPos = (mode == Mode.REPLACE) ? 3 : 2;
+    if ((!(args[1] instanceof Str)) || ((args.length > flagsPos) && (!(args[flagsPos] instanceof Str)))) {
+      return this;
+    }
+    String pattern = ((Str) args[1]).stringValue();
+    String flags = (args.length > flagsPos) ? ((Str) args[flagsPos]).stringValue() : null;
+    try {
+      return new RegEx(getName(), mode, getSignature(), Regex.compile(mode, pattern, flags));
+    } catch (QueryException e) {
+      return this;
+    }
   }
 
   @Override
   public Sequence execute(StaticContext sctx, QueryContext ctx, Sequence[] args) throws QueryException {
     String input = (args[0] != null ? ((Atomic) args[0]).stringValue() : "");
+    if (this.pattern != null) {
+      String replacement = (mode == Mode.REPLACE) ? ((Atomic) args[2]).stringValue() : null;
+      return Regex.match(mode, input, this.pattern, replacement);
+    }
     String pattern = ((Atomic) args[1]).stringValue();
     String replacement = (mode == Mode.REPLACE) ? ((Atomic) args[2]).stringValue() : null;
     String flags = (mode == Mode.REPLACE)
@@ -15,6 +15,7 @@ import org.brackit.xquery.xdm.Sequence;
 import org.brackit.xquery.xdm.Signature;
 import org.brackit.xquery.xdm.json.JsonCollection;
 import org.brackit.xquery.xdm.json.JsonItem;
+import org.brackit.xquery.xdm.json.JsonProjection;
 import org.brackit.xquery.xdm.json.TemporalJsonCollection;
 import org.brackit.xquery.xdm.node.Node;
 import org.brackit.xquery.xdm.node.NodeCollection;
@@ -22,10 +23,24 @@ import org.brackit.xquery.xdm.node.TemporalNodeCollection;
 
 public class Doc extends AbstractFunction {
     private final boolean retrieve;
+    private final JsonProjection projection;
 
     public Doc(final QNm name, final boolean retrieve, final Signature signature) {
+        this(name, retrieve, signature, null);
+    }
+
+    private Doc(final QNm name, final boolean retrieve, final Signature signature, final JsonProjection projection) {
         super(name, signature, true);
         this.retrieve = retrieve;
+        this.projection = projection;
+    }
+
+    /**
+     * Returns a variant of this function that loads only the parts of the
+     * document which are covered by the given projection.
+     */
+    public Doc project(final JsonProjection projection) {
+        return new Doc(getName(), retrieve, getSignature(), projection);
     }
 
     @Override
@@ -48,7 +63,9 @@ public class Doc extends AbstractFunction {
                 }
             } else {
                 final AnyURI uri = resolve(sctx, name);
-                final JsonCollection<?> collection = ctx.getJsonItemStore().lookup(uri.stringValue());
+                final JsonCollection<?> collection = (projection != null)
+                        ? ctx.getJsonItemStore().lookup(uri.stringValue(), projection)
+                        : ctx.getJsonItemStore().lookup(uri.stringValue());
                 final long documents = collection.getDocumentCount();
 
                 if (documents == 0) {
@@ -60,6 +60,6 @@ public class JSONParse extends AbstractFunction {
     if (s == null) {
       return null;
     }
-    return new JSONParser(s.stringValue()).parse();
+    return new JSONStreamParser(s.stringValue()).parse();
   }
 }
\ No newline at end of file
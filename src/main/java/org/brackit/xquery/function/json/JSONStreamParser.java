@@ -0,0 +1,655 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.function.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.Bool;
+import org.brackit.xquery.atomic.Dbl;
+import org.brackit.xquery.atomic.Dec;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.Int64;
+import org.brackit.xquery.atomic.Null;
+import org.brackit.xquery.atomic.Numeric;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.jsonitem.array.DArray;
+import org.brackit.xquery.jsonitem.object.ArrayObject;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.json.JsonProjection;
+
+/**
+ * <p>
+ * Streaming pull parser for UTF-8 encoded JSON documents.
+ * </p>
+ * <p>
+ * In contrast to {@link JSONParser}, the input is consumed in chunks directly
+ * from an {@link InputStream} or a {@link ByteBuffer}, i.e., a document never
+ * needs to be materialized as a {@link String}. The parser can either be used
+ * as an event reader via {@link #next()} or it builds the complete item tree
+ * with {@link #parse()}.
+ * </p>
+ * <p>
+ * If a {@link JsonProjection} is given, fields outside of the projection are
+ * skipped on the byte level without creating any items for them.
+ * </p>
+ * <p>
+ * For compatibility with {@link JSONParser}, escape sequences in strings are
+ * kept as they appear in the input.
+ * </p>
+ */
+public class JSONStreamParser {
+
+  public enum Event {
+    START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, FIELD_NAME, STRING, NUMBER, TRUE, FALSE, NULL, END_DOCUMENT
+  }
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // max. number of digits that always fit into a long
+  private static final int MAX_LONG_DIGITS = 18;
+
+  private static final byte ARRAY = 1;
+  private static final byte OBJECT = 2;
+
+  // parser states
+  private static final int VALUE = 0;
+  private static final int FIRST_VALUE = 1;
+  private static final int FIRST_FIELD = 2;
+  private static final int FIELD = 3;
+  private static final int AFTER_VALUE = 4;
+  private static final int DONE = 5;
+
+  private final InputStream in;
+  private final ByteBuffer src;
+  private byte[] buf;
+  private int pos;
+  private int limit;
+  private long offset;
+
+  private byte[] stack = new byte[16];
+  private int depth;
+  private int state = VALUE;
+
+  private boolean skipping;
+  private char[] chars = new char[64];
+  private int len;
+  private Numeric number;
+  private final Map<String, QNm> fieldNames = new HashMap<>();
+
+  public JSONStreamParser(InputStream in) {
+    this.in = in;
+    this.src = null;
+    this.buf = new byte[BUFFER_SIZE];
+  }
+
+  public JSONStreamParser(ByteBuffer src) {
+    this.in = null;
+    if (src.hasArray()) {
+      this.src = null;
+      this.buf = src.array();
+      this.pos = src.arrayOffset() + src.position();
+      this.limit = src.arrayOffset() + src.limit();
+      this.offset = -pos;
+      src.position(src.limit());
+    } else {
+      this.src = src;
+      this.buf = new byte[BUFFER_SIZE];
+    }
+  }
+
+  public JSONStreamParser(byte[] json) {
+    this(ByteBuffer.wrap(json));
+  }
+
+  public JSONStreamParser(String json) {
+    this(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Parses the complete input into a single JSON item.
+   */
+  public Item parse() throws QueryException {
+    return parse(null);
+  }
+
+  /**
+   * Parses the complete input into a single JSON item, but only materializes
+   * the fields of objects that are part of the given projection.
+   */
+  public Item parse(JsonProjection projection) throws QueryException {
+    Event event = next();
+    if (event == Event.END_DOCUMENT) {
+      throw error("No JSON data found");
+    }
+    Item item = value(event, ((projection != null) && projection.isAll()) ? null : projection);
+    next();
+    return item;
+  }
+
+  /**
+   * Skips the next value, e.g., the value of the current field.
+   */
+  public void skip() throws QueryException {
+    skipping = true;
+    try {
+      int level = 0;
+      do {
+        switch (next()) {
+          case START_OBJECT:
+          case START_ARRAY:
+            level++;
+            break;
+          case END_OBJECT:
+          case END_ARRAY:
+            level--;
+            break;
+          case END_DOCUMENT:
+            throw error("JSON value expected");
+          default:
+        }
+      } while (level > 0 || state != AFTER_VALUE);
+    } finally {
+      skipping = false;
+    }
+  }
+
+  /**
+   * Returns the string value of the current {@link Event#STRING} or
+   * {@link Event#FIELD_NAME} event.
+   */
+  public String string() {
+    return new String(chars, 0, len);
+  }
+
+  /**
+   * Returns the value of the current {@link Event#NUMBER} event.
+   */
+  public Numeric number() {
+    return number;
+  }
+
+  /**
+   * Advances to the next event.
+   */
+  public Event next() throws QueryException {
+    int c = skipWS();
+    if (state == AFTER_VALUE) {
+      if (depth == 0) {
+        if (c != -1) {
+          throw error("Unexpected data after JSON value");
+        }
+        state = DONE;
+        return Event.END_DOCUMENT;
+      }
+      byte scope = stack[depth - 1];
+      if (c == ',') {
+        pos++;
+        state = (scope == ARRAY) ? VALUE : FIELD;
+        c = skipWS();
+      } else if (c == ']' && scope == ARRAY) {
+        pos++;
+        depth--;
+        return Event.END_ARRAY;
+      } else if (c == '}' && scope == OBJECT) {
+        pos++;
+        depth--;
+        return Event.END_OBJECT;
+      } else {
+        throw error("Expected ',' or '%s'", (scope == ARRAY) ? "]" : "}");
+      }
+    } else if (state == DONE) {
+      return Event.END_DOCUMENT;
+    } else if (state == FIRST_VALUE && c == ']') {
+      pos++;
+      depth--;
+      state = AFTER_VALUE;
+      return Event.END_ARRAY;
+    } else if (state == FIRST_FIELD && c == '}') {
+      pos++;
+      depth--;
+      state = AFTER_VALUE;
+      return Event.END_OBJECT;
+    }
+
+    if (state == FIELD || state == FIRST_FIELD) {
+      if (c != '"') {
+        throw error("Expected field name");
+      }
+      pos++;
+      scanString();
+      if (skipWS() != ':') {
+        throw error("Expected ':'");
+      }
+      pos++;
+      state = VALUE;
+      return Event.FIELD_NAME;
+    }
+
+    switch (c) {
+      case '{':
+        pos++;
+        push(OBJECT);
+        state = FIRST_FIELD;
+        return Event.START_OBJECT;
+      case '[':
+        pos++;
+        push(ARRAY);
+        state = FIRST_VALUE;
+        return Event.START_ARRAY;
+      case '"':
+        pos++;
+        scanString();
+        state = AFTER_VALUE;
+        return Event.STRING;
+      case 't':
+        scanLiteral("true");
+        state = AFTER_VALUE;
+        return Event.TRUE;
+      case 'f':
+        scanLiteral("false");
+        state = AFTER_VALUE;
+        return Event.FALSE;
+      case 'n':
+        scanLiteral("null");
+        state = AFTER_VALUE;
+        return Event.NULL;
+      case -1:
+        if (depth == 0) {
+          state = DONE;
+          return Event.END_DOCUMENT;
+        }
+        throw error("Unexpected end of JSON input");
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) {
+          scanNumber();
+          state = AFTER_VALUE;
+          return Event.NUMBER;
+        }
+        throw error("JSON value expected");
+    }
+  }
+
+  private Item value(Event event, JsonProjection projection) throws QueryException {
+    switch (event) {
+      case START_OBJECT:
+        return object(projection);
+      case START_ARRAY:
+        return array(projection);
+      case STRING:
+        return new Str(string());
+      case NUMBER:
+        return number;
+      case TRUE:
+        return Bool.TRUE;
+      case FALSE:
+        return Bool.FALSE;
+      case NULL:
+        return new Null();
+      default:
+        throw error("JSON value expected");
+    }
+  }
+
+  private Item array(JsonProjection projection) throws QueryException {
+    List<Sequence> values = new ArrayList<>();
+    Event event;
+    while ((event = next()) != Event.END_ARRAY) {
+      values.add(value(event, projection));
+    }
+    return new DArray(values);
+  }
+
+  private Item object(JsonProjection projection) throws QueryException {
+    List<QNm> fields = new ArrayList<>();
+    List<Sequence> values = new ArrayList<>();
+    while (next() != Event.END_OBJECT) {
+      String name = string();
+      JsonProjection fieldProjection = null;
+      if (projection != null) {
+        fieldProjection = projection.field(name);
+        if (fieldProjection == null) {
+          skip();
+          continue;
+        }
+        fieldProjection = fieldProjection.isAll() ? null : fieldProjection;
+      }
+      fields.add(fieldName(name));
+      values.add(value(next(), fieldProjection));
+    }
+    return new ArrayObject(fields.toArray(new QNm[0]), values.toArray(new Sequence[0]));
+  }
+
+  private QNm fieldName(String name) {
+    QNm field = fieldNames.get(name);
+    if (field == null) {
+      field = new QNm(null, null, name);
+      fieldNames.put(name, field);
+    }
+    return field;
+  }
+
+  private void push(byte scope) {
+    if (depth == stack.length) {
+      stack = Arrays.copyOf(stack, depth * 2);
+    }
+    stack[depth++] = scope;
+  }
+
+  private int skipWS() throws QueryException {
+    while (true) {
+      if (pos == limit && !fill()) {
+        return -1;
+      }
+      int c = buf[pos];
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+        // skip UTF-8 byte order mark at the beginning of the input
+        if (c == (byte) 0xEF && offset + pos == 0) {
+          pos++;
+          if (read() != 0xBB || read() != 0xBF) {
+            throw error("Illegal byte order mark");
+          }
+          continue;
+        }
+        return c & 0xFF;
+      }
+      pos++;
+    }
+  }
+
+  private int read() throws QueryException {
+    if (pos == limit && !fill()) {
+      return -1;
+    }
+    return buf[pos++] & 0xFF;
+  }
+
+  private boolean fill() throws QueryException {
+    offset += limit;
+    pos = 0;
+    limit = 0;
+    try {
+      if (in != null) {
+        int n = in.read(buf, 0, buf.length);
+        if (n > 0) {
+          limit = n;
+        }
+      } else if (src != null && src.hasRemaining()) {
+        int n = Math.min(src.remaining(), buf.length);
+        src.get(buf, 0, n);
+        limit = n;
+      }
+    } catch (IOException e) {
+      throw new QueryException(e, JSONFun.ERR_PARSING_ERROR, "Error reading JSON input: %s", e.getMessage());
+    }
+    return limit > 0;
+  }
+
+  private void scanLiteral(String literal) throws QueryException {
+    for (int i = 0; i < literal.length(); i++) {
+      if (read() != literal.charAt(i)) {
+        throw error("JSON value expected");
+      }
+    }
+  }
+
+  private void append(char c) {
+    if (len == chars.length) {
+      chars = Arrays.copyOf(chars, len * 2);
+    }
+    chars[len++] = c;
+  }
+
+  private void scanString() throws QueryException {
+    len = 0;
+    if (skipping) {
+      skipString();
+      return;
+    }
+    while (true) {
+      // fast path for plain ASCII characters in the current buffer
+      int p = pos;
+      int l = limit;
+      byte[] b = buf;
+      while (p < l) {
+        int c = b[p];
+        if (c < 0x20 || c == '"' || c == '\\') {
+          break;
+        }
+        if (len == chars.length) {
+          chars = Arrays.copyOf(chars, len * 2);
+        }
+        chars[len++] = (char) c;
+        p++;
+      }
+      pos = p;
+      int c = read();
+      if (c == '"') {
+        return;
+      } else if (c == '\\') {
+        escape();
+      } else if (c == -1) {
+        throw error("Unclosed string literal");
+      } else if (c < 0x80) {
+        append((char) c);
+      } else {
+        decode(c);
+      }
+    }
+  }
+
+  private void skipString() throws QueryException {
+    // multi-byte UTF-8 sequences never contain '"' or '\\'
+    while (true) {
+      int p = pos;
+      int l = limit;
+      byte[] b = buf;
+      while (p < l && b[p] != '"' && b[p] != '\\') {
+        p++;
+      }
+      pos = p;
+      int c = read();
+      if (c == '"') {
+        return;
+      } else if (c == '\\') {
+        escape();
+        len = 0;
+      } else if (c == -1) {
+        throw error("Unclosed string literal");
+      }
+    }
+  }
+
+  private void escape() throws QueryException {
+    int c = read();
+    append('\\');
+    switch (c) {
+      case '"':
+      case '\\':
+      case '/':
+      case '\'':
+      case 'b':
+      case 'f':
+      case 'n':
+      case 'r':
+      case 't':
+        append((char) c);
+        break;
+      case 'u':
+        append('u');
+        for (int i = 0; i < 4; i++) {
+          int h = read();
+          if (!((h >= '0' && h <= '9') || (h >= 'a' && h <= 'f') || (h >= 'A' && h <= 'F'))) {
+            throw error("Illegal Unicode character reference");
+          }
+          append((char) h);
+        }
+        break;
+      default:
+        throw error("Illegal escape sequence");
+    }
+  }
+
+  private void decode(int c) throws QueryException {
+    int cp;
+    int n;
+    if ((c & 0xE0) == 0xC0) {
+      cp = c & 0x1F;
+      n = 1;
+    } else if ((c & 0xF0) == 0xE0) {
+      cp = c & 0x0F;
+      n = 2;
+    } else if ((c & 0xF8) == 0xF0) {
+      cp = c & 0x07;
+      n = 3;
+    } else {
+      throw error("Illegal UTF-8 byte sequence");
+    }
+    for (int i = 0; i < n; i++) {
+      int cc = read();
+      if ((cc & 0xC0) != 0x80) {
+        throw error("Illegal UTF-8 byte sequence");
+      }
+      cp = (cp << 6) | (cc & 0x3F);
+    }
+    if (cp < 0x10000) {
+      append((char) cp);
+    } else {
+      append(Character.highSurrogate(cp));
+      append(Character.lowSurrogate(cp));
+    }
+  }
+
+  private void scanNumber() throws QueryException {
+    len = 0;
+    boolean negative = false;
+    long unscaled = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean decimal = false;
+    boolean exponent = false;
+    int c = peek();
+    if (c == '-') {
+      negative = true;
+      append('-');
+      pos++;
+      c = peek();
+    }
+    if (c == '0') {
+      append('0');
+      pos++;
+      c = peek();
+    } else if (c >= '1' && c <= '9') {
+      while (c >= '0' && c <= '9') {
+        append((char) c);
+        unscaled = unscaled * 10 + (c - '0');
+        digits++;
+        pos++;
+        c = peek();
+      }
+    } else {
+      throw error("Illegal number");
+    }
+    if (c == '.') {
+      decimal = true;
+      append('.');
+      pos++;
+      c = peek();
+      if (c < '0' || c > '9') {
+        throw error("Illegal number");
+      }
+      while (c >= '0' && c <= '9') {
+        append((char) c);
+        unscaled = unscaled * 10 + (c - '0');
+        if (unscaled != 0 || digits > 0) {
+          digits++;
+        }
+        scale++;
+        pos++;
+        c = peek();
+      }
+    }
+    if (c == 'e' || c == 'E') {
+      exponent = true;
+      append('e');
+      pos++;
+      c = peek();
+      if (c == '+' || c == '-') {
+        append((char) c);
+        pos++;
+        c = peek();
+      }
+      if (c < '0' || c > '9') {
+        throw error("Illegal number");
+      }
+      while (c >= '0' && c <= '9') {
+        append((char) c);
+        pos++;
+        c = peek();
+      }
+    }
+
+    if (skipping) {
+      number = null;
+    } else if (exponent) {
+      number = new Dbl(Double.parseDouble(string()));
+    } else if (digits > MAX_LONG_DIGITS) {
+      number = decimal ? new Dec(string()) : Int32.parse(string());
+    } else if (decimal) {
+      number = new Dec(BigDecimal.valueOf(negative ? -unscaled : unscaled, scale));
+    } else {
+      long v = negative ? -unscaled : unscaled;
+      number = ((v <= Integer.MAX_VALUE) && (v >= Integer.MIN_VALUE)) ? new Int32((int) v) : new Int64(v);
+    }
+  }
+
+  private int peek() throws QueryException {
+    if (pos == limit && !fill()) {
+      return -1;
+    }
+    return buf[pos] & 0xFF;
+  }
+
+  private QueryException error(String msg, Object... args) {
+    return new QueryException(JSONFun.ERR_PARSING_ERROR,
+                              "%s at offset %s",
+                              String.format(msg, args),
+                              offset + pos);
+  }
+}
@@ -81,12 +81,6 @@ public abstract class AbstractJsonItemCollection<E extends JsonItem> extends Laz
         }
         return docs.next();
       }
-
-      @Override
-      public Split split(int min, int max) throws QueryException {
-        // TODO Auto-generated method stub
-        return null;
-      }
     };
   }
 }
@@ -0,0 +1,172 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2022, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.jsonitem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.brackit.xquery.function.json.JSONStreamParser;
+import org.brackit.xquery.util.io.URIHandler;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.OperationNotSupportedException;
+import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.json.JsonItem;
+
+/**
+ * Collection of a {@link FileJsonStore}. Each document is stored in a
+ * separate file of the collection directory. Documents are memory-mapped
+ * when the collection is opened and decoded on first access.
+ */
+public final class FileJsonCollection extends AbstractJsonItemCollection<JsonItem> {
+
+  static final String SUFFIX = ".jdoc";
+
+  private final Path dir;
+
+  private final List<ByteBuffer> files = new ArrayList<>();
+
+  private final List<JsonItem> docs = new ArrayList<>();
+
+  private int next;
+
+  FileJsonCollection(String name, Path dir) {
+    super(name);
+    this.dir = dir;
+  }
+
+  /**
+   * Opens the stored collection in directory <code>dir</code>.
+   */
+  static FileJsonCollection open(String name, Path dir) throws DocumentException {
+    FileJsonCollection coll = new FileJsonCollection(name, dir);
+    List<Path> paths = new ArrayList<>();
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+      for (Path file : ds) {
+        paths.add(file);
+      }
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error opening collection %s", name);
+    }
+    paths.sort(Comparator.comparingInt(FileJsonCollection::number));
+    for (Path file : paths) {
+      coll.files.add(JsonItemFile.map(file));
+      coll.docs.add(null);
+      coll.next = number(file) + 1;
+    }
+    return coll;
+  }
+
+  private static int number(Path file) {
+    String name = file.getFileName().toString();
+    return Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+  }
+
+  private synchronized JsonItem document(int i) {
+    JsonItem doc = docs.get(i);
+    if (doc == null) {
+      doc = JsonItemFile.read(files.get(i));
+      docs.set(i, doc);
+    }
+    return doc;
+  }
+
+  /**
+   * Stores the given document in a new file of this collection.
+   */
+  public synchronized JsonItem add(JsonItem doc) {
+    Path file = dir.resolve(next++ + SUFFIX);
+    JsonItemFile.write(doc, file);
+    files.add(JsonItemFile.map(file));
+    docs.add(doc);
+    return doc;
+  }
+
+  @Override
+  public JsonItem add(String json) {
+    return add((JsonItem) new JSONStreamParser(json).parse());
+  }
+
+  @Override
+  public JsonItem add(Path file) {
+    try (InputStream in = URIHandler.getInputStream(file.toUri())) {
+      return add((JsonItem) new JSONStreamParser(in).parse());
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error reading %s", file);
+    }
+  }
+
+  @Override
+  public synchronized void delete() throws DocumentException {
+    FileJsonStore.deleteDirectory(dir);
+    files.clear();
+    docs.clear();
+  }
+
+  @Override
+  public void remove(long documentID) {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public JsonItem getDocument() {
+    if (getDocumentCount() == 1) {
+      return document(0);
+    }
+    throw new DocumentException("Illegal access to non-singular collection");
+  }
+
+  @Override
+  public Stream<? extends JsonItem> getDocuments() {
+    return new Stream<JsonItem>() {
+      final int count = (int) getDocumentCount();
+      int pos;
+
+      @Override
+      public JsonItem next() {
+        return (pos < count) ? document(pos++) : null;
+      }
+
+      @Override
+      public void close() {
+        pos = count;
+      }
+    };
+  }
+
+  @Override
+  public synchronized long getDocumentCount() {
+    return files.size();
+  }
+}
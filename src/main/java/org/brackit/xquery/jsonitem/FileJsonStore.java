@@ -0,0 +1,203 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2022, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.jsonitem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.block.FJControl;
+import org.brackit.xquery.function.json.JSONStreamParser;
+import org.brackit.xquery.util.io.URIHandler;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.json.JsonCollection;
+import org.brackit.xquery.xdm.json.JsonItem;
+import org.brackit.xquery.xdm.json.JsonStore;
+
+/**
+ * Persistent store of JSON collections.
+ * <p>
+ * A collection is a directory below the store directory, which holds one
+ * file per document in a binary encoding. Stored collections are
+ * memory-mapped when they are looked up, so that reopening a collection does
+ * not parse the JSON text again. Names of collections and directories are
+ * paths relative to the store directory.
+ * </p>
+ */
+public final class FileJsonStore implements JsonStore {
+
+  private static final String MARKER = ".collection";
+
+  private final Path dir;
+
+  private final Map<String, JsonCollection<?>> docs = new HashMap<>();
+
+  public FileJsonStore(Path dir) {
+    try {
+      this.dir = Files.createDirectories(dir).toAbsolutePath().normalize();
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error creating store directory %s", dir);
+    }
+  }
+
+  private Path path(String name) {
+    try {
+      Path path = dir.resolve(name).normalize();
+      if ((path.equals(dir)) || (!path.startsWith(dir))) {
+        throw new DocumentException("Illegal collection name: %s", name);
+      }
+      return path;
+    } catch (InvalidPathException e) {
+      throw new DocumentException(e, "Illegal collection name: %s", name);
+    }
+  }
+
+  private boolean isStored(Path path) {
+    return Files.exists(path.resolve(MARKER));
+  }
+
+  static void deleteDirectory(Path dir) {
+    try (java.util.stream.Stream<Path> files = Files.walk(dir)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error deleting %s", dir);
+    }
+  }
+
+  @Override
+  public synchronized JsonCollection<?> lookup(String name) {
+    JsonCollection<?> coll = docs.get(name);
+    if (coll != null) {
+      return coll;
+    }
+    Path path = null;
+    try {
+      path = path(name);
+    } catch (DocumentException e) {
+      // not a stored collection
+    }
+    if ((path != null) && (isStored(path))) {
+      coll = FileJsonCollection.open(name, path);
+    } else {
+      // external documents are not persisted
+      try (InputStream in = URIHandler.getInputStream(URI.create(name))) {
+        coll = new SimpleJsonCollection(name, (JsonItem) new JSONStreamParser(in).parse());
+      } catch (IOException | IllegalArgumentException e) {
+        throw new DocumentException(e, "Collection %s not found", name);
+      }
+    }
+    docs.put(name, coll);
+    return coll;
+  }
+
+  @Override
+  public synchronized FileJsonCollection create(String name) {
+    Path path = path(name);
+    docs.remove(name);
+    if (isStored(path)) {
+      deleteDirectory(path);
+    }
+    try {
+      Files.createDirectories(path);
+      Files.createFile(path.resolve(MARKER));
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error creating collection %s", name);
+    }
+    FileJsonCollection coll = new FileJsonCollection(name, path);
+    docs.put(name, coll);
+    return coll;
+  }
+
+  @Override
+  public synchronized JsonCollection<?> create(String name, Path path) {
+    FileJsonCollection coll = create(name);
+    coll.add(path);
+    return coll;
+  }
+
+  @Override
+  public synchronized JsonCollection<?> createFromPaths(String name, Stream<Path> paths) {
+    FileJsonCollection coll = create(name);
+    try (Stream<JsonItem> parsed = FJControl.ingest(paths, SimpleJsonStore::parse)) {
+      JsonItem doc;
+      while ((doc = parsed.next()) != null) {
+        coll.add(doc);
+      }
+    }
+    return coll;
+  }
+
+  @Override
+  public synchronized JsonCollection<?> create(String name, String json) {
+    FileJsonCollection coll = create(name);
+    coll.add(json);
+    return coll;
+  }
+
+  @Override
+  public synchronized JsonCollection<?> createFromJsonStrings(String name, Stream<Str> jsons) {
+    FileJsonCollection coll = create(name);
+    try (Stream<JsonItem> parsed = FJControl.ingest(jsons, SimpleJsonStore::parse)) {
+      JsonItem doc;
+      while ((doc = parsed.next()) != null) {
+        coll.add(doc);
+      }
+    }
+    return coll;
+  }
+
+  @Override
+  public synchronized void drop(String name) {
+    boolean cached = (docs.remove(name) != null);
+    Path path = path(name);
+    if (isStored(path)) {
+      deleteDirectory(path);
+    } else if (!cached) {
+      throw new DocumentException("Collection %s not found", name);
+    }
+  }
+
+  @Override
+  public void makeDir(String path) {
+    try {
+      Files.createDirectories(path(path));
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error creating directory %s", path);
+    }
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2022, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.jsonitem;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.brackit.xquery.atomic.Bool;
+import org.brackit.xquery.atomic.Dbl;
+import org.brackit.xquery.atomic.Dec;
+import org.brackit.xquery.atomic.Flt;
+import org.brackit.xquery.atomic.Int;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.Int64;
+import org.brackit.xquery.atomic.Null;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.atomic.Una;
+import org.brackit.xquery.jsonitem.array.DArray;
+import org.brackit.xquery.jsonitem.object.ArrayObject;
+import org.brackit.xquery.sequence.ItemSequence;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.json.Array;
+import org.brackit.xquery.xdm.json.JsonItem;
+import org.brackit.xquery.xdm.json.Object;
+
+/**
+ * Binary file format of a JSON document. Files are memory-mapped and decoded
+ * without parsing the JSON text again.
+ */
+final class JsonItemFile {
+
+  private static final int MAGIC = 0x42524B4A;
+
+  private static final int VERSION = 1;
+
+  private static final byte EMPTY = 0;
+  private static final byte SEQUENCE = 1;
+  private static final byte OBJECT = 2;
+  private static final byte ARRAY = 3;
+  private static final byte NULL = 4;
+  private static final byte TRUE = 5;
+  private static final byte FALSE = 6;
+  private static final byte INT32 = 7;
+  private static final byte INT64 = 8;
+  private static final byte INT = 9;
+  private static final byte DEC = 10;
+  private static final byte DBL = 11;
+  private static final byte FLT = 12;
+  private static final byte STR = 13;
+  private static final byte UNA = 14;
+
+  private JsonItemFile() {
+  }
+
+  /**
+   * Writes the given document to <code>file</code>.
+   */
+  static void write(JsonItem doc, Path file) throws DocumentException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeItem(out, doc);
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error writing document to %s", file);
+    }
+  }
+
+  private static void writeSequence(DataOutputStream out, Sequence s) throws IOException {
+    if (s == null) {
+      out.writeByte(EMPTY);
+    } else if (s instanceof Item) {
+      writeItem(out, (Item) s);
+    } else {
+      List<Item> items = new ArrayList<>();
+      try (Iter it = s.iterate()) {
+        for (Item item = it.next(); item != null; item = it.next()) {
+          items.add(item);
+        }
+      }
+      out.writeByte(SEQUENCE);
+      out.writeInt(items.size());
+      for (Item item : items) {
+        writeItem(out, item);
+      }
+    }
+  }
+
+  private static void writeItem(DataOutputStream out, Item item) throws IOException {
+    if (item instanceof Object) {
+      Object object = (Object) item;
+      int len = object.len();
+      out.writeByte(OBJECT);
+      out.writeInt(len);
+      for (int i = 0; i < len; i++) {
+        writeString(out, object.name(i).getLocalName());
+        writeSequence(out, object.value(i));
+      }
+      return;
+    }
+    if (item instanceof Array) {
+      Array array = (Array) item;
+      int len = array.len();
+      out.writeByte(ARRAY);
+      out.writeInt(len);
+      for (int i = 0; i < len; i++) {
+        writeSequence(out, array.at(i));
+      }
+      return;
+    }
+    // only exact classes, because subclasses represent derived types
+    Class<?> c = item.getClass();
+    if (item instanceof Null) {
+      out.writeByte(NULL);
+    } else if (c == Bool.class) {
+      out.writeByte(((Bool) item).booleanValue() ? TRUE : FALSE);
+    } else if (c == Int32.class) {
+      out.writeByte(INT32);
+      out.writeInt(((Int32) item).intValue());
+    } else if (c == Int64.class) {
+      out.writeByte(INT64);
+      out.writeLong(((Int64) item).longValue());
+    } else if (c == Int.class) {
+      out.writeByte(INT);
+      writeString(out, ((Int) item).integerValue().toString());
+    } else if (c == Dec.class) {
+      out.writeByte(DEC);
+      writeString(out, ((Dec) item).decimalValue().toString());
+    } else if (c == Dbl.class) {
+      out.writeByte(DBL);
+      out.writeDouble(((Dbl) item).doubleValue());
+    } else if (c == Flt.class) {
+      out.writeByte(FLT);
+      out.writeFloat(((Flt) item).floatValue());
+    } else if (c == Str.class) {
+      out.writeByte(STR);
+      writeString(out, ((Str) item).stringValue());
+    } else if (c == Una.class) {
+      out.writeByte(UNA);
+      writeString(out, ((Una) item).stringValue());
+    } else {
+      throw new DocumentException("Cannot store item of type %s", item.itemType());
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(b.length);
+    out.write(b);
+  }
+
+  /**
+   * Maps the document stored in <code>file</code> into memory.
+   */
+  static ByteBuffer map(Path file) throws DocumentException {
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buffer = ch.map(MapMode.READ_ONLY, 0, ch.size());
+      if ((buffer.remaining() < 8) || (buffer.getInt() != MAGIC)) {
+        throw new DocumentException("%s is not a document file", file);
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new DocumentException("Unsupported version %s of document file %s", version, file);
+      }
+      return buffer.slice();
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error reading document from %s", file);
+    }
+  }
+
+  /**
+   * Decodes a mapped document.
+   */
+  static JsonItem read(ByteBuffer buffer) throws DocumentException {
+    return (JsonItem) readSequence(buffer.duplicate());
+  }
+
+  private static Sequence readSequence(ByteBuffer in) throws DocumentException {
+    byte tag = in.get();
+    switch (tag) {
+      case EMPTY:
+        return null;
+      case SEQUENCE:
+        Item[] items = new Item[in.getInt()];
+        for (int i = 0; i < items.length; i++) {
+          items[i] = (Item) readSequence(in);
+        }
+        return new ItemSequence(items);
+      case OBJECT:
+        QNm[] fields = new QNm[in.getInt()];
+        Sequence[] values = new Sequence[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+          fields[i] = new QNm(readString(in));
+          values[i] = readSequence(in);
+        }
+        return new ArrayObject(fields, values);
+      case ARRAY:
+        int len = in.getInt();
+        List<Sequence> elements = new ArrayList<>(len);
+        for (int i = 0; i < len; i++) {
+          elements.add(readSequence(in));
+        }
+        return new DArray(elements);
+      case NULL:
+        return new Null();
+      case TRUE:
+        return Bool.TRUE;
+      case FALSE:
+        return Bool.FALSE;
+      case INT32:
+        return new Int32(in.getInt());
+      case INT64:
+        return new Int64(in.getLong());
+      case INT:
+        return new Int(new BigDecimal(readString(in)));
+      case DEC:
+        return new Dec(new BigDecimal(readString(in)));
+      case DBL:
+        return new Dbl(in.getDouble());
+      case FLT:
+        return new Flt(in.getFloat());
+      case STR:
+        return new Str(readString(in));
+      case UNA:
+        return new Una(readString(in));
+      default:
+        throw new DocumentException("Illegal document encoding: %s", tag);
+    }
+  }
+
+  private static String readString(ByteBuffer in) {
+    byte[] b = new byte[in.getInt()];
+    in.get(b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+}
@@ -29,7 +29,7 @@
 
 package org.brackit.xquery.jsonitem;
 
-import org.brackit.xquery.function.json.JSONParser;
+import org.brackit.xquery.function.json.JSONStreamParser;
 import org.brackit.xquery.node.stream.ArrayStream;
 import org.brackit.xquery.xdm.DocumentException;
 import org.brackit.xquery.xdm.OperationNotSupportedException;
@@ -85,7 +85,7 @@ public final class SimpleJsonCollection extends AbstractJsonItemCollection<JsonI
 
   @Override
   public JsonItem add(String json) {
-    final var doc = (JsonItem) new JSONParser(json).parse();
+    final var doc = (JsonItem) new JSONStreamParser(json).parse();
     this.docs = Arrays.copyOf(docs, docs.length + 1);
     this.docs[docs.length - 1] = doc;
     return doc;
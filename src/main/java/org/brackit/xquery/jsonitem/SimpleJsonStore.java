@@ -31,38 +31,102 @@
 package org.brackit.xquery.jsonitem;
 
 import org.brackit.xquery.atomic.Str;
-import org.brackit.xquery.function.json.JSONParser;
+import org.brackit.xquery.block.FJControl;
+import org.brackit.xquery.function.json.JSONStreamParser;
+import org.brackit.xquery.util.Cfg;
 import org.brackit.xquery.util.io.URIHandler;
 import org.brackit.xquery.xdm.DocumentException;
 import org.brackit.xquery.xdm.OperationNotSupportedException;
 import org.brackit.xquery.xdm.Stream;
 import org.brackit.xquery.xdm.json.JsonCollection;
 import org.brackit.xquery.xdm.json.JsonItem;
+import org.brackit.xquery.xdm.json.JsonProjection;
 import org.brackit.xquery.xdm.json.JsonStore;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 
 /**
  * @author Johannes Lichtenberger
  */
 public final class SimpleJsonStore implements JsonStore {
+  /**
+   * Max. number of projected collections kept by a store.
+   */
+  public static int PROJECTION_CACHE_SIZE = Cfg.asInt("org.brackit.xquery.json.projectionCacheSize", 16);
+
   private final Map<String, JsonCollection<?>> docs = new HashMap<>();
+  private final Map<Projected, JsonCollection<?>> projectedDocs = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Projected, JsonCollection<?>> eldest) {
+      return size() > PROJECTION_CACHE_SIZE;
+    }
+  };
+
+  private static final class Projected {
+    final String name;
+    final JsonProjection projection;
+
+    Projected(String name, JsonProjection projection) {
+      this.name = name;
+      this.projection = projection;
+    }
+
+    @Override
+    public int hashCode() {
+      return name.hashCode() * 31 + Objects.hashCode(projection);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Projected)) {
+        return false;
+      }
+      Projected other = (Projected) obj;
+      return name.equals(other.name) && Objects.equals(projection, other.projection);
+    }
+  }
+
   @Override
   public JsonCollection<?> lookup(String name) {
     JsonCollection<?> coll = docs.get(name);
     if (coll != null) {
       return coll;
     }
-    try {
-      InputStream in = URIHandler.getInputStream(URI.create(name));
-      coll = create(name, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+    try (InputStream in = URIHandler.getInputStream(URI.create(name))) {
+      JsonItem doc = (JsonItem) new JSONStreamParser(in).parse();
+      coll = new SimpleJsonCollection(name, doc);
+      docs.put(name, coll);
+      return coll;
+    } catch (IOException e) {
+      throw new DocumentException(e, "Collection %s not found", name);
+    }
+  }
+
+  @Override
+  public JsonCollection<?> lookup(String name, JsonProjection projection) {
+    JsonCollection<?> coll = docs.get(name);
+    if (coll != null) {
+      return coll;
+    }
+    // projected collections are only visible to queries with the same projection
+    // and the least recently used ones are evicted
+    Projected key = new Projected(name, projection);
+    coll = projectedDocs.get(key);
+    if (coll != null) {
+      return coll;
+    }
+    try (InputStream in = URIHandler.getInputStream(URI.create(name))) {
+      JsonItem doc = (JsonItem) new JSONStreamParser(in).parse(projection);
+      coll = new SimpleJsonCollection(name, doc);
+      projectedDocs.put(key, coll);
       return coll;
     } catch (IOException e) {
       throw new DocumentException(e, "Collection %s not found", name);
@@ -82,15 +146,10 @@ public final class SimpleJsonStore implements JsonStore {
   @Override
   public JsonCollection<?> createFromPaths(String name, Stream<Path> paths) {
     ArrayList<JsonItem> jsonDocs = new ArrayList<>();
-    try (paths) {
-      Path path;
-      while ((path = paths.next()) != null) {
-        try {
-          InputStream in = URIHandler.getInputStream(path.toUri());
-          jsonDocs.add((JsonItem) new JSONParser(new String(in.readAllBytes(), StandardCharsets.UTF_8)).parse());
-        } catch (IOException e) {
-          throw new DocumentException(e, "Collection %s not found", name);
-        }
+    try (Stream<JsonItem> parsed = FJControl.ingest(paths, SimpleJsonStore::parse)) {
+      JsonItem doc;
+      while ((doc = parsed.next()) != null) {
+        jsonDocs.add(doc);
       }
     }
     var coll = new SimpleJsonCollection(name, jsonDocs.toArray(new JsonItem[0]));
@@ -100,7 +159,7 @@ public final class SimpleJsonStore implements JsonStore {
 
   @Override
   public JsonCollection<?> create(String name, String json) {
-    JsonItem doc = (JsonItem) new JSONParser(json).parse();
+    JsonItem doc = (JsonItem) new JSONStreamParser(json).parse();
     var coll = new SimpleJsonCollection(name, doc);
     docs.put(name, coll);
     return coll;
@@ -109,10 +168,10 @@ public final class SimpleJsonStore implements JsonStore {
   @Override
   public JsonCollection<?> createFromJsonStrings(String name, Stream<Str> jsons) {
     ArrayList<JsonItem> jsonDocs = new ArrayList<>();
-    try (jsons) {
-      Str json;
-      while ((json = jsons.next()) != null) {
-        jsonDocs.add((JsonItem) new JSONParser(json.stringValue()).parse());
+    try (Stream<JsonItem> parsed = FJControl.ingest(jsons, SimpleJsonStore::parse)) {
+      JsonItem doc;
+      while ((doc = parsed.next()) != null) {
+        jsonDocs.add(doc);
       }
     }
     var coll = new SimpleJsonCollection(name, jsonDocs.toArray(new JsonItem[0]));
@@ -120,9 +179,25 @@ public final class SimpleJsonStore implements JsonStore {
     return coll;
   }
 
+  /**
+   * Parses a document of a bulk load. Documents are parsed concurrently.
+   */
+  static JsonItem parse(Path path) {
+    try (InputStream in = URIHandler.getInputStream(path.toUri())) {
+      return (JsonItem) new JSONStreamParser(in).parse();
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error reading %s", path);
+    }
+  }
+
+  static JsonItem parse(Str json) {
+    return (JsonItem) new JSONStreamParser(json.stringValue()).parse();
+  }
+
   @Override
   public void drop(String name) {
     docs.remove(name);
+    projectedDocs.keySet().removeIf(key -> key.name.equals(name));
   }
 
   @Override
@@ -101,12 +101,6 @@ public abstract class AbstractArray extends AbstractItem implements Array {
       @Override
       public void close() {
       }
-
-      @Override
-      public Split split(int min, int max) throws QueryException {
-        // TODO Auto-generated method stub
-        return null;
-      }
     };
   }
 }
\ No newline at end of file
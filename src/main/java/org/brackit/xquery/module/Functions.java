@@ -66,6 +66,8 @@ public final class Functions {
 
   public static final QNm FN_ROOT = new QNm(Namespaces.FN_NSURI, Namespaces.FN_PREFIX, "root");
 
+  public static final QNm FN_TRACE = new QNm(Namespaces.FN_NSURI, Namespaces.FN_PREFIX, "trace");
+
   private final Map<QNm, Function[]> functions = new HashMap<>();
 
   private final List<Functions> imports = new ArrayList<>();
@@ -81,12 +81,6 @@ public abstract class AbstractNodeCollection<E extends Node<E>> extends LazySequ
         }
         return docs.next();
       }
-
-      @Override
-      public Split split(int min, int max) throws QueryException {
-        // TODO Auto-generated method stub
-        return null;
-      }
     };
   }
 }
\ No newline at end of file
@@ -27,12 +27,35 @@
  */
 package org.brackit.xquery.node;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.util.path.Path;
+import org.brackit.xquery.util.path.Path.Axis;
+import org.brackit.xquery.util.path.Path.Step;
 import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Kind;
 import org.brackit.xquery.xdm.Stream;
 import org.brackit.xquery.xdm.node.Node;
 
 /**
+ * Holistic path join (PathStack) of Bruno, Koudas and Srivastava:
+ * <em>Holistic twig joins: optimal XML pattern matching</em>.
+ * <p>
+ * The input is consumed in a single pass. For each step of the path a stack
+ * holds the nodes seen so far which match the step and have a match of the
+ * preceding step as parent or ancestor. Because the input is in document
+ * order, all entries that are not ancestors of the current node can be
+ * popped, so the stacks never hold more than one root-to-leaf path of the
+ * input. Matches of the last step are reported in document order and without
+ * duplicates.
+ * </p>
+ * <p>
+ * Only element steps along the child and descendant axis are supported.
+ * A <code>null</code> step value is a wildcard.
+ * </p>
+ *
  * @param <E>
  * @author Sebastian Baechle
  */
@@ -47,24 +70,67 @@ public abstract class PathStackStream<E> implements Stream<E> {
   /**
    * Path pattern
    */
-  protected final Path<String> path;
+  protected final Path<QNm> path;
+
+  /**
+   * Context node of the first step or <code>null</code> if the first step is
+   * evaluated relative to the document root.
+   */
+  protected final Node<?> root;
+
+  private final QNm[] names;
+
+  private final boolean[] child;
 
-  private E next;
+  private final List<Node<?>>[] stacks;
 
   public static class Default extends PathStackStream<Node<?>> {
-    public Default(Stream<? extends Node<?>> in, Path<String> path) {
+    public Default(Stream<? extends Node<?>> in, Path<QNm> path) {
       super(in, path);
     }
 
+    public Default(Node<?> root, Stream<? extends Node<?>> in, Path<QNm> path) {
+      super(root, in, path);
+    }
+
     @Override
     protected Node<?> match(Node<?>[] matchingNodes) {
-      return matchingNodes[matchingNodes.length];
+      return matchingNodes[matchingNodes.length - 1];
     }
   }
 
-  public PathStackStream(Stream<? extends Node<?>> in, Path<String> path) {
+  public PathStackStream(Stream<? extends Node<?>> in, Path<QNm> path) {
+    this(null, in, path);
+  }
+
+  /**
+   * Creates a path join for the path starting at <code>root</code>. The input
+   * must deliver (a subset of) the subtree of <code>root</code>, e.g.,
+   * {@link Node#getSubtree()}.
+   */
+  @SuppressWarnings("unchecked")
+  public PathStackStream(Node<?> root, Stream<? extends Node<?>> in, Path<QNm> path) {
     this.in = in;
     this.path = path;
+    this.root = root;
+    List<Step<QNm>> steps = path.steps();
+    int length = steps.size();
+    if (length == 0) {
+      throw new IllegalArgumentException("Empty path");
+    }
+    names = new QNm[length];
+    child = new boolean[length];
+    stacks = (List<Node<?>>[]) new List<?>[length];
+    for (int i = 0; i < length; i++) {
+      Step<QNm> step = steps.get(i);
+      Axis axis = step.getAxis();
+      if ((axis != Axis.CHILD) && (axis != Axis.DESC)) {
+        throw new IllegalArgumentException("Unsupported path step: " + step);
+      }
+      names[i] = step.getValue();
+      child[i] = (axis == Axis.CHILD);
+      stacks[i] = new ArrayList<>();
+    }
   }
 
   /**
@@ -77,15 +143,78 @@ public abstract class PathStackStream<E> implements Stream<E> {
 
   @Override
   public E next() throws DocumentException {
-    // TODO consume input and look for next match(es)
-    // for each match, the result output (stored in 'next')
-    // is generated by a call of 'match'
-
+    int last = names.length - 1;
+    Node<?> n;
+    while ((n = in.next()) != null) {
+      if ((n.getKind() != Kind.ELEMENT) || ((root != null) && (root.isSelfOf(n)))) {
+        continue;
+      }
+      for (List<Node<?>> stack : stacks) {
+        int size = stack.size();
+        while ((size > 0) && (!stack.get(size - 1).isAncestorOf(n))) {
+          stack.remove(--size);
+        }
+      }
+      boolean leaf = false;
+      // bottom-up, so that n is not its own context
+      for (int i = last; i >= 0; i--) {
+        if ((matches(i, n)) && (hasContext(i, n))) {
+          if (i == last) {
+            leaf = true;
+          } else {
+            stacks[i].add(n);
+          }
+        }
+      }
+      if (leaf) {
+        return match(witness(n));
+      }
+    }
     return null;
   }
 
+  private boolean matches(int i, Node<?> n) {
+    return (names[i] == null) || (names[i].eq(n.getName()));
+  }
+
+  private boolean hasContext(int i, Node<?> n) {
+    if (i > 0) {
+      List<Node<?>> stack = stacks[i - 1];
+      int size = stack.size();
+      return (size > 0) && ((!child[i]) || (stack.get(size - 1).isParentOf(n)));
+    }
+    if (!child[0]) {
+      return true;
+    }
+    if (root != null) {
+      return root.isParentOf(n);
+    }
+    Node<?> parent = n.getParent();
+    return (parent == null) || (parent.getKind() == Kind.DOCUMENT);
+  }
+
+  private Node<?>[] witness(Node<?> n) {
+    Node<?>[] matchingNodes = new Node<?>[names.length];
+    matchingNodes[names.length - 1] = n;
+    for (int i = names.length - 2; i >= 0; i--) {
+      Node<?> next = matchingNodes[i + 1];
+      List<Node<?>> stack = stacks[i];
+      for (int j = stack.size() - 1; j >= 0; j--) {
+        Node<?> candidate = stack.get(j);
+        if ((child[i + 1]) ? candidate.isParentOf(next) : candidate.isAncestorOf(next)) {
+          matchingNodes[i] = candidate;
+          break;
+        }
+      }
+    }
+    return matchingNodes;
+  }
+
   @Override
   public void close() {
     in.close();
+    for (List<Node<?>> stack : stacks) {
+      stack.clear();
+    }
   }
 }
@@ -27,9 +27,11 @@
  */
 package org.brackit.xquery.node;
 
+import org.brackit.xquery.block.FJControl;
 import org.brackit.xquery.node.d2linked.D2NodeFactory;
 import org.brackit.xquery.node.parser.DocumentParser;
 import org.brackit.xquery.node.parser.SubtreeParser;
+import org.brackit.xquery.node.parser.SubtreeRecorder;
 import org.brackit.xquery.util.io.URIHandler;
 import org.brackit.xquery.xdm.DocumentException;
 import org.brackit.xquery.xdm.OperationNotSupportedException;
@@ -51,6 +53,19 @@ import java.util.Map;
 public class SimpleNodeStore implements NodeStore {
   private final Map<String, NodeCollection<?>> docs = new HashMap<>();
 
+  private final NodeFactory<?> factory;
+
+  public SimpleNodeStore() {
+    this(new D2NodeFactory());
+  }
+
+  /**
+   * Creates a store, which builds its documents with the given factory.
+   */
+  public SimpleNodeStore(NodeFactory<?> factory) {
+    this.factory = factory;
+  }
+
   @Override
   public NodeCollection<?> create(String name) throws DocumentException {
     NodeCollection<?> coll = getNodeFactory().collection(name);
@@ -67,7 +82,8 @@ public class SimpleNodeStore implements NodeStore {
 
   @Override
   public NodeCollection<?> create(String name, Stream<SubtreeParser> parsers) throws DocumentException {
-    NodeCollection<?> coll = getNodeFactory().collection(name, parsers);
+    // parse concurrently, but build the documents in input order
+    NodeCollection<?> coll = getNodeFactory().collection(name, FJControl.ingest(parsers, SubtreeRecorder::record));
     docs.put(name, coll);
     return coll;
   }
@@ -98,7 +114,7 @@ public class SimpleNodeStore implements NodeStore {
   }
 
   protected NodeFactory<?> getNodeFactory() {
-    return new D2NodeFactory();
+    return factory;
   }
 
   @Override
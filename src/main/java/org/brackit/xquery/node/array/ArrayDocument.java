@@ -0,0 +1,165 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.array;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.brackit.xquery.atomic.QNm;
+
+/**
+ * Immutable storage of a document or fragment in flat arrays.
+ * <p>
+ * Nodes are numbered in pre order, attributes directly following their
+ * element. For each node, the arrays hold the kind, the name as index into a
+ * name dictionary, the parent, and the size of the subtree (including the
+ * node itself and attributes). The contents of text nodes are concatenated in
+ * document order in a single string, so that the string value of an element
+ * is a substring, too. Values of attributes, comments and processing
+ * instructions are kept in a second string.
+ * </p>
+ * <p>
+ * The arrays are accessed through buffers, which either wrap heap arrays of
+ * a built document or are mapped from a file by {@link ArrayDocumentFile}.
+ * </p>
+ */
+final class ArrayDocument {
+  private static final AtomicInteger ID_SEQUENCE = new AtomicInteger();
+
+  /**
+   * Global document number for the document order between fragments.
+   */
+  final int id = ID_SEQUENCE.incrementAndGet();
+
+  /**
+   * Number of nodes.
+   */
+  final int count;
+
+  final ByteBuffer kinds;
+
+  final IntBuffer names;
+
+  final IntBuffer parents;
+
+  final IntBuffer sizes;
+
+  /**
+   * Start of the text of node i; count + 1 entries.
+   */
+  final IntBuffer textOffsets;
+
+  /**
+   * Start of the value of node i; count + 1 entries.
+   */
+  final IntBuffer valueOffsets;
+
+  final CharSequence text;
+
+  final CharSequence values;
+
+  final QNm[] dictionary;
+
+  /**
+   * Namespace declarations by element.
+   */
+  final Map<Integer, Map<String, String>> nsMappings;
+
+  ArrayNodeCollection collection;
+
+  ArrayDocument(int count, ByteBuffer kinds, IntBuffer names, IntBuffer parents, IntBuffer sizes,
+      IntBuffer textOffsets, IntBuffer valueOffsets, CharSequence text, CharSequence values, QNm[] dictionary,
+      Map<Integer, Map<String, String>> nsMappings) {
+    this.count = count;
+    this.kinds = kinds;
+    this.names = names;
+    this.parents = parents;
+    this.sizes = sizes;
+    this.textOffsets = textOffsets;
+    this.valueOffsets = valueOffsets;
+    this.text = text;
+    this.values = values;
+    this.dictionary = dictionary;
+    this.nsMappings = nsMappings;
+  }
+
+  byte kind(int pre) {
+    return kinds.get(pre);
+  }
+
+  int name(int pre) {
+    return names.get(pre);
+  }
+
+  int parent(int pre) {
+    return parents.get(pre);
+  }
+
+  int size(int pre) {
+    return sizes.get(pre);
+  }
+
+  /**
+   * Returns the concatenated text of the nodes <code>from</code> (inclusive)
+   * to <code>to</code> (exclusive).
+   */
+  String text(int from, int to) {
+    return text.subSequence(textOffsets.get(from), textOffsets.get(to)).toString();
+  }
+
+  String value(int pre) {
+    return values.subSequence(valueOffsets.get(pre), valueOffsets.get(pre + 1)).toString();
+  }
+
+  /**
+   * Returns a mask of all dictionary entries equal to <code>name</code>.
+   * Different entries may differ only in their prefix.
+   */
+  boolean[] nameMask(QNm name) {
+    boolean[] mask = new boolean[dictionary.length];
+    for (int i = 0; i < dictionary.length; i++) {
+      mask[i] = dictionary[i].eq(name);
+    }
+    return mask;
+  }
+
+  /**
+   * Estimates the heap size of this document in bytes. Mapped documents
+   * occupy only the memory of the name dictionary on the heap.
+   */
+  long getMemorySize() {
+    long bytes = 64 + 48L * dictionary.length;
+    if (!kinds.isDirect()) {
+      bytes += (long) count * (1 + 4 + 4 + 4 + 4 + 4) + 2L * text.length() + 2L * values.length();
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.array;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.xdm.DocumentException;
+
+/**
+ * Binary file format of an {@link ArrayDocument}.
+ * <p>
+ * A file starts with a header, which holds the number of nodes, the name
+ * dictionary and the namespace declarations. It is followed by the node
+ * arrays and the text and value strings. Each section is aligned to a page
+ * boundary and is mapped separately when the document is opened, so that
+ * opening a document does not read its contents.
+ * </p>
+ */
+final class ArrayDocumentFile {
+
+  private static final int MAGIC = 0x42524B41;
+
+  private static final int VERSION = 1;
+
+  private static final int PAGE_SIZE = 4096;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private ArrayDocumentFile() {
+  }
+
+  /**
+   * Writes the given document to <code>file</code>.
+   */
+  static void write(ArrayDocument doc, Path file) throws DocumentException {
+    try (FileChannel ch = FileChannel.open(file,
+                                           StandardOpenOption.CREATE,
+                                           StandardOpenOption.TRUNCATE_EXISTING,
+                                           StandardOpenOption.WRITE)) {
+      byte[] header = header(doc);
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      buffer.putInt(MAGIC).putInt(VERSION).putInt(header.length);
+      long pos = write(ch, buffer, 0);
+      ByteBuffer h = ByteBuffer.wrap(header);
+      while (h.hasRemaining()) {
+        pos += ch.write(h, pos);
+      }
+      pos = align(pos);
+
+      for (int i = 0; i < doc.count; i++) {
+        pos = flushIfFull(ch, buffer, pos, 1);
+        buffer.put(doc.kind(i));
+      }
+      pos = align(write(ch, buffer, pos));
+      pos = align(writeInts(ch, buffer, pos, doc.names, doc.count));
+      pos = align(writeInts(ch, buffer, pos, doc.parents, doc.count));
+      pos = align(writeInts(ch, buffer, pos, doc.sizes, doc.count));
+      pos = align(writeInts(ch, buffer, pos, doc.textOffsets, doc.count + 1));
+      pos = align(writeInts(ch, buffer, pos, doc.valueOffsets, doc.count + 1));
+      pos = align(writeChars(ch, buffer, pos, doc.text));
+      writeChars(ch, buffer, pos, doc.values);
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error writing document to %s", file);
+    }
+  }
+
+  private static byte[] header(ArrayDocument doc) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(doc.count);
+    out.writeInt(doc.text.length());
+    out.writeInt(doc.values.length());
+    out.writeInt(doc.dictionary.length);
+    for (QNm name : doc.dictionary) {
+      out.writeUTF(name.getNamespaceURI());
+      out.writeUTF(name.getPrefix());
+      out.writeUTF(name.getLocalName());
+    }
+    Map<Integer, Map<String, String>> nsMappings = doc.nsMappings;
+    out.writeInt((nsMappings != null) ? nsMappings.size() : 0);
+    if (nsMappings != null) {
+      for (Map.Entry<Integer, Map<String, String>> element : nsMappings.entrySet()) {
+        out.writeInt(element.getKey());
+        out.writeInt(element.getValue().size());
+        for (Map.Entry<String, String> ns : element.getValue().entrySet()) {
+          out.writeUTF(ns.getKey());
+          out.writeUTF(ns.getValue());
+        }
+      }
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static long writeInts(FileChannel ch, ByteBuffer buffer, long pos, IntBuffer ints, int len)
+      throws IOException {
+    for (int i = 0; i < len; i++) {
+      pos = flushIfFull(ch, buffer, pos, 4);
+      buffer.putInt(ints.get(i));
+    }
+    return write(ch, buffer, pos);
+  }
+
+  private static long writeChars(FileChannel ch, ByteBuffer buffer, long pos, CharSequence chars)
+      throws IOException {
+    for (int i = 0, len = chars.length(); i < len; i++) {
+      pos = flushIfFull(ch, buffer, pos, 2);
+      buffer.putChar(chars.charAt(i));
+    }
+    return write(ch, buffer, pos);
+  }
+
+  private static long flushIfFull(FileChannel ch, ByteBuffer buffer, long pos, int required) throws IOException {
+    return (buffer.remaining() < required) ? write(ch, buffer, pos) : pos;
+  }
+
+  /**
+   * Writes the pending content of <code>buffer</code> at <code>pos</code>
+   * and returns the new position.
+   */
+  private static long write(FileChannel ch, ByteBuffer buffer, long pos) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      pos += ch.write(buffer, pos);
+    }
+    buffer.clear();
+    return pos;
+  }
+
+  private static long align(long pos) {
+    return (pos + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+  }
+
+  /**
+   * Opens the document stored in <code>file</code> by mapping it into
+   * memory.
+   */
+  static ArrayDocument open(Path file) throws DocumentException {
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer start = ByteBuffer.allocate(12);
+      while ((start.hasRemaining()) && (ch.read(start) >= 0)) {
+        // read magic, version and header length
+      }
+      start.flip();
+      if ((start.remaining() < 12) || (start.getInt() != MAGIC)) {
+        throw new DocumentException("%s is not a document file", file);
+      }
+      int version = start.getInt();
+      if (version != VERSION) {
+        throw new DocumentException("Unsupported version %s of document file %s", version, file);
+      }
+      int headerLength = start.getInt();
+      byte[] header = new byte[headerLength];
+      ch.map(MapMode.READ_ONLY, 12, headerLength).get(header);
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+      int count = in.readInt();
+      int textLength = in.readInt();
+      int valuesLength = in.readInt();
+      QNm[] dictionary = new QNm[in.readInt()];
+      for (int i = 0; i < dictionary.length; i++) {
+        String uri = in.readUTF();
+        String prefix = in.readUTF();
+        dictionary[i] = new QNm(uri, prefix, in.readUTF());
+      }
+      int elements = in.readInt();
+      Map<Integer, Map<String, String>> nsMappings = (elements > 0) ? new HashMap<>() : null;
+      for (int i = 0; i < elements; i++) {
+        int pre = in.readInt();
+        Map<String, String> mappings = new TreeMap<>();
+        for (int j = in.readInt(); j > 0; j--) {
+          mappings.put(in.readUTF(), in.readUTF());
+        }
+        nsMappings.put(pre, mappings);
+      }
+
+      long pos = align(12 + headerLength);
+      ByteBuffer kinds = map(ch, pos, count);
+      pos = align(pos + count);
+      IntBuffer names = map(ch, pos, 4L * count).asIntBuffer();
+      pos = align(pos + 4L * count);
+      IntBuffer parents = map(ch, pos, 4L * count).asIntBuffer();
+      pos = align(pos + 4L * count);
+      IntBuffer sizes = map(ch, pos, 4L * count).asIntBuffer();
+      pos = align(pos + 4L * count);
+      IntBuffer textOffsets = map(ch, pos, 4L * (count + 1)).asIntBuffer();
+      pos = align(pos + 4L * (count + 1));
+      IntBuffer valueOffsets = map(ch, pos, 4L * (count + 1)).asIntBuffer();
+      pos = align(pos + 4L * (count + 1));
+      CharBuffer text = map(ch, pos, 2L * textLength).asCharBuffer();
+      pos = align(pos + 2L * textLength);
+      CharBuffer values = map(ch, pos, 2L * valuesLength).asCharBuffer();
+      return new ArrayDocument(count,
+                               kinds,
+                               names,
+                               parents,
+                               sizes,
+                               textOffsets,
+                               valueOffsets,
+                               text,
+                               values,
+                               dictionary,
+                               nsMappings);
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error reading document from %s", file);
+    }
+  }
+
+  private static ByteBuffer map(FileChannel ch, long pos, long len) throws IOException {
+    if (len > Integer.MAX_VALUE) {
+      throw new DocumentException("Document section of %s bytes is too large to be mapped", len);
+    }
+    if (len == 0) {
+      return ByteBuffer.allocate(0);
+    }
+    if (pos + len > ch.size()) {
+      throw new DocumentException("Truncated document file");
+    }
+    return ch.map(MapMode.READ_ONLY, pos, len);
+  }
+}
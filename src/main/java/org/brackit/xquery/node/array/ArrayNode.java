@@ -0,0 +1,677 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.array;
+
+import java.util.Map;
+
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.atomic.Una;
+import org.brackit.xquery.node.AbstractNode;
+import org.brackit.xquery.node.parser.SubtreeHandler;
+import org.brackit.xquery.node.parser.SubtreeParser;
+import org.brackit.xquery.node.stream.EmptyStream;
+import org.brackit.xquery.node.stream.IteratorStream;
+import org.brackit.xquery.xdm.Axis;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Kind;
+import org.brackit.xquery.xdm.OperationNotSupportedException;
+import org.brackit.xquery.xdm.Scope;
+import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.node.Node;
+import org.brackit.xquery.xdm.type.ElementType;
+import org.brackit.xquery.xdm.type.NodeType;
+
+/**
+ * Handle of a node in an {@link ArrayDocument}. Handles are created on
+ * demand and are identified by their document and pre order number, so
+ * different handles may represent the same node.
+ * <p>
+ * Array documents are read-only. All update operations throw an
+ * {@link OperationNotSupportedException}.
+ * </p>
+ */
+public final class ArrayNode extends AbstractNode<ArrayNode> implements Scope {
+
+  public static final int NODE_CLASS_ID = 2;
+
+  private static final byte ATTRIBUTE = Kind.ATTRIBUTE.ID;
+
+  final ArrayDocument doc;
+
+  final int pre;
+
+  ArrayNode(ArrayDocument doc, int pre) {
+    this.doc = doc;
+    this.pre = pre;
+  }
+
+  private ArrayNode node(int pre) {
+    return new ArrayNode(doc, pre);
+  }
+
+  private ArrayNode local(Node<?> node) {
+    if (node instanceof ArrayNode) {
+      ArrayNode n = (ArrayNode) node;
+      return (n.doc == doc) ? n : null;
+    }
+    return null;
+  }
+
+  private boolean isAttribute() {
+    return doc.kind(pre) == ATTRIBUTE;
+  }
+
+  /**
+   * Returns the end of the subtree (exclusive).
+   */
+  private int end() {
+    return pre + doc.size(pre);
+  }
+
+  private int firstChildPre() {
+    int c = pre + 1;
+    int end = end();
+    while ((c < end) && (doc.kind(c) == ATTRIBUTE)) {
+      c++;
+    }
+    return c;
+  }
+
+  @Override
+  public int getNodeClassID() {
+    return NODE_CLASS_ID;
+  }
+
+  @Override
+  protected int cmpInternal(ArrayNode other) {
+    if (doc != other.doc) {
+      return (doc.id < other.doc.id) ? -1 : 1;
+    }
+    return Integer.compare(pre, other.pre);
+  }
+
+  @Override
+  public int hashCode() {
+    return doc.id * 31 + pre;
+  }
+
+  @Override
+  public ArrayNodeCollection getCollection() {
+    return doc.collection;
+  }
+
+  @Override
+  public Scope getScope() {
+    return (getKind() == Kind.ELEMENT) ? this : null;
+  }
+
+  @Override
+  public Kind getKind() {
+    return Kind.map[doc.kind(pre)];
+  }
+
+  @Override
+  public QNm getName() throws DocumentException {
+    int name = doc.name(pre);
+    return (name >= 0) ? doc.dictionary[name] : null;
+  }
+
+  @Override
+  public Atomic getValue() throws DocumentException {
+    switch (getKind()) {
+      case DOCUMENT:
+      case ELEMENT:
+        return new Una(doc.text(pre, end()));
+      case TEXT:
+        return new Una(doc.text(pre, pre + 1));
+      case ATTRIBUTE:
+        return new Una(doc.value(pre));
+      default:
+        return new Str(doc.value(pre));
+    }
+  }
+
+  @Override
+  public Str getStrValue() {
+    return getValue().asStr();
+  }
+
+  @Override
+  public ArrayNode getParent() throws DocumentException {
+    int parent = doc.parent(pre);
+    return (parent >= 0) ? node(parent) : null;
+  }
+
+  @Override
+  public ArrayNode getFirstChild() throws DocumentException {
+    int c = firstChildPre();
+    return (c < end()) ? node(c) : null;
+  }
+
+  @Override
+  public ArrayNode getLastChild() throws DocumentException {
+    int end = end();
+    int last = -1;
+    for (int c = firstChildPre(); c < end; c += doc.size(c)) {
+      last = c;
+    }
+    return (last >= 0) ? node(last) : null;
+  }
+
+  @Override
+  public ArrayNode getNextSibling() throws DocumentException {
+    int parent = doc.parent(pre);
+    if ((parent < 0) || (isAttribute())) {
+      return null;
+    }
+    int next = end();
+    return (next < parent + doc.size(parent)) ? node(next) : null;
+  }
+
+  @Override
+  public ArrayNode getPreviousSibling() throws DocumentException {
+    int parent = doc.parent(pre);
+    if ((parent < 0) || (isAttribute())) {
+      return null;
+    }
+    int prev = pre - 1;
+    // attributes of the parent precede the first child, but
+    // attributes of a preceding sibling's subtree do not end the walk
+    if ((prev == parent) || ((doc.kind(prev) == ATTRIBUTE) && (doc.parent(prev) == parent))) {
+      return null;
+    }
+    while (doc.parent(prev) != parent) {
+      prev = doc.parent(prev);
+    }
+    return node(prev);
+  }
+
+  @Override
+  public boolean hasChildren() throws DocumentException {
+    return firstChildPre() < end();
+  }
+
+  @Override
+  public boolean hasAttributes() throws DocumentException {
+    return (pre + 1 < end()) && (doc.kind(pre + 1) == ATTRIBUTE);
+  }
+
+  @Override
+  public ArrayNode getAttribute(QNm name) throws DocumentException {
+    int end = end();
+    for (int a = pre + 1; (a < end) && (doc.kind(a) == ATTRIBUTE); a++) {
+      if (doc.dictionary[doc.name(a)].eq(name)) {
+        return node(a);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Stream<ArrayNode> getAttributes() throws DocumentException {
+    int start = pre + 1;
+    int end = start;
+    while ((end < end()) && (doc.kind(end) == ATTRIBUTE)) {
+      end++;
+    }
+    return new RangeStream(start, end, false);
+  }
+
+  @Override
+  public Stream<ArrayNode> getChildren() throws DocumentException {
+    return new Stream<ArrayNode>() {
+      int c = firstChildPre();
+      final int end = end();
+
+      @Override
+      public ArrayNode next() {
+        if (c >= end) {
+          return null;
+        }
+        ArrayNode next = node(c);
+        c += doc.size(c);
+        return next;
+      }
+
+      @Override
+      public void close() {
+        c = end;
+      }
+    };
+  }
+
+  @Override
+  public Stream<ArrayNode> getSubtree() throws DocumentException {
+    return new RangeStream(pre, end(), false);
+  }
+
+  @Override
+  public Stream<ArrayNode> getDescendantOrSelf() throws DocumentException {
+    return new RangeStream(pre, end(), true);
+  }
+
+  /**
+   * Stream of the nodes in a range of pre order numbers.
+   */
+  private final class RangeStream implements Stream<ArrayNode> {
+    final int end;
+    final boolean skipAttributes;
+    int pos;
+
+    RangeStream(int start, int end, boolean skipAttributes) {
+      this.pos = start;
+      this.end = end;
+      this.skipAttributes = skipAttributes;
+    }
+
+    @Override
+    public ArrayNode next() {
+      if (skipAttributes) {
+        while ((pos < end) && (doc.kind(pos) == ATTRIBUTE)) {
+          pos++;
+        }
+      }
+      return (pos < end) ? node(pos++) : null;
+    }
+
+    @Override
+    public void close() {
+      pos = end;
+    }
+  }
+
+  @Override
+  public Stream<? extends Node<?>> performStep(Axis axis, NodeType test) {
+    if ((!(test instanceof ElementType)) || (test.getQName() == null) || (test.getType() != null)) {
+      return null;
+    }
+    // compare names without creating handles
+    final boolean[] mask = doc.nameMask(test.getQName());
+    final byte element = Kind.ELEMENT.ID;
+    if ((axis == Axis.DESCENDANT) || (axis == Axis.DESCENDANT_OR_SELF)) {
+      return new Stream<ArrayNode>() {
+        int pos = (axis == Axis.DESCENDANT) ? pre + 1 : pre;
+        final int end = end();
+
+        @Override
+        public ArrayNode next() {
+          while (pos < end) {
+            int p = pos++;
+            if ((doc.kind(p) == element) && (mask[doc.name(p)])) {
+              return node(p);
+            }
+          }
+          return null;
+        }
+
+        @Override
+        public void close() {
+          pos = end;
+        }
+      };
+    }
+    if (axis == Axis.CHILD) {
+      return new Stream<ArrayNode>() {
+        int c = firstChildPre();
+        final int end = end();
+
+        @Override
+        public ArrayNode next() {
+          while (c < end) {
+            int p = c;
+            c += doc.size(p);
+            if ((doc.kind(p) == element) && (mask[doc.name(p)])) {
+              return node(p);
+            }
+          }
+          return null;
+        }
+
+        @Override
+        public void close() {
+          c = end;
+        }
+      };
+    }
+    return null;
+  }
+
+  @Override
+  public boolean isSelfOf(Node<?> node) {
+    ArrayNode n = local(node);
+    return (n != null) && (n.pre == pre);
+  }
+
+  @Override
+  public boolean isParentOf(Node<?> node) {
+    ArrayNode n = local(node);
+    return (n != null) && (doc.parent(n.pre) == pre);
+  }
+
+  @Override
+  public boolean isChildOf(Node<?> node) {
+    ArrayNode n = local(node);
+    return (n != null) && (!isAttribute()) && (doc.parent(pre) == n.pre);
+  }
+
+  @Override
+  public boolean isAttributeOf(Node<?> node) {
+    ArrayNode n = local(node);
+    return (n != null) && (isAttribute()) && (doc.parent(pre) == n.pre);
+  }
+
+  @Override
+  public boolean isDescendantOf(Node<?> node) {
+    ArrayNode n = local(node);
+    return (n != null) && (!isAttribute()) && (n.pre < pre) && (pre < n.end());
+  }
+
+  @Override
+  public boolean isDescendantOrSelfOf(Node<?> node) {
+    ArrayNode n = local(node);
+    return (n != null) && ((n.pre == pre) || ((!isAttribute()) && (n.pre < pre) && (pre < n.end())));
+  }
+
+  @Override
+  public boolean isAncestorOf(Node<?> node) {
+    return (node != null) && (node.isDescendantOf(this));
+  }
+
+  @Override
+  public boolean isAncestorOrSelfOf(Node<?> node) {
+    return (node != null) && (node.isDescendantOrSelfOf(this));
+  }
+
+  @Override
+  public boolean isSiblingOf(Node<?> node) {
+    ArrayNode n = local(node);
+    return (n != null) && (n.pre != pre) && (!isAttribute()) && (!n.isAttribute()) && (doc.parent(pre) >= 0)
+        && (doc.parent(pre) == doc.parent(n.pre));
+  }
+
+  @Override
+  public boolean isPrecedingSiblingOf(Node<?> node) {
+    return (isSiblingOf(node)) && (pre < ((ArrayNode) node).pre);
+  }
+
+  @Override
+  public boolean isFollowingSiblingOf(Node<?> node) {
+    return (isSiblingOf(node)) && (pre > ((ArrayNode) node).pre);
+  }
+
+  @Override
+  public boolean isPrecedingOf(Node<?> node) {
+    ArrayNode n = local(node);
+    return (n != null) && (!isAttribute()) && (n.pre >= end());
+  }
+
+  @Override
+  public boolean isFollowingOf(Node<?> node) {
+    ArrayNode n = local(node);
+    return (n != null) && (!isAttribute()) && (pre >= n.end());
+  }
+
+  @Override
+  public boolean isDocumentOf(Node<?> node) {
+    return (getKind() == Kind.DOCUMENT) && (local(node) != null);
+  }
+
+  @Override
+  public boolean isRoot() {
+    int parent = doc.parent(pre);
+    return (getKind() == Kind.ELEMENT) && (parent >= 0) && (doc.kind(parent) == Kind.DOCUMENT.ID);
+  }
+
+  @Override
+  public boolean isDocumentRoot() {
+    return (doc.parent(pre) < 0);
+  }
+
+  @Override
+  public void parse(SubtreeHandler handler) throws DocumentException {
+    try {
+      handler.begin();
+      handler.beginFragment();
+      int end = end();
+      int p = pre;
+      while (p < end) {
+        p = traverse(handler, p);
+      }
+      handler.endFragment();
+      handler.end();
+    } catch (DocumentException e) {
+      handler.fail();
+      throw e;
+    }
+  }
+
+  private int traverse(SubtreeHandler handler, int p) throws DocumentException {
+    ArrayNode n = node(p);
+    switch (n.getKind()) {
+      case DOCUMENT:
+        handler.startDocument();
+        for (int c = p + 1, end = n.end(); c < end; ) {
+          c = traverse(handler, c);
+        }
+        handler.endDocument();
+        return n.end();
+      case ELEMENT:
+        Map<String, String> mappings = (doc.nsMappings != null) ? doc.nsMappings.get(p) : null;
+        if (mappings != null) {
+          for (Map.Entry<String, String> ns : mappings.entrySet()) {
+            handler.startMapping(ns.getKey(), ns.getValue());
+          }
+        }
+        QNm name = n.getName();
+        handler.startElement(name);
+        for (int c = p + 1, end = n.end(); c < end; ) {
+          c = traverse(handler, c);
+        }
+        handler.endElement(name);
+        if (mappings != null) {
+          for (String prefix : mappings.keySet()) {
+            handler.endMapping(prefix);
+          }
+        }
+        return n.end();
+      case ATTRIBUTE:
+        handler.attribute(n.getName(), n.getValue());
+        break;
+      case TEXT:
+        handler.text(n.getValue());
+        break;
+      case COMMENT:
+        handler.comment(n.getValue());
+        break;
+      case PROCESSING_INSTRUCTION:
+        handler.processingInstruction(n.getName(), n.getValue());
+        break;
+      default:
+        throw new DocumentException("Illegal node type: %s", n.getKind());
+    }
+    return p + 1;
+  }
+
+  // --- namespace scope of elements ---
+
+  @Override
+  public Stream<String> localPrefixes() throws DocumentException {
+    Map<String, String> mappings = (doc.nsMappings != null) ? doc.nsMappings.get(pre) : null;
+    return (mappings != null) ? new IteratorStream<>(mappings.keySet()) : new EmptyStream<>();
+  }
+
+  @Override
+  public String defaultNS() throws DocumentException {
+    return resolvePrefix("");
+  }
+
+  @Override
+  public String resolvePrefix(String prefix) throws DocumentException {
+    if (prefix == null) {
+      // search for the default namespace
+      prefix = "";
+    }
+    if (doc.nsMappings != null) {
+      for (int p = pre; (p >= 0) && (doc.kind(p) == Kind.ELEMENT.ID); p = doc.parent(p)) {
+        Map<String, String> mappings = doc.nsMappings.get(p);
+        String uri = (mappings != null) ? mappings.get(prefix) : null;
+        if (uri != null) {
+          return uri;
+        }
+      }
+    }
+    if (prefix.equals("xml")) {
+      return "http://www.w3.org/XML/1998/namespace";
+    }
+    return (prefix.isEmpty()) ? "" : null;
+  }
+
+  @Override
+  public void addPrefix(String prefix, String uri) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public void setDefaultNS(String uri) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  // --- read-only ---
+
+  @Override
+  public void setName(QNm name) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public void setValue(Atomic value) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode append(Kind kind, QNm name, Atomic value) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode append(Node<?> child) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode append(SubtreeParser parser) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode prepend(Kind kind, QNm name, Atomic value) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode prepend(Node<?> child) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode prepend(SubtreeParser parser) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode insertBefore(Kind kind, QNm name, Atomic value) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode insertBefore(Node<?> node) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode insertBefore(SubtreeParser parser) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode insertAfter(Kind kind, QNm name, Atomic value) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode insertAfter(Node<?> node) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode insertAfter(SubtreeParser parser) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode setAttribute(Node<?> attribute) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode setAttribute(QNm name, Atomic value) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public boolean deleteAttribute(QNm name) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode replaceWith(Node<?> node) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode replaceWith(SubtreeParser parser) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public ArrayNode replaceWith(Kind kind, QNm name, Atomic value) throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public void delete() throws DocumentException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("(type='%s', name='%s', value='%s')", getKind(), getName(), getValue());
+  }
+}
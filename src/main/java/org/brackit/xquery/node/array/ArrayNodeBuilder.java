@@ -0,0 +1,281 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.array;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.node.parser.SubtreeHandler;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Kind;
+
+/**
+ * Builds an {@link ArrayDocument} from parser events. Each builder creates a
+ * single document or fragment.
+ */
+public class ArrayNodeBuilder implements SubtreeHandler {
+
+  private final ArrayNodeCollection collection;
+
+  private int size;
+
+  private byte[] kinds = new byte[64];
+
+  private int[] names = new int[64];
+
+  private int[] parents = new int[64];
+
+  private int[] sizes = new int[64];
+
+  private int[] textOffsets = new int[65];
+
+  private int[] valueOffsets = new int[65];
+
+  private final StringBuilder text = new StringBuilder();
+
+  private final StringBuilder values = new StringBuilder();
+
+  private final Map<String, Integer> nameIDs = new HashMap<>();
+
+  private final List<QNm> dictionary = new ArrayList<>();
+
+  private Map<Integer, Map<String, String>> nsMappings;
+
+  private Map<String, String> pendingMappings;
+
+  private int[] stack = new int[16];
+
+  private int stackSize;
+
+  private ArrayDocument document;
+
+  public ArrayNodeBuilder() {
+    this(null);
+  }
+
+  /**
+   * Creates a builder, which adds a built document to the given collection.
+   */
+  public ArrayNodeBuilder(ArrayNodeCollection collection) {
+    this.collection = collection;
+  }
+
+  /**
+   * Returns the root of the built document or fragment.
+   */
+  public ArrayNode root() throws DocumentException {
+    if (document == null) {
+      throw new DocumentException("No root node has been build");
+    }
+    return new ArrayNode(document, 0);
+  }
+
+  private int add(Kind kind, QNm name) throws DocumentException {
+    if ((document != null) || ((stackSize == 0) && (size > 0))) {
+      throw new DocumentException("A root already exists");
+    }
+    if (size == kinds.length) {
+      int capacity = size * 2;
+      kinds = Arrays.copyOf(kinds, capacity);
+      names = Arrays.copyOf(names, capacity);
+      parents = Arrays.copyOf(parents, capacity);
+      sizes = Arrays.copyOf(sizes, capacity);
+      textOffsets = Arrays.copyOf(textOffsets, capacity + 1);
+      valueOffsets = Arrays.copyOf(valueOffsets, capacity + 1);
+    }
+    int pre = size++;
+    kinds[pre] = kind.ID;
+    names[pre] = (name != null) ? nameID(name) : -1;
+    parents[pre] = (stackSize > 0) ? stack[stackSize - 1] : -1;
+    sizes[pre] = 1;
+    textOffsets[pre] = text.length();
+    valueOffsets[pre] = values.length();
+    return pre;
+  }
+
+  private int nameID(QNm name) {
+    // prefixes are kept for serialization
+    String key = name.getPrefix() + '{' + name.getNamespaceURI() + '}' + name.getLocalName();
+    Integer id = nameIDs.get(key);
+    if (id == null) {
+      id = dictionary.size();
+      dictionary.add(name);
+      nameIDs.put(key, id);
+    }
+    return id;
+  }
+
+  private void open(int pre) {
+    if (stackSize == stack.length) {
+      stack = Arrays.copyOf(stack, stackSize * 2);
+    }
+    stack[stackSize++] = pre;
+  }
+
+  private void close() {
+    int pre = stack[--stackSize];
+    sizes[pre] = size - pre;
+    if (stackSize == 0) {
+      finish();
+    }
+  }
+
+  private void leaf(Kind kind, QNm name, Atomic value) throws DocumentException {
+    add(kind, name);
+    values.append(value.stringValue());
+    if (stackSize == 0) {
+      finish();
+    }
+  }
+
+  private void finish() {
+    textOffsets[size] = text.length();
+    valueOffsets[size] = values.length();
+    document = new ArrayDocument(size,
+                                 ByteBuffer.wrap(Arrays.copyOf(kinds, size)),
+                                 IntBuffer.wrap(Arrays.copyOf(names, size)),
+                                 IntBuffer.wrap(Arrays.copyOf(parents, size)),
+                                 IntBuffer.wrap(Arrays.copyOf(sizes, size)),
+                                 IntBuffer.wrap(Arrays.copyOf(textOffsets, size + 1)),
+                                 IntBuffer.wrap(Arrays.copyOf(valueOffsets, size + 1)),
+                                 text.toString(),
+                                 values.toString(),
+                                 dictionary.toArray(new QNm[0]),
+                                 nsMappings);
+    if (kinds[0] == Kind.DOCUMENT.ID) {
+      ArrayNodeCollection coll = collection;
+      if (coll == null) {
+        coll = new ArrayNodeCollection(String.format("%s_%s_%s.xml",
+                                                     Thread.currentThread().getName(),
+                                                     "noname",
+                                                     Long.toString(System.currentTimeMillis())));
+      }
+      document.collection = coll;
+      coll.add(new ArrayNode(document, 0));
+    }
+  }
+
+  @Override
+  public void begin() throws DocumentException {
+  }
+
+  @Override
+  public void end() throws DocumentException {
+  }
+
+  @Override
+  public void fail() throws DocumentException {
+  }
+
+  @Override
+  public void beginFragment() throws DocumentException {
+  }
+
+  @Override
+  public void endFragment() throws DocumentException {
+  }
+
+  @Override
+  public void startDocument() throws DocumentException {
+    open(add(Kind.DOCUMENT, null));
+  }
+
+  @Override
+  public void endDocument() throws DocumentException {
+    close();
+  }
+
+  @Override
+  public void startMapping(String prefix, String uri) throws DocumentException {
+    if (pendingMappings == null) {
+      // use tree map for space-efficiency
+      pendingMappings = new TreeMap<>();
+    }
+    pendingMappings.put(prefix, uri);
+  }
+
+  @Override
+  public void endMapping(String prefix) throws DocumentException {
+  }
+
+  @Override
+  public void startElement(QNm name) throws DocumentException {
+    int pre = add(Kind.ELEMENT, name);
+    if (pendingMappings != null) {
+      if (nsMappings == null) {
+        nsMappings = new HashMap<>();
+      }
+      nsMappings.put(pre, pendingMappings);
+      pendingMappings = null;
+    }
+    open(pre);
+  }
+
+  @Override
+  public void endElement(QNm name) throws DocumentException {
+    close();
+  }
+
+  @Override
+  public void attribute(QNm name, Atomic value) throws DocumentException {
+    leaf(Kind.ATTRIBUTE, name, value);
+  }
+
+  @Override
+  public void text(Atomic content) throws DocumentException {
+    int last = size - 1;
+    if ((stackSize > 0) && (last >= 0) && (kinds[last] == Kind.TEXT.ID) && (parents[last] == stack[stackSize - 1])) {
+      // merge adjacent text nodes
+      text.append(content.stringValue());
+      return;
+    }
+    add(Kind.TEXT, null);
+    text.append(content.stringValue());
+    if (stackSize == 0) {
+      finish();
+    }
+  }
+
+  @Override
+  public void comment(Atomic content) throws DocumentException {
+    leaf(Kind.COMMENT, null, content);
+  }
+
+  @Override
+  public void processingInstruction(QNm target, Atomic content) throws DocumentException {
+    leaf(Kind.PROCESSING_INSTRUCTION, target, content);
+  }
+}
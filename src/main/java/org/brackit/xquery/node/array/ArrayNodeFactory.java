@@ -0,0 +1,130 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.array;
+
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.node.parser.NavigationalSubtreeParser;
+import org.brackit.xquery.node.parser.SubtreeParser;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.node.Node;
+import org.brackit.xquery.xdm.node.NodeCollection;
+import org.brackit.xquery.xdm.node.NodeFactory;
+
+/**
+ * Factory for read-only {@link ArrayNode}s. Newly created nodes are
+ * standalone fragments, which cannot be modified.
+ */
+public class ArrayNodeFactory implements NodeFactory<ArrayNode> {
+  @Override
+  public ArrayNode attribute(QNm name, Atomic value) throws DocumentException {
+    ArrayNodeBuilder builder = new ArrayNodeBuilder();
+    builder.attribute(name, value);
+    return builder.root();
+  }
+
+  @Override
+  public ArrayNode comment(Str value) throws DocumentException {
+    ArrayNodeBuilder builder = new ArrayNodeBuilder();
+    builder.comment(value);
+    return builder.root();
+  }
+
+  @Override
+  public ArrayNode document(Str name) throws DocumentException {
+    ArrayNodeBuilder builder = (name != null)
+        ? new ArrayNodeBuilder(new ArrayNodeCollection(name.stringValue()))
+        : new ArrayNodeBuilder();
+    builder.startDocument();
+    builder.endDocument();
+    return builder.root();
+  }
+
+  @Override
+  public ArrayNode element(QNm name) throws DocumentException {
+    ArrayNodeBuilder builder = new ArrayNodeBuilder();
+    builder.startElement(name);
+    builder.endElement(name);
+    return builder.root();
+  }
+
+  @Override
+  public ArrayNode pi(QNm target, Str value) throws DocumentException {
+    ArrayNodeBuilder builder = new ArrayNodeBuilder();
+    builder.processingInstruction(target, value);
+    return builder.root();
+  }
+
+  @Override
+  public ArrayNode text(Atomic value) throws DocumentException {
+    ArrayNodeBuilder builder = new ArrayNodeBuilder();
+    builder.text(value);
+    return builder.root();
+  }
+
+  @Override
+  public ArrayNode copy(Node<?> source) throws DocumentException {
+    return build(new NavigationalSubtreeParser(source));
+  }
+
+  @Override
+  public ArrayNode build(SubtreeParser parser) throws DocumentException {
+    ArrayNodeBuilder handler = new ArrayNodeBuilder();
+    parser.parse(handler);
+    return handler.root();
+  }
+
+  @Override
+  public NodeCollection<ArrayNode> collection(String name, SubtreeParser parser) throws DocumentException {
+    ArrayNodeCollection coll = new ArrayNodeCollection(name);
+    parser.parse(new ArrayNodeBuilder(coll));
+    return coll;
+  }
+
+  @Override
+  public NodeCollection<ArrayNode> collection(String name, Stream<SubtreeParser> parsers) throws DocumentException {
+    ArrayNodeCollection coll = new ArrayNodeCollection(name);
+    try {
+      SubtreeParser parser;
+      while ((parser = parsers.next()) != null) {
+        // each builder creates a separate document
+        parser.parse(new ArrayNodeBuilder(coll));
+      }
+    } finally {
+      parsers.close();
+    }
+    return coll;
+  }
+
+  @Override
+  public NodeCollection<ArrayNode> collection(String name) throws DocumentException {
+    return new ArrayNodeCollection(name);
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.array;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.brackit.xquery.node.parser.NavigationalSubtreeParser;
+import org.brackit.xquery.node.parser.SubtreeParser;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Kind;
+import org.brackit.xquery.xdm.node.Node;
+
+/**
+ * Collection of a {@link FileNodeStore}. Each document is stored in a
+ * separate file of the collection directory and is memory-mapped when the
+ * collection is opened.
+ */
+public class FileNodeCollection extends ArrayNodeCollection {
+
+  static final String SUFFIX = ".adoc";
+
+  private final Path dir;
+
+  private int next;
+
+  FileNodeCollection(String name, Path dir) {
+    super(name);
+    this.dir = dir;
+  }
+
+  /**
+   * Opens the stored collection in directory <code>dir</code>.
+   */
+  static FileNodeCollection open(String name, Path dir) throws DocumentException {
+    FileNodeCollection coll = new FileNodeCollection(name, dir);
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+      for (Path file : ds) {
+        files.add(file);
+      }
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error opening collection %s", name);
+    }
+    files.sort(Comparator.comparingInt(FileNodeCollection::number));
+    for (Path file : files) {
+      coll.attach(ArrayDocumentFile.open(file));
+      coll.next = number(file) + 1;
+    }
+    return coll;
+  }
+
+  private static int number(Path file) {
+    String name = file.getFileName().toString();
+    return Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+  }
+
+  private ArrayNode attach(ArrayDocument doc) {
+    doc.collection = this;
+    ArrayNode root = new ArrayNode(doc, 0);
+    super.add(root);
+    return root;
+  }
+
+  /**
+   * Writes a document to a new file of this collection and adds the mapped
+   * document. Documents of other node implementations are copied into an
+   * array document first.
+   */
+  @Override
+  public void add(Node<? super ArrayNode> doc) throws DocumentException {
+    if (doc.getKind() != Kind.DOCUMENT) {
+      throw new DocumentException("Cannot add %s node to collection %s", doc.getKind(), getName());
+    }
+    ArrayNode root;
+    if (doc instanceof ArrayNode) {
+      root = (ArrayNode) doc;
+    } else {
+      ArrayNodeBuilder builder = new ArrayNodeBuilder();
+      new NavigationalSubtreeParser(doc).parse(builder);
+      root = builder.root();
+    }
+    Path file = dir.resolve(next++ + SUFFIX);
+    ArrayDocumentFile.write(root.doc, file);
+    attach(ArrayDocumentFile.open(file));
+  }
+
+  @Override
+  public ArrayNode add(SubtreeParser parser) throws DocumentException {
+    int count = docs.length;
+    parser.parse(new ArrayNodeBuilder(this));
+    if (docs.length == count) {
+      throw new DocumentException("Parsed fragment is not a document");
+    }
+    // add(Node) attached the mapped document
+    return (ArrayNode) docs[count];
+  }
+
+  @Override
+  public void delete() throws DocumentException {
+    deleteDirectory(dir);
+    docs = new Node<?>[0];
+  }
+
+  static void deleteDirectory(Path dir) throws DocumentException {
+    try (Stream<Path> files = Files.walk(dir)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error deleting %s", dir);
+    }
+  }
+}
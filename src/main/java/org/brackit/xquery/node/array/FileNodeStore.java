@@ -0,0 +1,173 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.array;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.brackit.xquery.block.FJControl;
+import org.brackit.xquery.node.parser.DocumentParser;
+import org.brackit.xquery.node.parser.SubtreeParser;
+import org.brackit.xquery.node.parser.SubtreeRecorder;
+import org.brackit.xquery.util.io.URIHandler;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.node.NodeCollection;
+import org.brackit.xquery.xdm.node.NodeStore;
+
+/**
+ * Persistent store of read-only {@link ArrayNode} documents.
+ * <p>
+ * A collection is a directory below the store directory, which holds one
+ * file per document in the format of {@link ArrayDocumentFile}. Stored
+ * collections are memory-mapped when they are looked up, so that reopening
+ * a collection does not parse it again. Names of collections and
+ * directories are paths relative to the store directory.
+ * </p>
+ */
+public class FileNodeStore implements NodeStore {
+
+  private static final String MARKER = ".collection";
+
+  private final Path dir;
+
+  private final Map<String, NodeCollection<?>> docs = new HashMap<>();
+
+  public FileNodeStore(Path dir) throws DocumentException {
+    try {
+      this.dir = Files.createDirectories(dir).toAbsolutePath().normalize();
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error creating store directory %s", dir);
+    }
+  }
+
+  private Path path(String name) throws DocumentException {
+    try {
+      Path path = dir.resolve(name).normalize();
+      if ((path.equals(dir)) || (!path.startsWith(dir))) {
+        throw new DocumentException("Illegal collection name: %s", name);
+      }
+      return path;
+    } catch (InvalidPathException e) {
+      throw new DocumentException(e, "Illegal collection name: %s", name);
+    }
+  }
+
+  private boolean isStored(Path path) {
+    return Files.exists(path.resolve(MARKER));
+  }
+
+  @Override
+  public synchronized NodeCollection<?> create(String name) throws DocumentException {
+    Path path = path(name);
+    docs.remove(name);
+    if (isStored(path)) {
+      FileNodeCollection.deleteDirectory(path);
+    }
+    try {
+      Files.createDirectories(path);
+      Files.createFile(path.resolve(MARKER));
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error creating collection %s", name);
+    }
+    FileNodeCollection coll = new FileNodeCollection(name, path);
+    docs.put(name, coll);
+    return coll;
+  }
+
+  @Override
+  public synchronized NodeCollection<?> create(String name, SubtreeParser parser) throws DocumentException {
+    NodeCollection<?> coll = create(name);
+    coll.add(parser);
+    return coll;
+  }
+
+  @Override
+  public synchronized NodeCollection<?> create(String name, Stream<SubtreeParser> parsers) throws DocumentException {
+    NodeCollection<?> coll = create(name);
+    try (Stream<SubtreeParser> parsed = FJControl.ingest(parsers, SubtreeRecorder::record)) {
+      SubtreeParser parser;
+      while ((parser = parsed.next()) != null) {
+        coll.add(parser);
+      }
+    }
+    return coll;
+  }
+
+  @Override
+  public synchronized void drop(String name) throws DocumentException {
+    boolean cached = (docs.remove(name) != null);
+    Path path = path(name);
+    if (isStored(path)) {
+      FileNodeCollection.deleteDirectory(path);
+    } else if (!cached) {
+      throw new DocumentException("Collection %s not found", name);
+    }
+  }
+
+  @Override
+  public synchronized NodeCollection<?> lookup(String name) throws DocumentException {
+    NodeCollection<?> coll = docs.get(name);
+    if (coll != null) {
+      return coll;
+    }
+    Path path = null;
+    try {
+      path = path(name);
+    } catch (DocumentException e) {
+      // not a stored collection
+    }
+    if ((path != null) && (isStored(path))) {
+      coll = FileNodeCollection.open(name, path);
+    } else {
+      // external documents are not persisted
+      try (InputStream in = URIHandler.getInputStream(URI.create(name))) {
+        coll = new ArrayNodeFactory().build(new DocumentParser(in)).getCollection();
+      } catch (IOException | IllegalArgumentException e) {
+        throw new DocumentException(e, "Collection %s not found", name);
+      }
+    }
+    docs.put(name, coll);
+    return coll;
+  }
+
+  @Override
+  public void makeDir(String path) throws DocumentException {
+    try {
+      Files.createDirectories(path(path));
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error creating directory %s", path);
+    }
+  }
+}
@@ -27,6 +27,7 @@
  */
 package org.brackit.xquery.node.d2linked;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -37,12 +38,15 @@ import org.brackit.xquery.node.parser.SubtreeHandler;
 import org.brackit.xquery.node.parser.SubtreeParser;
 import org.brackit.xquery.node.stream.AtomStream;
 import org.brackit.xquery.node.stream.EmptyStream;
+import org.brackit.xquery.xdm.Axis;
 import org.brackit.xquery.xdm.DocumentException;
 import org.brackit.xquery.xdm.Kind;
 import org.brackit.xquery.xdm.OperationNotSupportedException;
 import org.brackit.xquery.xdm.Scope;
 import org.brackit.xquery.xdm.Stream;
 import org.brackit.xquery.xdm.node.Node;
+import org.brackit.xquery.xdm.type.ElementType;
+import org.brackit.xquery.xdm.type.NodeType;
 
 /**
  * Abstract base class for memory nodes.
@@ -80,6 +84,29 @@ public abstract class D2Node extends AbstractNode<D2Node> {
 
   protected int localFragmentID = -1;
 
+  /**
+   * Pre order number and subtree size (including attributes) of this node.
+   * Valid only as long as {@link #numbering} is valid.
+   */
+  private int pre;
+
+  private int size;
+
+  private Numbering numbering;
+
+  /**
+   * Numbering of a fragment. All numbered nodes of a fragment share the
+   * same instance, so that a structural update invalidates the numbers of
+   * the whole fragment in constant time. The fragment is renumbered lazily
+   * on the next comparison. The element index of a document is attached to
+   * the numbering of the document, so that it is dropped together with the
+   * numbers by the first update.
+   */
+  private static final class Numbering {
+    volatile boolean valid;
+    volatile D2NodeIndex index;
+  }
+
   protected D2Node(ParentD2Node parent, int[] division) {
     this.parent = parent;
     this.division = division;
@@ -95,6 +122,37 @@ public abstract class D2Node extends AbstractNode<D2Node> {
     return parent;
   }
 
+  /**
+   * Returns the element index of the document of this node or
+   * <code>null</code> if the document was not indexed or has been modified
+   * since.
+   */
+  public final D2NodeIndex getIndex() {
+    Numbering n = numbering;
+    return ((n != null) && (n.valid)) ? n.index : null;
+  }
+
+  /**
+   * Attaches the element index to the numbering of this document.
+   */
+  final void attachIndex(D2NodeIndex index) {
+    Numbering n = numbering();
+    if (n != null) {
+      n.index = index;
+    }
+  }
+
+  /**
+   * Drops the element index after an update, which does not change the
+   * numbering.
+   */
+  final void dropIndex() {
+    Numbering n = numbering;
+    if (n != null) {
+      n.index = null;
+    }
+  }
+
   @Override
   public D2NodeCollection getCollection() {
     return (parent == null) ? null : getRoot().getCollection();
@@ -117,6 +175,89 @@ public abstract class D2Node extends AbstractNode<D2Node> {
     return localFragmentID;
   }
 
+  /**
+   * Returns the valid numbering of this node's fragment and numbers the
+   * fragment if necessary. Returns <code>null</code> if this node has been
+   * detached from its fragment.
+   */
+  private Numbering numbering() {
+    Numbering n = numbering;
+    return ((n != null) && (n.valid)) ? n : renumber();
+  }
+
+  /**
+   * Assigns the document order numbers of this node's fragment.
+   */
+  final void number() {
+    numbering();
+  }
+
+  /**
+   * Invalidates the numbering of this node's fragment after a structural
+   * update.
+   */
+  final void invalidateNumbering() {
+    Numbering n = numbering;
+    if (n != null) {
+      n.valid = false;
+    }
+  }
+
+  private Numbering renumber() {
+    D2Node root = getRoot();
+    synchronized (root) {
+      Numbering n = numbering;
+      if ((n != null) && (n.valid)) {
+        // numbered concurrently
+        return n;
+      }
+      Numbering rn = root.numbering;
+      if ((rn == null) || (!rn.valid)) {
+        rn = new Numbering();
+        number(root, rn);
+        // publish numbers
+        rn.valid = true;
+      }
+      // deleted nodes still point to their old parent but are not numbered
+      n = numbering;
+      return ((n != null) && (n.valid)) ? n : null;
+    }
+  }
+
+  private static void number(D2Node root, Numbering n) {
+    // number in pre order without recursion to support deeply nested
+    // fragments; the stack holds the ancestors of the current node
+    ArrayDeque<D2Node> ancestors = new ArrayDeque<D2Node>();
+    D2Node node = root;
+    int pre = 0;
+    while (true) {
+      node.pre = pre++;
+      node.numbering = n;
+      if (node instanceof ElementD2Node) {
+        for (D2Node a = ((ElementD2Node) node).firstAttribute; a != null; a = a.sibling) {
+          a.pre = pre++;
+          a.size = 1;
+          a.numbering = n;
+        }
+      }
+      D2Node c = (node instanceof ParentD2Node) ? ((ParentD2Node) node).firstChild : null;
+      if (c != null) {
+        ancestors.push(node);
+        node = c;
+        continue;
+      }
+      node.size = pre - node.pre;
+      while ((node != root) && (node.sibling == null)) {
+        node = ancestors.pop();
+        node.size = pre - node.pre;
+      }
+      if (node == root) {
+        return;
+      }
+      node = node.sibling;
+    }
+  }
+
   @Override
   protected final int cmpInternal(final D2Node node) {
     if (node == this) {
@@ -125,6 +266,10 @@ public abstract class D2Node extends AbstractNode<D2Node> {
     if (localFragmentID != node.localFragmentID) {
       return localFragmentID < node.localFragmentID ? -1 : 1;
     }
+    Numbering n = numbering();
+    if ((n != null) && (n == node.numbering())) {
+      return (pre < node.pre) ? -1 : 1;
+    }
     D2Node c = null;
     D2Node cp = this;
     while (cp != null) {
@@ -160,6 +305,13 @@ public abstract class D2Node extends AbstractNode<D2Node> {
   }
 
   protected final boolean isInSubtreeOf(D2Node n) {
+    if ((parent == null) || (n.localFragmentID != localFragmentID)) {
+      return false;
+    }
+    Numbering own = numbering();
+    if ((own != null) && (own == n.numbering())) {
+      return (n.pre < pre) && (pre < n.pre + n.size);
+    }
     D2Node a = parent;
     while (a != null) {
       if (a == n) {
@@ -332,15 +484,12 @@ public abstract class D2Node extends AbstractNode<D2Node> {
 
   @Override
   public boolean isDescendantOf(Node<?> node) {
-    // TODO: fix for sun's compiler bug using generics parent == node
-    return ((node != null) && ((parent == node) || ((parent != null) && (parent.isDescendantOf(node)))));
+    return (node instanceof D2Node) && (isInSubtreeOf((D2Node) node));
   }
 
   @Override
   public boolean isDescendantOrSelfOf(Node<?> node) {
-    // TODO: fix for sun's compiler bug using generics parent == node
-    return ((node != null) && ((this == node) || (parent == node) || ((parent != null) && (parent.isDescendantOrSelfOf(
-        node)))));
+    return (node != null) && ((this == node) || ((node instanceof D2Node) && (isInSubtreeOf((D2Node) node))));
   }
 
   @Override
@@ -354,18 +503,8 @@ public abstract class D2Node extends AbstractNode<D2Node> {
       return false;
     }
     D2Node n = (D2Node) node;
-    if (cmpInternal(n) <= 0) {
-      return false;
-    }
-    D2Node c = this.parent;
-    while (c != null) {
-      if (c == n) {
-        // n is ancestor
-        return false;
-      }
-      c = c.parent;
-    }
-    return true;
+    // n must not be an ancestor
+    return (cmpInternal(n) > 0) && (!isInSubtreeOf(n));
   }
 
   @Override
@@ -387,18 +526,8 @@ public abstract class D2Node extends AbstractNode<D2Node> {
       return false;
     }
     D2Node n = (D2Node) node;
-    if (cmpInternal(n) >= 0) {
-      return false;
-    }
-    n = n.parent;
-    while (n != null) {
-      if (n == this) {
-        // n is ancestor
-        return false;
-      }
-      n = n.parent;
-    }
-    return true;
+    // this must not be an ancestor
+    return (cmpInternal(n) < 0) && (!n.isInSubtreeOf(this));
   }
 
   @Override
@@ -458,6 +587,16 @@ public abstract class D2Node extends AbstractNode<D2Node> {
     }
   }
 
+  @Override
+  public Stream<? extends Node<?>> performStep(Axis axis, NodeType test) {
+    if (((axis != Axis.DESCENDANT) && (axis != Axis.DESCENDANT_OR_SELF)) || (!(test instanceof ElementType))
+        || (test.getQName() == null) || (test.getType() != null)) {
+      return null;
+    }
+    D2NodeIndex index = getIndex();
+    return (index != null) ? index.descendants(this, test.getQName(), axis == Axis.DESCENDANT_OR_SELF) : null;
+  }
+
   @Override
   public void parse(SubtreeHandler handler) throws DocumentException {
     new D2NodeParser(this).parse(handler);
@@ -27,11 +27,13 @@
  */
 package org.brackit.xquery.node.d2linked;
 
+import java.util.Arrays;
 import java.util.Map;
 
 import org.brackit.xquery.atomic.Atomic;
 import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.node.AbstractBuilder;
+import org.brackit.xquery.node.d2linked.D2NodeIndex.PathClass;
 import org.brackit.xquery.xdm.DocumentException;
 import org.brackit.xquery.xdm.Kind;
 
@@ -43,6 +45,13 @@ public class D2NodeBuilder extends AbstractBuilder<D2Node> {
   private final D2Node sibling;
   private final boolean right;
   private final D2NodeCollection coll;
+  private final boolean newFragment;
+
+  // index of the document currently loaded
+  private DocumentD2Node document;
+  private D2NodeIndex index;
+  private PathClass[] classes;
+  private int depth;
 
   public D2NodeBuilder(String name) throws DocumentException {
     this(new D2NodeCollection(name));
@@ -52,12 +61,14 @@ public class D2NodeBuilder extends AbstractBuilder<D2Node> {
     this.coll = coll;
     sibling = null;
     right = true;
+    newFragment = true;
   }
 
   public D2NodeBuilder() throws DocumentException {
     coll = null;
     sibling = null;
     right = true;
+    newFragment = true;
   }
 
   public D2NodeBuilder(D2Node parent, D2Node sibling, boolean right) throws DocumentException {
@@ -65,11 +76,57 @@ public class D2NodeBuilder extends AbstractBuilder<D2Node> {
     this.coll = (parent != null) ? parent.getCollection() : null;
     this.sibling = sibling;
     this.right = right;
+    newFragment = false;
   }
 
   @Override
   protected D2Node buildDocument() throws DocumentException {
-    return (coll == null) ? new DocumentD2Node() : new DocumentD2Node(coll);
+    DocumentD2Node doc = (coll == null) ? new DocumentD2Node() : new DocumentD2Node(coll);
+    if (D2NodeIndex.INDEX) {
+      document = doc;
+      index = new D2NodeIndex();
+      classes = new PathClass[8];
+      depth = 0;
+    }
+    return doc;
+  }
+
+  @Override
+  public void end() throws DocumentException {
+    super.end();
+    if (newFragment) {
+      // number the complete fragment before it is published
+      root().number();
+    }
+  }
+
+  @Override
+  public void endDocument() throws DocumentException {
+    super.endDocument();
+    if (index != null) {
+      // publish the index only for the complete document
+      index.trim();
+      document.attachIndex(index);
+      document = null;
+      index = null;
+      classes = null;
+    }
+  }
+
+  @Override
+  public <T extends D2Node> void endElement(T node) throws DocumentException {
+    super.endElement(node);
+    if (index != null) {
+      depth--;
+    }
+  }
+
+  @Override
+  public void endElement(QNm name) throws DocumentException {
+    super.endElement(name);
+    if (index != null) {
+      depth--;
+    }
   }
 
   @Override
@@ -104,6 +161,14 @@ public class D2NodeBuilder extends AbstractBuilder<D2Node> {
       e = (ElementD2Node) first(Kind.ELEMENT, name, null);
     }
     e.nsMappings = nsMappings;
+    if (index != null) {
+      PathClass pc = index.pathClass((depth > 0) ? classes[depth - 1] : null, name);
+      index.add(pc, e);
+      if (depth == classes.length) {
+        classes = Arrays.copyOf(classes, depth * 2);
+      }
+      classes[depth++] = pc;
+    }
     return e;
   }
 
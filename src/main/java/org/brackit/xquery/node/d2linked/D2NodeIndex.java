@@ -0,0 +1,243 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.d2linked;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.node.stream.DocumentOrderMergeStream;
+import org.brackit.xquery.node.stream.EmptyStream;
+import org.brackit.xquery.util.Cfg;
+import org.brackit.xquery.util.path.Path;
+import org.brackit.xquery.util.path.PathException;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Stream;
+
+/**
+ * Element index of a single document. It is built by {@link D2NodeBuilder}
+ * while a document is loaded, and it is dropped as soon as the document is
+ * modified.
+ * <p>
+ * The index maps element names and path classes, i.e., distinct
+ * root-to-node paths of element names (a path summary), to the lists of
+ * matching elements. All lists are in document order, because elements are
+ * added in the order they are parsed. A lookup of all elements with a given
+ * name below a context node costs a binary search plus the number of matches.
+ * </p>
+ */
+public class D2NodeIndex {
+
+  public static final String INDEX_CFG = "org.brackit.xquery.d2.index";
+
+  /**
+   * Build indexes for loaded documents.
+   */
+  public static boolean INDEX = Cfg.asBool(INDEX_CFG, true);
+
+  /**
+   * Node of the path summary.
+   */
+  public static final class PathClass {
+    private final PathClass parent;
+    private final QNm name;
+    private final ArrayList<D2Node> nodes = new ArrayList<>();
+    private Map<QNm, PathClass> children;
+
+    private PathClass(PathClass parent, QNm name) {
+      this.parent = parent;
+      this.name = name;
+    }
+
+    public QNm getName() {
+      return name;
+    }
+
+    public PathClass getParent() {
+      return parent;
+    }
+
+    /**
+     * Returns the number of elements in this path class.
+     */
+    public int getCount() {
+      return nodes.size();
+    }
+
+    public Path<QNm> getPath() {
+      return (parent == null) ? new Path<QNm>().child(name) : parent.getPath().child(name);
+    }
+
+    @Override
+    public String toString() {
+      return getPath().toString();
+    }
+  }
+
+  private final Map<QNm, ArrayList<D2Node>> names = new HashMap<>();
+
+  private final Map<QNm, PathClass> roots = new HashMap<>();
+
+  private final List<PathClass> classes = new ArrayList<>();
+
+  /**
+   * Returns the path class of element <code>name</code> below an element of
+   * path class <code>parent</code>.
+   */
+  PathClass pathClass(PathClass parent, QNm name) {
+    Map<QNm, PathClass> m;
+    if (parent == null) {
+      m = roots;
+    } else {
+      if (parent.children == null) {
+        parent.children = new HashMap<>();
+      }
+      m = parent.children;
+    }
+    PathClass pc = m.get(name);
+    if (pc == null) {
+      pc = new PathClass(parent, name);
+      m.put(name, pc);
+      classes.add(pc);
+    }
+    return pc;
+  }
+
+  /**
+   * Adds the next element in document order.
+   */
+  void add(PathClass pc, D2Node element) {
+    pc.nodes.add(element);
+    names.computeIfAbsent(pc.name, k -> new ArrayList<>()).add(element);
+  }
+
+  void trim() {
+    for (ArrayList<D2Node> list : names.values()) {
+      list.trimToSize();
+    }
+    for (PathClass pc : classes) {
+      pc.nodes.trimToSize();
+    }
+  }
+
+  /**
+   * Returns all path classes of the path summary.
+   */
+  public List<PathClass> getPathClasses() {
+    return Collections.unmodifiableList(classes);
+  }
+
+  /**
+   * Returns the number of elements with the given name.
+   */
+  public int getCount(QNm name) {
+    List<D2Node> list = names.get(name);
+    return (list != null) ? list.size() : 0;
+  }
+
+  /**
+   * Returns all elements with the given name, which are descendants (or
+   * self) of <code>context</code>, in document order.
+   */
+  public Stream<D2Node> descendants(D2Node context, QNm name, boolean self) {
+    List<D2Node> list = names.get(name);
+    if (list == null) {
+      return new EmptyStream<>();
+    }
+    if (context.parent == null) {
+      // whole document
+      return new ListStream(list, 0, null);
+    }
+    int low = 0;
+    int high = list.size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int c = list.get(mid).cmp(context);
+      if (c < 0) {
+        low = mid + 1;
+      } else if (c > 0) {
+        high = mid - 1;
+      } else {
+        low = (self) ? mid : mid + 1;
+        break;
+      }
+    }
+    return new ListStream(list, low, context);
+  }
+
+  /**
+   * Returns all elements of the path classes matching the given pattern in
+   * document order.
+   */
+  public Stream<D2Node> paths(Path<QNm> pattern) throws PathException {
+    List<ListStream> streams = new ArrayList<>();
+    for (PathClass pc : classes) {
+      if (pattern.matches(pc.getPath())) {
+        streams.add(new ListStream(pc.nodes, 0, null));
+      }
+    }
+    if (streams.isEmpty()) {
+      return new EmptyStream<>();
+    }
+    return (streams.size() == 1) ? streams.get(0) : new DocumentOrderMergeStream<>(streams);
+  }
+
+  private static final class ListStream implements Stream<D2Node> {
+    private final List<D2Node> list;
+    private final D2Node context;
+    private int pos;
+
+    ListStream(List<D2Node> list, int pos, D2Node context) {
+      this.list = list;
+      this.pos = pos;
+      this.context = context;
+    }
+
+    @Override
+    public D2Node next() throws DocumentException {
+      if (pos == list.size()) {
+        return null;
+      }
+      D2Node n = list.get(pos);
+      if ((context != null) && (n != context) && (!n.isInSubtreeOf(context))) {
+        pos = list.size();
+        return null;
+      }
+      pos++;
+      return n;
+    }
+
+    @Override
+    public void close() {
+      pos = list.size();
+    }
+  }
+}
@@ -163,6 +163,7 @@ public final class ElementD2Node extends ParentD2Node implements Scope {
 
   @Override
   public boolean deleteAttribute(QNm name) throws OperationNotSupportedException, DocumentException {
+    invalidateNumbering();
     D2Node prev = null;
     for (D2Node attribute = firstAttribute; attribute != null; attribute = attribute.sibling) {
       if (attribute.getName().equals(name)) {
@@ -190,6 +191,7 @@ public final class ElementD2Node extends ParentD2Node implements Scope {
   @Override
   public D2Node setAttribute(QNm name, Atomic value) throws OperationNotSupportedException, DocumentException {
     checkName(name);
+    invalidateNumbering();
     if (firstAttribute == null) {
       return (firstAttribute = new AttributeD2Node(this, name, value));
     } else {
@@ -207,6 +209,7 @@ public final class ElementD2Node extends ParentD2Node implements Scope {
   @Override
   public void setName(QNm name) throws OperationNotSupportedException, DocumentException {
     this.name = checkName(name);
+    dropIndex();
   }
 
   @Override
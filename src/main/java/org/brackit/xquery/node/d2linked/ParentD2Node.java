@@ -27,11 +27,16 @@
  */
 package org.brackit.xquery.node.d2linked;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
 import org.brackit.xquery.atomic.Atomic;
 import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
 import org.brackit.xquery.atomic.Una;
 import org.brackit.xquery.node.parser.SubtreeParser;
 import org.brackit.xquery.node.stream.EmptyStream;
+import org.brackit.xquery.util.Cfg;
 import org.brackit.xquery.xdm.DocumentException;
 import org.brackit.xquery.xdm.Kind;
 import org.brackit.xquery.xdm.OperationNotSupportedException;
@@ -44,8 +49,28 @@ import org.brackit.xquery.xdm.node.Node;
  * @author Sebastian Baechle
  */
 abstract class ParentD2Node extends D2Node {
+  public static final String VALUE_CACHE_LIMIT_CFG = "org.brackit.xquery.d2.valueCacheLimit";
+
+  /**
+   * Maximum length of string values which are cached in element and document
+   * nodes.
+   */
+  public static int VALUE_CACHE_LIMIT = Cfg.asInt(VALUE_CACHE_LIMIT_CFG, 1024);
+
+  /**
+   * Marks computed values which exceeded {@link #VALUE_CACHE_LIMIT}.
+   */
+  private static final Una LARGE = new Una("");
+
   protected D2Node firstChild;
 
+  /**
+   * Cached string value or {@link #LARGE}. If a node has a cached value, so
+   * have all element descendants. Invalidation can thus stop at the first
+   * ancestor without a cached value.
+   */
+  private Una value;
+
   protected static class SiblingStream implements Stream<D2Node> {
     D2Node node;
 
@@ -190,20 +215,84 @@ abstract class ParentD2Node extends D2Node {
 
   @Override
   public Atomic getValue() throws DocumentException {
-    StringBuilder buffer = new StringBuilder();
-    Stream<D2Node> scanner = new DescendantScanner(this);
-    try {
-      D2Node descendant;
-      while ((descendant = scanner.next()) != null) {
-        if (descendant.getKind() == Kind.TEXT) {
-          buffer.append(descendant.getValue());
+    Una v = value;
+    if ((v != null) && (v != LARGE)) {
+      return v;
+    }
+    // compute the values of all uncached element descendants
+    // bottom-up without recursion to cope with deep documents
+    ArrayList<ParentD2Node> pending = new ArrayList<ParentD2Node>();
+    pending.add(this);
+    if (v == null) {
+      for (int i = 0; i < pending.size(); i++) {
+        for (D2Node c = pending.get(i).firstChild; c != null; c = c.sibling) {
+          if ((c instanceof ParentD2Node) && (((ParentD2Node) c).value == null)) {
+            pending.add((ParentD2Node) c);
+          }
         }
       }
-    } finally {
-      scanner.close();
     }
+    for (int i = pending.size() - 1; i >= 0; i--) {
+      v = pending.get(i).buildValue();
+    }
+    return v;
+  }
 
-    return new Una(buffer.toString());
+  @Override
+  public Str getStrValue() {
+    return getValue().asStr();
+  }
+
+  private Una buildValue() {
+    Una v;
+    D2Node c = firstChild;
+    if (c == null) {
+      v = Una.EMPTY;
+    } else if ((c.sibling == null) && (c.getKind() == Kind.TEXT)) {
+      v = ((TextD2Node) c).value;
+    } else if ((c.sibling == null) && (c instanceof ParentD2Node) && (((ParentD2Node) c).value != LARGE)) {
+      v = ((ParentD2Node) c).value;
+    } else {
+      StringBuilder buffer = new StringBuilder();
+      appendValue(buffer);
+      v = new Una(buffer.toString());
+    }
+    value = (v.str.length() <= VALUE_CACHE_LIMIT) ? v : LARGE;
+    return v;
+  }
+
+  private void appendValue(StringBuilder buffer) {
+    // descend only into children whose value is too large to be cached
+    ArrayDeque<D2Node> next = new ArrayDeque<D2Node>();
+    D2Node c = firstChild;
+    while (true) {
+      if (c == null) {
+        if (next.isEmpty()) {
+          return;
+        }
+        c = next.pop();
+      }
+      if (c.getKind() == Kind.TEXT) {
+        buffer.append(((TextD2Node) c).value.str);
+      } else if (c instanceof ParentD2Node) {
+        Una v = ((ParentD2Node) c).value;
+        if (v == LARGE) {
+          if (c.sibling != null) {
+            next.push(c.sibling);
+          }
+          c = ((ParentD2Node) c).firstChild;
+          continue;
+        }
+        buffer.append(v.str);
+      }
+      c = c.sibling;
+    }
+  }
+
+  final void invalidateValue() {
+    for (ParentD2Node n = this; (n != null) && (n.value != null); n = n.parent) {
+      n.value = null;
+    }
   }
 
   D2Node nextSiblingOf(D2Node node) {
@@ -226,6 +315,8 @@ abstract class ParentD2Node extends D2Node {
     if ((getKind() == Kind.DOCUMENT) && (node.getKind() == Kind.ELEMENT)) {
       throw new DocumentException("The root element must not be deleted");
     }
+    invalidateNumbering();
+    invalidateValue();
 
     D2Node prev = previousSiblingOf(node);
     if (prev == null)
@@ -235,6 +326,8 @@ abstract class ParentD2Node extends D2Node {
   }
 
   D2Node insertChild(D2Node sibling, Kind kind, QNm name, Atomic value, boolean right) throws DocumentException {
+    invalidateNumbering();
+    invalidateValue();
 
     if ((getKind() == Kind.DOCUMENT) && (kind == Kind.ELEMENT)) {
       for (D2Node c = firstChild; c != null; c = c.sibling) {
@@ -309,10 +402,10 @@ abstract class ParentD2Node extends D2Node {
         != Kind.ELEMENT)) {
       throw new DocumentException("Cannot replace root element with of kind: %s", kind);
     }
+    invalidateNumbering();
+    invalidateValue();
 
-    D2Node previous = firstChild;
-    while ((previous.sibling != null) && (previous.sibling != sibling))
-      previous = previous.sibling;
+    D2Node previous = previousSiblingOf(sibling);
 
     D2Node child = buildChild(sibling.division, kind, name, value);
 
@@ -67,6 +67,9 @@ public final class TextD2Node extends D2Node {
   @Override
   public void setValue(Atomic value) throws OperationNotSupportedException, DocumentException {
     this.value = value.asUna();
+    if (parent != null) {
+      parent.invalidateValue();
+    }
   }
 
   @Override
@@ -28,12 +28,15 @@
 package org.brackit.xquery.node.parser;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import org.brackit.xquery.util.Cfg;
 import org.brackit.xquery.xdm.DocumentException;
@@ -49,9 +52,24 @@ import org.xml.sax.helpers.XMLReaderFactory;
 public class DocumentParser implements SubtreeParser {
   public final static String IGNORE_COMMENTS = "org.brackit.xquery.node.parser.DocumentParser.ignoreComments";
 
-  private final XMLReader xmlReader;
+  /**
+   * Parse XML 1.0 documents in UTF-8 without a document type declaration
+   * with a {@link PullDocumentParser} instead of SAX (enabled by default).
+   * All other documents and documents given as an {@link InputSource} are
+   * still parsed with SAX. Note that an input stream is read completely
+   * before it is parsed.
+   */
+  public final static String PULL_PARSER = "org.brackit.xquery.node.parser.DocumentParser.pullParser";
 
-  private final InputSource source;
+  private final File file;
+
+  private final String fragment;
+
+  private InputStream in;
+
+  private byte[] bytes;
+
+  private InputSource source;
 
   private DTDHandler dtdHandler;
 
@@ -62,7 +80,11 @@ public class DocumentParser implements SubtreeParser {
   private String baseDir;
 
   public DocumentParser(File xmlFile) throws DocumentException, FileNotFoundException {
-    this(new InputSource(new BufferedReader(new FileReader(xmlFile))));
+    if (!xmlFile.isFile()) {
+      throw new FileNotFoundException(xmlFile.getPath());
+    }
+    file = xmlFile;
+    fragment = null;
     File dir = xmlFile.getParentFile();
     if (dir != null) {
       baseDir = dir.getAbsolutePath();
@@ -70,23 +92,38 @@ public class DocumentParser implements SubtreeParser {
   }
 
   public DocumentParser(String xmlFragment) throws DocumentException {
-    this(new InputSource(new StringReader(xmlFragment)));
+    file = null;
+    fragment = xmlFragment;
   }
 
   public DocumentParser(InputStream in) throws DocumentException {
-    this(new InputSource(in));
+    file = null;
+    fragment = null;
+    this.in = in;
   }
 
   public DocumentParser(InputSource source) throws DocumentException {
+    file = null;
+    fragment = null;
     this.source = source;
-    try {
-      xmlReader = XMLReaderFactory.createXMLReader();
-    } catch (SAXException e) {
-      throw new DocumentException(e, "Error creating document parser.");
-    }
   }
 
-  public InputSource getSource() {
+  public InputSource getSource() throws DocumentException {
+    if (source == null) {
+      if (file != null) {
+        try {
+          source = new InputSource(new BufferedReader(new FileReader(file)));
+        } catch (FileNotFoundException e) {
+          throw new DocumentException(e, "Error parsing document.");
+        }
+      } else if (fragment != null) {
+        source = new InputSource(new StringReader(fragment));
+      } else if (bytes != null) {
+        source = new InputSource(new ByteArrayInputStream(bytes));
+      } else {
+        source = new InputSource(in);
+      }
+    }
     return source;
   }
 
@@ -100,7 +137,24 @@ public class DocumentParser implements SubtreeParser {
 
   @Override
   public void parse(SubtreeHandler handler) throws DocumentException {
+    if ((source == null) && (Cfg.asBool(PULL_PARSER, true))) {
+      ByteBuffer input = input();
+      if (PullDocumentParser.accepts(input)) {
+        PullDocumentParser parser = new PullDocumentParser(input);
+        parser.setRetainWhitespace(retainWhitespace);
+        parser.setParseAsFragment(parseAsFragment);
+        parser.setIgnoreComments(Cfg.asBool(IGNORE_COMMENTS, false));
+        parser.parse(handler);
+        return;
+      }
+    }
     try {
+      XMLReader xmlReader;
+      try {
+        xmlReader = XMLReaderFactory.createXMLReader();
+      } catch (SAXException e) {
+        throw new DocumentException(e, "Error creating document parser.");
+      }
       SAX2SubtreeHandlerAdapter handlerAdapter = new SAX2SubtreeHandlerAdapter(handler);
       if (retainWhitespace) {
         handlerAdapter.setRetainWhitespace(true);
@@ -119,11 +173,29 @@ public class DocumentParser implements SubtreeParser {
       //					"http://xml.org/sax/features/namespace-prefixes", true);
       if (!Cfg.asBool(IGNORE_COMMENTS, false))
         xmlReader.setProperty("http://xml.org/sax/properties/lexical-handler", handlerAdapter);
-      xmlReader.parse(source);
+      xmlReader.parse(getSource());
     } catch (SAXException e) {
       throw new DocumentException(e, "Error parsing document.");
     } catch (IOException e) {
       throw new DocumentException(e, "Error parsing document.");
     }
   }
-}
\ No newline at end of file
+
+  private ByteBuffer input() throws DocumentException {
+    if (file != null) {
+      return PullDocumentParser.read(file.toPath());
+    }
+    if (fragment != null) {
+      return ByteBuffer.wrap(fragment.getBytes(StandardCharsets.UTF_8));
+    }
+    if (bytes == null) {
+      // keep the bytes for parsing with SAX
+      try (InputStream in = this.in) {
+        bytes = in.readAllBytes();
+      } catch (IOException e) {
+        throw new DocumentException(e, "Error parsing document.");
+      }
+    }
+    return ByteBuffer.wrap(bytes);
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.parser;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.util.path.Path;
+import org.brackit.xquery.util.path.Path.Step;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Kind;
+import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.node.Node;
+import org.brackit.xquery.xdm.node.NodeFactory;
+
+/**
+ * Evaluates a path of child and descendant element steps on the events of a
+ * parsed document, and materializes only the subtrees of matching elements.
+ * <p>
+ * For each open element, a bit set records the steps matched by the element
+ * itself, and a second bit set records the steps matched by an ancestor,
+ * which are followed by a descendant step. Both are derived from the parent
+ * when an element starts, so the memory needed is proportional to the depth
+ * of the document and the size of the largest matched subtree.
+ * </p>
+ * <p>
+ * Matches are reported in document order. A match within the subtree of
+ * another match is reported as node of the materialized subtree, after the
+ * enclosing match.
+ * </p>
+ */
+public abstract class PathFilter extends DefaultHandler {
+
+  private final NodeFactory<?> factory;
+
+  // name tests of the steps 1..n; null is a wildcard
+  private final QNm[] tests;
+
+  // bit k - 1 is set if step k is a descendant step
+  private final long descendant;
+
+  private final int last;
+
+  // matched steps per open element; bit 0 stands for the document node
+  private long[] matched = new long[32];
+
+  // steps matched by ancestors, which are followed by a descendant step
+  private long[] inherited = new long[32];
+
+  private int depth;
+
+  // namespace mappings of the next element
+  private String[] mappings = new String[8];
+  private int mappingCount;
+
+  // subtree of the current match
+  private SubtreeRecorder recorder;
+  private int recordDepth;
+  private int elements;
+  private int[] nested = new int[8];
+  private int nestedCount;
+
+  public PathFilter(NodeFactory<?> factory, Path<QNm> path) {
+    List<Step<QNm>> steps = path.steps();
+    if ((steps.isEmpty()) || (steps.size() > 62)) {
+      throw new IllegalArgumentException("Illegal path length: " + steps.size());
+    }
+    this.factory = factory;
+    this.last = steps.size();
+    this.tests = new QNm[last + 1];
+    long descendant = 0;
+    for (int i = 0; i < last; i++) {
+      Step<QNm> step = steps.get(i);
+      if (step.getAxis() == Path.Axis.DESC) {
+        descendant |= 1L << i;
+      } else if (step.getAxis() != Path.Axis.CHILD) {
+        throw new IllegalArgumentException("Illegal axis: " + step.getAxis());
+      }
+      tests[i + 1] = step.getValue();
+    }
+    this.descendant = descendant;
+  }
+
+  /**
+   * Reports a matching element.
+   */
+  protected abstract void output(Node<?> node) throws DocumentException;
+
+  @Override
+  public void begin() throws DocumentException {
+    depth = 0;
+    matched[0] = 1L;
+    inherited[0] = 0L;
+    mappingCount = 0;
+    recorder = null;
+  }
+
+  @Override
+  public void startMapping(String prefix, String uri) throws DocumentException {
+    if (recorder != null) {
+      recorder.startMapping(prefix, uri);
+      return;
+    }
+    if (mappingCount + 2 > mappings.length) {
+      mappings = Arrays.copyOf(mappings, mappings.length * 2);
+    }
+    mappings[mappingCount++] = prefix;
+    mappings[mappingCount++] = uri;
+  }
+
+  @Override
+  public void endMapping(String prefix) throws DocumentException {
+    if (recorder != null) {
+      recorder.endMapping(prefix);
+    }
+  }
+
+  @Override
+  public void startElement(QNm name) throws DocumentException {
+    long parent = matched[depth];
+    long ancestors = inherited[depth] | (parent & descendant);
+    long steps = 0;
+    if ((parent | ancestors) != 0) {
+      for (int k = 1; k <= last; k++) {
+        long prev = 1L << (k - 1);
+        if ((((descendant & prev) != 0) ? (ancestors & prev) : (parent & prev)) != 0) {
+          QNm test = tests[k];
+          if ((test == null) || (test.eq(name))) {
+            steps |= 1L << k;
+          }
+        }
+      }
+    }
+    if (++depth == matched.length) {
+      matched = Arrays.copyOf(matched, depth * 2);
+      inherited = Arrays.copyOf(inherited, depth * 2);
+    }
+    matched[depth] = steps;
+    inherited[depth] = ancestors;
+    boolean match = ((steps & (1L << last)) != 0);
+
+    if (recorder != null) {
+      if (match) {
+        if (nestedCount == nested.length) {
+          nested = Arrays.copyOf(nested, nestedCount * 2);
+        }
+        nested[nestedCount++] = elements;
+      }
+      elements++;
+      recorder.startElement(name);
+    } else if (match) {
+      recorder = new SubtreeRecorder();
+      recorder.begin();
+      recorder.beginFragment();
+      for (int i = 0; i < mappingCount; i += 2) {
+        recorder.startMapping(mappings[i], mappings[i + 1]);
+      }
+      recorder.startElement(name);
+      recordDepth = depth;
+      elements = 1;
+      nestedCount = 0;
+    }
+    mappingCount = 0;
+  }
+
+  @Override
+  public void endElement(QNm name) throws DocumentException {
+    if (recorder != null) {
+      recorder.endElement(name);
+      if (depth == recordDepth) {
+        recorder.endFragment();
+        recorder.end();
+        SubtreeRecorder subtree = recorder;
+        recorder = null;
+        Node<?> node = factory.build(subtree);
+        output(node);
+        if (nestedCount > 0) {
+          outputNested(node);
+        }
+      }
+    }
+    depth--;
+  }
+
+  private void outputNested(Node<?> node) throws DocumentException {
+    int element = 0;
+    int next = 0;
+    try (Stream<? extends Node<?>> subtree = node.getSubtree()) {
+      Node<?> n;
+      while ((next < nestedCount) && ((n = subtree.next()) != null)) {
+        if (n.getKind() != Kind.ELEMENT) {
+          continue;
+        }
+        if (element++ == nested[next]) {
+          output(n);
+          next++;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void attribute(QNm name, Atomic value) throws DocumentException {
+    if (recorder != null) {
+      recorder.attribute(name, value);
+    }
+  }
+
+  @Override
+  public void text(Atomic content) throws DocumentException {
+    if (recorder != null) {
+      recorder.text(content);
+    }
+  }
+
+  @Override
+  public void comment(Atomic content) throws DocumentException {
+    if (recorder != null) {
+      recorder.comment(content);
+    }
+  }
+
+  @Override
+  public void processingInstruction(QNm target, Atomic content) throws DocumentException {
+    if (recorder != null) {
+      recorder.processingInstruction(target, content);
+    }
+  }
+}
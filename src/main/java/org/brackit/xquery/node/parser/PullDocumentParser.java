@@ -0,0 +1,1088 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.atomic.Una;
+import org.brackit.xquery.xdm.DocumentException;
+
+/**
+ * Pull parser for UTF-8 encoded XML documents, which reads a byte buffer,
+ * e.g., a memory-mapped file, and reports the document directly to a
+ * {@link SubtreeHandler}.
+ * <p>
+ * Names are decoded only once per document: a table maps the bytes of a
+ * name to a shared entry, which also caches the last {@link QNm} built for
+ * it. Only text and attribute values are decoded into new strings.
+ * </p>
+ * <p>
+ * The events are the same as those of a {@link DocumentParser} with a SAX
+ * parser. Like SAX, the parser checks that documents are well-formed and
+ * namespace-well-formed, i.e., it checks characters, names and namespace
+ * declarations. XML 1.1 documents, documents with a document type
+ * declaration and documents in another encoding than UTF-8 are not
+ * supported (see {@link #accepts(ByteBuffer)}).
+ * </p>
+ */
+public class PullDocumentParser implements SubtreeParser {
+
+  private static final String XML_NSURI = "http://www.w3.org/XML/1998/namespace";
+
+  private static final String XMLNS_NSURI = "http://www.w3.org/2000/xmlns/";
+
+  private static final byte[] BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+  private static final byte[] XML_DECL = ascii("<?xml");
+  private static final byte[] PI_START = ascii("<?");
+  private static final byte[] PI_END = ascii("?>");
+  private static final byte[] COMMENT_START = ascii("<!--");
+  private static final byte[] COMMENT_END = ascii("-->");
+  private static final byte[] DOUBLE_HYPHEN = ascii("--");
+  private static final byte[] CDATA_START = ascii("<![CDATA[");
+  private static final byte[] CDATA_END = ascii("]]>");
+  private static final byte[] DOCTYPE = ascii("<!DOCTYPE");
+
+  /**
+   * Files larger than this are memory-mapped instead of read.
+   */
+  private static final long MAP_THRESHOLD = 1 << 20;
+
+  private static final class Name {
+    final byte[] bytes;
+    final int hash;
+    final String qname;
+    final String prefix;
+    final String local;
+    Name next;
+    // last qualified name built for this name
+    String uri;
+    QNm qnm;
+
+    Name(byte[] bytes, int hash, String qname) {
+      this.bytes = bytes;
+      this.hash = hash;
+      this.qname = qname;
+      int colon = qname.indexOf(':');
+      this.prefix = (colon > 0) ? qname.substring(0, colon) : null;
+      this.local = (colon > 0) ? qname.substring(colon + 1) : qname;
+    }
+  }
+
+  private final ByteBuffer buf;
+
+  private boolean retainWhitespace;
+
+  private boolean parseAsFragment;
+
+  private boolean ignoreComments;
+
+  private SubtreeHandler handler;
+
+  private int pos;
+
+  private int end;
+
+  private Name[] names = new Name[256];
+
+  private int nameCount;
+
+  private final Map<String, String> uris = new HashMap<>();
+
+  // element stack
+  private Name[] stack = new Name[32];
+  private QNm[] qnms = new QNm[32];
+  private int[] nsMarks = new int[32];
+  private int depth;
+
+  // in-scope namespace declarations
+  private String[] nsPrefixes = new String[8];
+  private String[] nsUris = new String[8];
+  private int nsCount;
+
+  // attributes of the current start tag
+  private Name[] attNames = new Name[8];
+  private String[] attValues = new String[8];
+  private int attCount;
+
+  // pending text or comment as in SAX2SubtreeHandlerAdapter
+  private char[] content = new char[64];
+  private int contentStart;
+  private int contentEnd;
+  private boolean inComment;
+
+  // scratch buffer for attribute values
+  private char[] value = new char[64];
+  private int valueLength;
+
+  public PullDocumentParser(ByteBuffer buf) {
+    this.buf = buf;
+  }
+
+  public PullDocumentParser(Path file) throws DocumentException {
+    this(read(file));
+  }
+
+  /**
+   * Reads a file, or maps it into memory if it is large.
+   */
+  public static ByteBuffer read(Path file) throws DocumentException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > MAP_THRESHOLD) {
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+      return ByteBuffer.wrap(Files.readAllBytes(file));
+    } catch (IOException e) {
+      throw new DocumentException(e, "Error reading %s", file);
+    }
+  }
+
+  /**
+   * Checks the prolog of a document, i.e., whether it is an XML 1.0
+   * document encoded in UTF-8 without a document type declaration.
+   */
+  public static boolean accepts(ByteBuffer buf) {
+    int p = buf.position();
+    int end = buf.limit();
+    if ((end - p >= 2) && ((buf.get(p) == 0) || (buf.get(p + 1) == 0) || ((buf.get(p) & 0xFE) == 0xFE))) {
+      // UTF-16 or UTF-32
+      return false;
+    }
+    if (startsWith(buf, p, end, BOM)) {
+      p += 3;
+    }
+    if (startsWith(buf, p, end, XML_DECL) && (p + 5 < end) && (buf.get(p + 5) <= ' ')) {
+      int declEnd = indexOf(buf, p, end, PI_END);
+      if (declEnd < 0) {
+        return false;
+      }
+      String decl = new String(bytes(buf, p, declEnd), StandardCharsets.US_ASCII);
+      String version = declValue(decl, "version");
+      if ((version == null) || (!version.equals("1.0"))) {
+        return false;
+      }
+      if ((decl.contains("encoding")) && (!utf8(declValue(decl, "encoding")))) {
+        return false;
+      }
+      p = declEnd + 2;
+    }
+    while (p < end) {
+      byte b = buf.get(p);
+      if (b <= ' ') {
+        p++;
+      } else if (startsWith(buf, p, end, COMMENT_START)) {
+        p = indexOf(buf, p + 4, end, COMMENT_END);
+        if (p < 0) {
+          return false;
+        }
+        p += 3;
+      } else if (startsWith(buf, p, end, PI_START)) {
+        p = indexOf(buf, p + 2, end, PI_END);
+        if (p < 0) {
+          return false;
+        }
+        p += 2;
+      } else {
+        return !startsWith(buf, p, end, DOCTYPE);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the value of a pseudo-attribute of an XML declaration or
+   * <code>null</code> if it is missing or malformed.
+   */
+  private static String declValue(String decl, String name) {
+    int e = decl.indexOf(name);
+    if (e < 0) {
+      return null;
+    }
+    int q = e + name.length();
+    while ((q < decl.length()) && ((decl.charAt(q) <= ' ') || (decl.charAt(q) == '='))) {
+      q++;
+    }
+    if (q == decl.length()) {
+      return null;
+    }
+    int close = decl.indexOf(decl.charAt(q), q + 1);
+    return (close < 0) ? null : decl.substring(q + 1, close);
+  }
+
+  private static boolean utf8(String encoding) {
+    if (encoding == null) {
+      return false;
+    }
+    encoding = encoding.toUpperCase(Locale.ROOT);
+    return (encoding.equals("UTF-8")) || (encoding.equals("UTF8")) || (encoding.equals("US-ASCII"))
+        || (encoding.equals("ASCII"));
+  }
+
+  private static byte[] ascii(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private static boolean startsWith(ByteBuffer buf, int p, int end, byte[] b) {
+    if (p + b.length > end) {
+      return false;
+    }
+    for (int i = 0; i < b.length; i++) {
+      if (buf.get(p + i) != b[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(ByteBuffer buf, int p, int end, byte[] s) {
+    byte first = s[0];
+    for (; p < end; p++) {
+      if ((buf.get(p) == first) && (startsWith(buf, p, end, s))) {
+        return p;
+      }
+    }
+    return -1;
+  }
+
+  private static byte[] bytes(ByteBuffer buf, int from, int to) {
+    byte[] b = new byte[to - from];
+    for (int i = 0; i < b.length; i++) {
+      b[i] = buf.get(from + i);
+    }
+    return b;
+  }
+
+  public void setRetainWhitespace(boolean retainWhitespace) {
+    this.retainWhitespace = retainWhitespace;
+  }
+
+  public void setParseAsFragment(boolean parseAsFragment) {
+    this.parseAsFragment = parseAsFragment;
+  }
+
+  public void setIgnoreComments(boolean ignoreComments) {
+    this.ignoreComments = ignoreComments;
+  }
+
+  @Override
+  public void parse(SubtreeHandler handler) throws DocumentException {
+    this.handler = handler;
+    pos = buf.position();
+    end = buf.limit();
+    depth = 0;
+    nsCount = 0;
+    contentStart = contentEnd = 0;
+    inComment = false;
+
+    handler.begin();
+    handler.beginFragment();
+    if (!parseAsFragment) {
+      handler.startDocument();
+    }
+    if (startsWith(buf, pos, end, BOM)) {
+      pos += 3;
+    }
+    if (startsWith(buf, pos, end, XML_DECL) && (pos + 5 < end) && (buf.get(pos + 5) <= ' ')) {
+      pos = skipTo(PI_END);
+    }
+    boolean root = false;
+    while (pos < end) {
+      byte b = buf.get(pos);
+      if (b == '<') {
+        byte c = (pos + 1 < end) ? buf.get(pos + 1) : 0;
+        if (c == '/') {
+          endTag();
+        } else if (c == '?') {
+          processingInstruction();
+        } else if (c == '!') {
+          if (startsWith(buf, pos, end, COMMENT_START)) {
+            comment();
+          } else if ((depth > 0) && (startsWith(buf, pos, end, CDATA_START))) {
+            cdata();
+          } else {
+            throw error("Unexpected markup");
+          }
+        } else {
+          if ((depth == 0) && (root)) {
+            throw error("Multiple root elements");
+          }
+          root = true;
+          startTag();
+        }
+      } else if (depth > 0) {
+        text();
+      } else if (isSpace(b)) {
+        pos++;
+      } else {
+        throw error("Content outside of the root element");
+      }
+    }
+    if ((!root) || (depth > 0)) {
+      throw error("Unexpected end of document");
+    }
+    handleText();
+    if (!parseAsFragment) {
+      handler.endDocument();
+    }
+    handler.endFragment();
+    handler.end();
+    this.handler = null;
+  }
+
+  private DocumentException error(String msg) {
+    try {
+      handler.fail();
+    } catch (DocumentException ignored) {
+    }
+    return new DocumentException("Error parsing document: %s at offset %s.", msg, pos);
+  }
+
+  // --- markup ---
+
+  private void startTag() throws DocumentException {
+    pos++;
+    Name name = name();
+    attCount = 0;
+    int mark = nsCount;
+    boolean empty;
+    while (true) {
+      boolean space = skipSpace();
+      byte b = get(pos);
+      if (b == '>') {
+        pos++;
+        empty = false;
+        break;
+      }
+      if (b == '/') {
+        if (get(pos + 1) != '>') {
+          throw error("Expected '>'");
+        }
+        pos += 2;
+        empty = true;
+        break;
+      }
+      if (!space) {
+        throw error("Expected whitespace");
+      }
+      Name att = name();
+      skipSpace();
+      if (get(pos) != '=') {
+        throw error("Expected '='");
+      }
+      pos++;
+      skipSpace();
+      String val = attributeValue();
+      if (att.qname.startsWith("xmlns") && ((att.qname.length() == 5) || (att.prefix != null)
+                                             && (att.prefix.equals("xmlns")))) {
+        String prefix = (att.prefix == null) ? "" : att.local;
+        declare(prefix, val, mark);
+      } else {
+        for (int i = 0; i < attCount; i++) {
+          if (attNames[i] == att) {
+            throw error("Duplicate attribute " + att.qname);
+          }
+        }
+        if (attCount == attNames.length) {
+          attNames = Arrays.copyOf(attNames, attCount * 2);
+          attValues = Arrays.copyOf(attValues, attCount * 2);
+        }
+        attNames[attCount] = att;
+        attValues[attCount++] = val;
+      }
+    }
+
+    for (int i = mark; i < nsCount; i++) {
+      handler.startMapping(nsPrefixes[i], nsUris[i]);
+    }
+    // like SAX, report mappings before pending text
+    if (contentEnd > contentStart) {
+      handleText();
+    }
+    QNm qnm = qnm(name, true);
+    handler.startElement(qnm);
+    for (int i = 0; i < attCount; i++) {
+      QNm att = qnm(attNames[i], false);
+      if (attNames[i].prefix != null) {
+        // prefixed attributes must differ in their expanded names
+        for (int j = 0; j < i; j++) {
+          if ((attNames[j].prefix != null) && (qnm(attNames[j], false).atomicCmp(att) == 0)) {
+            throw error("Duplicate attribute " + att);
+          }
+        }
+      }
+      handler.attribute(att, new Una(attValues[i]));
+      attValues[i] = null;
+    }
+    if (empty) {
+      handler.endElement(qnm);
+      endMappings(mark);
+    } else {
+      if (depth == stack.length) {
+        stack = Arrays.copyOf(stack, depth * 2);
+        qnms = Arrays.copyOf(qnms, depth * 2);
+        nsMarks = Arrays.copyOf(nsMarks, depth * 2);
+      }
+      stack[depth] = name;
+      qnms[depth] = qnm;
+      nsMarks[depth++] = mark;
+    }
+  }
+
+  private void endTag() throws DocumentException {
+    pos += 2;
+    Name name = name();
+    skipSpace();
+    if (get(pos) != '>') {
+      throw error("Expected '>'");
+    }
+    if ((depth == 0) || (stack[depth - 1] != name)) {
+      throw error("Unexpected end tag " + name.qname);
+    }
+    pos++;
+    if (contentEnd > contentStart) {
+      handleText();
+    }
+    depth--;
+    handler.endElement(qnms[depth]);
+    qnms[depth] = null;
+    endMappings(nsMarks[depth]);
+  }
+
+  private void endMappings(int mark) throws DocumentException {
+    for (int i = mark; i < nsCount; i++) {
+      handler.endMapping(nsPrefixes[i]);
+    }
+    nsCount = mark;
+  }
+
+  private void processingInstruction() throws DocumentException {
+    pos += 2;
+    Name target = name();
+    if (target.qname.equalsIgnoreCase("xml")) {
+      throw error("Reserved processing instruction target " + target.qname);
+    }
+    if ((!skipSpace()) && (!startsWith(buf, pos, end, PI_END))) {
+      throw error("Expected whitespace");
+    }
+    int from = pos;
+    int to = skipTo(PI_END) - 2;
+    if (contentEnd > contentStart) {
+      handleText();
+    }
+    valueLength = 0;
+    decode(from, to);
+    handler.processingInstruction(new QNm(target.qname), new Una(new String(value, 0, valueLength)));
+  }
+
+  private void comment() throws DocumentException {
+    int from = pos + 4;
+    pos = from;
+    int to = skipTo(COMMENT_END) - 3;
+    if ((indexOf(buf, from, to, DOUBLE_HYPHEN) >= 0) || ((to > from) && (buf.get(to - 1) == '-'))) {
+      throw error("'--' in comment");
+    }
+    if (ignoreComments) {
+      return;
+    }
+    if (!inComment) {
+      handleText();
+      inComment = true;
+    }
+    valueLength = 0;
+    decode(from, to);
+    append(value, 0, valueLength);
+  }
+
+  private void cdata() throws DocumentException {
+    int from = pos + 9;
+    int to = skipTo(CDATA_END) - 3;
+    startCharacters();
+    valueLength = 0;
+    decode(from, to);
+    append(value, 0, valueLength);
+  }
+
+  // --- character data ---
+
+  private void text() throws DocumentException {
+    startCharacters();
+    int p = pos;
+    while (p < end) {
+      // copy runs of plain ASCII characters directly
+      char[] c = content;
+      int e = contentEnd;
+      int b;
+      while ((p < end) && ((b = buf.get(p)) >= ' ') && (b != '&') && (b != '<') && (b != '>') && (e < c.length)) {
+        c[e++] = (char) b;
+        p++;
+      }
+      contentEnd = e;
+      if (p == end) {
+        break;
+      }
+      b = buf.get(p);
+      if (b == '<') {
+        break;
+      }
+      if (b >= 0) {
+        if (b == '&') {
+          pos = p;
+          p = entity(p, false);
+          continue;
+        }
+        if (b == '\r') {
+          appendContent('\n');
+          p++;
+          if ((p < end) && (buf.get(p) == '\n')) {
+            p++;
+          }
+          continue;
+        }
+        if ((b == '>') && (buf.get(p - 1) == ']') && (buf.get(p - 2) == ']')) {
+          // preceding markup always ends with '>', so the brackets are text
+          pos = p;
+          throw error("']]>' in content");
+        }
+        if ((b < ' ') && (b != '\t') && (b != '\n')) {
+          pos = p;
+          throw error("Illegal character");
+        }
+        appendContent((char) b);
+        p++;
+      } else {
+        pos = p;
+        valueLength = 0;
+        p = utf8(p);
+        append(value, 0, valueLength);
+      }
+    }
+    pos = p;
+  }
+
+  private void startCharacters() throws DocumentException {
+    if (inComment) {
+      handleText();
+      inComment = false;
+    }
+  }
+
+  private String attributeValue() throws DocumentException {
+    byte quote = get(pos);
+    if ((quote != '"') && (quote != '\'')) {
+      throw error("Expected quote");
+    }
+    int p = pos + 1;
+    valueLength = 0;
+    while (true) {
+      if (p >= end) {
+        pos = p;
+        throw error("Unterminated attribute value");
+      }
+      int b = buf.get(p);
+      if (b == quote) {
+        break;
+      }
+      if (b >= 0) {
+        if (b == '<') {
+          pos = p;
+          throw error("'<' in attribute value");
+        }
+        if (b == '&') {
+          pos = p;
+          p = entity(p, true);
+          continue;
+        }
+        if (b == '\r') {
+          appendValue(' ');
+          p++;
+          if ((p < end) && (buf.get(p) == '\n')) {
+            p++;
+          }
+          continue;
+        }
+        if ((b < ' ') && (b != '\t') && (b != '\n')) {
+          pos = p;
+          throw error("Illegal character");
+        }
+        appendValue(((b == '\n') || (b == '\t')) ? ' ' : (char) b);
+        p++;
+      } else {
+        pos = p;
+        p = utf8(p);
+      }
+    }
+    pos = p + 1;
+    return new String(value, 0, valueLength);
+  }
+
+  /**
+   * Resolves the entity reference at <code>p</code> and appends it to the
+   * attribute value or the content.
+   */
+  private int entity(int p, boolean attribute) throws DocumentException {
+    int semicolon = p + 1;
+    while ((semicolon < end) && (buf.get(semicolon) != ';')) {
+      if (semicolon - p > 12) {
+        throw error("Illegal entity reference");
+      }
+      semicolon++;
+    }
+    if (semicolon == end) {
+      throw error("Illegal entity reference");
+    }
+    int c;
+    byte first = buf.get(p + 1);
+    if (first == '#') {
+      int radix = 10;
+      int from = p + 2;
+      if ((from < semicolon) && (buf.get(from) == 'x')) {
+        radix = 16;
+        from++;
+      }
+      if (from == semicolon) {
+        throw error("Illegal character reference");
+      }
+      c = 0;
+      for (int i = from; i < semicolon; i++) {
+        int digit = Character.digit(buf.get(i), radix);
+        if (digit < 0) {
+          throw error("Illegal character reference");
+        }
+        c = c * radix + digit;
+        if (c > Character.MAX_CODE_POINT) {
+          throw error("Illegal character reference");
+        }
+      }
+      if (!isChar(c)) {
+        throw error("Illegal character reference");
+      }
+    } else if (matches(p + 1, semicolon, "lt")) {
+      c = '<';
+    } else if (matches(p + 1, semicolon, "gt")) {
+      c = '>';
+    } else if (matches(p + 1, semicolon, "amp")) {
+      c = '&';
+    } else if (matches(p + 1, semicolon, "quot")) {
+      c = '"';
+    } else if (matches(p + 1, semicolon, "apos")) {
+      c = '\'';
+    } else {
+      throw error("Undeclared entity");
+    }
+    if (Character.isSupplementaryCodePoint(c)) {
+      if (attribute) {
+        appendValue(Character.highSurrogate(c));
+        appendValue(Character.lowSurrogate(c));
+      } else {
+        appendContent(Character.highSurrogate(c));
+        appendContent(Character.lowSurrogate(c));
+      }
+    } else if (attribute) {
+      appendValue((char) c);
+    } else {
+      appendContent((char) c);
+    }
+    return semicolon + 1;
+  }
+
+  private boolean matches(int from, int to, String s) {
+    if (to - from != s.length()) {
+      return false;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      if (buf.get(from + i) != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Decodes the range into the value buffer without resolving references.
+   */
+  private void decode(int from, int to) throws DocumentException {
+    int p = from;
+    while (p < to) {
+      int b = buf.get(p);
+      if (b >= 0) {
+        if (b == '\r') {
+          appendValue('\n');
+          p++;
+          if ((p < to) && (buf.get(p) == '\n')) {
+            p++;
+          }
+          continue;
+        }
+        if ((b < ' ') && (b != '\t') && (b != '\n')) {
+          pos = p;
+          throw error("Illegal character");
+        }
+        appendValue((char) b);
+        p++;
+      } else {
+        pos = p;
+        p = utf8(p);
+      }
+    }
+  }
+
+  /**
+   * Decodes the multi-byte UTF-8 sequence at <code>p</code> into the value
+   * buffer.
+   */
+  private int utf8(int p) throws DocumentException {
+    int b = buf.get(p) & 0xFF;
+    int len;
+    int c;
+    if ((b & 0xE0) == 0xC0) {
+      len = 2;
+      c = b & 0x1F;
+    } else if ((b & 0xF0) == 0xE0) {
+      len = 3;
+      c = b & 0x0F;
+    } else if ((b & 0xF8) == 0xF0) {
+      len = 4;
+      c = b & 0x07;
+    } else {
+      throw error("Illegal UTF-8 sequence");
+    }
+    if (p + len > end) {
+      throw error("Illegal UTF-8 sequence");
+    }
+    for (int i = 1; i < len; i++) {
+      int cb = buf.get(p + i) & 0xFF;
+      if ((cb & 0xC0) != 0x80) {
+        throw error("Illegal UTF-8 sequence");
+      }
+      c = (c << 6) | (cb & 0x3F);
+    }
+    if ((c < MIN_CODE_POINT[len]) || (!isChar(c))) {
+      // overlong encodings and surrogates are illegal, too
+      throw error("Illegal character");
+    }
+    if (len == 4) {
+      appendValue(Character.highSurrogate(c));
+      appendValue(Character.lowSurrogate(c));
+    } else {
+      appendValue((char) c);
+    }
+    return p + len;
+  }
+
+  private static final int[] MIN_CODE_POINT = { 0, 0, 0x80, 0x800, 0x10000 };
+
+  /**
+   * Checks the production Char of XML 1.0.
+   */
+  private static boolean isChar(int c) {
+    if (c < ' ') {
+      return (c == '\t') || (c == '\n') || (c == '\r');
+    }
+    return (c <= 0xD7FF) || ((c >= 0xE000) && (c <= 0xFFFD)) || ((c >= 0x10000) && (c <= Character.MAX_CODE_POINT));
+  }
+
+  private static boolean isSpace(int b) {
+    return (b == ' ') || (b == '\n') || (b == '\t') || (b == '\r');
+  }
+
+  private void appendValue(char c) {
+    if (valueLength == value.length) {
+      value = Arrays.copyOf(value, valueLength * 2);
+    }
+    value[valueLength++] = c;
+  }
+
+  private void appendContent(char c) {
+    if (contentEnd == content.length) {
+      content = Arrays.copyOf(content, contentEnd * 2);
+    }
+    content[contentEnd++] = c;
+  }
+
+  private void append(char[] ch, int offset, int length) {
+    if (contentEnd + length > content.length) {
+      content = Arrays.copyOf(content, Math.max(content.length * 2, contentEnd + length));
+    }
+    System.arraycopy(ch, offset, content, contentEnd, length);
+    contentEnd += length;
+  }
+
+  private void handleText() throws DocumentException {
+    if (contentEnd > contentStart) {
+      if (!retainWhitespace) {
+        while ((contentStart < contentEnd) && (content[contentStart] <= ' ')) {
+          contentStart++;
+        }
+        while ((contentStart < contentEnd) && (content[contentEnd - 1] <= ' ')) {
+          contentEnd--;
+        }
+      }
+      if (contentEnd > contentStart) {
+        String text = new String(content, contentStart, contentEnd - contentStart);
+        if (!inComment) {
+          handler.text(new Una(text));
+        } else {
+          handler.comment(new Str(text));
+        }
+      }
+      contentStart = contentEnd = 0;
+    }
+  }
+
+  // --- names ---
+
+  private Name name() throws DocumentException {
+    int from = pos;
+    int hash = 0;
+    int p = pos;
+    while (p < end) {
+      byte b = buf.get(p);
+      if ((b <= ' ') && (b >= 0) || (b == '>') || (b == '/') || (b == '=') || (b == '?') || (b == '<')
+          || (b == '"') || (b == '\'')) {
+        break;
+      }
+      hash = 31 * hash + b;
+      p++;
+    }
+    if (p == from) {
+      throw error("Expected name");
+    }
+    pos = p;
+    int slot = hash & (names.length - 1);
+    for (Name n = names[slot]; n != null; n = n.next) {
+      if ((n.hash == hash) && (equals(n.bytes, from, p))) {
+        return n;
+      }
+    }
+    byte[] bytes = bytes(buf, from, p);
+    String qname;
+    try {
+      qname = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes)).toString();
+    } catch (CharacterCodingException e) {
+      pos = from;
+      throw error("Illegal UTF-8 sequence");
+    }
+    if (!isQName(qname)) {
+      pos = from;
+      throw error("Illegal name " + qname);
+    }
+    Name n = new Name(bytes, hash, qname);
+    n.next = names[slot];
+    names[slot] = n;
+    if (++nameCount > names.length * 3 / 4) {
+      rehash();
+    }
+    return n;
+  }
+
+  /**
+   * Checks the production QName of Namespaces in XML 1.0, i.e., a name with
+   * at most one colon that separates two non-empty parts.
+   */
+  private static boolean isQName(String name) {
+    boolean start = true;
+    boolean colon = false;
+    for (int i = 0; i < name.length(); ) {
+      int c = name.codePointAt(i);
+      i += Character.charCount(c);
+      if (c == ':') {
+        if ((start) || (colon) || (i == name.length())) {
+          return false;
+        }
+        colon = true;
+        start = true;
+      } else if ((start) ? !isNameStartChar(c) : !isNameChar(c)) {
+        return false;
+      } else {
+        start = false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks the production NameStartChar of XML 1.0 without ':'.
+   */
+  private static boolean isNameStartChar(int c) {
+    if (c < 0x80) {
+      return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || (c == '_');
+    }
+    return ((c >= 0xC0) && (c <= 0xD6)) || ((c >= 0xD8) && (c <= 0xF6)) || ((c >= 0xF8) && (c <= 0x2FF))
+        || ((c >= 0x370) && (c <= 0x37D)) || ((c >= 0x37F) && (c <= 0x1FFF)) || ((c >= 0x200C) && (c <= 0x200D))
+        || ((c >= 0x2070) && (c <= 0x218F)) || ((c >= 0x2C00) && (c <= 0x2FEF)) || ((c >= 0x3001) && (c <= 0xD7FF))
+        || ((c >= 0xF900) && (c <= 0xFDCF)) || ((c >= 0xFDF0) && (c <= 0xFFFD)) || ((c >= 0x10000) && (c <= 0xEFFFF));
+  }
+
+  /**
+   * Checks the production NameChar of XML 1.0 without ':'.
+   */
+  private static boolean isNameChar(int c) {
+    if (c < 0x80) {
+      return isNameStartChar(c) || ((c >= '0') && (c <= '9')) || (c == '-') || (c == '.');
+    }
+    return isNameStartChar(c) || (c == 0xB7) || ((c >= 0x300) && (c <= 0x36F)) || ((c >= 0x203F) && (c <= 0x2040));
+  }
+
+  private boolean equals(byte[] bytes, int from, int to) {
+    if (bytes.length != to - from) {
+      return false;
+    }
+    for (int i = 0; i < bytes.length; i++) {
+      if (bytes[i] != buf.get(from + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void rehash() {
+    Name[] old = names;
+    names = new Name[old.length * 2];
+    for (Name n : old) {
+      while (n != null) {
+        Name next = n.next;
+        int slot = n.hash & (names.length - 1);
+        n.next = names[slot];
+        names[slot] = n;
+        n = next;
+      }
+    }
+  }
+
+  private QNm qnm(Name name, boolean element) throws DocumentException {
+    String uri;
+    if (name.prefix == null) {
+      uri = (element) ? resolve("") : "";
+    } else if (name.prefix.equals("xml")) {
+      uri = XML_NSURI;
+    } else {
+      uri = resolve(name.prefix);
+      if (uri == null) {
+        throw error("Unbound prefix " + name.prefix);
+      }
+    }
+    if ((name.qnm == null) || (name.uri != uri)) {
+      name.qnm = new QNm(uri, name.prefix, name.local);
+      name.uri = uri;
+    }
+    return name.qnm;
+  }
+
+  private String resolve(String prefix) {
+    for (int i = nsCount - 1; i >= 0; i--) {
+      if (nsPrefixes[i].equals(prefix)) {
+        return nsUris[i];
+      }
+    }
+    return (prefix.isEmpty()) ? "" : null;
+  }
+
+  /**
+   * Checks a namespace declaration of the current start tag and binds the
+   * prefix. Declarations of the predefined prefix xml are not reported.
+   */
+  private void declare(String prefix, String uri, int mark) throws DocumentException {
+    for (int i = mark; i < nsCount; i++) {
+      if (nsPrefixes[i].equals(prefix)) {
+        throw error("Duplicate namespace declaration " + prefix);
+      }
+    }
+    if (prefix.equals("xml")) {
+      if (!uri.equals(XML_NSURI)) {
+        throw error("Prefix xml bound to " + uri);
+      }
+      return;
+    }
+    if (prefix.equals("xmlns")) {
+      throw error("Declaration of prefix xmlns");
+    }
+    if (uri.equals(XML_NSURI) || uri.equals(XMLNS_NSURI)) {
+      throw error("Reserved namespace " + uri + " bound to " + prefix);
+    }
+    if ((uri.isEmpty()) && (!prefix.isEmpty())) {
+      throw error("Empty namespace declaration " + prefix);
+    }
+    bind(prefix, uri);
+  }
+
+  private void bind(String prefix, String uri) {
+    if (nsCount == nsPrefixes.length) {
+      nsPrefixes = Arrays.copyOf(nsPrefixes, nsCount * 2);
+      nsUris = Arrays.copyOf(nsUris, nsCount * 2);
+    }
+    String shared = uris.putIfAbsent(uri, uri);
+    nsPrefixes[nsCount] = prefix;
+    nsUris[nsCount++] = (shared != null) ? shared : uri;
+  }
+
+  // --- scanning ---
+
+  private byte get(int p) throws DocumentException {
+    if (p >= end) {
+      pos = p;
+      throw error("Unexpected end of document");
+    }
+    return buf.get(p);
+  }
+
+  private boolean skipSpace() throws DocumentException {
+    int p = pos;
+    while ((p < end) && (isSpace(buf.get(p)))) {
+      p++;
+    }
+    boolean skipped = (p > pos);
+    pos = p;
+    return skipped;
+  }
+
+  /**
+   * Moves behind the next occurrence of the given delimiter.
+   */
+  private int skipTo(byte[] delimiter) throws DocumentException {
+    int p = indexOf(buf, pos, end, delimiter);
+    if (p < 0) {
+      pos = end;
+      throw error("Expected '" + new String(delimiter, StandardCharsets.US_ASCII) + "'");
+    }
+    pos = p + delimiter.length;
+    return pos;
+  }
+}
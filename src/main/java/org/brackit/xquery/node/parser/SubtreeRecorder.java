@@ -0,0 +1,235 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.parser;
+
+import java.util.Arrays;
+
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.xdm.DocumentException;
+
+/**
+ * Records the events of a {@link SubtreeParser} in compact arrays, so that
+ * they can be replayed to another handler later, e.g., after the input was
+ * parsed on a different thread.
+ */
+public final class SubtreeRecorder implements SubtreeHandler, SubtreeParser {
+  private static final byte START_DOCUMENT = 0;
+  private static final byte END_DOCUMENT = 1;
+  private static final byte TEXT = 2;
+  private static final byte COMMENT = 3;
+  private static final byte PROCESSING_INSTRUCTION = 4;
+  private static final byte START_MAPPING = 5;
+  private static final byte END_MAPPING = 6;
+  private static final byte START_ELEMENT = 7;
+  private static final byte END_ELEMENT = 8;
+  private static final byte ATTRIBUTE = 9;
+  private static final byte BEGIN = 10;
+  private static final byte END = 11;
+  private static final byte FAIL = 12;
+  private static final byte BEGIN_FRAGMENT = 13;
+  private static final byte END_FRAGMENT = 14;
+
+  private byte[] events = new byte[64];
+  private int eventCount;
+  private Object[] args = new Object[64];
+  private int argCount;
+
+  /**
+   * Records the events of the given parser.
+   */
+  public static SubtreeRecorder record(SubtreeParser parser) throws DocumentException {
+    SubtreeRecorder recorder = new SubtreeRecorder();
+    parser.parse(recorder);
+    recorder.trim();
+    return recorder;
+  }
+
+  @Override
+  public void parse(SubtreeHandler handler) throws DocumentException {
+    for (int e = 0, a = 0; e < eventCount; e++) {
+      switch (events[e]) {
+        case START_DOCUMENT:
+          handler.startDocument();
+          break;
+        case END_DOCUMENT:
+          handler.endDocument();
+          break;
+        case TEXT:
+          handler.text((Atomic) args[a++]);
+          break;
+        case COMMENT:
+          handler.comment((Atomic) args[a++]);
+          break;
+        case PROCESSING_INSTRUCTION:
+          handler.processingInstruction((QNm) args[a], (Atomic) args[a + 1]);
+          a += 2;
+          break;
+        case START_MAPPING:
+          handler.startMapping((String) args[a], (String) args[a + 1]);
+          a += 2;
+          break;
+        case END_MAPPING:
+          handler.endMapping((String) args[a++]);
+          break;
+        case START_ELEMENT:
+          handler.startElement((QNm) args[a++]);
+          break;
+        case END_ELEMENT:
+          handler.endElement((QNm) args[a++]);
+          break;
+        case ATTRIBUTE:
+          handler.attribute((QNm) args[a], (Atomic) args[a + 1]);
+          a += 2;
+          break;
+        case BEGIN:
+          handler.begin();
+          break;
+        case END:
+          handler.end();
+          break;
+        case FAIL:
+          handler.fail();
+          break;
+        case BEGIN_FRAGMENT:
+          handler.beginFragment();
+          break;
+        case END_FRAGMENT:
+          handler.endFragment();
+          break;
+        default:
+          throw new DocumentException("Illegal event: %s", events[e]);
+      }
+    }
+  }
+
+  private void event(byte event) {
+    if (eventCount == events.length) {
+      events = Arrays.copyOf(events, eventCount * 2);
+    }
+    events[eventCount++] = event;
+  }
+
+  private void arg(Object arg) {
+    if (argCount == args.length) {
+      args = Arrays.copyOf(args, argCount * 2);
+    }
+    args[argCount++] = arg;
+  }
+
+  private void trim() {
+    events = Arrays.copyOf(events, eventCount);
+    args = Arrays.copyOf(args, argCount);
+  }
+
+  @Override
+  public void startDocument() throws DocumentException {
+    event(START_DOCUMENT);
+  }
+
+  @Override
+  public void endDocument() throws DocumentException {
+    event(END_DOCUMENT);
+  }
+
+  @Override
+  public void text(Atomic content) throws DocumentException {
+    event(TEXT);
+    arg(content);
+  }
+
+  @Override
+  public void comment(Atomic content) throws DocumentException {
+    event(COMMENT);
+    arg(content);
+  }
+
+  @Override
+  public void processingInstruction(QNm target, Atomic content) throws DocumentException {
+    event(PROCESSING_INSTRUCTION);
+    arg(target);
+    arg(content);
+  }
+
+  @Override
+  public void startMapping(String prefix, String uri) throws DocumentException {
+    event(START_MAPPING);
+    arg(prefix);
+    arg(uri);
+  }
+
+  @Override
+  public void endMapping(String prefix) throws DocumentException {
+    event(END_MAPPING);
+    arg(prefix);
+  }
+
+  @Override
+  public void startElement(QNm name) throws DocumentException {
+    event(START_ELEMENT);
+    arg(name);
+  }
+
+  @Override
+  public void endElement(QNm name) throws DocumentException {
+    event(END_ELEMENT);
+    arg(name);
+  }
+
+  @Override
+  public void attribute(QNm name, Atomic value) throws DocumentException {
+    event(ATTRIBUTE);
+    arg(name);
+    arg(value);
+  }
+
+  @Override
+  public void begin() throws DocumentException {
+    event(BEGIN);
+  }
+
+  @Override
+  public void end() throws DocumentException {
+    event(END);
+  }
+
+  @Override
+  public void fail() throws DocumentException {
+    event(FAIL);
+  }
+
+  @Override
+  public void beginFragment() throws DocumentException {
+    event(BEGIN_FRAGMENT);
+  }
+
+  @Override
+  public void endFragment() throws DocumentException {
+    event(END_FRAGMENT);
+  }
+}
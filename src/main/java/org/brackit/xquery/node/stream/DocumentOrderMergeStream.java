@@ -0,0 +1,96 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.stream;
+
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.node.Node;
+
+/**
+ * Merges several streams of nodes in document order into a single stream in
+ * document order. Nodes delivered by more than one input are returned only
+ * once.
+ *
+ * @param <E>
+ */
+public class DocumentOrderMergeStream<E extends Node<?>> implements Stream<E> {
+
+  private static final class Input<E> {
+    final Stream<? extends E> stream;
+    E head;
+
+    Input(Stream<? extends E> stream) {
+      this.stream = stream;
+    }
+  }
+
+  private final PriorityQueue<Input<E>> queue;
+
+  private E prev;
+
+  public DocumentOrderMergeStream(List<? extends Stream<? extends E>> in) throws DocumentException {
+    queue = new PriorityQueue<>(Math.max(in.size(), 1), (a, b) -> a.head.cmp(b.head));
+    for (Stream<? extends E> s : in) {
+      Input<E> input = new Input<>(s);
+      if ((input.head = s.next()) != null) {
+        queue.add(input);
+      } else {
+        s.close();
+      }
+    }
+  }
+
+  @Override
+  public E next() throws DocumentException {
+    Input<E> input;
+    while ((input = queue.poll()) != null) {
+      E next = input.head;
+      if ((input.head = input.stream.next()) != null) {
+        queue.add(input);
+      } else {
+        input.stream.close();
+      }
+      if ((prev == null) || (prev.cmp(next) != 0)) {
+        prev = next;
+        return next;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void close() {
+    Input<E> input;
+    while ((input = queue.poll()) != null) {
+      input.stream.close();
+    }
+  }
+}
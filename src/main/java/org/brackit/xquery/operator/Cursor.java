@@ -30,14 +30,41 @@ package org.brackit.xquery.operator;
 import org.brackit.xquery.QueryContext;
 import org.brackit.xquery.QueryException;
 import org.brackit.xquery.Tuple;
+import org.brackit.xquery.util.Cfg;
 
 /**
  * @author Sebastian Baechle
  */
 public interface Cursor {
+  /**
+   * Maximum number of tuples exchanged in a single batch.
+   */
+  int BATCH_SIZE = Cfg.asInt("org.brackit.xquery.batchSize", 1024);
+
   void open(QueryContext ctx) throws QueryException;
 
   Tuple next(QueryContext ctx) throws QueryException;
 
+  /**
+   * Fetch up to <code>buf.length</code> tuples at once. A return value of
+   * <code>0</code> signals that the cursor is exhausted.
+   * <p>
+   * The default implementation adapts cursors which produce tuples one at a
+   * time. Operators which can process a whole batch without a call per tuple
+   * should override it.
+   *
+   * @param ctx the query context
+   * @param buf the buffer to fill
+   * @return the number of tuples written to <code>buf</code>
+   */
+  default int next(QueryContext ctx, Tuple[] buf) throws QueryException {
+    int len = 0;
+    Tuple t;
+    while ((len < buf.length) && ((t = next(ctx)) != null)) {
+      buf[len++] = t;
+    }
+    return len;
+  }
+
   void close(QueryContext ctx);
 }
@@ -50,13 +50,13 @@ public class ForBind extends Check implements Operator {
   boolean bindPos = false;
 
   private class ForBindCursor implements Cursor {
-    private final Cursor c;
+    private final TupleBuffer c;
     private IntNumeric pos;
     private Tuple t;
     private Iter it;
 
     public ForBindCursor(Cursor c) {
-      this.c = c;
+      this.c = new TupleBuffer(c);
     }
 
     @Override
@@ -104,7 +104,7 @@ public class ForBind extends Check implements Operator {
           it.close();
           it = null;
           if (allowingEmpty) {
-            Tuple tmp = emit(i, null);
+            Tuple tmp = emit(t, null);
             t = null;
             return tmp;
           } else if (check) {
@@ -116,6 +116,31 @@ public class ForBind extends Check implements Operator {
       }
     }
 
+    @Override
+    public int next(QueryContext ctx, Tuple[] buf) {
+      int len = 0;
+      while (len < buf.length) {
+        if (it != null) {
+          // emit the items of the current binding sequence in a tight loop
+          Item item;
+          while ((item = it.next()) != null) {
+            buf[len++] = emit(t, item);
+            if (len == buf.length) {
+              return len;
+            }
+          }
+          it.close();
+          it = null;
+        }
+        Tuple n = next(ctx);
+        if (n == null) {
+          break;
+        }
+        buf[len++] = n;
+      }
+      return len;
+    }
+
     private Tuple emit(Tuple t, Sequence item) {
       if (bindVar) {
         if (bindPos) {
@@ -68,6 +68,16 @@ public class LetBind extends Check implements Operator {
       return t.concat(sequence);
     }
 
+    @Override
+    public int next(QueryContext ctx, Tuple[] buf) throws QueryException {
+      int len = c.next(ctx, buf);
+      for (int i = 0; i < len; i++) {
+        Tuple t = buf[i];
+        buf[i] = ((check) && (dead(t))) ? t.concat((Sequence) null) : t.concat(source.evaluate(ctx, t));
+      }
+      return len;
+    }
+
     @Override
     public void open(QueryContext ctx) throws QueryException {
       c.open(ctx);
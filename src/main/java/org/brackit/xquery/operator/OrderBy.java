@@ -76,7 +76,7 @@ public class OrderBy extends Check implements Operator {
       }
 
       // sort current tuple and all following in same group
-      Ordering sort = new Ordering(orderByExprs, modifier);
+      Ordering sort = new Ordering(orderByExprs, modifier, maxSize);
       sort.add(ctx, t);
       while ((next = c.next(ctx)) != null) {
         if (check && separate(t, next)) {
@@ -98,11 +98,17 @@ public class OrderBy extends Check implements Operator {
   final Operator in;
   final Expr[] orderByExprs;
   final OrderModifier[] modifier;
+  final long maxSize;
 
   public OrderBy(Operator in, Expr[] orderByExprs, OrderModifier[] orderBySpec) {
+    this(in, orderByExprs, orderBySpec, Ordering.MAX_SORT_SIZE);
+  }
+
+  public OrderBy(Operator in, Expr[] orderByExprs, OrderModifier[] orderBySpec, long maxSize) {
     this.in = in;
     this.orderByExprs = orderByExprs;
     this.modifier = orderBySpec;
+    this.maxSize = maxSize;
   }
 
   @Override
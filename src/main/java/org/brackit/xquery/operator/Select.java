@@ -40,12 +40,12 @@ public class Select extends Check implements Operator {
   final Expr predicate;
 
   public class SelectCursor implements Cursor {
-    private final Cursor c;
+    private final TupleBuffer c;
     private Tuple prev;
     private Tuple next;
 
     public SelectCursor(Cursor c) {
-      this.c = c;
+      this.c = new TupleBuffer(c);
     }
 
     @Override
@@ -87,6 +87,22 @@ public class Select extends Check implements Operator {
       return t;
     }
 
+    @Override
+    public int next(QueryContext ctx, Tuple[] buf) {
+      if (check) {
+        return Cursor.super.next(ctx, buf);
+      }
+      int len = 0;
+      Tuple t;
+      while ((len < buf.length) && ((t = c.next(ctx)) != null)) {
+        Sequence p = predicate.evaluate(ctx, t);
+        if ((p != null) && (p.booleanValue())) {
+          buf[len++] = t;
+        }
+      }
+      return len;
+    }
+
     @Override
     public void open(QueryContext ctx) {
       c.open(ctx);
@@ -27,6 +27,8 @@
  */
 package org.brackit.xquery.operator;
 
+import java.util.Arrays;
+
 import org.brackit.xquery.ErrorCode;
 import org.brackit.xquery.QueryContext;
 import org.brackit.xquery.QueryException;
@@ -64,6 +66,16 @@ public class Start implements Operator {
       return start;
     }
 
+    @Override
+    public int next(QueryContext ctx, Tuple[] buf) throws QueryException {
+      Tuple t = (buf.length > 0) ? next(ctx) : null;
+      if (t == null) {
+        return 0;
+      }
+      buf[0] = t;
+      return 1;
+    }
+
     @Override
     public void open(QueryContext ctx) throws QueryException {
       open = true;
@@ -101,6 +113,18 @@ public class Start implements Operator {
       }
     }
 
+    @Override
+    public int next(QueryContext ctx, Tuple[] buf) throws QueryException {
+      if (pos < 0) {
+        throw new QueryException(ErrorCode.BIT_DYN_RT_ILLEGAL_STATE_ERROR);
+      }
+      int n = Math.min(len - pos, buf.length);
+      System.arraycopy(this.buf, pos, buf, 0, n);
+      Arrays.fill(this.buf, pos, pos + n, null); // allow gc
+      pos += n;
+      return n;
+    }
+
     @Override
     public void open(QueryContext ctx) throws QueryException {
       pos = 0;
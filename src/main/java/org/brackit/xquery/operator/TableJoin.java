@@ -33,24 +33,30 @@ import org.brackit.xquery.QueryContext;
 import org.brackit.xquery.QueryException;
 import org.brackit.xquery.Tuple;
 import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.block.FJControl;
 import org.brackit.xquery.compiler.translator.Reference;
 import org.brackit.xquery.util.Cmp;
 import org.brackit.xquery.util.join.FastList;
-import org.brackit.xquery.util.join.MultiTypeJoinTable;
+import org.brackit.xquery.util.join.GraceJoin;
+import org.brackit.xquery.util.join.PartitionedJoinTable;
 import org.brackit.xquery.xdm.Expr;
 import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.Stream;
 
 /**
  * @author Sebastian Baechle
  */
 public class TableJoin extends Check implements Operator {
   private class TableJoinCursor implements Cursor {
-    final Cursor lc;
+    final TupleBuffer lc;
     final Sequence[] padding;
+    final FastList<Sequence[]> matches = new FastList<Sequence[]>();
     final int lSize;
     private Tuple prev;
     private Tuple next;
-    MultiTypeJoinTable table;
+    PartitionedJoinTable table;
+    GraceJoin spilled; // join of current group if the table did not fit into memory
+    Stream<Tuple> joined;
     Atomic tgk; // grouping key of current table
     Tuple tuple;
     FastList<Sequence[]> it;
@@ -58,7 +64,7 @@ public class TableJoin extends Check implements Operator {
     int itSize = 0;
 
     public TableJoinCursor(Cursor lc, int lSize, int pad) {
-      this.lc = lc;
+      this.lc = new TupleBuffer(lc);
       this.lSize = lSize;
       this.padding = new Sequence[pad];
     }
@@ -73,6 +79,18 @@ public class TableJoin extends Check implements Operator {
     public void close(QueryContext ctx) {
       lc.close(ctx);
       it = null;
+      clear();
+    }
+
+    private void clear() {
+      if (joined != null) {
+        joined.close();
+        joined = null;
+      }
+      if (spilled != null) {
+        spilled.clear();
+        spilled = null;
+      }
     }
 
     @Override
@@ -80,6 +98,14 @@ public class TableJoin extends Check implements Operator {
       if ((it != null) && (itPos < itSize)) {
         return tuple.concat(it.get(itPos++));
       }
+      if (joined != null) {
+        Tuple t = joined.next();
+        if (t != null) {
+          return t;
+        }
+        joined.close();
+        joined = null;
+      }
 
       while (((tuple = next) != null) || ((tuple = lc.next(ctx)) != null)) {
         next = null;
@@ -93,11 +119,22 @@ public class TableJoin extends Check implements Operator {
             table = null;
           }
         }
-        if (table == null) {
+        if ((table == null) && (spilled == null)) {
           buildTable(ctx, tuple);
         }
+        if (spilled != null) {
+          joined = joinSpilled(ctx);
+          Tuple t = joined.next();
+          if (t != null) {
+            return t;
+          }
+          joined.close();
+          joined = null;
+          continue;
+        }
         final Sequence keys = (isGCmp) ? lExpr.evaluate(ctx, tuple) : lExpr.evaluateToItem(ctx, tuple);
-        final FastList<Sequence[]> matches = table.probe(keys);
+        matches.clear();
+        table.probe(keys, matches);
 
         it = matches;
         itPos = 0;
@@ -134,14 +171,66 @@ public class TableJoin extends Check implements Operator {
       return null;
     }
 
+    @Override
+    public int next(QueryContext ctx, Tuple[] buf) throws QueryException {
+      int len = 0;
+      while (len < buf.length) {
+        if ((it != null) && (itPos < itSize)) {
+          // emit the matches of the current probe tuple in a tight loop
+          int n = Math.min(itSize - itPos, buf.length - len);
+          for (int i = 0; i < n; i++) {
+            buf[len++] = tuple.concat(it.get(itPos++));
+          }
+          continue;
+        }
+        if (joined != null) {
+          Tuple t;
+          while ((len < buf.length) && ((t = joined.next()) != null)) {
+            buf[len++] = t;
+          }
+          if (len == buf.length) {
+            break;
+          }
+          joined.close();
+          joined = null;
+        }
+        Tuple t = next(ctx);
+        if (t == null) {
+          break;
+        }
+        buf[len++] = t;
+      }
+      return len;
+    }
+
+    private Stream<Tuple> joinSpilled(QueryContext ctx) throws QueryException {
+      // probe with all tuples of the current iteration group
+      GraceJoin join = spilled;
+      spilled = null;
+      try {
+        do {
+          Sequence keys = (isGCmp) ? lExpr.evaluate(ctx, tuple) : lExpr.evaluateToItem(ctx, tuple);
+          join.probe(keys, tuple);
+        } while (((tuple = lc.next(ctx)) != null) && ((groupVar < 0) || (tgk.atomicCmp((Atomic) tuple.get(groupVar))
+            == 0)));
+        // first tuple of the next iteration group
+        next = tuple;
+        return join.join();
+      } catch (QueryException e) {
+        join.clear();
+        throw e;
+      }
+    }
+
     protected void buildTable(QueryContext ctx, Tuple tuple) throws QueryException {
-      table = new MultiTypeJoinTable(cmp, isGCmp, skipSort);
+      // lifted joins must see each probe tuple in turn
+      long maxSize = (check) ? -1 : GraceJoin.MAX_JOIN_SIZE;
+      GraceJoin join = new GraceJoin(cmp, isGCmp, skipSort, leftJoin, padding.length, maxSize);
       if (groupVar >= 0) {
         tgk = (Atomic) tuple.get(groupVar);
       }
-      int pos = 1;
       Tuple t;
-      Cursor rc = r.create(ctx, tuple);
+      TupleBuffer rc = new TupleBuffer(r.create(ctx, tuple));
       try {
         rc.open(ctx);
         while ((t = rc.next(ctx)) != null) {
@@ -149,12 +238,19 @@ public class TableJoin extends Check implements Operator {
           if (keys != null) {
             Sequence[] tmp = t.array();
             Sequence[] bindings = Arrays.copyOfRange(tmp, lSize, tmp.length);
-            table.add(keys, bindings, pos++);
+            join.add(keys, bindings);
           }
         }
+      } catch (QueryException e) {
+        join.clear();
+        throw e;
       } finally {
         rc.close(ctx);
       }
+      table = join.build(FJControl.POOL);
+      if (table == null) {
+        spilled = join;
+      }
     }
   }
 
@@ -0,0 +1,92 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.operator;
+
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+
+/**
+ * Pulls tuples from a cursor in batches and hands them out one at a time.
+ * The virtual call to the input cursor is thus paid once per batch and not
+ * once per tuple.
+ * <p>
+ * The batch size starts small and doubles with each refill up to
+ * {@link Cursor#BATCH_SIZE}, so that consumers which need only the first few
+ * tuples do not force the evaluation of a full batch.
+ */
+public final class TupleBuffer {
+  private final Cursor c;
+  private Tuple[] buf = new Tuple[1];
+  private int pos;
+  private int len;
+  private boolean exhausted;
+
+  public TupleBuffer(Cursor c) {
+    this.c = c;
+  }
+
+  public Tuple next(QueryContext ctx) throws QueryException {
+    if (pos == len) {
+      if (exhausted) {
+        return null;
+      }
+      if ((len > 0) && (buf.length < Cursor.BATCH_SIZE)) {
+        buf = new Tuple[Math.min(2 * buf.length, Cursor.BATCH_SIZE)];
+      }
+      pos = 0;
+      len = c.next(ctx, buf);
+      if (len == 0) {
+        exhausted = true;
+        return null;
+      }
+    }
+    Tuple t = buf[pos];
+    buf[pos++] = null; // allow gc
+    return t;
+  }
+
+  public void open(QueryContext ctx) throws QueryException {
+    reset();
+    c.open(ctx);
+  }
+
+  public void close(QueryContext ctx) {
+    reset();
+    c.close(ctx);
+  }
+
+  private void reset() {
+    for (int i = pos; i < len; i++) {
+      buf[i] = null;
+    }
+    pos = 0;
+    len = 0;
+    exhausted = false;
+  }
+}
@@ -51,7 +51,12 @@ public final class TupleImpl implements Tuple {
   }
 
   public TupleImpl(Sequence[] t) {
-    sequences = Arrays.copyOf(t, t.length);
+    this(t, true);
+  }
+
+  private TupleImpl(Sequence[] t, boolean copy) {
+    // derived tuples hand over freshly allocated arrays
+    sequences = (copy) ? Arrays.copyOf(t, t.length) : t;
   }
 
   @Override
@@ -61,7 +66,7 @@ public final class TupleImpl implements Tuple {
     for (int pos : positions) {
       projected[targetPos++] = get(pos);
     }
-    return new TupleImpl(projected);
+    return new TupleImpl(projected, false);
   }
 
   @Override
@@ -72,7 +77,7 @@ public final class TupleImpl implements Tuple {
     if ((end < start) || (end >= sequences.length)) {
       throw new QueryException(ErrorCode.BIT_DYN_RT_OUT_OF_BOUNDS_ERROR, end);
     }
-    return new TupleImpl(Arrays.copyOfRange(sequences, start, end));
+    return new TupleImpl(Arrays.copyOfRange(sequences, start, end), false);
   }
 
   @Override
@@ -82,21 +87,21 @@ public final class TupleImpl implements Tuple {
     }
     Sequence[] tmp = Arrays.copyOf(sequences, sequences.length);
     tmp[position] = s;
-    return new TupleImpl(tmp);
+    return new TupleImpl(tmp, false);
   }
 
   @Override
   public Tuple concat(Sequence s) {
     Sequence[] tmp = Arrays.copyOf(sequences, sequences.length + 1);
     tmp[sequences.length] = s;
-    return new TupleImpl(tmp);
+    return new TupleImpl(tmp, false);
   }
 
   @Override
   public Tuple concat(Sequence[] s) {
     Sequence[] tmp = Arrays.copyOf(sequences, sequences.length + s.length);
     System.arraycopy(s, 0, tmp, sequences.length, s.length);
-    return new TupleImpl(tmp);
+    return new TupleImpl(tmp, false);
   }
 
   @Override
@@ -106,9 +111,9 @@ public final class TupleImpl implements Tuple {
       throw new QueryException(ErrorCode.BIT_DYN_RT_OUT_OF_BOUNDS_ERROR, position);
     }
     Sequence[] tmp = Arrays.copyOf(sequences, nLen);
-    tmp[sequences.length] = s;
+    tmp[sequences.length] = con;
     tmp[position] = s;
-    return new TupleImpl(tmp);
+    return new TupleImpl(tmp, false);
   }
 
   @Override
@@ -120,7 +125,7 @@ public final class TupleImpl implements Tuple {
     Sequence[] tmp = Arrays.copyOf(sequences, nLen);
     System.arraycopy(con, 0, tmp, sequences.length, con.length);
     tmp[position] = s;
-    return new TupleImpl(tmp);
+    return new TupleImpl(tmp, false);
   }
 
   @Override
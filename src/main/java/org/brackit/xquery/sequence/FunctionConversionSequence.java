@@ -315,7 +315,12 @@ public class FunctionConversionSequence extends LazySequence {
 
       if (sType.getCardinality().atMostOne()) {
         try (Iter it = ts.iterate()) {
-          return it.next();
+          Item item = it.next();
+          // fails if there is a second item
+          if (item != null) {
+            it.next();
+          }
+          return item;
         }
       }
 
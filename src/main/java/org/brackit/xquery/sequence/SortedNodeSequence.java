@@ -75,6 +75,7 @@ public class SortedNodeSequence extends LazySequence {
         while (n != null) {
           if ((dedup) && (p != null) && (p.cmp(n) == 0)) {
             n = (Node<?>) sorted.next();
+            continue;
           }
           Node<?> deliver = n;
           p = n;
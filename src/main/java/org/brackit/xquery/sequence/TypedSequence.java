@@ -175,6 +175,9 @@ public class TypedSequence extends LazySequence {
             s);
       }
 
+      return s;
+    } else if ((sType.getItemType().isAnyItem()) && (sType.getCardinality() == Cardinality.ZeroOrMany)) {
+      // item()* accepts everything
       return s;
     } else {
       return new TypedSequence(sType, s);
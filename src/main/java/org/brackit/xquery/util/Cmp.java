@@ -32,6 +32,9 @@ import org.brackit.xquery.QueryException;
 import org.brackit.xquery.atomic.Atomic;
 import org.brackit.xquery.atomic.Bool;
 import org.brackit.xquery.atomic.Dbl;
+import org.brackit.xquery.atomic.DblNumeric;
+import org.brackit.xquery.atomic.FltNumeric;
+import org.brackit.xquery.atomic.Numeric;
 import org.brackit.xquery.atomic.Str;
 import org.brackit.xquery.atomic.Una;
 import org.brackit.xquery.expr.Cast;
@@ -46,6 +49,13 @@ import org.brackit.xquery.xdm.Type;
 public enum Cmp {
   eq, ne, lt, le, gt, ge;
 
+  /**
+   * Maximum number of right-hand values of a general comparison which are
+   * compared one by one with each left-hand value. Larger right-hand sides
+   * are evaluated with a {@link GCmpIndex}.
+   */
+  private static final int NESTED_LOOP_LIMIT = 16;
+
   public Cmp swap() {
     switch (this) {
       case ge:
@@ -72,6 +82,11 @@ public enum Cmp {
       return !left.eq(right);
     }
 
+    // NaN is neither smaller nor greater than any other value
+    if (isNaN(left) || isNaN(right)) {
+      return false;
+    }
+
     int compare = left.cmp(right);
     boolean res;
 
@@ -86,6 +101,11 @@ public enum Cmp {
     return res;
   }
 
+  private static boolean isNaN(Atomic atomic) {
+    return ((atomic instanceof DblNumeric) || (atomic instanceof FltNumeric))
+        && (Double.isNaN(((Numeric) atomic).doubleValue()));
+  }
+
   public boolean vCmp(QueryContext ctx, Item left, Item right) throws QueryException {
     left = left.atomize();
     right = right.atomize();
@@ -115,38 +135,50 @@ public enum Cmp {
     if ((left instanceof Item) && (right instanceof Item)) {
       return compareLeftAndRightAtomic(ctx, ((Item) left).atomize(), ((Item) right).atomize());
     }
+    if (left instanceof Item) {
+      return gCmp(ctx, ((Item) left).atomize(), right);
+    }
+    if (right instanceof Item) {
+      // stream the left side and stop at the first match
+      return swap().gCmp(ctx, ((Item) right).atomize(), left);
+    }
 
+    // atomize the right side once instead of re-iterating it for every
+    // item of the left side, and stream the left side to stop at the
+    // first match
+    Atomic[] r = GCmpIndex.atomize(right);
+    if (r.length > NESTED_LOOP_LIMIT) {
+      return new GCmpIndex(this, r).probe(ctx, left);
+    }
     Iter ls = left.iterate();
-    Iter rs = null;
-    Item lItem;
-    Item rItem;
-    Atomic lAtomic;
-    Atomic rAtomic;
-
     try {
+      Item lItem;
       while ((lItem = ls.next()) != null) {
-        lAtomic = lItem.atomize();
-
-        rs = right.iterate();
-        while ((rItem = rs.next()) != null) {
-          rAtomic = rItem.atomize();
-
-          boolean res = compareLeftAndRightAtomic(ctx, lAtomic, rAtomic);
-
-          if (res) {
+        Atomic lAtomic = lItem.atomize();
+        for (Atomic rAtomic : r) {
+          if (compareLeftAndRightAtomic(ctx, lAtomic, rAtomic)) {
             return true;
           }
         }
-        rs.close();
-        rs = null;
       }
     } finally {
       ls.close();
-      if (rs != null) {
-        rs.close();
-      }
     }
+    return false;
+  }
 
+  private boolean gCmp(QueryContext ctx, Atomic lAtomic, Sequence right) throws QueryException {
+    Iter rs = right.iterate();
+    try {
+      Item rItem;
+      while ((rItem = rs.next()) != null) {
+        if (compareLeftAndRightAtomic(ctx, lAtomic, rItem.atomize())) {
+          return true;
+        }
+      }
+    } finally {
+      rs.close();
+    }
     return false;
   }
 
@@ -158,7 +190,7 @@ public enum Cmp {
     return (res) ? Bool.TRUE : Bool.FALSE;
   }
 
-  private boolean compareLeftAndRightAtomic(QueryContext ctx, Atomic lAtomic, Atomic rAtomic) throws QueryException {
+  boolean compareLeftAndRightAtomic(QueryContext ctx, Atomic lAtomic, Atomic rAtomic) throws QueryException {
     Type lType = lAtomic.type();
     Type rType = rAtomic.type();
 
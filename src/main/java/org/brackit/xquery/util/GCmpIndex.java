@@ -0,0 +1,293 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.Numeric;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.Type;
+
+/**
+ * The atomized right-hand side of a general comparison, prepared for
+ * probing with left-hand values.
+ * <p>
+ * If all values are strings or untyped atomics, or all are numeric, pairs of
+ * values can be compared without errors, and equality and order are
+ * consistent with hashing and with the minimum and maximum values. In that
+ * case <code>=</code> probes a hash set, <code>!=</code> checks whether all
+ * values are the same, and the other comparisons check the extreme values.
+ * All other combinations are compared pair by pair.
+ * <p>
+ * An index is immutable once built and can be shared by concurrent probes.
+ */
+public final class GCmpIndex {
+  private static final int ANY = 0;
+
+  private static final int STRING = 1;
+
+  private static final int NUMERIC = 2;
+
+  private static final int MIXED = 3;
+
+  private final Cmp cmp;
+
+  private final Atomic[] atomics;
+
+  private final int family;
+
+  private Set<String> strings;
+
+  private Map<Double, List<Atomic>> numbers;
+
+  private boolean same;
+
+  private Atomic min;
+
+  private Atomic max;
+
+  public GCmpIndex(Cmp cmp, Sequence right) throws QueryException {
+    this(cmp, atomize(right));
+  }
+
+  GCmpIndex(Cmp cmp, Atomic[] atomics) throws QueryException {
+    this.cmp = cmp;
+    this.atomics = atomics;
+    this.family = (atomics.length > 0) ? family(atomics, ANY) : MIXED;
+    if (family == STRING) {
+      buildStrings();
+    } else if (family == NUMERIC) {
+      buildNumbers();
+    }
+  }
+
+  private void buildStrings() {
+    switch (cmp) {
+      case eq:
+        strings = new HashSet<>(2 * atomics.length);
+        for (Atomic atomic : atomics) {
+          strings.add(atomic.stringValue());
+        }
+        break;
+      case ne:
+        same = true;
+        String first = atomics[0].stringValue();
+        for (Atomic atomic : atomics) {
+          same &= first.equals(atomic.stringValue());
+        }
+        break;
+      default:
+        min = atomics[0];
+        max = atomics[0];
+        for (Atomic atomic : atomics) {
+          String s = atomic.stringValue();
+          if (s.compareTo(min.stringValue()) < 0) {
+            min = atomic;
+          } else if (s.compareTo(max.stringValue()) > 0) {
+            max = atomic;
+          }
+        }
+    }
+  }
+
+  private void buildNumbers() throws QueryException {
+    switch (cmp) {
+      case eq:
+        // bucket by double value; candidates are confirmed
+        // with the exact comparison of the promoted types
+        numbers = new HashMap<>(2 * atomics.length);
+        for (Atomic atomic : atomics) {
+          double v = ((Numeric) atomic).doubleValue();
+          if (!Double.isNaN(v)) {
+            numbers.computeIfAbsent(v + 0.0, k -> new ArrayList<>(1)).add(atomic);
+          }
+        }
+        break;
+      case ne:
+        same = true;
+        for (Atomic atomic : atomics) {
+          same &= atomic.eq(atomics[0]);
+        }
+        break;
+      default:
+        min = extreme(atomics, -1);
+        max = extreme(atomics, 1);
+    }
+  }
+
+  /**
+   * Checks if the general comparison holds for any of the given left-hand
+   * values. The values are probed one by one until the first match.
+   */
+  public boolean probe(QueryContext ctx, Sequence left) throws QueryException {
+    if (atomics.length == 0) {
+      return false;
+    }
+    if (left instanceof Item) {
+      return probe(ctx, ((Item) left).atomize());
+    }
+    Iter it = left.iterate();
+    try {
+      Item item;
+      while ((item = it.next()) != null) {
+        if (probe(ctx, item.atomize())) {
+          return true;
+        }
+      }
+    } finally {
+      it.close();
+    }
+    return false;
+  }
+
+  private boolean probe(QueryContext ctx, Atomic left) throws QueryException {
+    if ((family != MIXED) && (family(left) == family)) {
+      return (family == STRING) ? probeString(left) : probeNumber(ctx, left);
+    }
+    for (Atomic r : atomics) {
+      if (cmp.compareLeftAndRightAtomic(ctx, left, r)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean probeString(Atomic left) {
+    String l = left.stringValue();
+    switch (cmp) {
+      case eq:
+        return strings.contains(l);
+      case ne:
+        // some pair differs unless all values are the same
+        return (!same) || (!l.equals(atomics[0].stringValue()));
+      case lt:
+      case le: {
+        int c = l.compareTo(max.stringValue());
+        return (c < 0) || ((c == 0) && (cmp == Cmp.le));
+      }
+      default: {
+        int c = l.compareTo(min.stringValue());
+        return (c > 0) || ((c == 0) && (cmp == Cmp.ge));
+      }
+    }
+  }
+
+  private boolean probeNumber(QueryContext ctx, Atomic left) throws QueryException {
+    switch (cmp) {
+      case eq: {
+        List<Atomic> candidates = numbers.get(((Numeric) left).doubleValue() + 0.0);
+        if (candidates != null) {
+          for (Atomic r : candidates) {
+            if (left.eq(r)) {
+              return true;
+            }
+          }
+        }
+        return false;
+      }
+      case ne:
+        return (!same) || (!left.eq(atomics[0]));
+      default:
+        // NaN is neither smaller nor greater than any other value
+        if (Double.isNaN(((Numeric) left).doubleValue())) {
+          return false;
+        }
+        Atomic r = ((cmp == Cmp.lt) || (cmp == Cmp.le)) ? max : min;
+        return (r != null) && cmp.aCmp(ctx, left, r);
+    }
+  }
+
+  private static Atomic extreme(Atomic[] atomics, int sign) throws QueryException {
+    // NaN is neither smaller nor greater than any other value
+    Atomic extreme = null;
+    for (Atomic atomic : atomics) {
+      if (Double.isNaN(((Numeric) atomic).doubleValue())) {
+        continue;
+      }
+      if ((extreme == null) || (Integer.signum(atomic.cmp(extreme)) == sign)) {
+        extreme = atomic;
+      }
+    }
+    return extreme;
+  }
+
+  private static int family(Atomic[] atomics, int family) {
+    for (Atomic atomic : atomics) {
+      int f = family(atomic);
+      if ((f == MIXED) || ((family != ANY) && (family != f))) {
+        return MIXED;
+      }
+      family = f;
+    }
+    return family;
+  }
+
+  private static int family(Atomic atomic) {
+    Type type = atomic.type();
+    if (type.instanceOf(Type.STR) || type.instanceOf(Type.UNA)) {
+      return STRING;
+    } else if (type.isNumeric() && !type.instanceOf(Type.FLO)) {
+      // xs:float is excluded because promotion to xs:float
+      // does not preserve equality of the xs:double values
+      return NUMERIC;
+    }
+    return MIXED;
+  }
+
+  static Atomic[] atomize(Sequence s) throws QueryException {
+    if (s instanceof Item) {
+      return new Atomic[] { ((Item) s).atomize() };
+    }
+    Atomic[] atomics = new Atomic[8];
+    int size = 0;
+    Iter it = s.iterate();
+    try {
+      Item item;
+      while ((item = it.next()) != null) {
+        if (size == atomics.length) {
+          atomics = Arrays.copyOf(atomics, size * 3 / 2);
+        }
+        atomics[size++] = item.atomize();
+      }
+    } finally {
+      it.close();
+    }
+    return Arrays.copyOf(atomics, size);
+  }
+}
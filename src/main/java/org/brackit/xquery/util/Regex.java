@@ -28,7 +28,10 @@
 package org.brackit.xquery.util;
 
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -65,9 +68,118 @@ public class Regex {
 
   ;
 
+  /**
+   * Max. number of compiled patterns kept in the pattern cache.
+   */
+  public static int CACHE_SIZE = Cfg.asInt("org.brackit.xquery.regex.cacheSize", 256);
+
+  // Disallowed in replacement string: backslash or dollar sign as
+  // only character in string, or dollar sign not preceded by
+  // backslash and not followed by a digit, or backslash not
+  // preceded by backslash and not followed by a dollar sign
+  private static final Pattern ILLEGAL_REPLACEMENT =
+      Pattern.compile("(\\$|\\\\|.*[^\\\\]\\$\\D.*|.*[^\\\\]\\\\[^\\$].*)");
+
+  private static final Map<Key, Pattern> cache = new LinkedHashMap<Key, Pattern>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, Pattern> eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+
+  private static long hits;
+
+  private static long misses;
+
   public static Sequence match(Mode mode, String input, String pattern, String replace, String flags)
       throws QueryException {
+    return match(mode, input, compile(mode, pattern, flags), replace);
+  }
+
+  public static Sequence match(Mode mode, String input, Pattern cpattern, String replace) throws QueryException {
+    if (mode == Mode.TOKENIZE && input.isEmpty()) {
+      return null;
+    }
+
+    Matcher matcher = cpattern.matcher(input);
+
+    switch (mode) {
+      case MATCH:
+        return new Bool(matcher.matches());
+      case REPLACE:
+        if (ILLEGAL_REPLACEMENT.matcher(replace).matches()) {
+          throw (new QueryException(ErrorCode.ERR_INVALID_REPLACEMENT_STRING,
+                                    "Replacement string matches makes illegal " + "use of chars '\\' or '$'."));
+        }
+
+        StringBuffer sb = new StringBuffer();
+        while (matcher.find()) {
+          matcher.appendReplacement(sb, replace);
+        }
+        matcher.appendTail(sb);
+
+        return new Str(sb.toString());
+
+      case TOKENIZE:
+        String[] tokens = cpattern.split(input, -1);
+        Str[] items = new Str[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+          items[i] = new Str(tokens[i]);
+        }
+        return new ItemSequence(items);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Returns the compiled Java pattern for the given XQuery regular expression
+   * and flags. Compiled patterns are shared in a bounded LRU cache.
+   */
+  public static Pattern compile(Mode mode, String pattern, String flags) throws QueryException {
+    Key key = new Key(mode, pattern, flags);
+    synchronized (cache) {
+      Pattern cpattern = cache.get(key);
+      if (cpattern != null) {
+        hits++;
+        return cpattern;
+      }
+      misses++;
+    }
+    Pattern cpattern = compilePattern(mode, pattern, flags);
+    synchronized (cache) {
+      cache.put(key, cpattern);
+    }
+    return cpattern;
+  }
 
+  /**
+   * Returns the number of pattern cache hits.
+   */
+  public static long cacheHits() {
+    synchronized (cache) {
+      return hits;
+    }
+  }
+
+  /**
+   * Returns the number of pattern cache misses.
+   */
+  public static long cacheMisses() {
+    synchronized (cache) {
+      return misses;
+    }
+  }
+
+  public static void clearCache() {
+    synchronized (cache) {
+      cache.clear();
+      hits = 0;
+      misses = 0;
+    }
+  }
+
+  private static Pattern compilePattern(Mode mode, String pattern, String flags) throws QueryException {
     // parse flags
     boolean removeWhitespace = false;
     int flagMask = Pattern.UNIX_LINES;
@@ -97,54 +209,42 @@ public class Regex {
       }
     }
 
-    if (mode != Mode.MATCH && Pattern.matches(pattern, "")) {
-      throw (new QueryException(ErrorCode.ERR_REGULAR_EXPRESSION_EMPTY_STRING, "Pattern matches empty string."));
-    }
-
-    if (mode == Mode.TOKENIZE && input.isEmpty()) {
-      return null;
-    }
-
     Pattern cpattern;
     try {
+      if (mode != Mode.MATCH && Pattern.matches(pattern, "")) {
+        throw (new QueryException(ErrorCode.ERR_REGULAR_EXPRESSION_EMPTY_STRING, "Pattern matches empty string."));
+      }
       String regex = adaptRegEx(mode, pattern, flagMask, removeWhitespace);
       cpattern = Pattern.compile(regex, flagMask);
     } catch (PatternSyntaxException e) {
       throw (new QueryException(e, ErrorCode.ERR_INVALID_REGULAR_EXPRESSION));
     }
-    Matcher matcher = cpattern.matcher(input);
+    return cpattern;
+  }
 
-    switch (mode) {
-      case MATCH:
-        return new Bool(matcher.matches());
-      case REPLACE:
-        // Disallowed in replacement string: backslash or dollar sign as
-        // only character in string, or dollar sign not preceded by
-        // backslash and not followed by a digit, or backslash not
-        // preceded by backslash and not followed by a dollar sign
-        String pat = "(\\$|\\\\|.*[^\\\\]\\$\\D.*|.*[^\\\\]\\\\[^\\$].*)";
-        if (Pattern.matches(pat, replace)) {
-          throw (new QueryException(ErrorCode.ERR_INVALID_REPLACEMENT_STRING,
-                                    "Replacement string matches makes illegal " + "use of chars '\\' or '$'."));
-        }
+  private static final class Key {
+    final Mode mode;
+    final String pattern;
+    final String flags;
 
-        StringBuffer sb = new StringBuffer();
-        while (matcher.find()) {
-          matcher.appendReplacement(sb, replace);
-        }
-        matcher.appendTail(sb);
+    Key(Mode mode, String pattern, String flags) {
+      this.mode = mode;
+      this.pattern = pattern;
+      this.flags = flags;
+    }
 
-        return new Str(sb.toString());
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return (mode == other.mode) && pattern.equals(other.pattern) && Objects.equals(flags, other.flags);
+    }
 
-      case TOKENIZE:
-        String[] tokens = cpattern.split(input, -1);
-        Str[] items = new Str[tokens.length];
-        for (int i = 0; i < tokens.length; i++) {
-          items[i] = new Str(tokens[i]);
-        }
-        return new ItemSequence(items);
-      default:
-        return null;
+    @Override
+    public int hashCode() {
+      return (31 * mode.hashCode() + pattern.hashCode()) * 31 + Objects.hashCode(flags);
     }
   }
 
@@ -0,0 +1,193 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.forkjoin;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link Pool} that runs tasks in a {@link ForkJoinPool}.
+ * <p>
+ * Each task is wrapped in a {@link ForkJoinTask} when it is forked or
+ * submitted. Threads that must wait, e.g., for a predecessor in the block
+ * engine, block through {@link #block(Object)} so that the pool can
+ * compensate with a spare thread.
+ * </p>
+ */
+public class ForkJoinPoolAdapter extends Pool {
+
+  private final ForkJoinPool pool;
+
+  public ForkJoinPoolAdapter(int size) {
+    this.pool = new ForkJoinPool(size, AdapterThread::new, null, false);
+  }
+
+  @Override
+  public int getSize() {
+    return pool.getParallelism();
+  }
+
+  @Override
+  public Task submit(Task task) {
+    Thread me = Thread.currentThread();
+    if ((me instanceof AdapterThread) && (((AdapterThread) me).getPool() == pool)) {
+      adapt(task).fork();
+    } else {
+      pool.execute(adapt(task));
+    }
+    return task;
+  }
+
+  @Override
+  public boolean dispatch(Task task) {
+    submit(task);
+    return true;
+  }
+
+  @Override
+  public List<WorkerStats> getStats() {
+    WorkerStats stats = new WorkerStats(0);
+    stats.stealCnt = (int) pool.getStealCount();
+    return Collections.singletonList(stats);
+  }
+
+  @Override
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  /**
+   * Checks if the given thread belongs to the pool of a
+   * {@link ForkJoinPoolAdapter}.
+   */
+  static boolean isWorker(Thread thread) {
+    return (thread instanceof AdapterThread);
+  }
+
+  static void fork(Task task) {
+    if (!isWorker(Thread.currentThread())) {
+      throw new IllegalStateException("Task must be forked by a pool thread");
+    }
+    adapt(task).fork();
+  }
+
+  static void join(Task task) {
+    ForkJoinTask<?> adapter = task.adapter;
+    if (adapter != null) {
+      adapter.join();
+    } else if (!task.exec()) {
+      // task is processed by another thread
+      await(task);
+    }
+  }
+
+  private static void await(final Task task) {
+    try {
+      ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+        long backoff = 1;
+
+        @Override
+        public boolean block() {
+          LockSupport.parkNanos(backoff * 1000);
+          backoff = Math.min(backoff << 1, WorkStealingPool.MAX_BACKOFF);
+          return task.finished();
+        }
+
+        @Override
+        public boolean isReleasable() {
+          return task.finished();
+        }
+      });
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Parks the current thread until it is unparked. If the current thread
+   * belongs to a {@link ForkJoinPool}, the pool may activate a spare thread
+   * in the meantime.
+   */
+  public static void block(final Object blocker) {
+    if (!(Thread.currentThread() instanceof ForkJoinWorkerThread)) {
+      LockSupport.park(blocker);
+      return;
+    }
+    try {
+      ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+        boolean released;
+
+        @Override
+        public boolean block() {
+          LockSupport.park(blocker);
+          released = true;
+          return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+          return released;
+        }
+      });
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static ForkJoinTask<?> adapt(Task task) {
+    Adapter adapter = new Adapter(task);
+    task.adapter = adapter;
+    return adapter;
+  }
+
+  private static final class AdapterThread extends ForkJoinWorkerThread {
+    AdapterThread(ForkJoinPool pool) {
+      super(pool);
+    }
+  }
+
+  private static final class Adapter extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Task task;
+
+    Adapter(Task task) {
+      this.task = task;
+    }
+
+    @Override
+    protected void compute() {
+      task.exec();
+    }
+  }
+}
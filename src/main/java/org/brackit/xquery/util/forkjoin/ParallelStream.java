@@ -0,0 +1,139 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.forkjoin;
+
+import java.util.ArrayDeque;
+import java.util.function.Function;
+
+import org.brackit.xquery.xdm.Stream;
+
+/**
+ * Stream, which maps the elements of another stream concurrently in a
+ * {@link Pool}, but delivers the results in the order of the input.
+ * <p>
+ * At most <code>window</code> elements are mapped ahead of the consumer,
+ * which bounds the memory held by pending results. The input stream is only
+ * read by the consuming thread.
+ * </p>
+ */
+public class ParallelStream<S, T> implements Stream<T> {
+
+  private final Pool pool;
+
+  private final int window;
+
+  private final Stream<? extends S> in;
+
+  private final Function<? super S, ? extends T> function;
+
+  private final ArrayDeque<MapTask> pending;
+
+  private boolean exhausted;
+
+  private boolean closed;
+
+  /**
+   * Creates a stream, which maps its input in the given pool, or in the
+   * consuming thread if <code>pool</code> is <code>null</code>.
+   */
+  public ParallelStream(Pool pool, int window, Stream<? extends S> in, Function<? super S, ? extends T> function) {
+    if (window <= 0) {
+      throw new IllegalArgumentException("Illegal window size: " + window);
+    }
+    this.pool = pool;
+    this.window = window;
+    this.in = in;
+    this.function = function;
+    this.pending = new ArrayDeque<>(window);
+  }
+
+  private final class MapTask extends Task {
+    final S element;
+    T result;
+
+    MapTask(S element) {
+      this.element = element;
+    }
+
+    @Override
+    public void compute() {
+      result = function.apply(element);
+    }
+  }
+
+  @Override
+  public T next() {
+    if (closed) {
+      return null;
+    }
+    try {
+      if (pool == null) {
+        S element = in.next();
+        return (element != null) ? function.apply(element) : null;
+      }
+      while ((!exhausted) && (pending.size() < window)) {
+        S element = in.next();
+        if (element == null) {
+          exhausted = true;
+          break;
+        }
+        MapTask task = new MapTask(element);
+        pool.submit(task);
+        pending.add(task);
+      }
+      MapTask task = pending.poll();
+      if (task == null) {
+        return null;
+      }
+      task.join();
+      return task.result;
+    } catch (RuntimeException | Error e) {
+      close();
+      throw e;
+    }
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      // wait for tasks still running on the input
+      for (MapTask task = pending.poll(); task != null; task = pending.poll()) {
+        try {
+          task.join();
+        } catch (RuntimeException | Error ignored) {
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+}
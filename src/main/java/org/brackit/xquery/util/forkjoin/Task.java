@@ -27,9 +27,13 @@
  */
 package org.brackit.xquery.util.forkjoin;
 
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.locks.LockSupport;
 
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryException;
+
 /**
  * @author Sebastian Baechle
  */
@@ -49,6 +53,7 @@ public abstract class Task {
   volatile Thread join;
   volatile int status = NEW;
   volatile int process = 0;
+  volatile ForkJoinTask<?> adapter;
   Throwable throwable;
 
   public abstract void compute() throws Throwable;
@@ -65,7 +70,6 @@ public abstract class Task {
       compute();
       setStatus(SUCCESS);
     } catch (Throwable e) {
-      e.printStackTrace();
       throwable = e;
       setStatus(ERROR);
     }
@@ -95,7 +99,12 @@ public abstract class Task {
   }
 
   public void fork() {
-    ((Worker) Thread.currentThread()).fork(this);
+    Thread me;
+    if ((me = Thread.currentThread()) instanceof Worker) {
+      ((Worker) me).fork(this);
+    } else {
+      ForkJoinPoolAdapter.fork(this);
+    }
   }
 
   public void join() {
@@ -103,9 +112,12 @@ public abstract class Task {
     if ((me = Thread.currentThread()) instanceof Worker) {
       Worker w = (Worker) me;
       w.join(this, false);
+    } else if (ForkJoinPoolAdapter.isWorker(me)) {
+      ForkJoinPoolAdapter.join(this);
     } else {
       externalWaitForFinish();
     }
+    reportError();
   }
 
   public void joinSerial() {
@@ -113,9 +125,12 @@ public abstract class Task {
     if ((me = Thread.currentThread()) instanceof Worker) {
       Worker w = (Worker) me;
       w.join(this, true);
+    } else if (ForkJoinPoolAdapter.isWorker(me)) {
+      ForkJoinPoolAdapter.join(this);
     } else {
       externalWaitForFinish();
     }
+    reportError();
   }
 
   public boolean finished() {
@@ -127,6 +142,19 @@ public abstract class Task {
     return throwable;
   }
 
+  private void reportError() {
+    if (status != ERROR) {
+      return;
+    }
+    if (throwable instanceof RuntimeException) {
+      throw (RuntimeException) throwable;
+    }
+    if (throwable instanceof Error) {
+      throw (Error) throwable;
+    }
+    throw new QueryException(throwable, ErrorCode.BIT_DYN_INT_ERROR);
+  }
+
   private void externalWaitForFinish() {
     int s = status;
     if (s <= 0) {
@@ -144,22 +172,4 @@ public abstract class Task {
       }
     }
   }
-
-  public void park(Thread t) {
-    int s = status;
-    if (s <= 0) {
-      return;
-    }
-    synchronized (this) {
-      if (status <= 0) {
-        Thread o = join;
-        join = t;
-        LockSupport.park();
-        if (o != null) {
-          join = o;
-          LockSupport.unpark(o);
-        }
-      }
-    }
-  }
 }
\ No newline at end of file
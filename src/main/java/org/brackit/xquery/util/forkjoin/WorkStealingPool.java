@@ -0,0 +1,270 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.forkjoin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+import org.brackit.xquery.util.Cfg;
+
+/**
+ * Work-stealing thread pool for fork/join tasks.
+ * <p>
+ * Idle workers steal from randomly chosen victims. If no work is found, a
+ * worker spins for a few rounds, then parks with exponentially increasing
+ * timeouts and finally parks until new work is signaled.
+ * </p>
+ */
+public class WorkStealingPool extends Pool {
+  private static final boolean LOG = false;
+
+  /**
+   * Number of idle rounds a worker spins before it starts to park.
+   */
+  public static int SPINS = Cfg.asInt("org.brackit.xquery.fj.spins", 16);
+
+  /**
+   * Max. timeout of a backoff park in microseconds before an idle worker
+   * parks until new work is signaled.
+   */
+  public static long MAX_BACKOFF = Cfg.asLong("org.brackit.xquery.fj.maxBackoff", 1024);
+
+  /**
+   * Measure the execution time of tasks.
+   */
+  public static boolean TIMING = Cfg.asBool("org.brackit.xquery.fj.timing", false);
+
+  private final int size;
+  private final Worker[] workers;
+  private final ConcurrentLinkedQueue<Worker> inactive;
+  private final ConcurrentLinkedQueue<Task> queue;
+
+  public WorkStealingPool(int size, WorkerFactory factory) {
+    this.size = size;
+    inactive = new ConcurrentLinkedQueue<>();
+    queue = new ConcurrentLinkedQueue<>();
+    workers = new Worker[size];
+    for (int i = 0; i < size; i++) {
+      workers[i] = factory.newThread(this);
+      workers[i].setDaemon(true);
+    }
+    for (int i = 0; i < size; i++) {
+      workers[i].start();
+    }
+  }
+
+  @Override
+  public int getSize() {
+    return size;
+  }
+
+  public void signalWork() {
+    Worker w = inactive.poll();
+    if (w != null) {
+      LockSupport.unpark(w);
+    }
+  }
+
+  Task stealTask(Worker stealer) {
+    Task t;
+    if ((stealer.victim != null) && ((t = stealer.victim.steal()) != null)) {
+      if (LOG) {
+        System.out.println(stealer + " stole from last victim " + stealer.victim);
+      }
+      stealer.stats.stealCnt++;
+      stealer.victim.stats.robbedCnt++;
+      return t;
+    }
+    // scan all workers starting at a random victim
+    // to spread the stealers evenly
+    int start = stealer.nextVictim(size);
+    for (int i = 0; i < size; i++) {
+      Worker w = workers[(start + i) % size];
+      if ((w != stealer) && ((t = w.steal()) != null)) {
+        if (LOG) {
+          System.out.println(stealer + " stole from " + w);
+        }
+        stealer.victim = w;
+        stealer.stats.stealCnt++;
+        stealer.victim.stats.robbedCnt++;
+        return t;
+      }
+    }
+    stealer.victim = null;
+    return null;
+  }
+
+  @Override
+  public Task submit(Task task) {
+    Thread me;
+    if ((me = Thread.currentThread()) instanceof Worker) {
+      ((Worker) me).fork(task);
+      return task;
+    }
+    Worker w = inactive.poll();
+    if (w != null) {
+      w.push(task);
+      LockSupport.unpark(w);
+    } else {
+      w = workers[ThreadLocalRandom.current().nextInt(size)];
+      w.push(task);
+      LockSupport.unpark(w);
+    }
+    return task;
+  }
+
+  @Override
+  public boolean dispatch(Task task) {
+    Worker w = inactive.poll();
+    if (w != null) {
+      w.push(task);
+      LockSupport.unpark(w);
+      return true;
+    } else {
+      queue.add(task);
+      return false;
+    }
+  }
+
+  void join(Worker w, Task join, boolean serial) {
+    if ((serial) && (exec(w, join))) {
+      queue.remove(join);
+      return;
+    }
+    Task t;
+    int retry = 0;
+    long backoff = 1;
+    while (join.status <= 0) {
+      if ((serial) && ((t = queue.poll()) != null)) {
+        t.exec();
+        retry = 0;
+      } else if ((t = w.poll()) != null) {
+        exec(w, t);
+        retry = 0;
+      } else if ((t = stealTask(w)) != null) {
+        // process stolen task from other thread
+        t.exec();
+        retry = 0;
+      } else if ((!serial) && ((t = queue.poll()) != null)) {
+        t.exec();
+        retry = 0;
+      } else if (++retry <= SPINS) {
+        Thread.onSpinWait();
+      } else {
+        // the joined task is processed elsewhere
+        w.stats.joinParkCnt++;
+        LockSupport.parkNanos(backoff * 1000);
+        backoff = Math.min(backoff << 1, MAX_BACKOFF);
+        continue;
+      }
+      backoff = 1;
+    }
+    w.stats.joinCnt++;
+  }
+
+  void run(Worker w) {
+    int retry = 0;
+    long backoff = 1;
+    while (!w.isTerminate()) {
+      Task t;
+      if ((t = w.poll()) != null) {
+        exec(w, t);
+        retry = 0;
+      } else if ((t = stealTask(w)) != null) {
+        t.exec();
+        retry = 0;
+      } else if ((t = queue.poll()) != null) {
+        t.exec();
+        retry = 0;
+      } else if (++retry <= SPINS) {
+        Thread.onSpinWait();
+        continue;
+      } else if (backoff <= MAX_BACKOFF) {
+        // nothing to do for a while: back off
+        w.stats.parkCnt++;
+        LockSupport.parkNanos(backoff * 1000);
+        backoff <<= 1;
+        continue;
+      } else {
+        inactive.add(w);
+        if ((t = w.poll()) == null) {
+          if (LOG) {
+            System.out.println(w + " goes parking");
+          }
+          w.stats.parkCnt++;
+          LockSupport.park();
+          if (LOG) {
+            System.out.println(w + " unparking");
+          }
+        } else {
+          exec(w, t);
+        }
+        retry = 0;
+      }
+      backoff = 1;
+    }
+  }
+
+  private boolean exec(Worker w, Task t) {
+    if (!TIMING) {
+      boolean executed = t.exec();
+      if (executed) {
+        w.stats.execCnt++;
+      }
+      return executed;
+    }
+    long start = System.nanoTime();
+    boolean executed = t.exec();
+    long end = System.nanoTime();
+    if (executed) {
+      w.stats.execCnt++;
+      w.stats.execTime += (end - start);
+    }
+    return executed;
+  }
+
+  @Override
+  public List<WorkerStats> getStats() {
+    ArrayList<WorkerStats> stats = new ArrayList<>(workers.length);
+    for (Worker w : workers) {
+      stats.add(w.stats);
+    }
+    return stats;
+  }
+
+  @Override
+  public void shutdown() {
+    for (Worker w : workers) {
+      w.setTerminate(true);
+      LockSupport.unpark(w);
+    }
+  }
+}
@@ -31,18 +31,33 @@ package org.brackit.xquery.util.forkjoin;
  * @author Sebastian Baechle
  */
 public class Worker extends Thread {
-  private final Pool pool;
+  private final WorkStealingPool pool;
   private volatile Deque<Task> deque;
   private volatile boolean terminate;
   Worker victim;
   final WorkerStats stats;
+  private int seed;
 
-  protected Worker(Pool pool, int no) {
+  protected Worker(WorkStealingPool pool, int no) {
     super("FJWorker:" + no);
     setDaemon(true);
     this.stats = new WorkerStats(getId());
     this.pool = pool;
     this.deque = new SyncDeque<>();
+    this.seed = (no + 1) * 0x9E3779B9;
+  }
+
+  /**
+   * Returns a random victim for stealing.
+   */
+  int nextVictim(int size) {
+    // xorshift
+    int x = seed;
+    x ^= x << 13;
+    x ^= x >>> 17;
+    x ^= x << 5;
+    seed = x;
+    return (x & 0x7FFFFFFF) % size;
   }
 
   void fork(Task task) {
@@ -37,7 +37,7 @@ public class WorkerFactory {
   final List<Worker> threads = new ArrayList<>();
   int i = 0;
 
-  public Worker newThread(Pool pool) {
+  public Worker newThread(WorkStealingPool pool) {
     final Worker t = new Worker(pool, i++);
     threads.add(t);
     return t;
@@ -40,7 +40,7 @@ public class WorkerStats {
   int adoptCnt;
   int parkCnt;
   int joinParkCnt;
-  long execTime;
+  long execTime; // nanos
 
   public WorkerStats(long threadid) {
     this.threadid = threadid;
@@ -58,7 +58,7 @@ public class WorkerStats {
         adoptCnt,
         parkCnt,
         joinParkCnt,
-        execTime);
+        execTime / 1000000);
   }
 
   public void reset() {
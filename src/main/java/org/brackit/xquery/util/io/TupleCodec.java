@@ -0,0 +1,329 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.io;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.AnyURI;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.Bool;
+import org.brackit.xquery.atomic.Dbl;
+import org.brackit.xquery.atomic.Dec;
+import org.brackit.xquery.atomic.Flt;
+import org.brackit.xquery.atomic.Int;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.Int64;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.atomic.Una;
+import org.brackit.xquery.operator.TupleImpl;
+import org.brackit.xquery.sequence.ItemSequence;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Sequence;
+
+/**
+ * Compact binary encoding of tuples for temporary files, e.g., the runs of an
+ * external sort.
+ * <p>
+ * Atomic values of the common built-in types and short sequences of them are
+ * written in binary form. All other sequences, e.g., nodes, JSON items,
+ * functions, atomics of derived types or large lazy sequences, cannot be
+ * externalized without losing their identity. They are kept in an in-memory
+ * reference table of the codec and only their handle is written.
+ * </p>
+ */
+public class TupleCodec {
+
+  /**
+   * Max. number of items of a sequence that are written inline.
+   */
+  public static int MAX_INLINE_ITEMS = 64;
+
+  private static final byte NULL = 0;
+  private static final byte REF = 1;
+  private static final byte SEQUENCE = 2;
+  private static final byte INT32 = 3;
+  private static final byte INT64 = 4;
+  private static final byte INT = 5;
+  private static final byte DEC = 6;
+  private static final byte DBL = 7;
+  private static final byte FLT = 8;
+  private static final byte STR = 9;
+  private static final byte UNA = 10;
+  private static final byte BOOL = 11;
+  private static final byte ANY_URI = 12;
+  private static final byte QNM = 13;
+
+  private final List<Sequence> refs = new ArrayList<>();
+
+  /**
+   * Writes the given tuple.
+   */
+  public void write(DataOutputStream out, Tuple t) throws IOException {
+    int size = t.getSize();
+    out.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      writeSequence(out, t.get(i));
+    }
+  }
+
+  /**
+   * Reads the next tuple or returns <code>null</code> if the end of the input
+   * is reached.
+   */
+  public Tuple read(DataInputStream in) throws IOException {
+    int size;
+    try {
+      size = in.readInt();
+    } catch (EOFException e) {
+      return null;
+    }
+    Sequence[] s = new Sequence[size];
+    for (int i = 0; i < size; i++) {
+      s[i] = readSequence(in);
+    }
+    return new TupleImpl(s);
+  }
+
+  /**
+   * Releases all sequences kept in the reference table.
+   */
+  public synchronized void clear() {
+    refs.clear();
+  }
+
+  private void writeSequence(DataOutputStream out, Sequence s) throws IOException {
+    if (s == null) {
+      out.writeByte(NULL);
+    } else if (s instanceof Item) {
+      if (!writeItem(out, (Item) s)) {
+        writeRef(out, s);
+      }
+    } else {
+      Item[] items = inline(s);
+      if (items == null) {
+        writeRef(out, s);
+        return;
+      }
+      out.writeByte(SEQUENCE);
+      out.writeInt(items.length);
+      for (Item item : items) {
+        writeItem(out, item);
+      }
+    }
+  }
+
+  private Item[] inline(Sequence s) {
+    Item[] items = new Item[4];
+    int len = 0;
+    try (Iter it = s.iterate()) {
+      for (Item item = it.next(); item != null; item = it.next()) {
+        if ((len == MAX_INLINE_ITEMS) || (!inlineable(item))) {
+          return null;
+        }
+        if (len == items.length) {
+          items = Arrays.copyOf(items, Math.min(items.length * 2, MAX_INLINE_ITEMS));
+        }
+        items[len++] = item;
+      }
+    }
+    return Arrays.copyOf(items, len);
+  }
+
+  private static boolean inlineable(Item item) {
+    Class<?> c = item.getClass();
+    return (c == Int32.class) || (c == Int64.class) || (c == Int.class) || (c == Dec.class) || (c == Dbl.class) || (c
+        == Flt.class) || (c == Str.class) || (c == Una.class) || (c == Bool.class) || (c == AnyURI.class) || (c
+        == QNm.class);
+  }
+
+  private boolean writeItem(DataOutputStream out, Item item) throws IOException {
+    // only exact classes, because subclasses represent derived types
+    Class<?> c = item.getClass();
+    if (c == Int32.class) {
+      out.writeByte(INT32);
+      out.writeInt(((Int32) item).intValue());
+    } else if (c == Int64.class) {
+      out.writeByte(INT64);
+      out.writeLong(((Int64) item).longValue());
+    } else if (c == Int.class) {
+      out.writeByte(INT);
+      writeString(out, ((Int) item).integerValue().toString());
+    } else if (c == Dec.class) {
+      out.writeByte(DEC);
+      writeString(out, ((Dec) item).decimalValue().toString());
+    } else if (c == Dbl.class) {
+      out.writeByte(DBL);
+      out.writeDouble(((Dbl) item).doubleValue());
+    } else if (c == Flt.class) {
+      out.writeByte(FLT);
+      out.writeFloat(((Flt) item).floatValue());
+    } else if (c == Str.class) {
+      out.writeByte(STR);
+      writeString(out, ((Str) item).stringValue());
+    } else if (c == Una.class) {
+      out.writeByte(UNA);
+      writeString(out, ((Una) item).stringValue());
+    } else if (c == Bool.class) {
+      out.writeByte(BOOL);
+      out.writeBoolean(((Bool) item).booleanValue());
+    } else if (c == AnyURI.class) {
+      out.writeByte(ANY_URI);
+      writeString(out, ((AnyURI) item).stringValue());
+    } else if (c == QNm.class) {
+      QNm name = (QNm) item;
+      out.writeByte(QNM);
+      writeString(out, name.getNamespaceURI());
+      writeString(out, name.getPrefix());
+      writeString(out, name.getLocalName());
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  private Sequence readSequence(DataInputStream in) throws IOException {
+    byte tag = in.readByte();
+    switch (tag) {
+      case NULL:
+        return null;
+      case REF:
+        return deref(in.readInt());
+      case SEQUENCE:
+        Item[] items = new Item[in.readInt()];
+        for (int i = 0; i < items.length; i++) {
+          items[i] = readItem(in, in.readByte());
+        }
+        return new ItemSequence(items);
+      default:
+        return readItem(in, tag);
+    }
+  }
+
+  private Item readItem(DataInputStream in, byte tag) throws IOException {
+    switch (tag) {
+      case INT32:
+        return new Int32(in.readInt());
+      case INT64:
+        return new Int64(in.readLong());
+      case INT:
+        return new Int(new BigDecimal(readString(in)));
+      case DEC:
+        return new Dec(new BigDecimal(readString(in)));
+      case DBL:
+        return new Dbl(in.readDouble());
+      case FLT:
+        return new Flt(in.readFloat());
+      case STR:
+        return new Str(readString(in));
+      case UNA:
+        return new Una(readString(in));
+      case BOOL:
+        return in.readBoolean() ? Bool.TRUE : Bool.FALSE;
+      case ANY_URI:
+        return new AnyURI(readString(in));
+      case QNM:
+        return new QNm(readString(in), readString(in), readString(in));
+      default:
+        throw new IOException("Illegal tuple encoding: " + tag);
+    }
+  }
+
+  private void writeRef(DataOutputStream out, Sequence s) throws IOException {
+    out.writeByte(REF);
+    out.writeInt(ref(s));
+  }
+
+  private synchronized int ref(Sequence s) {
+    refs.add(s);
+    return refs.size() - 1;
+  }
+
+  private synchronized Sequence deref(int handle) {
+    return refs.get(handle);
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(b.length);
+    out.write(b);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] b = new byte[in.readInt()];
+    in.readFully(b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Estimates the heap size of the given tuple in bytes. Nodes and other
+   * non-atomic items are accounted only with their reference, because they
+   * are shared with the underlying collection.
+   */
+  public static long sizeOf(Tuple t) {
+    int size = t.getSize();
+    long bytes = 32 + 4L * size;
+    for (int i = 0; i < size; i++) {
+      bytes += sizeOf(t.get(i));
+    }
+    return bytes;
+  }
+
+  /**
+   * Estimates the heap size of the given sequence in bytes.
+   */
+  public static long sizeOf(Sequence s) {
+    if (s == null) {
+      return 0;
+    }
+    if ((s instanceof Str) || (s instanceof Una) || (s instanceof AnyURI)) {
+      return 56 + ((Atomic) s).stringValue().length();
+    }
+    if (s instanceof QNm) {
+      return 48;
+    }
+    if ((s instanceof Int) || (s instanceof Dec)) {
+      return 64;
+    }
+    if (s instanceof Item) {
+      return (inlineable((Item) s)) ? 16 : 0;
+    }
+    // unknown, possibly lazy sequence
+    return 32;
+  }
+}
@@ -98,6 +98,11 @@ public class FastList<E> {
     values[size++] = v;
   }
 
+  public void clear() {
+    Arrays.fill(values, 0, size, null);
+    size = 0;
+  }
+
   public boolean isEmpty() {
     return size == 0;
   }
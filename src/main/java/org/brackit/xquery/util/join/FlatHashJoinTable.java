@@ -0,0 +1,184 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.join;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.xdm.Sequence;
+
+/**
+ * Base class for open-addressing hash join tables with a specialized key
+ * representation. Matches are kept in flat arrays and chained per key by their
+ * index, so neither keys nor matches need per-entry objects.
+ */
+abstract class FlatHashJoinTable extends JoinTable {
+  private static final int INITIAL_CAPACITY = 16;
+
+  // first and last entry of a key chain or -1 for a free slot
+  protected int[] heads;
+  private int[] tails;
+  protected int mask;
+  private int used;
+
+  private Sequence[][] bindings = new Sequence[INITIAL_CAPACITY][];
+  private int[] positions = new int[INITIAL_CAPACITY];
+  private int[] next = new int[INITIAL_CAPACITY];
+  private int size;
+
+  FlatHashJoinTable() {
+    heads = new int[INITIAL_CAPACITY];
+    tails = new int[INITIAL_CAPACITY];
+    Arrays.fill(heads, -1);
+    mask = INITIAL_CAPACITY - 1;
+  }
+
+  /**
+   * Creates the key storage for the given number of slots.
+   */
+  protected abstract void allocateKeys(int capacity);
+
+  /**
+   * Moves the key of the old slot <code>from</code> to the new slot
+   * <code>to</code> after a resize.
+   */
+  protected abstract void moveKey(int from, int to);
+
+  /**
+   * Computes the slot of the key in the old slot <code>from</code> in the
+   * resized table.
+   */
+  protected abstract int rehash(int from);
+
+  /**
+   * Releases the key storage of the old slots after a resize.
+   */
+  protected abstract void resized();
+
+  /**
+   * Returns the key stored in the given slot.
+   */
+  protected abstract Atomic key(int slot);
+
+  protected final boolean isFree(int slot) {
+    return (heads[slot] == -1);
+  }
+
+  /**
+   * Appends a match to the chain of the given slot, which is either free or
+   * holds the key of the match.
+   */
+  protected final void append(int slot, int pos, Sequence[] bindings) {
+    int tail = tails[slot];
+    if (heads[slot] == -1) {
+      tail = -1;
+    } else if (positions[tail] == pos) {
+      // key is contained more than once in a general comparison
+      return;
+    }
+    if (size == positions.length) {
+      int capacity = size * 2;
+      this.bindings = Arrays.copyOf(this.bindings, capacity);
+      positions = Arrays.copyOf(positions, capacity);
+      next = Arrays.copyOf(next, capacity);
+    }
+    int entry = size++;
+    this.bindings[entry] = bindings;
+    positions[entry] = pos;
+    next[entry] = -1;
+    if (tail == -1) {
+      heads[slot] = entry;
+      if (++used * 4 > heads.length * 3) {
+        tails[slot] = entry;
+        resize();
+        return;
+      }
+    } else {
+      next[tail] = entry;
+    }
+    tails[slot] = entry;
+  }
+
+  private void resize() {
+    int[] oldHeads = heads;
+    int[] oldTails = tails;
+    int capacity = oldHeads.length * 2;
+    heads = new int[capacity];
+    tails = new int[capacity];
+    Arrays.fill(heads, -1);
+    mask = capacity - 1;
+    allocateKeys(capacity);
+    for (int from = 0; from < oldHeads.length; from++) {
+      if (oldHeads[from] != -1) {
+        int to = rehash(from);
+        moveKey(from, to);
+        heads[to] = oldHeads[from];
+        tails[to] = oldTails[from];
+      }
+    }
+    resized();
+  }
+
+  /**
+   * Adds the bindings of all matches of the given slot to the list.
+   */
+  protected final void collect(int slot, FastList<Sequence[]> matches) {
+    for (int e = heads[slot]; e != -1; e = next[e]) {
+      matches.add(bindings[e]);
+    }
+  }
+
+  protected final void collectValues(int slot, FastList<TValue> matches) {
+    for (int e = heads[slot]; e != -1; e = next[e]) {
+      matches.add(new TValue(bindings[e], positions[e]));
+    }
+  }
+
+  /**
+   * Adds the bindings of all matches of the given key to the list in the
+   * order of their insertion, i.e., sorted by their position.
+   */
+  protected abstract void lookupBindings(FastList<Sequence[]> matches, Atomic key) throws QueryException;
+
+  @Override
+  protected List<TEntry> entries() {
+    ArrayList<TEntry> entries = new ArrayList<TEntry>(size);
+    for (int slot = 0; slot < heads.length; slot++) {
+      if (heads[slot] != -1) {
+        TKey key = new TKey(key(slot));
+        for (int e = heads[slot]; e != -1; e = next[e]) {
+          entries.add(new TEntry(key, new TValue(bindings[e], positions[e])));
+        }
+      }
+    }
+    return entries;
+  }
+}
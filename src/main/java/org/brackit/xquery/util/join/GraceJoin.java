@@ -0,0 +1,557 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.join;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.Dbl;
+import org.brackit.xquery.atomic.Int64;
+import org.brackit.xquery.atomic.Numeric;
+import org.brackit.xquery.operator.TupleImpl;
+import org.brackit.xquery.util.Cfg;
+import org.brackit.xquery.util.Cmp;
+import org.brackit.xquery.util.forkjoin.Pool;
+import org.brackit.xquery.util.io.TupleCodec;
+import org.brackit.xquery.util.log.Logger;
+import org.brackit.xquery.util.sort.TupleSort;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.Type;
+
+/**
+ * Hash join with a memory budget.
+ * <p>
+ * Build tuples are collected in a {@link PartitionedJoinTable} as long as
+ * their estimated size stays below the configured max. size. If the budget is
+ * exceeded, the build tuples and all subsequent probe tuples are
+ * hash-partitioned to temporary files instead. Each pair of partitions is
+ * joined separately and partitions that still do not fit into memory are
+ * partitioned again with another hash function. The results of all
+ * partitions are brought back into probe order (and build order for the
+ * matches of a probe tuple) with an external {@link TupleSort}.
+ * </p>
+ * <p>
+ * Only value-equality joins are spilled. A key is routed to all partitions
+ * of values it may be equal to, e.g., an untyped atomic of a general
+ * comparison goes to the partition of its string value and of its numeric
+ * value, and matches found in several partitions are reported once.
+ * </p>
+ */
+public class GraceJoin {
+  private static final Logger log = Logger.getLogger(GraceJoin.class);
+
+  public static final String MAX_JOIN_SIZE_CFG = "org.brackit.xquery.join.maxSize";
+
+  /**
+   * Default max. size of the build tuples kept in memory in bytes.
+   */
+  public static long MAX_JOIN_SIZE = Cfg.asLong(MAX_JOIN_SIZE_CFG, Runtime.getRuntime().maxMemory() / 8);
+
+  /**
+   * Number of partitions created when a build input is spilled.
+   */
+  public static int FAN_OUT = Cfg.asInt("org.brackit.xquery.join.fanOut", 16);
+
+  /**
+   * Max. number of times a partition is partitioned again. Partitions of
+   * heavily skewed keys are finally joined in memory.
+   */
+  private static final int MAX_DEPTH = 4;
+
+  private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+  private static final Int64 NO_MATCH = new Int64(Long.MAX_VALUE);
+
+  private final Cmp cmp;
+
+  private final boolean isGCmp;
+
+  private final boolean skipSort;
+
+  private final boolean leftJoin;
+
+  private final Sequence[] padding;
+
+  private final long maxSize;
+
+  private final int fanOut;
+
+  private final File dir = new File(Cfg.asString("java.io.tmpdir"));
+
+  private final TupleCodec codec = new TupleCodec();
+
+  private PartitionedJoinTable table;
+
+  private long size;
+
+  private long buildCount;
+
+  private long probeCount;
+
+  private Spill spill;
+
+  private TupleSort sort;
+
+  /**
+   * @param pad     the number of fields added to unmatched probe tuples of a
+   *                left join
+   * @param maxSize the max. size of the build tuples kept in memory in bytes
+   *                or a non-positive value for an unbounded in-memory join
+   */
+  public GraceJoin(Cmp cmp, boolean isGCmp, boolean skipSort, boolean leftJoin, int pad, long maxSize) {
+    this.cmp = cmp;
+    this.isGCmp = isGCmp;
+    this.skipSort = skipSort;
+    this.leftJoin = leftJoin;
+    this.padding = new Sequence[pad];
+    this.maxSize = (cmp == Cmp.eq) ? maxSize : -1;
+    this.fanOut = Math.max(2, Math.min(FAN_OUT, 64));
+    this.table = new PartitionedJoinTable(cmp, isGCmp, skipSort);
+  }
+
+  /**
+   * Adds a build tuple. Its position is given by the order of insertion.
+   */
+  public void add(Sequence keys, Sequence[] bindings) throws QueryException {
+    if (keys == null) {
+      return;
+    }
+    if (spill != null) {
+      write(spill.build, keys, buildCount++, bindings, 0);
+      return;
+    }
+    table.add(keys, bindings);
+    buildCount++;
+    if (maxSize > 0) {
+      size += TupleCodec.sizeOf(keys) + 32 + 4L * bindings.length;
+      for (Sequence s : bindings) {
+        size += TupleCodec.sizeOf(s);
+      }
+      if (size > maxSize) {
+        spillBuild();
+      }
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the build tuples did not fit into memory.
+   * The join must then be computed with {@link #probe(Sequence, Tuple)} and
+   * {@link #join()}.
+   */
+  public boolean spilled() {
+    return (spill != null);
+  }
+
+  /**
+   * Builds and returns the in-memory join table if the build tuples were not
+   * spilled.
+   */
+  public PartitionedJoinTable build(Pool pool) throws QueryException {
+    if (spill != null) {
+      spill.closeBuild();
+      return null;
+    }
+    table.build(pool);
+    return table;
+  }
+
+  /**
+   * Adds a probe tuple of a spilled join.
+   */
+  public void probe(Sequence keys, Tuple t) throws QueryException {
+    long routes = routes(keys, 0);
+    if ((routes == 0) && (leftJoin)) {
+      routes = 1;
+    }
+    if (routes != 0) {
+      write(spill.probe, keys, probeCount, t.array(), routes);
+    }
+    probeCount++;
+  }
+
+  /**
+   * Joins the spilled partitions and returns the result tuples in probe
+   * order.
+   */
+  public Stream<Tuple> join() throws QueryException {
+    try {
+      spill.closeProbe();
+      sort = new TupleSort(GraceJoin::compare, maxSize);
+      for (int p = 0; p < fanOut; p++) {
+        join(spill.buildFiles[p], spill.probeFiles[p], 0);
+        spill.buildFiles[p] = null;
+        spill.probeFiles[p] = null;
+      }
+      sort.sort();
+    } catch (IOException e) {
+      clear();
+      throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+    } catch (QueryException e) {
+      clear();
+      throw e;
+    }
+    spill = null;
+    final Stream<Tuple> sorted = sort.stream();
+    return new Stream<Tuple>() {
+      long prevNo = -1;
+      long prevPos = -1;
+
+      @Override
+      public Tuple next() throws DocumentException {
+        try {
+          Tuple t;
+          while ((t = sorted.next()) != null) {
+            long no = ((Int64) t.get(0)).longValue();
+            long pos = ((Int64) t.get(1)).longValue();
+            if ((no == prevNo) && ((pos == prevPos) || (pos == Long.MAX_VALUE))) {
+              // duplicate from another partition or a
+              // padded tuple of a probe that found a match
+              continue;
+            }
+            prevNo = no;
+            prevPos = pos;
+            Sequence[] s = t.array();
+            return new TupleImpl(Arrays.copyOfRange(s, 2, s.length));
+          }
+          return null;
+        } catch (QueryException e) {
+          throw new DocumentException(e);
+        }
+      }
+
+      @Override
+      public void close() {
+        sorted.close();
+        clear();
+      }
+    };
+  }
+
+  /**
+   * Deletes all temporary files.
+   */
+  public void clear() {
+    if (spill != null) {
+      spill.delete();
+      spill = null;
+    }
+    if (sort != null) {
+      sort.clear();
+      sort = null;
+    }
+    table = null;
+    codec.clear();
+  }
+
+  private void spillBuild() throws QueryException {
+    if (log.isDebugEnabled()) {
+      log.debug(String.format("Spilling join with %s build tuples of %s bytes", buildCount, size));
+    }
+    try {
+      spill = new Spill(fanOut);
+    } catch (IOException e) {
+      throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+    }
+    PartitionedJoinTable buffered = table;
+    table = null;
+    for (int i = 0; i < buffered.size(); i++) {
+      write(spill.build, buffered.keys(i), i, buffered.bindings(i), 0);
+    }
+  }
+
+  private void write(DataOutputStream[] out, Sequence keys, long no, Sequence[] fields, long routes)
+      throws QueryException {
+    if (routes == 0) {
+      routes = routes(keys, 0);
+    }
+    Sequence[] record = new Sequence[fields.length + 2];
+    record[0] = keys;
+    record[1] = new Int64(no);
+    System.arraycopy(fields, 0, record, 2, fields.length);
+    Tuple t = new TupleImpl(record);
+    try {
+      for (int p = 0; p < fanOut; p++) {
+        if ((routes & (1L << p)) != 0) {
+          codec.write(out[p], t);
+        }
+      }
+    } catch (IOException e) {
+      clear();
+      throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+    }
+  }
+
+  private void join(File buildFile, File probeFile, int depth) throws IOException, QueryException {
+    try {
+      if ((probeFile.length() == 0) || ((!leftJoin) && (buildFile.length() == 0))) {
+        return;
+      }
+      MultiTypeJoinTable table = new MultiTypeJoinTable(cmp, isGCmp, skipSort);
+      long size = 0;
+      int pos = 0;
+      try (DataInputStream in = open(buildFile)) {
+        for (Tuple t = codec.read(in); t != null; t = codec.read(in)) {
+          size += TupleCodec.sizeOf(t);
+          if ((size > maxSize) && (depth < MAX_DEPTH)) {
+            repartition(buildFile, probeFile, depth + 1);
+            return;
+          }
+          Sequence[] record = t.array();
+          Sequence[] bindings = new Sequence[record.length - 1];
+          System.arraycopy(record, 1, bindings, 0, bindings.length);
+          table.add(record[0], bindings, ++pos);
+        }
+      }
+      FastList<Sequence[]> matches = new FastList<Sequence[]>();
+      try (DataInputStream in = open(probeFile)) {
+        for (Tuple t = codec.read(in); t != null; t = codec.read(in)) {
+          Sequence[] record = t.array();
+          matches.clear();
+          if (record[0] != null) {
+            table.probe(record[0], matches);
+          }
+          for (int i = 0; i < matches.getSize(); i++) {
+            Sequence[] match = matches.get(i);
+            output(record, match[0], match, 1, match.length - 1);
+          }
+          if ((matches.getSize() == 0) && (leftJoin)) {
+            output(record, NO_MATCH, padding, 0, padding.length);
+          }
+        }
+      }
+    } finally {
+      buildFile.delete();
+      probeFile.delete();
+    }
+  }
+
+  private void output(Sequence[] probe, Sequence pos, Sequence[] bindings, int from, int len)
+      throws QueryException {
+    // probe number, build position, probe fields, bindings
+    Sequence[] out = new Sequence[probe.length + len];
+    out[0] = probe[1];
+    out[1] = pos;
+    System.arraycopy(probe, 2, out, 2, probe.length - 2);
+    System.arraycopy(bindings, from, out, probe.length, len);
+    sort.add(new TupleImpl(out));
+  }
+
+  private void repartition(File buildFile, File probeFile, int depth) throws IOException, QueryException {
+    if (log.isDebugEnabled()) {
+      log.debug(String.format("Repartitioning '%s' at depth %s", buildFile, depth));
+    }
+    Spill spill = new Spill(fanOut);
+    try {
+      copy(buildFile, spill.build, depth);
+      spill.closeBuild();
+      copy(probeFile, spill.probe, depth);
+      spill.closeProbe();
+      for (int p = 0; p < fanOut; p++) {
+        join(spill.buildFiles[p], spill.probeFiles[p], depth);
+      }
+    } finally {
+      spill.delete();
+    }
+  }
+
+  private void copy(File file, DataOutputStream[] out, int depth) throws IOException, QueryException {
+    try (DataInputStream in = open(file)) {
+      for (Tuple t = codec.read(in); t != null; t = codec.read(in)) {
+        long routes = routes(t.get(0), depth);
+        if ((routes == 0) && (leftJoin)) {
+          routes = 1;
+        }
+        for (int p = 0; p < fanOut; p++) {
+          if ((routes & (1L << p)) != 0) {
+            codec.write(out[p], t);
+          }
+        }
+      }
+    }
+  }
+
+  private static DataInputStream open(File file) throws IOException {
+    return new DataInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE));
+  }
+
+  /**
+   * Returns the partitions of the given keys as bit set.
+   */
+  private long routes(Sequence keys, int depth) throws QueryException {
+    if (keys == null) {
+      return 0;
+    }
+    if (keys instanceof Item) {
+      return route(((Item) keys).atomize(), depth);
+    }
+    long routes = 0;
+    try (Iter it = keys.iterate()) {
+      for (Item item = it.next(); item != null; item = it.next()) {
+        routes |= route(item.atomize(), depth);
+      }
+    }
+    return routes;
+  }
+
+  private long route(Atomic key, int depth) {
+    if (key instanceof Numeric) {
+      return bit(hash(((Numeric) key).doubleValue()), depth);
+    }
+    Type type = key.type().getPrimitiveBase();
+    if ((type == Type.STR) || (type == Type.AURI) || ((!isGCmp) && (type == Type.UNA))) {
+      return bit(key.stringValue().hashCode(), depth);
+    }
+    if (type == Type.UNA) {
+      // general comparisons cast untyped atomics to the type of the
+      // other operand, which may be a string, a number or anything else
+      long routes = bit(key.stringValue().hashCode(), depth) | bit(0, depth);
+      try {
+        routes |= bit(hash(Dbl.parse(key.stringValue()).doubleValue()), depth);
+      } catch (QueryException e) {
+        // not a number
+      }
+      return routes;
+    }
+    return bit(0, depth);
+  }
+
+  private static int hash(double v) {
+    // equal numbers are equal as double, including -0.0 and 0.0
+    return Double.hashCode(v + 0.0);
+  }
+
+  private long bit(int hash, int depth) {
+    int h = (hash ^ (depth * 0x85EBCA6B)) * 0x9E3779B9;
+    h ^= h >>> 15;
+    h *= 0x2C1B3C6D;
+    h ^= h >>> 12;
+    return 1L << ((h & 0x7FFFFFFF) % fanOut);
+  }
+
+  private static int compare(Tuple t1, Tuple t2) {
+    try {
+      int res = Long.compare(((Int64) t1.get(0)).longValue(), ((Int64) t2.get(0)).longValue());
+      return (res != 0) ? res : Long.compare(((Int64) t1.get(1)).longValue(), ((Int64) t2.get(1)).longValue());
+    } catch (QueryException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Temporary build and probe files of a set of partitions.
+   */
+  private final class Spill {
+    final File[] buildFiles;
+    final File[] probeFiles;
+    final DataOutputStream[] build;
+    final DataOutputStream[] probe;
+
+    Spill(int count) throws IOException {
+      buildFiles = new File[count];
+      probeFiles = new File[count];
+      build = new DataOutputStream[count];
+      probe = new DataOutputStream[count];
+      try {
+        for (int p = 0; p < count; p++) {
+          buildFiles[p] = File.createTempFile("join", ".build", dir);
+          buildFiles[p].deleteOnExit();
+          build[p] = create(buildFiles[p]);
+          probeFiles[p] = File.createTempFile("join", ".probe", dir);
+          probeFiles[p].deleteOnExit();
+          probe[p] = create(probeFiles[p]);
+        }
+      } catch (IOException e) {
+        delete();
+        throw e;
+      }
+    }
+
+    private DataOutputStream create(File file) throws IOException {
+      return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE));
+    }
+
+    void closeBuild() throws QueryException {
+      close(build);
+    }
+
+    void closeProbe() throws QueryException {
+      close(probe);
+    }
+
+    private void close(DataOutputStream[] out) throws QueryException {
+      try {
+        for (int p = 0; p < out.length; p++) {
+          if (out[p] != null) {
+            out[p].close();
+            out[p] = null;
+          }
+        }
+      } catch (IOException e) {
+        clear();
+        throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+      }
+    }
+
+    void delete() {
+      for (DataOutputStream[] out : new DataOutputStream[][] { build, probe }) {
+        for (int p = 0; p < out.length; p++) {
+          if (out[p] != null) {
+            try {
+              out[p].close();
+            } catch (IOException e) {
+              log.error(e);
+            }
+            out[p] = null;
+          }
+        }
+      }
+      for (File[] files : new File[][] { buildFiles, probeFiles }) {
+        for (File file : files) {
+          if (file != null) {
+            file.delete();
+          }
+        }
+      }
+    }
+  }
+}
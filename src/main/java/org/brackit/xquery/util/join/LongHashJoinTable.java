@@ -0,0 +1,157 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.join;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.Int64;
+import org.brackit.xquery.atomic.Numeric;
+import org.brackit.xquery.xdm.Sequence;
+
+/**
+ * Hash join table for xs:integer keys. Keys in the range of a
+ * <code>long</code> are stored unboxed; the rare larger ones are kept in a
+ * separate {@link HashJoinTable}.
+ */
+public class LongHashJoinTable extends FlatHashJoinTable {
+  private static final BigDecimal MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+
+  private static final BigDecimal MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+
+  private long[] keys = new long[heads.length];
+
+  private long[] oldKeys;
+
+  private HashJoinTable overflow;
+
+  private static boolean isLong(Atomic key) {
+    if ((key instanceof Int32) || (key instanceof Int64)) {
+      return true;
+    }
+    BigDecimal v = ((Numeric) key).integerValue();
+    return (v.compareTo(MIN) >= 0) && (v.compareTo(MAX) <= 0);
+  }
+
+  private static int hash(long key) {
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+  }
+
+  private int find(long key) {
+    int slot = hash(key) & mask;
+    while ((!isFree(slot)) && (keys[slot] != key)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  @Override
+  protected void add(Atomic key, int pos, Sequence[] bindings) throws QueryException {
+    if (!isLong(key)) {
+      if (overflow == null) {
+        overflow = new HashJoinTable();
+      }
+      overflow.add(key, pos, bindings);
+      return;
+    }
+    long k = ((Numeric) key).longValue();
+    int slot = find(k);
+    keys[slot] = k;
+    append(slot, pos, bindings);
+  }
+
+  @Override
+  protected void lookup(FastList<TValue> matches, Atomic key) throws QueryException {
+    if (!isLong(key)) {
+      if (overflow != null) {
+        overflow.lookup(matches, key);
+      }
+      return;
+    }
+    int slot = find(((Numeric) key).longValue());
+    if (!isFree(slot)) {
+      collectValues(slot, matches);
+    }
+  }
+
+  @Override
+  protected void lookupBindings(FastList<Sequence[]> matches, Atomic key) throws QueryException {
+    if (!isLong(key)) {
+      if (overflow != null) {
+        FastList<TValue> values = new FastList<TValue>();
+        overflow.lookup(values, key);
+        for (int i = 0; i < values.getSize(); i++) {
+          matches.add(values.get(i).bindings);
+        }
+      }
+      return;
+    }
+    int slot = find(((Numeric) key).longValue());
+    if (!isFree(slot)) {
+      collect(slot, matches);
+    }
+  }
+
+  @Override
+  protected void allocateKeys(int capacity) {
+    oldKeys = keys;
+    keys = new long[capacity];
+  }
+
+  @Override
+  protected int rehash(int from) {
+    return find(oldKeys[from]);
+  }
+
+  @Override
+  protected void moveKey(int from, int to) {
+    keys[to] = oldKeys[from];
+  }
+
+  @Override
+  protected void resized() {
+    oldKeys = null;
+  }
+
+  @Override
+  protected Atomic key(int slot) {
+    return new Int64(keys[slot]);
+  }
+
+  @Override
+  protected List<TEntry> entries() {
+    List<TEntry> entries = super.entries();
+    if (overflow != null) {
+      entries.addAll(overflow.entries());
+    }
+    return entries;
+  }
+}
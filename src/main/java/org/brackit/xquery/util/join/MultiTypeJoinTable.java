@@ -28,9 +28,9 @@
 package org.brackit.xquery.util.join;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.brackit.xquery.QueryException;
 import org.brackit.xquery.atomic.Atomic;
@@ -44,6 +44,14 @@ import org.brackit.xquery.xdm.Sequence;
 import org.brackit.xquery.xdm.Type;
 
 /**
+ * Join table for build keys of different types.
+ * <p>
+ * Probes may need build keys promoted to the type of the probe key. Such
+ * promotions are made on demand and published as new tables, which are never
+ * modified afterwards. Probes can thus run concurrently, and only the
+ * promotions themselves are serialized.
+ * </p>
+ *
  * @author Sebastian Baechle
  */
 public class MultiTypeJoinTable {
@@ -54,21 +62,19 @@ public class MultiTypeJoinTable {
 
   private final boolean skipSort;
 
+  // tables of the build keys, which are not modified after the build
   private final Map<Type, JoinTable> tables = new HashMap<Type, JoinTable>();
 
-  private final Set<Type> convertedUntypedAtomic = new HashSet<Type>();
-
-  private final Set<Type> nonNumericTypes = new HashSet<Type>();
-
-  private boolean convertedUntypedAtomicToDbl;
+  // build keys promoted to other types
+  private final Map<Type, JoinTable> promoted = new ConcurrentHashMap<Type, JoinTable>();
 
-  private boolean promotedNumericToDbl;
+  private final Set<Type> convertedUntypedAtomic = ConcurrentHashMap.newKeySet();
 
-  private boolean promotedNumericToFlo;
+  private final Set<Type> promotedNumeric = ConcurrentHashMap.newKeySet();
 
-  private boolean promotedNumericToDec;
+  private final Set<Type> nonNumericTypes = ConcurrentHashMap.newKeySet();
 
-  private boolean numericPresent;
+  private volatile boolean numericPresent;
 
   public MultiTypeJoinTable(Cmp cmp, boolean isGCmp, boolean skipSort) {
     this.cmp = cmp;
@@ -77,7 +83,16 @@ public class MultiTypeJoinTable {
   }
 
   private JoinTable createTable(Type type) {
-    return (cmp == Cmp.eq) ? new HashJoinTable() : new SortedJoinTable(cmp);
+    if (cmp != Cmp.eq) {
+      return new SortedJoinTable(cmp);
+    }
+    if (type == Type.INR) {
+      return new LongHashJoinTable();
+    }
+    if (type == Type.STR) {
+      return new StrHashJoinTable();
+    }
+    return new HashJoinTable();
   }
 
   private void addItem(Item key, Sequence[] bindings, int pos) throws QueryException {
@@ -116,34 +131,30 @@ public class MultiTypeJoinTable {
         probeAtomic(matches, Cast.cast(null, atomic, nnType, false), nnType);
       }
       if (numericPresent) {
-        if (!promotedNumericToDbl) {
-          addToTable(Type.INR, Type.DBL);
-          addToTable(Type.DEC, Type.DBL);
-          addToTable(Type.FLO, Type.DBL);
-          promotedNumericToDbl = true;
+        if (!promotedNumeric.contains(Type.DBL)) {
+          promoteNumeric(Type.DBL, Type.INR, Type.DEC, Type.FLO);
         }
         probeAtomic(matches, Cast.cast(null, atomic, Type.DBL, false), Type.DBL);
       }
     } else if (type.isNumeric()) {
       // convert all untyped to dbl and add them
-      if (!convertedUntypedAtomicToDbl) {
-        addToTable(Type.UNA, Type.DBL);
-        convertedUntypedAtomicToDbl = true;
+      if (!convertedUntypedAtomic.contains(Type.DBL)) {
+        convertUntypedAtomic(Type.DBL);
       }
 
-      if ((type == Type.DBL) && (!promotedNumericToDbl)) {
-        addToTable(Type.INR, Type.DBL);
-        addToTable(Type.DEC, Type.DBL);
-        addToTable(Type.FLO, Type.DBL);
-        promotedNumericToDbl = true;
-      } else if ((type == Type.FLO) && (!promotedNumericToFlo)) {
-        addToTable(Type.INR, Type.FLO);
-        addToTable(Type.DEC, Type.FLO);
-        promotedNumericToFlo = true;
+      if (type == Type.DBL) {
+        if (!promotedNumeric.contains(Type.DBL)) {
+          promoteNumeric(Type.DBL, Type.INR, Type.DEC, Type.FLO);
+        }
+      } else if (type == Type.FLO) {
+        if (!promotedNumeric.contains(Type.FLO)) {
+          promoteNumeric(Type.FLO, Type.INR, Type.DEC);
+        }
         probeAtomic(matches, Cast.cast(null, atomic, Type.DBL, false), Type.DBL);
-      } else if ((type == Type.DEC) && (!promotedNumericToDec)) {
-        addToTable(Type.INR, Type.DEC);
-        promotedNumericToDec = true;
+      } else if (type == Type.DEC) {
+        if (!promotedNumeric.contains(Type.DEC)) {
+          promoteNumeric(Type.DEC, Type.INR);
+        }
         probeAtomic(matches, Cast.cast(null, atomic, Type.DBL, false), Type.DBL);
         probeAtomic(matches, Cast.cast(null, atomic, Type.FLO, false), Type.FLO);
       } else if (type == Type.INR) {
@@ -156,8 +167,7 @@ public class MultiTypeJoinTable {
     } else {
       // convert all untyped to type and add them
       if (!convertedUntypedAtomic.contains(type)) {
-        addToTable(Type.UNA, type);
-        convertedUntypedAtomic.add(type);
+        convertUntypedAtomic(type);
       }
 
       probeAtomic(matches, atomic, type);
@@ -170,22 +180,48 @@ public class MultiTypeJoinTable {
     }
   }
 
-  private void addToTable(Type from, Type to) throws QueryException {
-    JoinTable fromTable = tables.get(from);
-
-    if (fromTable == null) {
-      return;
+  private synchronized void convertUntypedAtomic(Type to) throws QueryException {
+    if (!convertedUntypedAtomic.contains(to)) {
+      promote(to, Type.UNA);
+      // publish only after the promoted table
+      convertedUntypedAtomic.add(to);
     }
+  }
 
-    JoinTable table = tables.get(to);
-    if (table == null) {
-      table = createTable(to);
-      tables.put(to, table);
+  private synchronized void promoteNumeric(Type to, Type... from) throws QueryException {
+    if (!promotedNumeric.contains(to)) {
+      promote(to, from);
+      // publish only after the promoted table
+      promotedNumeric.add(to);
     }
+  }
 
-    for (TEntry entry : fromTable.entries()) {
-      table.add(Cast.cast(null, entry.key.atomic, to, false), entry.value.pos, entry.value.bindings);
+  private void promote(Type to, Type... from) throws QueryException {
+    JoinTable table = null;
+    for (Type type : from) {
+      JoinTable fromTable = tables.get(type);
+      if (fromTable == null) {
+        continue;
+      }
+      if (table == null) {
+        // copy previous promotions instead of modifying
+        // a table that is probed concurrently
+        table = createTable(to);
+        JoinTable old = promoted.get(to);
+        if (old != null) {
+          for (TEntry entry : old.entries()) {
+            table.add(entry.key.atomic, entry.value.pos, entry.value.bindings);
+          }
+        }
+      }
+      for (TEntry entry : fromTable.entries()) {
+        table.add(Cast.cast(null, entry.key.atomic, to, false), entry.value.pos, entry.value.bindings);
+      }
     }
+    if (table == null) {
+      return;
+    }
+    promoted.put(to, table);
 
     if (to.isNumeric()) {
       numericPresent = true;
@@ -199,19 +235,21 @@ public class MultiTypeJoinTable {
     if (table != null) {
       table.lookup(matches, atomic);
     }
+    table = promoted.get(type);
+    if (table != null) {
+      table.lookup(matches, atomic);
+    }
   }
 
-  protected final FastList<Sequence[]> sortAndDeduplicate(FastList<TValue> in) throws QueryException {
+  protected final void sortAndDeduplicate(FastList<TValue> in, FastList<Sequence[]> out) throws QueryException {
     int inSize = in.getSize();
     if ((skipSort) || (inSize < 2)) {
-      FastList<Sequence[]> out = new FastList<Sequence[]>(inSize);
+      out.ensureAdditional(inSize);
       for (int i = 0; i < inSize; i++) {
-        out.add(in.get(i).bindings);
+        out.addUnchecked(in.get(i).bindings);
       }
-      return out;
     } else {
       in.sort();
-      FastList<Sequence[]> out = new FastList<Sequence[]>();
       TValue p = null;
       for (int i = 0; i < inSize; i++) {
         TValue v = in.get(i);
@@ -220,7 +258,6 @@ public class MultiTypeJoinTable {
         }
         p = v;
       }
-      return out;
     }
   }
 
@@ -247,6 +284,35 @@ public class MultiTypeJoinTable {
     if (keys == null) {
       return FastList.emptyList();
     }
+    FastList<Sequence[]> matches = new FastList<Sequence[]>();
+    probe(keys, matches);
+    return matches;
+  }
+
+  /**
+   * Appends the bindings of all matches for the given keys to the list.
+   * Callers may reuse the list across probes to avoid allocations.
+   * Probes of a complete table may run concurrently.
+   */
+  public final void probe(Sequence keys, FastList<Sequence[]> out) throws QueryException {
+    if (keys == null) {
+      return;
+    }
+
+    if ((keys instanceof Item) && (tables.size() == 1)) {
+      Atomic atomic = ((Item) keys).atomize();
+      Type type = atomic.type().getPrimitiveBase();
+      if ((!isGCmp) && (type == Type.UNA)) {
+        atomic = Cast.cast(null, atomic, Type.STR, false);
+        type = Type.STR;
+      }
+      // a key of the same type as all build keys needs no conversions
+      JoinTable table = tables.get(type);
+      if (table instanceof FlatHashJoinTable) {
+        ((FlatHashJoinTable) table).lookupBindings(out, atomic);
+        return;
+      }
+    }
 
     FastList<TValue> matches = new FastList<TValue>();
 
@@ -264,10 +330,8 @@ public class MultiTypeJoinTable {
       }
     }
 
-    if (matches.isEmpty()) {
-      return FastList.emptyList();
+    if (!matches.isEmpty()) {
+      sortAndDeduplicate(matches, out);
     }
-
-    return sortAndDeduplicate(matches);
   }
 }
\ No newline at end of file
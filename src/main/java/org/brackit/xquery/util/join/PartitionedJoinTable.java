@@ -0,0 +1,299 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.join;
+
+import java.util.Arrays;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.Numeric;
+import org.brackit.xquery.util.Cfg;
+import org.brackit.xquery.util.Cmp;
+import org.brackit.xquery.util.forkjoin.Pool;
+import org.brackit.xquery.util.forkjoin.Task;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.Type;
+
+/**
+ * Join table that is radix-partitioned by the hash of the join key.
+ * <p>
+ * Build tuples are buffered first. If the build side is large and all keys
+ * are single xs:integer or xs:string values, the tuples are scattered to
+ * partitions of about {@link #PARTITION_SIZE} entries, which are then built
+ * in parallel. Otherwise, a single {@link MultiTypeJoinTable} is built as
+ * before.
+ * </p>
+ * <p>
+ * Probes with a key of the build type are routed to their partition. All
+ * other probes, which may need type promotions, go to a complete table that
+ * is created on demand. Partitions and the complete table can be probed
+ * concurrently.
+ * </p>
+ */
+public class PartitionedJoinTable {
+
+  /**
+   * Target number of build tuples per partition.
+   */
+  public static int PARTITION_SIZE = Cfg.asInt("org.brackit.xquery.join.partitionSize", 4096);
+
+  private static final int MAX_PARTITIONS = 1 << 12;
+
+  private final Cmp cmp;
+
+  private final boolean isGCmp;
+
+  private final boolean skipSort;
+
+  private Sequence[] keys = new Sequence[16];
+
+  private Sequence[][] bindings = new Sequence[16][];
+
+  private int[] hashes = new int[16];
+
+  private int size;
+
+  private Type type;
+
+  private boolean routable = true;
+
+  private MultiTypeJoinTable[] partitions;
+
+  private int mask;
+
+  private volatile MultiTypeJoinTable table;
+
+  public PartitionedJoinTable(Cmp cmp, boolean isGCmp, boolean skipSort) {
+    this.cmp = cmp;
+    this.isGCmp = isGCmp;
+    this.skipSort = skipSort;
+  }
+
+  /**
+   * Adds a build tuple. Its position is given by the order of insertion.
+   */
+  public void add(Sequence keys, Sequence[] bindings) throws QueryException {
+    if (keys == null) {
+      return;
+    }
+    if (size == this.keys.length) {
+      int capacity = size * 2;
+      this.keys = Arrays.copyOf(this.keys, capacity);
+      this.bindings = Arrays.copyOf(this.bindings, capacity);
+      hashes = Arrays.copyOf(hashes, capacity);
+    }
+    if (routable) {
+      Atomic key = routingKey(keys);
+      if ((key == null) || ((type != null) && (type != routingType(key)))) {
+        routable = false;
+      } else {
+        type = routingType(key);
+        hashes[size] = hash(key);
+      }
+    }
+    this.keys[size] = keys;
+    this.bindings[size] = bindings;
+    size++;
+  }
+
+  int size() {
+    return size;
+  }
+
+  Sequence keys(int i) {
+    return keys[i];
+  }
+
+  Sequence[] bindings(int i) {
+    return bindings[i];
+  }
+
+  /**
+   * Builds the table after all build tuples were added. Large partitioned
+   * tables are built with the tasks of the given pool.
+   */
+  public void build(Pool pool) throws QueryException {
+    if ((!routable) || (cmp != Cmp.eq) || (size < 2 * PARTITION_SIZE)) {
+      table = fullTable();
+      return;
+    }
+    int count = Math.min(MAX_PARTITIONS, Integer.highestOneBit(size / PARTITION_SIZE) * 2);
+    mask = count - 1;
+
+    // scatter build tuples by partition with a stable counting sort
+    int[] start = new int[count + 1];
+    for (int i = 0; i < size; i++) {
+      start[(hashes[i] & mask) + 1]++;
+    }
+    for (int p = 0; p < count; p++) {
+      start[p + 1] += start[p];
+    }
+    int[] fill = Arrays.copyOf(start, count);
+    int[] order = new int[size];
+    for (int i = 0; i < size; i++) {
+      order[fill[hashes[i] & mask]++] = i;
+    }
+
+    partitions = new MultiTypeJoinTable[count];
+    pool.submit(new BuildTask(order, start, 0, count)).join();
+  }
+
+  /**
+   * Appends the bindings of all matches for the given keys to the list.
+   */
+  public void probe(Sequence keys, FastList<Sequence[]> out) throws QueryException {
+    if (keys == null) {
+      return;
+    }
+    if (partitions == null) {
+      table.probe(keys, out);
+      return;
+    }
+    Atomic key = routingKey(keys);
+    if ((key != null) && (routingType(key) == type)) {
+      partitions[hash(key) & mask].probe(key, out);
+    } else {
+      fallback().probe(keys, out);
+    }
+  }
+
+  /**
+   * Probes a batch of keys. The probes are grouped by partition and the
+   * matches of the i-th key are appended to the list in the range from
+   * <code>ranges[2 * i]</code> to <code>ranges[2 * i + 1]</code>.
+   */
+  public void probe(Sequence[] keys, int len, FastList<Sequence[]> out, int[] ranges) throws QueryException {
+    if (partitions == null) {
+      for (int i = 0; i < len; i++) {
+        ranges[2 * i] = out.getSize();
+        if (keys[i] != null) {
+          table.probe(keys[i], out);
+        }
+        ranges[2 * i + 1] = out.getSize();
+      }
+      return;
+    }
+    long[] routes = new long[len];
+    for (int i = 0; i < len; i++) {
+      Atomic key = (keys[i] != null) ? routingKey(keys[i]) : null;
+      int p = ((key != null) && (routingType(key) == type)) ? (hash(key) & mask) : mask + 1;
+      routes[i] = ((long) p << 32) | i;
+    }
+    Arrays.sort(routes);
+    for (long route : routes) {
+      int p = (int) (route >>> 32);
+      int i = (int) route;
+      ranges[2 * i] = out.getSize();
+      if (p <= mask) {
+        partitions[p].probe(keys[i], out);
+      } else if (keys[i] != null) {
+        fallback().probe(keys[i], out);
+      }
+      ranges[2 * i + 1] = out.getSize();
+    }
+  }
+
+  private MultiTypeJoinTable fallback() throws QueryException {
+    MultiTypeJoinTable t = table; // volatile read
+    if (t == null) {
+      synchronized (this) {
+        t = table;
+        if (t == null) {
+          table = t = fullTable();
+        }
+      }
+    }
+    return t;
+  }
+
+  private MultiTypeJoinTable fullTable() throws QueryException {
+    MultiTypeJoinTable table = new MultiTypeJoinTable(cmp, isGCmp, skipSort);
+    for (int i = 0; i < size; i++) {
+      table.add(keys[i], bindings[i], i + 1);
+    }
+    return table;
+  }
+
+  private Atomic routingKey(Sequence keys) throws QueryException {
+    if (!(keys instanceof Item)) {
+      return null;
+    }
+    Atomic key = ((Item) keys).atomize();
+    Type type = routingType(key);
+    return ((type == Type.INR) || (type == Type.STR)) ? key : null;
+  }
+
+  private Type routingType(Atomic key) {
+    Type type = key.type().getPrimitiveBase();
+    // value comparisons compare untyped atomics as strings
+    return ((!isGCmp) && (type == Type.UNA)) ? Type.STR : type;
+  }
+
+  private static int hash(Atomic key) {
+    if (key instanceof Numeric) {
+      long v = ((Numeric) key).longValue();
+      return (int) ((v * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+    int h = key.stringValue().hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private final class BuildTask extends Task {
+    final int[] order;
+    final int[] start;
+    final int from;
+    final int to;
+
+    BuildTask(int[] order, int[] start, int from, int to) {
+      this.order = order;
+      this.start = start;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public void compute() throws QueryException {
+      if (to - from > 1) {
+        int mid = (from + to) >>> 1;
+        BuildTask task1 = new BuildTask(order, start, from, mid);
+        BuildTask task2 = new BuildTask(order, start, mid, to);
+        task2.fork();
+        task1.compute();
+        task2.join();
+        return;
+      }
+      MultiTypeJoinTable partition = new MultiTypeJoinTable(cmp, isGCmp, skipSort);
+      for (int j = start[from]; j < start[from + 1]; j++) {
+        int i = order[j];
+        partition.add(keys[i], bindings[i], i + 1);
+      }
+      partitions[from] = partition;
+    }
+  }
+}
@@ -46,7 +46,7 @@ public class SortedJoinTable extends JoinTable {
 
   private int size;
 
-  private boolean sorted;
+  private volatile boolean sorted;
 
   public SortedJoinTable(Cmp cmp) {
     this.cmp = cmp;
@@ -63,8 +63,7 @@ public class SortedJoinTable extends JoinTable {
   @Override
   protected void lookup(FastList<TValue> matches, Atomic key) throws QueryException {
     if (!sorted) {
-      Arrays.sort(entries, 0, size);
-      sorted = true;
+      sort();
     }
 
     if (cmp == Cmp.eq) {
@@ -78,6 +77,14 @@ public class SortedJoinTable extends JoinTable {
     }
   }
 
+  private synchronized void sort() {
+    // concurrent probes sort only once
+    if (!sorted) {
+      Arrays.sort(entries, 0, size);
+      sorted = true;
+    }
+  }
+
   private void lessLookup(FastList<TValue> matches, Atomic key) {
     TKey tKey = new TKey(key);
     int lower = 0;
@@ -156,7 +163,7 @@ public class SortedJoinTable extends JoinTable {
   }
 
   @Override
-  protected List<TEntry> entries() {
+  protected synchronized List<TEntry> entries() {
     return Arrays.asList(Arrays.copyOfRange(entries, 0, size));
   }
 }
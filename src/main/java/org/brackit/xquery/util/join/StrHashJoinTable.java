@@ -0,0 +1,118 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.join;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.xdm.Sequence;
+
+/**
+ * Hash join table for xs:string keys, which stores the plain string values
+ * together with their hash codes.
+ */
+public class StrHashJoinTable extends FlatHashJoinTable {
+  private String[] keys = new String[heads.length];
+
+  private int[] hashes = new int[heads.length];
+
+  private String[] oldKeys;
+
+  private int[] oldHashes;
+
+  private static int hash(String key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private int find(String key, int hash) {
+    int slot = hash & mask;
+    while ((!isFree(slot)) && ((hashes[slot] != hash) || (!keys[slot].equals(key)))) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  @Override
+  protected void add(Atomic key, int pos, Sequence[] bindings) throws QueryException {
+    String k = key.stringValue();
+    int hash = hash(k);
+    int slot = find(k, hash);
+    keys[slot] = k;
+    hashes[slot] = hash;
+    append(slot, pos, bindings);
+  }
+
+  @Override
+  protected void lookup(FastList<TValue> matches, Atomic key) throws QueryException {
+    String k = key.stringValue();
+    int slot = find(k, hash(k));
+    if (!isFree(slot)) {
+      collectValues(slot, matches);
+    }
+  }
+
+  @Override
+  protected void lookupBindings(FastList<Sequence[]> matches, Atomic key) throws QueryException {
+    String k = key.stringValue();
+    int slot = find(k, hash(k));
+    if (!isFree(slot)) {
+      collect(slot, matches);
+    }
+  }
+
+  @Override
+  protected void allocateKeys(int capacity) {
+    oldKeys = keys;
+    oldHashes = hashes;
+    keys = new String[capacity];
+    hashes = new int[capacity];
+  }
+
+  @Override
+  protected int rehash(int from) {
+    return find(oldKeys[from], oldHashes[from]);
+  }
+
+  @Override
+  protected void moveKey(int from, int to) {
+    keys[to] = oldKeys[from];
+    hashes[to] = oldHashes[from];
+  }
+
+  @Override
+  protected void resized() {
+    oldKeys = null;
+    oldHashes = null;
+  }
+
+  @Override
+  protected Atomic key(int slot) {
+    return new Str(keys[slot]);
+  }
+}
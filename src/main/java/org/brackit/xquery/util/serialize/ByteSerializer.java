@@ -0,0 +1,518 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.serialize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.brackit.xquery.ErrorCode;
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.Null;
+import org.brackit.xquery.atomic.Numeric;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.node.parser.DefaultHandler;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Kind;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.Type;
+import org.brackit.xquery.xdm.json.Array;
+import org.brackit.xquery.xdm.json.JsonItem;
+import org.brackit.xquery.xdm.json.Object;
+import org.brackit.xquery.xdm.node.Node;
+
+/**
+ * Serializer, which encodes a sequence as UTF-8 directly into a reusable
+ * byte buffer. The output is byte for byte the one of
+ * {@link StringSerializer}, i.e., neither markup nor JSON strings are escaped.
+ * <p>
+ * The buffer is written to the target whenever it is full. In streaming
+ * mode, the target is additionally flushed after each item of the
+ * serialized sequence, so that the output of a lazily evaluated result
+ * becomes visible before the result is exhausted.
+ * </p>
+ */
+public class ByteSerializer implements Serializer {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+  private final OutputStream out;
+
+  private final WritableByteChannel channel;
+
+  private final byte[] buf = new byte[BUFFER_SIZE];
+
+  private int pos;
+
+  private boolean format;
+
+  private String indent = "  ";
+
+  private boolean streaming;
+
+  public ByteSerializer(OutputStream out) {
+    this.out = out;
+    this.channel = null;
+  }
+
+  public ByteSerializer(WritableByteChannel channel) {
+    this.out = null;
+    this.channel = channel;
+  }
+
+  public boolean isFormat() {
+    return format;
+  }
+
+  public ByteSerializer setFormat(boolean format) {
+    this.format = format;
+    return this;
+  }
+
+  public String getIndent() {
+    return indent;
+  }
+
+  public ByteSerializer setIndent(String indent) {
+    this.indent = indent;
+    return this;
+  }
+
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  /**
+   * Flush the target after each serialized item.
+   */
+  public ByteSerializer setStreaming(boolean streaming) {
+    this.streaming = streaming;
+    return this;
+  }
+
+  @Override
+  public void serialize(Sequence s) throws QueryException {
+    if (s == null) {
+      return;
+    }
+    try {
+      if ((s instanceof Array) || (s instanceof Object)) {
+        json(s, s instanceof Array);
+        return;
+      }
+      XmlPrinter printer = new XmlPrinter();
+      boolean first = true;
+      Item item;
+      try (Iter it = s.iterate()) {
+        while ((item = it.next()) != null) {
+          if (item instanceof Node<?>) {
+            Node<?> node = (Node<?>) item;
+            Kind kind = node.getKind();
+            if (kind == Kind.ATTRIBUTE) {
+              throw new QueryException(ErrorCode.ERR_SERIALIZE_ATTRIBUTE_OR_NAMESPACE_NODE);
+            }
+            if (kind == Kind.DOCUMENT) {
+              node = node.getFirstChild();
+              while ((node != null) && (node.getKind() != Kind.ELEMENT)) {
+                node = node.getNextSibling();
+              }
+            }
+            if (node != null) {
+              node.parse(printer);
+            }
+            first = true;
+          } else if ((item instanceof Atomic) || (item instanceof Array) || (item instanceof Object)) {
+            if (!first) {
+              put((byte) ' ');
+            }
+            if (item instanceof JsonItem) {
+              json(item, item instanceof Array);
+            } else {
+              chars(item.toString());
+            }
+            first = false;
+          } else {
+            throw new QueryException(ErrorCode.BIT_DYN_RT_NOT_IMPLEMENTED_YET_ERROR,
+                                     "Serialization of item type '%s' not implemented yet.",
+                                     item.itemType());
+          }
+          if (streaming) {
+            flush();
+          }
+        }
+      }
+    } finally {
+      flush();
+    }
+  }
+
+  private void json(Sequence s, boolean isArrayContent) throws QueryException {
+    if ((s == null) || (s instanceof Null)) {
+      ascii("null");
+    } else if (s instanceof Atomic) {
+      Atomic a = (Atomic) s;
+      if (a instanceof Numeric) {
+        ascii(a.toString());
+      } else if (a.type() == Type.BOOL) {
+        ascii(a.booleanValue() ? "true" : "false");
+      } else if (a.type() == Type.NULL) {
+        ascii("null");
+      } else {
+        put((byte) '"');
+        chars(a.toString());
+        put((byte) '"');
+      }
+    } else if (s instanceof Array) {
+      Array a = (Array) s;
+      put((byte) '[');
+      for (int i = 0, len = a.len(); i < len; i++) {
+        if (i > 0) {
+          put((byte) ',');
+        }
+        json(a.at(i), true);
+      }
+      put((byte) ']');
+    } else if (s instanceof Object) {
+      Object r = (Object) s;
+      put((byte) '{');
+      for (int i = 0, len = r.len(); i < len; i++) {
+        if (i > 0) {
+          put((byte) ',');
+        }
+        put((byte) '"');
+        chars(r.name(i).stringValue());
+        put((byte) '"');
+        put((byte) ':');
+        Sequence value = r.value(i);
+        json(value, value instanceof Array);
+      }
+      put((byte) '}');
+    } else if (s instanceof Node<?>) {
+      Node<?> node = (Node<?>) s;
+      Kind kind = node.getKind();
+      if (kind == Kind.ATTRIBUTE) {
+        throw new QueryException(ErrorCode.ERR_SERIALIZE_ATTRIBUTE_OR_NAMESPACE_NODE);
+      }
+      if (kind == Kind.DOCUMENT) {
+        node = node.getFirstChild();
+        while (node.getKind() != Kind.ELEMENT) {
+          node = node.getNextSibling();
+        }
+      }
+      put((byte) '"');
+      node.parse(new XmlPrinter());
+      put((byte) '"');
+    } else if (s instanceof Item) {
+      throw new QueryException(ErrorCode.BIT_DYN_RT_NOT_IMPLEMENTED_YET_ERROR,
+                               "Serialization of item type '%s' not implemented yet.",
+                               ((Item) s).itemType());
+    } else {
+      // serialize sequence as JSON array
+      if (!isArrayContent) {
+        put((byte) '[');
+      }
+      try (Iter it = s.iterate()) {
+        boolean first = true;
+        Item i;
+        while ((i = it.next()) != null) {
+          if (!first) {
+            put((byte) ',');
+          }
+          json(i, i instanceof Array);
+          first = false;
+        }
+      }
+      if (!isArrayContent) {
+        put((byte) ']');
+      }
+    }
+  }
+
+  /**
+   * Prints nodes in the layout of {@link SubtreePrinter}.
+   */
+  private final class XmlPrinter extends DefaultHandler {
+    private int level;
+    private boolean emptyElement;
+    private boolean openElement;
+    private String[] mappings = new String[8];
+    private int mappingCount;
+    private Atomic pendingText;
+
+    @Override
+    public void startDocument() throws DocumentException {
+      level = 0;
+      emptyElement = false;
+    }
+
+    @Override
+    public void end() throws DocumentException {
+      if (format) {
+        put(NEWLINE);
+      }
+    }
+
+    @Override
+    public void startMapping(String prefix, String uri) throws DocumentException {
+      if (mappingCount + 2 > mappings.length) {
+        mappings = java.util.Arrays.copyOf(mappings, mappings.length * 2);
+      }
+      mappings[mappingCount++] = prefix;
+      mappings[mappingCount++] = uri;
+    }
+
+    @Override
+    public void startElement(QNm name) throws DocumentException {
+      newChild();
+      put((byte) '<');
+      name(name);
+      // most recent mapping first
+      for (int i = mappingCount - 2; i >= 0; i -= 2) {
+        String prefix = mappings[i];
+        if ((prefix != null) && (!prefix.isEmpty())) {
+          ascii(" xmlns:");
+          chars(prefix);
+        } else {
+          ascii(" xmlns");
+        }
+        ascii("=\"");
+        chars(mappings[i + 1]);
+        put((byte) '"');
+      }
+      mappingCount = 0;
+      level++;
+      openElement = true;
+      emptyElement = true;
+    }
+
+    @Override
+    public void attribute(QNm name, Atomic value) throws DocumentException {
+      put((byte) ' ');
+      name(name);
+      ascii("=\"");
+      chars(value.stringValue());
+      put((byte) '"');
+    }
+
+    @Override
+    public void endElement(QNm name) throws DocumentException {
+      level--;
+      if (emptyElement) {
+        if (pendingText != null) {
+          put((byte) '>');
+          chars(pendingText.stringValue());
+          ascii("</");
+          name(name);
+          put((byte) '>');
+          pendingText = null;
+        } else {
+          ascii("/>");
+        }
+      } else {
+        if (format) {
+          put(NEWLINE);
+        }
+        indent();
+        ascii("</");
+        name(name);
+        put((byte) '>');
+      }
+      openElement = false;
+      emptyElement = false;
+    }
+
+    @Override
+    public void text(Atomic value) throws DocumentException {
+      if (emptyElement) {
+        pendingText = value;
+      } else {
+        newChild();
+        chars(value.stringValue());
+        emptyElement = false;
+      }
+    }
+
+    @Override
+    public void comment(Atomic value) throws DocumentException {
+      newChild();
+      ascii("<!-- ");
+      chars(value.stringValue());
+      ascii(" -->");
+      emptyElement = false;
+    }
+
+    @Override
+    public void processingInstruction(QNm target, Atomic value) throws DocumentException {
+      newChild();
+      ascii("<?");
+      name(target);
+      put((byte) ' ');
+      chars(value.stringValue());
+      ascii("?>");
+      emptyElement = false;
+    }
+
+    private void newChild() {
+      if (openElement) {
+        put((byte) '>');
+        openElement = false;
+      }
+      if (pendingText != null) {
+        if (format) {
+          put(NEWLINE);
+        }
+        indent();
+        chars(pendingText.stringValue());
+        pendingText = null;
+      }
+      if ((level > 0) && (format)) {
+        put(NEWLINE);
+      }
+      indent();
+    }
+
+    private void indent() {
+      if (format) {
+        for (int i = 0; i < level; i++) {
+          chars(indent);
+        }
+      }
+    }
+
+    private void name(QNm name) {
+      String prefix = name.getPrefix();
+      if ((prefix != null) && (!prefix.isEmpty())) {
+        chars(prefix);
+        put((byte) ':');
+      }
+      chars(name.getLocalName());
+    }
+  }
+
+  // --- encoding ---
+
+  private void ascii(String s) {
+    for (int i = 0, len = s.length(); i < len; i++) {
+      put((byte) s.charAt(i));
+    }
+  }
+
+  /**
+   * Writes the UTF-8 encoding of <code>s</code>.
+   */
+  private void chars(String s) {
+    for (int i = 0, len = s.length(); i < len; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        put((byte) c);
+      } else if (c < 0x800) {
+        ensure(2);
+        buf[pos++] = (byte) (0xC0 | (c >> 6));
+        buf[pos++] = (byte) (0x80 | (c & 0x3F));
+      } else if ((Character.isHighSurrogate(c)) && (i + 1 < len) && (Character.isLowSurrogate(s.charAt(i + 1)))) {
+        int cp = Character.toCodePoint(c, s.charAt(++i));
+        ensure(4);
+        buf[pos++] = (byte) (0xF0 | (cp >> 18));
+        buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        // unpaired surrogate
+        put((byte) '?');
+      } else {
+        ensure(3);
+        buf[pos++] = (byte) (0xE0 | (c >> 12));
+        buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buf[pos++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  private void put(byte b) {
+    ensure(1);
+    buf[pos++] = b;
+  }
+
+  private void put(byte[] b) {
+    ensure(b.length);
+    System.arraycopy(b, 0, buf, pos, b.length);
+    pos += b.length;
+  }
+
+  private void ensure(int len) {
+    if (pos + len > buf.length) {
+      drain();
+    }
+  }
+
+  /**
+   * Writes the buffer to the target.
+   */
+  private void drain() {
+    try {
+      if (out != null) {
+        out.write(buf, 0, pos);
+      } else {
+        ByteBuffer b = ByteBuffer.wrap(buf, 0, pos);
+        while (b.hasRemaining()) {
+          channel.write(b);
+        }
+      }
+      pos = 0;
+    } catch (IOException e) {
+      throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR, "Error writing serialized output");
+    }
+  }
+
+  /**
+   * Writes pending output and flushes the target.
+   */
+  public void flush() {
+    drain();
+    if (out != null) {
+      try {
+        out.flush();
+      } catch (IOException e) {
+        throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR, "Error writing serialized output");
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    flush();
+  }
+}
@@ -36,6 +36,7 @@ import org.brackit.xquery.Tuple;
 import org.brackit.xquery.atomic.Atomic;
 import org.brackit.xquery.expr.Cast;
 import org.brackit.xquery.node.stream.TransformerStream;
+import org.brackit.xquery.util.Cfg;
 import org.brackit.xquery.xdm.DocumentException;
 import org.brackit.xquery.xdm.Expr;
 import org.brackit.xquery.xdm.Item;
@@ -48,20 +49,38 @@ import org.brackit.xquery.xdm.Type;
  */
 public class Ordering implements Comparator<Tuple> {
 
+  public static final String MAX_SORT_SIZE_CFG = "org.brackit.xquery.sort.maxSize";
+
+  /**
+   * Default max. size of the main memory buffer of a sort in bytes.
+   */
+  public static long MAX_SORT_SIZE = Cfg.asLong(MAX_SORT_SIZE_CFG, Runtime.getRuntime().maxMemory() / 8);
+
   final Expr[] orderByExprs;
   final OrderModifier[] modifier;
+  final long maxSize;
   int offset;
   TupleSort sort;
 
   public Ordering(Expr[] orderByExprs, OrderModifier[] modifier) {
+    this(orderByExprs, modifier, MAX_SORT_SIZE);
+  }
+
+  /**
+   * @param maxSize the max. size of the main memory buffer in bytes before
+   *                sorted runs are spilled to disk or a non-positive value for
+   *                unbounded main memory sorting
+   */
+  public Ordering(Expr[] orderByExprs, OrderModifier[] modifier, long maxSize) {
     this.orderByExprs = orderByExprs;
     this.modifier = modifier;
+    this.maxSize = maxSize;
   }
 
   public void add(QueryContext ctx, Tuple t) throws QueryException {
     if (sort == null) {
       offset = t.getSize();
-      sort = new TupleSort(this, 1);
+      sort = new TupleSort(this, maxSize);
     }
     sort.add(t.concat(sortKeys(ctx, t)));
   }
@@ -69,7 +88,7 @@ public class Ordering implements Comparator<Tuple> {
   public void add(Sequence[] keys, Tuple t) throws QueryException {
     if (sort == null) {
       offset = t.getSize();
-      sort = new TupleSort(this, 1);
+      sort = new TupleSort(this, maxSize);
     }
     sort.add(t.concat(keys));
   }
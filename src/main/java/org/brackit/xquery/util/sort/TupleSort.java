@@ -29,19 +29,21 @@ package org.brackit.xquery.util.sort;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.PriorityQueue;
 
 import org.brackit.xquery.ErrorCode;
 import org.brackit.xquery.QueryException;
 import org.brackit.xquery.Tuple;
 import org.brackit.xquery.util.Cfg;
+import org.brackit.xquery.util.io.TupleCodec;
 import org.brackit.xquery.util.log.Logger;
 import org.brackit.xquery.xdm.DocumentException;
 import org.brackit.xquery.xdm.Stream;
@@ -50,45 +52,62 @@ import org.brackit.xquery.xdm.Stream;
  * Combination of main memory and external merge sort. The implementation is I/O
  * robust w.r.t. pre-sorted input, few inputs and performs well for large main
  * memory buffer sizes.
+ * <p>
+ * Whenever the estimated size of the buffered tuples exceeds the configured
+ * maximum size, the buffer is sorted and written to a run file. Runs are
+ * combined with a k-way merge. The last merge phase is pipelined with the
+ * main memory buffer. Ties are resolved in input order, i.e., the sort is
+ * stable.
+ * </p>
  *
  * @author Sebastian Baechle
  */
 public class TupleSort {
   private static final Logger log = Logger.getLogger(TupleSort.class);
 
+  /**
+   * Max. number of runs merged in a single merge step.
+   */
+  public static int MERGE_FAN_IN = Cfg.asInt("org.brackit.xquery.sort.fanIn", 32);
+
+  private static final int IO_BUFFER_SIZE = 64 * 1024;
+
   private final long maxSize;
 
   private final Comparator<Tuple> comparator;
 
   private final File sortDir = new File(Cfg.asString("java.io.tmpdir"));
 
+  private final TupleCodec codec = new TupleCodec();
+
   private File[] runs;
 
   private Tuple[] buffer;
 
-  private byte[] mergeBuffer;
-
   private int count;
 
   private int runCount;
 
   private long size;
 
-  private OutputStream currentRun;
+  private DataOutputStream currentRun;
 
   private Tuple lastInRun;
 
   // statistics
-  long leftMergeItemCount;
-
-  long rightMergeItemCount;
+  long mergeItemCount;
 
   int mergeCount;
 
-  private long directMergeSize;
-
   private int initialRuns;
 
+  /**
+   * Creates a new sort.
+   *
+   * @param comparator the tuple comparator
+   * @param maxSize    the max. size of the main memory buffer in bytes or
+   *                   a non-positive value for a pure main memory sort
+   */
   public TupleSort(Comparator<Tuple> comparator, long maxSize) {
     this.comparator = comparator;
     this.maxSize = maxSize;
@@ -98,7 +117,7 @@ public class TupleSort {
 
   public void add(Tuple item) throws QueryException {
     long itemSize = getSize(item);
-    if ((maxSize > 0) && (size + itemSize > maxSize)) {
+    if ((maxSize > 0) && (count > 0) && (size + itemSize > maxSize)) {
       writeRun();
     }
 
@@ -111,15 +130,16 @@ public class TupleSort {
   }
 
   private long getSize(Tuple item) throws QueryException {
-    // TODO
-    return 0;
+    return (maxSize > 0) ? TupleCodec.sizeOf(item) : 0;
   }
 
   private void writeRun() throws QueryException {
     sortBuffer();
 
-    if ((lastInRun != null) && (comparator.compare(lastInRun, buffer[0]) <= 0)) {
-      System.out.println("append to run");
+    if ((lastInRun != null) && (compare(lastInRun, buffer[0]) <= 0)) {
+      if (log.isDebugEnabled()) {
+        log.debug("Append sorted buffer to current run");
+      }
       appendToRun();
       return;
     }
@@ -132,27 +152,21 @@ public class TupleSort {
       File run = File.createTempFile("sort", ".run", sortDir);
       run.deleteOnExit();
 
+      if (runCount == runs.length) {
+        runs = Arrays.copyOf(runs, ((runs.length * 3) / 2) + 1);
+      }
+      runs[runCount++] = run;
+
       if (log.isDebugEnabled()) {
         log.debug(String.format("Writing new run '%s'", run));
       }
 
-      currentRun = new BufferedOutputStream(new FileOutputStream(run));
-
-      for (int i = 0; i < count; i++) {
-        lastInRun = buffer[i];
-        writeItem(currentRun, lastInRun);
-      }
+      currentRun = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), IO_BUFFER_SIZE));
+      writeBuffer();
 
       if (log.isDebugEnabled()) {
         log.debug(String.format("Wrote run '%s'", run));
       }
-
-      if (runCount == runs.length) {
-        runs = Arrays.copyOf(runs, ((runs.length * 3) / 2) + 1);
-      }
-      runs[runCount++] = run;
-      size = 0;
-      count = 0;
       initialRuns++;
     } catch (IOException e) {
       errorCleanup();
@@ -181,20 +195,38 @@ public class TupleSort {
     }
   }
 
+  private int compare(Tuple t1, Tuple t2) throws QueryException {
+    try {
+      return comparator.compare(t1, t2);
+    } catch (ClassCastException e) {
+      throw new QueryException(e, ErrorCode.ERR_TYPE_INAPPROPRIATE_TYPE);
+    } catch (QueryException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
+    }
+  }
+
   private void appendToRun() throws QueryException {
     try {
-      for (int i = 0; i < count; i++) {
-        lastInRun = buffer[i];
-        writeItem(currentRun, lastInRun);
-      }
-      count = 0;
-      size = 0;
+      writeBuffer();
     } catch (IOException e) {
       errorCleanup();
       throw new QueryException(e, ErrorCode.BIT_DYN_INT_ERROR);
     }
   }
 
+  private void writeBuffer() throws IOException {
+    for (int i = 0; i < count; i++) {
+      lastInRun = buffer[i];
+      codec.write(currentRun, lastInRun);
+      // allow gc
+      buffer[i] = null;
+    }
+    count = 0;
+    size = 0;
+  }
+
   private void errorCleanup() {
     if (currentRun != null) {
       try {
@@ -202,26 +234,25 @@ public class TupleSort {
       } catch (IOException e1) {
         log.error(e1);
       }
+      currentRun = null;
     }
+    deleteRuns();
+  }
 
-    for (File run : runs) {
+  private void deleteRuns() {
+    for (int i = 0; i < runCount; i++) {
+      File run = runs[i];
       if ((run != null) && (run.exists())) {
         run.delete();
       }
+      runs[i] = null;
     }
-  }
-
-  private Tuple readItem(InputStream in) throws IOException {
-    // TODO
-    return null;
-  }
-
-  private void writeItem(OutputStream out, Tuple item) throws IOException {
-    // TODO
+    runCount = 0;
+    codec.clear();
   }
 
   public Stream<Tuple> stream() {
-    return (runCount == 0) ? mainMemorySortOnly() : mergeFinalRunAndBuffer();
+    return (runCount == 0) ? mainMemorySortOnly() : mergeFinalRunsAndBuffer();
   }
 
   public void sort() throws QueryException {
@@ -235,13 +266,14 @@ public class TupleSort {
 
   public void clear() {
     if (runCount > 0) {
-      runs[0].delete();
+      deleteRuns();
     }
   }
 
   private void closeLastRun() throws QueryException {
     try {
       currentRun.close();
+      currentRun = null;
       lastInRun = null;
     } catch (IOException e) {
       errorCleanup();
@@ -249,66 +281,43 @@ public class TupleSort {
     }
   }
 
-  private Stream<Tuple> mergeFinalRunAndBuffer() {
-    final Tuple[] sBuffer = buffer;
-
-    return new Stream<Tuple>() {
-      private final Comparator<Tuple> cmp = comparator;
-
-      private final Tuple[] sortedBuffer = sBuffer;
-
-      private InputStream sorted;
+  private Stream<Tuple> mergeFinalRunsAndBuffer() {
+    final Source[] sources = new Source[runCount + 1];
+    final Tuple[] sortedBuffer = buffer;
+    final int sortedCount = count;
 
-      private Tuple left;
+    // the main memory buffer holds the most recent
+    // input and comes last to keep the sort stable
+    sources[runCount] = new Source(runCount) {
+      int pos;
 
-      private Tuple right;
+      @Override
+      Tuple read() {
+        return (pos < sortedCount) ? sortedBuffer[pos++] : null;
+      }
+    };
 
-      private int pos;
+    return new Stream<Tuple>() {
+      private Merge merge;
 
       @Override
       public void close() {
-        try {
-          sorted.close();
-          clear();
-        } catch (IOException e) {
-          log.error(e);
+        if (merge != null) {
+          merge.close();
         }
+        clear();
       }
 
       @Override
       public Tuple next() throws DocumentException {
         try {
-          Tuple next;
-          if (sorted == null) {
-            sorted = new BufferedInputStream(new FileInputStream(runs[0]));
-            left = readItem(sorted);
-          }
-
-          if (pos == 0) {
-            right = (pos < count) ? sortedBuffer[pos++] : null;
-          }
-
-          if (left == null) {
-            next = right;
-            right = (pos < count) ? sortedBuffer[pos++] : null;
-            return next;
-          }
-
-          if (right == null) {
-            next = left;
-            left = readItem(sorted);
-            return next;
-          }
-
-          if (cmp.compare(left, right) <= 0) {
-            next = left;
-            left = readItem(sorted);
-          } else {
-            next = right;
-            right = (pos < count) ? sortedBuffer[pos++] : null;
+          if (merge == null) {
+            for (int i = 0; i < runCount; i++) {
+              sources[i] = new RunSource(i, runs[i]);
+            }
+            merge = new Merge(sources);
           }
-
-          return next;
+          return merge.next();
         } catch (IOException e) {
           throw new DocumentException(e);
         }
@@ -317,17 +326,12 @@ public class TupleSort {
   }
 
   private void mergeRuns() throws QueryException {
-    File[] newRuns = null;
     int mergePhase = 0;
-    boolean forward = true;
 
-    while (runCount > 1) {
+    // leave one input of the final merge for the main memory buffer
+    while (runCount >= MERGE_FAN_IN) {
       if (log.isDebugEnabled()) {
-        log.debug(String.format("Starting merge phase %s type %s", mergePhase, forward));
-      }
-
-      if (mergeBuffer == null) {
-        mergeBuffer = new byte[Math.max((int) maxSize / 20, 1024)];
+        log.debug(String.format("Starting merge phase %s", mergePhase));
       }
 
       if (log.isTraceEnabled()) {
@@ -337,45 +341,19 @@ public class TupleSort {
         }
       }
 
-      int merges = runCount / 2;
-      boolean singleRun = runCount % 2 == 1;
-      int newRunCount = merges + (singleRun ? 1 : 0);
-      newRuns = new File[newRunCount];
+      // merge neighboring runs to keep the sort stable
+      int newRunCount = (runCount + MERGE_FAN_IN - 1) / MERGE_FAN_IN;
+      File[] newRuns = new File[Math.max(newRunCount, 2)];
 
       if (log.isDebugEnabled()) {
-        log.debug(String.format("Merge %s -> %s (single run: %s)", runCount, newRunCount, singleRun));
+        log.debug(String.format("Merge %s -> %s", runCount, newRunCount));
       }
 
       try {
-        if (forward) // all merge pairs sorted forwards, hottest at the
-        // end
-        {
-          int pos = 0;
-
-          if (singleRun) {
-            for (int i = newRunCount - 1; i > 0; i--) {
-              newRuns[pos++] = merge(runs[2 * i - 1], runs[2 * i]);
-            }
-            newRuns[newRunCount - 1] = runs[0];
-          } else {
-            for (int i = newRunCount - 1; i >= 0; i--) {
-              newRuns[pos++] = merge(runs[2 * i], runs[2 * i + 1]);
-            }
-          }
-        } else // all merge pairs sorted backwards, hottest at the end
-        {
-          int pos = 0;
-
-          if (singleRun) {
-            for (int i = newRunCount - 1; i > 0; i--) {
-              newRuns[pos++] = merge(runs[2 * i], runs[2 * i - 1]);
-            }
-            newRuns[newRunCount - 1] = runs[0];
-          } else {
-            for (int i = newRunCount - 1; i >= 0; i--) {
-              newRuns[pos++] = merge(runs[2 * i + 1], runs[2 * i]);
-            }
-          }
+        for (int i = 0; i < newRunCount; i++) {
+          int from = i * MERGE_FAN_IN;
+          int to = Math.min(from + MERGE_FAN_IN, runCount);
+          newRuns[i] = (to - from == 1) ? runs[from] : merge(runs, from, to);
         }
       } catch (QueryException e) {
         for (File newRun : newRuns) {
@@ -386,7 +364,6 @@ public class TupleSort {
         throw e;
       }
 
-      forward = !forward;
       runCount = newRunCount;
       runs = newRuns;
 
@@ -414,10 +391,10 @@ public class TupleSort {
     };
   }
 
-  private File merge(File run1, File run2) throws QueryException {
-    InputStream lIn = null;
-    InputStream rIn = null;
-    OutputStream out = null;
+  private File merge(File[] in, int from, int to) throws QueryException {
+    Source[] sources = new Source[to - from];
+    Merge merge = null;
+    DataOutputStream out = null;
 
     try {
       mergeCount++;
@@ -425,47 +402,24 @@ public class TupleSort {
       run.deleteOnExit();
 
       if (log.isDebugEnabled()) {
-        log.debug(String.format("Merging run '%s' and '%s' in new run '%s'", run1, run2, run));
+        log.debug(String.format("Merging runs %s to %s in new run '%s'", from, to - 1, run));
       }
 
-      lIn = new BufferedInputStream(new FileInputStream(run1));
-      rIn = new BufferedInputStream(new FileInputStream(run2));
-      Tuple left = null;
-      Tuple right = null;
-
-      out = new BufferedOutputStream(new FileOutputStream(run));
-
-      left = readItem(lIn);
-      right = readItem(rIn);
-
-      while ((left != null) && (right != null)) {
-        if (comparator.compare(left, right) <= 0) {
-          writeItem(out, left);
-          left = readItem(lIn);
-          leftMergeItemCount++;
-        } else {
-          writeItem(out, right);
-          right = readItem(rIn);
-          rightMergeItemCount++;
-        }
+      for (int i = from; i < to; i++) {
+        sources[i - from] = new RunSource(i - from, in[i]);
       }
+      merge = new Merge(sources);
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), IO_BUFFER_SIZE));
 
-      Tuple pending = (left == null) ? right : left;
-      InputStream pendingIn = (left == null) ? rIn : lIn;
-
-      if (pending != null) {
-        writeItem(out, pending);
+      for (Tuple t = merge.next(); t != null; t = merge.next()) {
+        codec.write(out, t);
+        mergeItemCount++;
       }
 
-      int read;
-      while ((read = pendingIn.read(mergeBuffer)) > 0) {
-        out.write(mergeBuffer, 0, read);
-        directMergeSize += read;
+      for (int i = from; i < to; i++) {
+        in[i].delete();
       }
 
-      run1.delete();
-      run2.delete();
-
       if (log.isDebugEnabled()) {
         log.debug(String.format("Wrote run '%s'", run));
       }
@@ -482,18 +436,88 @@ public class TupleSort {
           log.error(e1);
         }
       }
-      if (lIn != null) {
-        try {
-          lIn.close();
-        } catch (IOException e1) {
-          log.error(e1);
+      if (merge != null) {
+        merge.close();
+      }
+    }
+  }
+
+  /**
+   * Sorted input of a merge.
+   */
+  private abstract static class Source {
+    final int no;
+    Tuple current;
+
+    Source(int no) {
+      this.no = no;
+    }
+
+    abstract Tuple read() throws IOException;
+
+    void close() {
+    }
+  }
+
+  private final class RunSource extends Source {
+    final DataInputStream in;
+
+    RunSource(int no, File run) throws IOException {
+      super(no);
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), IO_BUFFER_SIZE));
+    }
+
+    @Override
+    Tuple read() throws IOException {
+      return codec.read(in);
+    }
+
+    @Override
+    void close() {
+      try {
+        in.close();
+      } catch (IOException e) {
+        log.error(e);
+      }
+    }
+  }
+
+  /**
+   * K-way merge of sorted sources. Ties are resolved by the source number.
+   */
+  private final class Merge {
+    final Source[] sources;
+    final PriorityQueue<Source> queue;
+
+    Merge(Source[] sources) throws IOException {
+      this.sources = sources;
+      this.queue = new PriorityQueue<>(sources.length, (s1, s2) -> {
+        int res = compare(s1.current, s2.current);
+        return (res != 0) ? res : Integer.compare(s1.no, s2.no);
+      });
+      for (Source s : sources) {
+        if ((s.current = s.read()) != null) {
+          queue.add(s);
         }
       }
-      if (rIn != null) {
-        try {
-          rIn.close();
-        } catch (IOException e1) {
-          log.error(e1);
+    }
+
+    Tuple next() throws IOException {
+      Source s = queue.poll();
+      if (s == null) {
+        return null;
+      }
+      Tuple next = s.current;
+      if ((s.current = s.read()) != null) {
+        queue.add(s);
+      }
+      return next;
+    }
+
+    void close() {
+      for (Source s : sources) {
+        if (s != null) {
+          s.close();
         }
       }
     }
@@ -503,16 +527,10 @@ public class TupleSort {
     StringBuilder out = new StringBuilder();
     out.append(String.format("# initial runs: %s # merges: %s", initialRuns, mergeCount));
     out.append("\n");
-    out.append(String.format("Total left merge items: %10s Avg. left merge items per merge: %10.3f",
-                             leftMergeItemCount,
-                             (double) leftMergeItemCount / mergeCount));
-    out.append("\n");
-    out.append(String.format("Total right merge items: %10s Avg. right merge items per merge: %10.3f",
-                             rightMergeItemCount,
-                             (double) rightMergeItemCount / mergeCount));
-    out.append("\n");
-    out.append(String.format("Directly merged %10.2f MB", (double) directMergeSize / (1024 * 1024)));
+    out.append(String.format("Total merge items: %10s Avg. merge items per merge: %10.3f",
+                             mergeItemCount,
+                             (double) mergeItemCount / mergeCount));
     out.append("\n");
     return out.toString();
   }
-}
\ No newline at end of file
+}
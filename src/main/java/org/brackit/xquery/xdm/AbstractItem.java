@@ -69,12 +69,6 @@ public abstract class AbstractItem extends AbstractSequence implements Item {
 
       public final void close() {
       }
-
-      @Override
-      public Split split(int min, int max) throws QueryException {
-        // TODO Auto-generated method stub
-        return null;
-      }
     };
   }
 }
\ No newline at end of file
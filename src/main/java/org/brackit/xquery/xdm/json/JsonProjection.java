@@ -0,0 +1,99 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.xdm.json;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Describes which parts of a JSON document are accessed by a query.
+ * <p>
+ * A projection is a tree of object field names. Arrays are transparent, i.e.,
+ * the projection of an array applies to all of its members. Fields that are
+ * not part of the projection may be skipped when a document is loaded. A
+ * projection marked as {@link #isAll() all} requires the complete value.
+ * </p>
+ */
+public final class JsonProjection {
+
+  private Map<String, JsonProjection> fields = new TreeMap<>();
+
+  /**
+   * Returns the projection for the given field or <code>null</code> if the
+   * field is not accessed at all.
+   */
+  public JsonProjection field(String name) {
+    return (fields == null) ? this : fields.get(name);
+  }
+
+  /**
+   * Adds the given field to this projection and returns its projection.
+   */
+  public JsonProjection add(String name) {
+    if (fields == null) {
+      return this;
+    }
+    return fields.computeIfAbsent(name, n -> new JsonProjection());
+  }
+
+  /**
+   * Marks the complete value as required.
+   */
+  public void all() {
+    fields = null;
+  }
+
+  public boolean isAll() {
+    return (fields == null);
+  }
+
+  @Override
+  public boolean equals(java.lang.Object obj) {
+    return (obj instanceof JsonProjection) && toString().equals(obj.toString());
+  }
+
+  @Override
+  public int hashCode() {
+    return toString().hashCode();
+  }
+
+  @Override
+  public String toString() {
+    if (fields == null) {
+      return "*";
+    }
+    StringBuilder s = new StringBuilder("{");
+    for (Map.Entry<String, JsonProjection> field : fields.entrySet()) {
+      if (s.length() > 1) {
+        s.append(',');
+      }
+      s.append('"').append(field.getKey()).append("\":").append(field.getValue());
+    }
+    return s.append('}').toString();
+  }
+}
@@ -40,6 +40,15 @@ public interface JsonStore extends StructuredItemStore {
   @Override
   JsonCollection<?> lookup(String name);
 
+  /**
+   * Looks up the collection for a query that accesses only the given parts of
+   * its documents. Stores may skip the remaining fields when they load
+   * documents, but they are free to ignore the projection.
+   */
+  default JsonCollection<?> lookup(String name, JsonProjection projection) {
+    return lookup(name);
+  }
+
   @Override
   JsonCollection<?> create(String name);
 
@@ -67,6 +67,23 @@ public final class SequenceType {
     return cardinality;
   }
 
+  /**
+   * Checks if every sequence of this type is also an instance of the given
+   * type. The check is conservative, i.e., it only knows about
+   * <code>item()</code> and atomic item types.
+   */
+  public boolean subtypeOf(SequenceType type) {
+    Cardinality card = type.cardinality;
+    if (((cardinality.many()) && (!card.many())) || ((card.moreThanZero()) && (!cardinality.moreThanZero()))) {
+      return false;
+    }
+    if (type.itemType.isAnyItem()) {
+      return true;
+    }
+    return ((itemType instanceof AtomicType) && (type.itemType instanceof AtomicType)
+        && (((AtomicType) itemType).getType().instanceOf(((AtomicType) type.itemType).getType())));
+  }
+
   private String cardinalityString() {
     switch (cardinality) {
       case OneOrMany:
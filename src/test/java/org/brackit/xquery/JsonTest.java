@@ -1223,6 +1223,36 @@ public final class JsonTest extends XQueryBaseTest {
     assertEquals("{\"height\":5.2,\"eyes\":\"blue\"}", result);
   }
 
+  @Test
+  public void projectedDocDeref() throws IOException {
+    final String uri = JSON_RESOURCES.resolve("user_profiles.json").toUri().toString();
+    final String query = "jn:doc('" + uri + "')=>websites[]=>description";
+    final var result = query(query);
+    assertEquals("work tutorials", result);
+  }
+
+  @Test
+  public void projectedDocKeepsReturnedValues() throws IOException {
+    final String uri = JSON_RESOURCES.resolve("user_profiles.json").toUri().toString();
+    final String query = """
+        let $profile := jn:doc('%s')
+        for $site in $profile=>social_media[]
+        where $site=>description = 'github'
+        return {"name": $profile=>first_name, "count": count($profile=>websites[]), "site": $site}
+        """.formatted(uri);
+    final var result = query(query);
+    assertEquals("{\"name\":\"Sammy\",\"count\":2,\"site\":{\"description\":\"github\",\"link\":\"https://github.com/digitalocean\"}}",
+                 result);
+  }
+
+  @Test
+  public void projectedDocReturnedAsWhole() throws IOException {
+    final String uri = JSON_RESOURCES.resolve("user_profiles.json").toUri().toString();
+    final String query = "let $profile := jn:doc('" + uri + "') return ($profile=>location, jn:keys($profile))";
+    final var result = query(query);
+    assertEquals("Ocean first_name last_name location websites social_media", result);
+  }
+
   private String query(final String query) throws IOException {
     try (final var out = new ByteArrayOutputStream()) {
       new XQuery(query).serialize(ctx, new PrintStream(out));
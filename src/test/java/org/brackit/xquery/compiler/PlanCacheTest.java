@@ -0,0 +1,154 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.brackit.xquery.BrackitQueryContext;
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.ResultChecker;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.compiler.translator.BlockTranslator;
+import org.brackit.xquery.module.Module;
+import org.brackit.xquery.sequence.ItemSequence;
+import org.brackit.xquery.xdm.Sequence;
+import org.junit.Test;
+
+public class PlanCacheTest extends XQueryBaseTest {
+
+  private static final String QUERY = "declare variable $x external; "
+      + "declare context item external; "
+      + "for $i in 1 to 3 let $y := $i * $x return $y + .";
+
+  @Test
+  public void cacheHits() {
+    PlanCache cache = new PlanCache();
+    Module m1 = cache.compile("1 + 1");
+    Module m2 = cache.compile("\r\n 1 + 1\n");
+    Module m3 = cache.compile("1 + 2");
+    assertSame(m1, m2);
+    assertNotSame(m1, m3);
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+    assertEquals(1.0 / 3, cache.getHitRate(), 0.0001);
+  }
+
+  @Test
+  public void eviction() {
+    PlanCache cache = new PlanCache(2);
+    Module m1 = cache.compile("1");
+    cache.compile("2");
+    cache.compile("1");
+    cache.compile("3");
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.getEvictions());
+    // "2" was the least recently used
+    assertSame(m1, cache.compile("1"));
+    cache.compile("2");
+    assertEquals(4, cache.getMisses());
+  }
+
+  @Test
+  public void chainsWithDifferentResolvers() {
+    PlanCache cache = new PlanCache();
+    CompileChain chain = new CompileChain();
+    Module m1 = cache.compile(chain, "1 + 1");
+    assertSame(m1, cache.compile(chain, "1 + 1"));
+    assertNotSame(m1, cache.compile(new CompileChain(), "1 + 1"));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void chainsWithDifferentSettings() {
+    PlanCache cache = new PlanCache();
+    CompileChain chain = new CompileChain();
+    boolean parallel = BlockTranslator.PARALLEL_DEFAULT;
+    try {
+      BlockTranslator.PARALLEL_DEFAULT = false;
+      Module serial = cache.compile(chain, "for $i in 1 to 3 return $i");
+      BlockTranslator.PARALLEL_DEFAULT = true;
+      assertNotSame(serial, cache.compile(chain, "for $i in 1 to 3 return $i"));
+      BlockTranslator.PARALLEL_DEFAULT = false;
+      assertSame(serial, cache.compile(chain, "for $i in 1 to 3 return $i"));
+    } finally {
+      BlockTranslator.PARALLEL_DEFAULT = parallel;
+    }
+  }
+
+  @Test
+  public void libraryModulesOfCachedQuery() {
+    PlanCache cache = new PlanCache();
+    String query = "module namespace m = \"http://brackit.org/test/m\"; declare function m:f() { 1 };";
+    CompileChain chain1 = new CompileChain();
+    CompileChain chain2 = new CompileChain();
+    cache.compile(chain1, query);
+    cache.compile(chain2, query);
+    assertEquals(1, chain1.getModuleResolver().resolve("http://brackit.org/test/m").size());
+    assertEquals(1, chain2.getModuleResolver().resolve("http://brackit.org/test/m").size());
+  }
+
+  @Test
+  public void concurrentEvaluation() throws Exception {
+    final PlanCache cache = new PlanCache();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Sequence>> results = new ArrayList<>();
+      for (int i = 0; i < 64; i++) {
+        final int x = i;
+        results.add(executor.submit(new Callable<Sequence>() {
+          @Override
+          public Sequence call() throws Exception {
+            QueryContext ctx = new BrackitQueryContext(store);
+            ctx.bind(new QNm("x"), new Int32(x));
+            ctx.setContextItem(new Int32(-x));
+            return new XQuery(cache, QUERY).execute(ctx);
+          }
+        }));
+      }
+      for (int i = 0; i < 64; i++) {
+        Sequence expected = new ItemSequence(new Int32(0), new Int32(i), new Int32(2 * i));
+        ResultChecker.dCheck(expected, results.get(i).get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(1, cache.size());
+  }
+}
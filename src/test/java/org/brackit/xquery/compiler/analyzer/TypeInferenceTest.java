@@ -0,0 +1,109 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.analyzer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.compiler.AST;
+import org.brackit.xquery.compiler.parser.XQParser;
+import org.brackit.xquery.module.MainModule;
+import org.brackit.xquery.xdm.type.AtomicType;
+import org.brackit.xquery.xdm.type.Cardinality;
+import org.brackit.xquery.xdm.type.SequenceType;
+import org.junit.Test;
+
+public class TypeInferenceTest {
+
+  private static final SequenceType OPTIONAL_INTEGER = new SequenceType(AtomicType.INR, Cardinality.ZeroOrOne);
+
+  private static final SequenceType DECIMAL = new SequenceType(AtomicType.DEC, Cardinality.One);
+
+  private static final SequenceType BOOLEAN = new SequenceType(AtomicType.BOOL, Cardinality.One);
+
+  private final TypeInference inference = new TypeInference(new MainModule().getStaticContext(), name -> {
+    switch (name.getLocalName()) {
+      case "i":
+        return SequenceType.INTEGER;
+      case "o":
+        return OPTIONAL_INTEGER;
+      default:
+        return SequenceType.ITEM_SEQUENCE;
+    }
+  });
+
+  private static AST body(String query) {
+    return new XQParser(query).parse().getChild(0).getChild(1).getChild(0);
+  }
+
+  @Test
+  public void arithmetic() throws Exception {
+    assertEquals(SequenceType.INTEGER, inference.infer(body("1 + $i * 2")));
+    assertEquals(DECIMAL, inference.infer(body("$i div 2")));
+    assertEquals(DECIMAL, inference.infer(body("1.5 - $i")));
+    assertEquals(SequenceType.INTEGER, inference.infer(body("1.5 idiv $i")));
+    assertEquals(OPTIONAL_INTEGER, inference.infer(body("$o + 1")));
+    assertNull(inference.infer(body("$x + 1")));
+    assertNull(inference.infer(body("1e0 + 1")));
+  }
+
+  @Test
+  public void conditional() throws Exception {
+    assertEquals(DECIMAL, inference.infer(body("if ($x) then 1 else 2.5")));
+    assertEquals(OPTIONAL_INTEGER, inference.infer(body("if ($x) then ($o) else $i")));
+    assertNull(inference.infer(body("if ($x) then 1 else 'a'")));
+  }
+
+  @Test
+  public void comparison() throws Exception {
+    assertEquals(BOOLEAN, inference.infer(body("$i eq 1")));
+    assertEquals(BOOLEAN, inference.infer(body("$x = 1")));
+    assertEquals(new SequenceType(AtomicType.BOOL, Cardinality.ZeroOrOne), inference.infer(body("$o lt 1")));
+  }
+
+  @Test
+  public void annotatesAST() throws Exception {
+    AST expr = body("$i + 1");
+    inference.infer(expr);
+    assertEquals(SequenceType.INTEGER, expr.getProperty(TypeInference.STATIC_TYPE));
+    assertEquals(SequenceType.INTEGER, expr.getChild(1).getProperty(TypeInference.STATIC_TYPE));
+  }
+
+  @Test
+  public void subtype() throws Exception {
+    assertTrue(SequenceType.INTEGER.subtypeOf(DECIMAL));
+    assertTrue(SequenceType.INTEGER.subtypeOf(SequenceType.ITEM_SEQUENCE));
+    assertTrue(SequenceType.INTEGER.subtypeOf(OPTIONAL_INTEGER));
+    assertFalse(OPTIONAL_INTEGER.subtypeOf(SequenceType.INTEGER));
+    assertFalse(DECIMAL.subtypeOf(SequenceType.INTEGER));
+    assertFalse(SequenceType.ITEM.subtypeOf(SequenceType.INTEGER));
+  }
+}
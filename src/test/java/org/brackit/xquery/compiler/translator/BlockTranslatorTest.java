@@ -0,0 +1,110 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.compiler.translator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintStream;
+
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.expr.BlockExpr;
+import org.brackit.xquery.expr.PipeExpr;
+import org.junit.Test;
+
+/**
+ * Checks that pipelines compiled to the block engine yield the same results
+ * as the serial operator tree.
+ */
+public class BlockTranslatorTest extends XQueryBaseTest {
+
+  private static final String PARALLEL = "declare option bit:parallel \"true\"; ";
+
+  @Test
+  public void forWhereReturn() {
+    checkParallel("for $a in (1 to 1000) where $a mod 7 = 0 return $a * 2");
+  }
+
+  @Test
+  public void forLetReturn() {
+    checkParallel("for $a in (1 to 500) let $b := $a + 1 let $c := ($a, $b) return sum($c)");
+  }
+
+  @Test
+  public void nestedFor() {
+    checkParallel("for $a in (1 to 30) for $b in (1 to $a) where $b = 3 return ($a, $b)");
+  }
+
+  @Test
+  public void orderBy() {
+    checkParallel("for $a in (1 to 500) order by $a mod 10, $a descending return $a");
+  }
+
+  @Test
+  public void count() {
+    checkParallel("for $a in (1 to 300) where $a mod 3 = 0 count $c return ($c, $a)");
+  }
+
+  @Test
+  public void groupBy() {
+    checkParallel("for $a in (1 to 500) let $k := $a mod 5 group by $k order by $k return <g k='{$k}'>{sum($a)}</g>");
+  }
+
+  @Test
+  public void join() {
+    checkParallel("for $a in (1 to 100) for $b in (50 to 150) where $a = $b return ($a, $b)");
+  }
+
+  @Test
+  public void positionalVariableFallback() {
+    XQuery query = new XQuery(PARALLEL + "for $a at $p in (5 to 10) return $p");
+    assertTrue(query.getModule().getBody() instanceof PipeExpr);
+    assertEquals("1 2 3 4 5 6", serialize(query));
+  }
+
+  @Test
+  public void serialByDefault() {
+    XQuery query = new XQuery("for $a in (1 to 10) return $a");
+    assertFalse(query.getModule().getBody() instanceof BlockExpr);
+  }
+
+  private void checkParallel(String query) {
+    XQuery parallel = new XQuery(PARALLEL + query);
+    assertTrue(parallel.getModule().getBody() instanceof BlockExpr);
+    assertEquals(serialize(new XQuery(query)), serialize(parallel));
+  }
+
+  private String serialize(XQuery query) {
+    PrintStream buf = createBuffer();
+    query.serialize(ctx, buf);
+    buf.flush();
+    return buf.toString();
+  }
+}
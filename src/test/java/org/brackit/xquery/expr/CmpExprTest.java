@@ -31,6 +31,7 @@ import org.brackit.xquery.ResultChecker;
 import org.brackit.xquery.XQuery;
 import org.brackit.xquery.XQueryBaseTest;
 import org.brackit.xquery.atomic.Bool;
+import org.brackit.xquery.atomic.Int32;
 import org.brackit.xquery.xdm.Sequence;
 import org.junit.Test;
 
@@ -69,4 +70,63 @@ public class CmpExprTest extends XQueryBaseTest {
     Sequence res = new XQuery("xs:date('2002-10-10+14:00') eq xs:date('2002-10-09-11:00')").execute(ctx);
     ResultChecker.dCheck(Bool.FALSE, res);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void generalComparisonLargeSequences() {
+    check("(1 to 100) = (100 to 200)", true);
+    check("(1 to 100) = (101 to 200)", false);
+    check("(for $i in 1 to 100 return $i * 0.5) = (for $i in 200 to 300 return xs:double($i) div 4)", true);
+    check("(for $i in 1 to 100 return <a>{$i}</a>) = (for $i in 100 to 200 return string($i))", true);
+    check("(for $i in 1 to 100 return <a>{$i}</a>) = (for $i in 101 to 200 return string($i))", false);
+    check("(for $i in 1 to 10 return 5) != (for $i in 1 to 10 return 5.0)", false);
+    check("(for $i in 1 to 10 return 'x') != (for $i in 1 to 9 return 'x', 'y')", true);
+    check("(50 to 150) < (1 to 50)", false);
+    check("(50 to 150) <= (1 to 50)", true);
+    check("(1 to 100, xs:double('NaN')) > (for $i in 1 to 10 return 100)", false);
+    check("(for $i in 1 to 100 return string($i)) >= (for $i in 1 to 10 return '99')", true);
+  }
+
+  @Test
+  public void generalComparisonRepeatedSequence() {
+    String nodes = "(for $i in 1 to 1000 return <x id='i{$i}'/>)";
+    String ids = "let $ids := for $i in 1 to 500 return concat('i', $i * 2) ";
+    ResultChecker.dCheck(new Int32(500), new XQuery(ids + "return count(" + nodes + "[@id = $ids])").execute(ctx));
+    ResultChecker.dCheck(new Int32(500), new XQuery(ids + "return count(" + nodes + "[$ids = @id])").execute(ctx));
+    ResultChecker.dCheck(new Int32(1000), new XQuery(ids + "return count(" + nodes + "[@id != $ids])").execute(ctx));
+    String values = "let $v := (for $i in 1 to 100 return 990.5, xs:double('NaN')) ";
+    ResultChecker.dCheck(new Int32(10), new XQuery(values + "return count((1 to 1000)[. > $v])").execute(ctx));
+    ResultChecker.dCheck(new Int32(990), new XQuery(values + "return count((1 to 1000)[$v >= .])").execute(ctx));
+  }
+
+  @Test
+  public void generalComparisonSequenceAndItem() {
+    check("(1 to 1000000000) = 2", true);
+    check("(1 to 1000000000) > 0", true);
+    check("(1 to 1000000000) = (1, 2)", true);
+    check("(xs:double('NaN'), 1) > (100, 200)", false);
+    check("(xs:float('NaN'), 300) > (100, 200)", true);
+    check("(1 to 1000000000) = (1 to 100)", true);
+    check("(1 to 1000000000) < (2, 3)", true);
+    check("(1 to 1000000000) != (for $i in 1 to 100 return 1)", true);
+    check("(1 to 10) < 2", true);
+    check("(5 to 10) < 2", false);
+    check("(1 to 10) >= 10", true);
+    check("(1 to 10) > 10", false);
+    check("(for $i in 1 to 10 return <a>{$i}</a>) = '7'", true);
+    check("(for $i in 1 to 10 return <a>{$i}</a>) = 7.0", true);
+  }
+
+  @Test
+  public void generalComparisonChangingSequences() {
+    ResultChecker.dCheck(new Int32(50),
+        new XQuery("count(for $i in 1 to 100 return (for $j in 1 to $i return $j * 2)[. = $i])").execute(ctx));
+    ResultChecker.dCheck(new Int32(50),
+        new XQuery("count(for $i in 1 to 100 where (1 to $i) = (for $j in 1 to 50 return $j + 50) return $i)")
+            .execute(ctx));
+  }
+
+  private void check(String query, boolean expected) {
+    Sequence result = new XQuery(query).execute(ctx);
+    ResultChecker.dCheck(expected ? Bool.TRUE : Bool.FALSE, result);
+  }
+}
@@ -36,11 +36,14 @@ import org.brackit.xquery.QueryException;
 import org.brackit.xquery.ResultChecker;
 import org.brackit.xquery.XQuery;
 import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.atomic.Bool;
 import org.brackit.xquery.atomic.Dbl;
 import org.brackit.xquery.atomic.Int;
 import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.Int64;
 import org.brackit.xquery.atomic.QNm;
 import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.compiler.analyzer.FunctionDecl;
 import org.brackit.xquery.sequence.ItemSequence;
 import org.brackit.xquery.xdm.Sequence;
 import org.junit.Test;
@@ -79,6 +82,149 @@ public class PrologDeclarationTest extends XQueryBaseTest {
                                          new Int32(0)), res);
   }
 
+  @Test
+  public void declareTailRecursiveFunction() throws Exception {
+    Sequence res = new XQuery(
+        "declare function local:sum($a as xs:integer, $acc as xs:integer) as xs:integer { if ($a = 0) then $acc else local:sum($a - 1, $acc + $a) }; local:sum(100000, 0)")
+        .execute(ctx);
+    ResultChecker.check(new Int64(5000050000L), res);
+  }
+
+  @Test
+  public void declareTailRecursiveFunctionWithLet() throws Exception {
+    Sequence res = new XQuery(
+        "declare function local:double($a as xs:integer, $acc as xs:integer) { let $b := $a - 1 let $c := $acc + 2 return if ($a = 0) then $acc else local:double($b, $c) }; local:double(100000, 0)")
+        .execute(ctx);
+    ResultChecker.check(new Int(200000), res);
+  }
+
+  @Test
+  public void declareMutuallyTailRecursiveFunctions() throws Exception {
+    Sequence res = new XQuery(
+        "declare function local:even($a as xs:integer) as xs:boolean { switch ($a) case 0 return true() default return local:odd($a - 1) }; declare function local:odd($a as xs:integer) as xs:boolean { if ($a = 0) then false() else local:even($a - 1) }; (local:even(100001), local:odd(100001))")
+        .execute(ctx);
+    ResultChecker.check(new ItemSequence(Bool.FALSE, Bool.TRUE), res);
+  }
+
+  @Test
+  public void declareMemoizedFunction() throws Exception {
+    Sequence res = new XQuery(
+        "declare %bit:memoize function local:fib($n as xs:integer) as xs:integer { if ($n < 2) then $n else local:fib($n - 1) + local:fib($n - 2) }; local:fib(80)")
+        .execute(ctx);
+    ResultChecker.check(new Int64(23416728348467685L), res);
+  }
+
+  @Test
+  public void deterministicFunctionIsMemoized() throws Exception {
+    FunctionDecl.AUTO_MEMOIZE = true;
+    try {
+      Sequence res = new XQuery(
+          "declare function local:paths($n as xs:integer) as xs:integer { if ($n < 2) then 1 else local:paths($n - 1) + local:paths($n - 2) }; local:paths(80)")
+          .execute(ctx);
+      ResultChecker.check(new Int64(37889062373143906L), res);
+    } finally {
+      FunctionDecl.AUTO_MEMOIZE = false;
+    }
+  }
+
+  @Test
+  public void memoizedFunctionDistinguishesArgumentTypes() throws Exception {
+    Sequence res = new XQuery(
+        "declare %bit:memoize function local:id($a as xs:decimal) as xs:decimal { $a }; (local:id(1) instance of xs:integer, local:id(1.0) instance of xs:integer, local:id(1) instance of xs:integer)")
+        .execute(ctx);
+    ResultChecker.check(new ItemSequence(Bool.TRUE, Bool.FALSE, Bool.TRUE), res);
+  }
+
+  @Test
+  public void memoizedFunctionInConcurrentContexts() throws Exception {
+    XQuery query = new XQuery(
+        "declare variable $v external; declare %bit:memoize function local:f($a as xs:integer) as xs:integer { $a + $v }; sum(for $i in 1 to 100 return local:f($i mod 10))");
+    QueryContext ctx1 = createContext();
+    ctx1.bind(new QNm("v"), new Int32(1));
+    QueryContext ctx2 = createContext();
+    ctx2.bind(new QNm("v"), new Int32(1000));
+    for (int i = 0; i < 3; i++) {
+      ResultChecker.dCheck(new Int32(550), query.execute(ctx1));
+      ResultChecker.dCheck(new Int32(100450), query.execute(ctx2));
+    }
+  }
+
+  @Test
+  public void constructingFunctionIsNotMemoized() throws Exception {
+    Sequence res = new XQuery(
+        "declare %bit:memoize function local:a($a as xs:integer) as xs:integer { $a }; declare function local:e($a as xs:integer) { <e>{local:a($a)}</e> }; local:e(1) is local:e(1)")
+        .execute(ctx);
+    ResultChecker.check(Bool.FALSE, res);
+  }
+
+  @Test
+  public void staticallyTypedArgumentsAndResults() throws Exception {
+    Sequence res = new XQuery(
+        "declare function local:inc($a as xs:decimal) as xs:decimal { $a + 1 }; declare function local:twice($a as xs:double) as xs:double { $a * 2 }; (local:inc(local:inc(1)), local:twice(1) instance of xs:double)")
+        .execute(ctx);
+    ResultChecker.check(new ItemSequence(new Int32(3), Bool.TRUE), res);
+  }
+
+  @Test
+  public void invalidArgumentOfTypedFunction() throws Exception {
+    try {
+      new XQuery("declare function local:inc($a as xs:integer) as xs:integer { $a + 1 }; local:inc('1')").execute(ctx);
+      fail("Invalid argument not detected");
+    } catch (QueryException e) {
+      assertEquals("Correct error code", ErrorCode.ERR_TYPE_INAPPROPRIATE_TYPE, e.getCode());
+    }
+  }
+
+  @Test
+  public void invalidResultOfTypedFunction() throws Exception {
+    try {
+      new XQuery("declare function local:inc($a as xs:integer) as xs:string { $a + 1 }; local:inc(1)").execute(ctx);
+      fail("Invalid result not detected");
+    } catch (QueryException e) {
+      assertEquals("Correct error code", ErrorCode.ERR_TYPE_INAPPROPRIATE_TYPE, e.getCode());
+    }
+  }
+
+  @Test
+  public void declaredTypeWithoutOccurrenceIndicator() throws Exception {
+    Sequence res = new XQuery(
+        "declare function local:f($x as xs:integer) as xs:integer { $x + 1 }; (local:f(1), local:f(<a>2</a>), function($x as item()) { count($x) }(<a/>))")
+        .execute(ctx);
+    ResultChecker.check(new ItemSequence(new Int32(2), new Int32(3), new Int32(1)), res);
+    res = new XQuery("declare function local:f($x as xs:integer?) { count($x) }; local:f(())").execute(ctx);
+    ResultChecker.dCheck(new Int32(0), res);
+  }
+
+  @Test
+  public void invalidCardinalityOfArguments() throws Exception {
+    checkInvalidCardinality("declare function local:f($x as xs:integer) { $x }; local:f((1, 2))");
+    checkInvalidCardinality("declare function local:f($x as xs:integer) { $x }; local:f(())");
+    checkInvalidCardinality("declare function local:f($x as item()) { count($x) }; local:f((1, 2))");
+    checkInvalidCardinality("let $f := function($x as item()) { count($x) } return $f((1, 2))");
+    checkInvalidCardinality("declare %bit:memoize function local:f($x as xs:integer) { $x }; local:f((1, 2))");
+  }
+
+  @Test
+  public void invalidCardinalityOfResult() throws Exception {
+    checkInvalidCardinality("declare function local:f($x as xs:integer) as xs:integer { ($x, $x) }; local:f(1)");
+    checkInvalidCardinality("declare function local:f($x as xs:integer) as item() { () }; local:f(1)");
+    checkInvalidCardinality(
+        "declare %bit:memoize function local:f($x as xs:integer) as xs:integer { ($x, $x) }; local:f(1)");
+    checkInvalidCardinality("let $f := function($x) as item() { ($x, $x) } return $f(1)");
+  }
+
+  private void checkInvalidCardinality(String query) {
+    try {
+      Sequence res = new XQuery(query).execute(ctx);
+      if (res != null) {
+        res.size();
+      }
+      fail("Invalid cardinality not detected: " + query);
+    } catch (QueryException e) {
+      assertEquals("Correct error code", ErrorCode.ERR_TYPE_INAPPROPRIATE_TYPE, e.getCode());
+    }
+  }
+
   @Test
   public void declareFunctionInIllegalNS() throws Exception {
     try {
@@ -0,0 +1,150 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.expr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.brackit.xquery.ResultChecker;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.IntNumeric;
+import org.brackit.xquery.compiler.optimizer.DefaultOptimizer;
+import org.brackit.xquery.xdm.Iter;
+import org.brackit.xquery.xdm.Sequence;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingPathExprTest extends XQueryBaseTest {
+
+  private static final String DOCUMENT = "<r xmlns:p='urn:p'><a id='1'><b id='2'><c id='3'/><x><b id='4'><c id='5'/></b></x></b>"
+      + "<a id='6'><b id='7'><c id='8'/><p:c id='9'/></b></a></a><b id='10'><c id='11'>text</c></b><c id='12'/></r>";
+
+  private Path file;
+
+  @Before
+  public void createFile() throws Exception {
+    file = Files.createTempFile("streaming", ".xml");
+    Files.writeString(file, DOCUMENT);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    DefaultOptimizer.STREAMING = false;
+    Files.deleteIfExists(file);
+  }
+
+  private Sequence query(String query, boolean streaming) {
+    DefaultOptimizer.STREAMING = streaming;
+    try {
+      return new XQuery(query).execute(ctx);
+    } finally {
+      DefaultOptimizer.STREAMING = false;
+    }
+  }
+
+  @Test
+  public void sameResultAsConventionalEvaluation() throws Exception {
+    String doc = "doc('" + file + "')";
+    String[] queries = { "for $c in " + doc + "//a//b/c return $c/@id/string()",
+        "for $c in " + doc + "//b//c return $c/@id/string()", "for $c in " + doc + "/r/b/* return $c/@id/string()",
+        "for $c in " + doc + "//b return count($c//c)", "for $c in " + doc + "//*:c return $c/@id/string()",
+        "for $c in " + doc + "//c return string($c)", "count(" + doc + "//a)" };
+    for (String query : queries) {
+      ResultChecker.dCheck(query(query, false), query(query, true));
+    }
+  }
+
+  @Test
+  public void sameResultForXMark() throws Exception {
+    String query = "for $i in doc('" + RESOURCES.resolve("xmark").resolve("auction.xml").toAbsolutePath()
+        + "')/site/regions//item return concat($i/@id, ':', $i/name, ':', count($i//text))";
+    ResultChecker.dCheck(query(query, false), query(query, true));
+  }
+
+  @Test
+  public void materializeMatchesOnly() throws Exception {
+    // streamed matches are fragment roots; only the nested b keeps its parent
+    String query = "let $b := doc('" + file + "')//b return count($b/..)";
+    ResultChecker.dCheck(new Int32(4), query(query, false));
+    ResultChecker.dCheck(new Int32(1), query(query, true));
+  }
+
+  @Test
+  public void fallBackForStoredDocuments() throws Exception {
+    storeDocument("stored.xml", DOCUMENT);
+    Sequence result = query("count(doc('stored.xml')//c)", true);
+    assertEquals(5, ((IntNumeric) result).intValue());
+  }
+
+  @Test
+  public void repeatedIterationReturnsSameNodes() throws Exception {
+    String query = "let $c := doc('" + file + "')//c return count($c | $c)";
+    ResultChecker.dCheck(new Int32(5), query(query, true));
+  }
+
+  @Test
+  public void stopProducerOfClosedIterator() throws Exception {
+    Iter it = largeDocument().iterate();
+    it.next();
+    it.close();
+    awaitProducers();
+  }
+
+  @Test
+  public void stopProducerOfDroppedIterator() throws Exception {
+    largeDocument().iterate().next();
+    awaitProducers();
+  }
+
+  private Sequence largeDocument() throws Exception {
+    Files.writeString(file, "<r>" + "<b/>".repeat(10 * StreamingPathExpr.BUFFER_SIZE) + "</r>");
+    DefaultOptimizer.STREAMING = true;
+    try {
+      return new XQuery("doc('" + file + "')//b").evaluate(ctx);
+    } finally {
+      DefaultOptimizer.STREAMING = false;
+    }
+  }
+
+  private static void awaitProducers() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      System.gc();
+      if (Thread.getAllStackTraces().keySet().stream().noneMatch(t -> t.getName().equals("streaming-path"))) {
+        return;
+      }
+      Thread.sleep(100);
+    }
+    fail("Producer thread is still running");
+  }
+}
@@ -47,6 +47,7 @@ import org.brackit.xquery.atomic.Str;
 import org.brackit.xquery.atomic.Time;
 import org.brackit.xquery.node.parser.DocumentParser;
 import org.brackit.xquery.sequence.ItemSequence;
+import org.brackit.xquery.util.Regex;
 import org.brackit.xquery.xdm.Sequence;
 import org.brackit.xquery.xdm.node.Node;
 import org.brackit.xquery.xdm.node.NodeCollection;
@@ -940,6 +941,32 @@ public class FnTest extends XQueryBaseTest {
     }
   }
 
+  @Test
+  public void fnReplaceLiteralPatternCompiledOnce() throws Exception {
+    Regex.clearCache();
+    Sequence result = new XQuery("string-join(for $i in 1 to 12 return fn:replace(string($i), '1', 'x'), ',')").execute(
+        ctx);
+    ResultChecker.dCheck(new Str("x,2,3,4,5,6,7,8,9,x0,xx,x2"), result);
+    assertEquals(1, Regex.cacheMisses());
+    assertEquals(0, Regex.cacheHits());
+  }
+
+  @Test
+  public void fnMatchesDynamicPatternCached() throws Exception {
+    Regex.clearCache();
+    Sequence result = new XQuery("count(for $i in 1 to 20 let $p := concat('^', '1') where fn:matches(string($i), $p) "
+                                     + "return $i)").execute(ctx);
+    ResultChecker.dCheck(new Int32(11), result);
+    assertEquals(1, Regex.cacheMisses());
+    assertEquals(19, Regex.cacheHits());
+  }
+
+  @Test
+  public void fnMatchesInvalidLiteralPatternNotEvaluated() throws Exception {
+    Sequence result = new XQuery("if (1 eq 2) then fn:matches('a', '(') else 1").execute(ctx);
+    ResultChecker.dCheck(new Int32(1), result);
+  }
+
   @Test
   public void fnYearsFromDuration() throws Exception {
     Sequence result = new XQuery("fn:years-from-duration(xs:yearMonthDuration('P20Y15M'))").execute(ctx);
@@ -0,0 +1,147 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.function.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.brackit.xquery.QueryException;
+import org.brackit.xquery.atomic.Dbl;
+import org.brackit.xquery.atomic.Dec;
+import org.brackit.xquery.atomic.Int;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.Int64;
+import org.brackit.xquery.function.json.JSONStreamParser.Event;
+import org.brackit.xquery.util.serialize.StringSerializer;
+import org.brackit.xquery.xdm.Item;
+import org.brackit.xquery.xdm.json.JsonProjection;
+import org.junit.Test;
+
+public class JSONStreamParserTest {
+
+  private static final String DOC = """
+      {"bindings": [
+        {"ircEvent": "PRIVMSG", "method": "newURI", "regex": "^http://.*", "n": -12, "x": 1.50},
+        {"ircEvent": "PRIVMSG", "method": "deleteURI", "regex": "^delete\\\\.*", "ok": true},
+        {"ircEvent": "PRIVMSG", "method": "randomURI", "regex": "^random.*", "v": null, "a": [[], {}]}
+      ]}""";
+
+  @Test
+  public void sameResultAsJSONParser() {
+    assertEquals(serialize(new JSONParser(DOC).parse()), serialize(new JSONStreamParser(DOC).parse()));
+  }
+
+  @Test
+  public void parseFromSmallChunks() {
+    // deliver input byte by byte to cross buffer boundaries everywhere
+    byte[] bytes = "[\"grüße 😀\", 1234567, 1.25e3, false]".getBytes(StandardCharsets.UTF_8);
+    InputStream in = new ByteArrayInputStream(bytes) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 1));
+      }
+    };
+    assertEquals("[\"grüße 😀\",1234567,1250,false]", serialize(new JSONStreamParser(in).parse()));
+  }
+
+  @Test
+  public void parseDirectByteBuffer() {
+    byte[] bytes = DOC.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes).flip();
+    assertEquals(serialize(new JSONParser(DOC).parse()), serialize(new JSONStreamParser(buffer).parse()));
+  }
+
+  @Test
+  public void events() {
+    JSONStreamParser parser = new JSONStreamParser("{\"a\": [1, \"b\"], \"c\": {}}");
+    assertEquals(Event.START_OBJECT, parser.next());
+    assertEquals(Event.FIELD_NAME, parser.next());
+    assertEquals("a", parser.string());
+    assertEquals(Event.START_ARRAY, parser.next());
+    assertEquals(Event.NUMBER, parser.next());
+    assertEquals(new Int32(1), parser.number());
+    assertEquals(Event.STRING, parser.next());
+    assertEquals("b", parser.string());
+    assertEquals(Event.END_ARRAY, parser.next());
+    assertEquals(Event.FIELD_NAME, parser.next());
+    assertEquals("c", parser.string());
+    assertEquals(Event.START_OBJECT, parser.next());
+    assertEquals(Event.END_OBJECT, parser.next());
+    assertEquals(Event.END_OBJECT, parser.next());
+    assertEquals(Event.END_DOCUMENT, parser.next());
+  }
+
+  @Test
+  public void numbers() {
+    assertEquals(Int32.class, new JSONStreamParser("-2147483648").parse().getClass());
+    assertEquals(Int64.class, new JSONStreamParser("2147483648").parse().getClass());
+    assertEquals(Int.class, new JSONStreamParser("12345678901234567890").parse().getClass());
+    assertEquals(new Dec("-0.0012"), new JSONStreamParser("-0.0012").parse());
+    assertEquals(Dec.class, new JSONStreamParser("1234567890.1234567890").parse().getClass());
+    assertEquals(new Dbl(-2.5E-3), new JSONStreamParser("-25e-4").parse());
+  }
+
+  @Test
+  public void projection() {
+    JsonProjection projection = new JsonProjection();
+    projection.add("bindings").add("method");
+    projection.add("missing").all();
+    assertEquals("{\"bindings\":[{\"method\":\"newURI\"},{\"method\":\"deleteURI\"},{\"method\":\"randomURI\"}]}",
+                 serialize(new JSONStreamParser(DOC).parse(projection)));
+    projection.add("bindings").all();
+    assertEquals(serialize(new JSONParser(DOC).parse()), serialize(new JSONStreamParser(DOC).parse(projection)));
+  }
+
+  @Test
+  public void illegalInput() {
+    for (String json : new String[] { "", "[1,]", "{\"a\" 1}", "[1 2]", "{} {}", "01", "-", "\"abc", "tru" }) {
+      try {
+        new JSONStreamParser(json).parse();
+        fail("Parsed illegal input: " + json);
+      } catch (QueryException e) {
+        assertEquals(JSONFun.ERR_PARSING_ERROR, e.getCode());
+      }
+    }
+  }
+
+  private static String serialize(Item item) {
+    StringWriter out = new StringWriter();
+    try (StringSerializer ser = new StringSerializer(new PrintWriter(out))) {
+      ser.serialize(item);
+    }
+    return out.toString();
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2022, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.jsonitem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.brackit.xquery.BrackitQueryContext;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.node.stream.ArrayStream;
+import org.brackit.xquery.xdm.json.JsonStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileJsonStoreTest extends XQueryBaseTest {
+
+  private static final String[] DOCUMENTS = { "{\"a\": 1, \"b\": [true, null, 2.5, \"x\"], \"c\": {\"d\": 12345678901}}",
+      "[1, {\"e\": \"\\u00e4\"}]" };
+
+  private Path dir;
+
+  @Before
+  public void createDir() throws Exception {
+    dir = Files.createTempDirectory("brackit");
+  }
+
+  @After
+  public void deleteDir() throws Exception {
+    FileJsonStore.deleteDirectory(dir);
+  }
+
+  @Test
+  public void reopenCollection() throws Exception {
+    JsonStore store = new FileJsonStore(dir);
+    store.create("json/a", DOCUMENTS[0]);
+    store.createFromJsonStrings("json/b", new ArrayStream<>(new Str[] { new Str(DOCUMENTS[1]) }));
+    String query = "(jn:doc('json/a'), jn:doc('json/b'), jn:doc('json/a')=>c=>d + 1)";
+    String expected = serialize(new BrackitQueryContext(store), query);
+
+    JsonStore reopened = new FileJsonStore(dir);
+    assertEquals(1, reopened.lookup("json/a").getDocumentCount());
+    assertEquals(expected, serialize(new BrackitQueryContext(reopened), query));
+    reopened.drop("json/a");
+    assertFalse(Files.exists(dir.resolve("json").resolve("a")));
+  }
+
+  private String serialize(BrackitQueryContext ctx, String query) {
+    PrintStream buf = createBuffer();
+    new XQuery(query).serialize(ctx, buf);
+    return buf.toString();
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2022, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.jsonitem;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.brackit.xquery.xdm.json.JsonCollection;
+import org.brackit.xquery.xdm.json.JsonProjection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SimpleJsonStoreTest {
+
+  private Path file;
+
+  @Before
+  public void createFile() throws Exception {
+    file = Files.createTempFile("brackit", ".json");
+    Files.writeString(file, "{\"a\": 1, \"b\": 2}");
+  }
+
+  @After
+  public void deleteFile() throws Exception {
+    Files.deleteIfExists(file);
+  }
+
+  @Test
+  public void evictProjectedCollections() throws Exception {
+    SimpleJsonStore store = new SimpleJsonStore();
+    String name = file.toUri().toString();
+    JsonCollection<?> first = store.lookup(name, projection("f0"));
+    assertSame(first, store.lookup(name, projection("f0")));
+    for (int i = 1; i <= SimpleJsonStore.PROJECTION_CACHE_SIZE; i++) {
+      store.lookup(name, projection("f" + i));
+    }
+    assertNotSame(first, store.lookup(name, projection("f0")));
+  }
+
+  private static JsonProjection projection(String field) {
+    JsonProjection projection = new JsonProjection();
+    projection.add(field);
+    return projection;
+  }
+}
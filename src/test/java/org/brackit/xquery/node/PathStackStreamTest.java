@@ -0,0 +1,112 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node;
+
+import static org.junit.Assert.assertEquals;
+
+import org.brackit.xquery.ResultChecker;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.compiler.optimizer.DefaultOptimizer;
+import org.brackit.xquery.util.path.Path;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.node.Node;
+import org.junit.After;
+import org.junit.Test;
+
+public class PathStackStreamTest extends XQueryBaseTest {
+
+  private static final QNm ID = new QNm("id");
+
+  private static final String DOCUMENT = "<r><a id='1'><b id='2'><c id='3'/><x><b id='4'><c id='5'/></b></x></b>"
+      + "<a id='6'><b id='7'><c id='8'/><c id='9'/></b></a></a><b id='10'><c id='11'/></b><c id='12'/></r>";
+
+  @After
+  public void tearDown() {
+    DefaultOptimizer.PATH_STACK = true;
+  }
+
+  @Test
+  public void matchPath() throws Exception {
+    Node<?> doc = storeDocument("test.xml", DOCUMENT).getDocument();
+    assertEquals("3 5 8 9", ids(doc, Path.parse("//a//b/c")));
+    assertEquals("3 8 9", ids(doc, Path.parse("//a/b/c")));
+    assertEquals("4 7", ids(doc, Path.parse("//a//*/b")));
+    assertEquals("3 5 8 9 11 12", ids(doc, Path.parse("/r//c")));
+    assertEquals("", ids(doc, Path.parse("/a//c")));
+  }
+
+  @Test
+  public void matchWitness() throws Exception {
+    Node<?> doc = storeDocument("test.xml", DOCUMENT).getDocument();
+    Stream<Node<?>[]> s = new PathStackStream<Node<?>[]>(doc, doc.getSubtree(), Path.parse("//a//b/c")) {
+      @Override
+      protected Node<?>[] match(Node<?>[] matchingNodes) {
+        return matchingNodes;
+      }
+    };
+    StringBuilder ids = new StringBuilder();
+    for (Node<?>[] match = s.next(); match != null; match = s.next()) {
+      for (Node<?> n : match) {
+        ids.append(n.getAttribute(ID).getValue()).append(' ');
+      }
+    }
+    s.close();
+    assertEquals("1 2 3 1 4 5 6 7 8 6 7 9 ", ids.toString());
+  }
+
+  @Test
+  public void sameResultAsStepwiseEvaluation() throws Exception {
+    storeDocument("test.xml", DOCUMENT);
+    String[] queries = { "doc('test.xml')//a//b/c/@id/string()", "doc('test.xml')//b//c/@id/string()",
+        "(doc('test.xml')//a, doc('test.xml')//b)//c/@id/string()", "doc('test.xml')//a//*/c/@id/string()",
+        "for $a in doc('test.xml')//a return count($a//b/c)" };
+    for (String query : queries) {
+      DefaultOptimizer.PATH_STACK = false;
+      Sequence expected = new XQuery(query).execute(ctx);
+      DefaultOptimizer.PATH_STACK = true;
+      Sequence result = new XQuery(query).execute(ctx);
+      ResultChecker.dCheck(expected, result);
+    }
+  }
+
+  private static String ids(Node<?> doc, Path<QNm> path) {
+    StringBuilder ids = new StringBuilder();
+    Stream<Node<?>> s = new PathStackStream.Default(doc, doc.getSubtree(), path);
+    try {
+      for (Node<?> n = s.next(); n != null; n = s.next()) {
+        ids.append((ids.length() > 0) ? " " : "").append(n.getAttribute(ID).getValue());
+      }
+    } finally {
+      s.close();
+    }
+    return ids.toString();
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.array;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintStream;
+
+import org.brackit.xquery.BrackitQueryContext;
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.node.SimpleNodeStore;
+import org.brackit.xquery.node.parser.DocumentParser;
+import org.brackit.xquery.xdm.Axis;
+import org.brackit.xquery.xdm.Kind;
+import org.brackit.xquery.xdm.OperationNotSupportedException;
+import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.node.Node;
+import org.brackit.xquery.xdm.node.NodeStore;
+import org.brackit.xquery.xdm.type.ElementType;
+import org.junit.Test;
+
+public class ArrayNodeTest extends XQueryBaseTest {
+
+  private static final String DOCUMENT = "<r xmlns:p='urn:p'><a id='1'>x<b id='2'>y<c id='3'/></b>z<!--c-->"
+      + "<?pi v?></a><p:b id='4'><c id='5'>w</c></p:b></r>";
+
+  @Override
+  protected NodeStore createStore() throws Exception {
+    return new SimpleNodeStore(new ArrayNodeFactory());
+  }
+
+  @Test
+  public void navigation() throws Exception {
+    ArrayNode doc = (ArrayNode) storeDocument("test.xml", DOCUMENT).getDocument();
+    assertEquals(Kind.DOCUMENT, doc.getKind());
+    ArrayNode r = doc.getFirstChild();
+    assertTrue(r.isRoot());
+    assertEquals("xyzw", r.getStrValue().stringValue());
+    ArrayNode a = r.getFirstChild();
+    assertEquals("1", a.getAttribute(new QNm("id")).getValue().stringValue());
+    assertEquals("xyz", a.getValue().stringValue());
+    ArrayNode b = a.getFirstChild().getNextSibling();
+    assertEquals(new QNm("b"), b.getName());
+    assertEquals(Kind.PROCESSING_INSTRUCTION, a.getLastChild().getKind());
+    assertEquals(Kind.COMMENT, a.getLastChild().getPreviousSibling().getKind());
+    ArrayNode pb = a.getNextSibling();
+    assertEquals("urn:p", pb.getName().getNamespaceURI());
+    assertNull(pb.getNextSibling());
+    assertEquals(a, pb.getPreviousSibling());
+    assertNull(a.getPreviousSibling());
+    ArrayNode id = b.getAttribute(new QNm("id"));
+    assertTrue(id.isAttributeOf(b));
+    assertFalse(id.isChildOf(b));
+    assertFalse(id.isDescendantOf(r));
+    assertNull(id.getNextSibling());
+    assertTrue(b.isDescendantOf(r));
+    assertTrue(b.isPrecedingOf(pb));
+    assertTrue(pb.isFollowingOf(b));
+    assertFalse(a.isPrecedingOf(b));
+    assertTrue(b.cmp(pb) < 0);
+    assertEquals(b, b.getFirstChild().getParent());
+    assertEquals("urn:p", b.resolvePrefix("p"));
+  }
+
+  @Test
+  public void previousSiblingAfterAttribute() throws Exception {
+    ArrayNode doc = (ArrayNode) storeDocument("test.xml", "<r x='0'><a x='1'/><b/><c><d x='2'/></c><e/></r>")
+        .getDocument();
+    ArrayNode r = doc.getFirstChild();
+    ArrayNode a = r.getFirstChild();
+    ArrayNode b = a.getNextSibling();
+    ArrayNode c = b.getNextSibling();
+    ArrayNode e = c.getNextSibling();
+    assertNull(a.getPreviousSibling());
+    assertEquals(a, b.getPreviousSibling());
+    assertEquals(b, c.getPreviousSibling());
+    assertEquals(c, e.getPreviousSibling());
+    assertNull(c.getFirstChild().getPreviousSibling());
+  }
+
+  @Test
+  public void performStep() throws Exception {
+    ArrayNode doc = (ArrayNode) storeDocument("test.xml", DOCUMENT).getDocument();
+    assertEquals("3 5", ids(doc.performStep(Axis.DESCENDANT, new ElementType(new QNm("c")))));
+    assertEquals("4", ids(doc.performStep(Axis.DESCENDANT, new ElementType(new QNm("urn:p", "q", "b")))));
+    ArrayNode r = doc.getFirstChild();
+    assertEquals("1", ids(r.performStep(Axis.CHILD, new ElementType(new QNm("a")))));
+  }
+
+  @Test(expected = OperationNotSupportedException.class)
+  public void readOnly() throws Exception {
+    ArrayNode doc = (ArrayNode) storeDocument("test.xml", DOCUMENT).getDocument();
+    doc.getFirstChild().append(Kind.ELEMENT, new QNm("x"), null);
+  }
+
+  @Test
+  public void sameResultAsD2Node() throws Exception {
+    String[] queries = { "doc('%s')", "doc('%s')//b", "doc('%s')//c/@id/string()", "doc('%s')/r/a/node()",
+        "for $n in doc('%s')//node() return (name($n), string($n))", "doc('%s')//c/../preceding::node()",
+        "doc('%s')//a/following-sibling::*", "<x>{doc('%s')//b}</x>" };
+    QueryContext d2ctx = new BrackitQueryContext(new SimpleNodeStore());
+    d2ctx.getNodeStore().create("test.xml", new DocumentParser(DOCUMENT));
+    storeDocument("test.xml", DOCUMENT);
+    for (String query : queries) {
+      PrintStream expected = createBuffer();
+      new XQuery(String.format(query, "test.xml")).serialize(d2ctx, expected);
+      PrintStream result = createBuffer();
+      new XQuery(String.format(query, "test.xml")).serialize(ctx, result);
+      assertEquals(query, expected.toString(), result.toString());
+    }
+  }
+
+  @Test
+  public void memorySize() throws Exception {
+    ArrayNode doc = (ArrayNode) storeDocument("test.xml", DOCUMENT).getDocument();
+    assertEquals(18, doc.doc.count);
+    assertTrue(doc.doc.getMemorySize() < 1024);
+  }
+
+  private static String ids(Stream<? extends Node<?>> s) {
+    StringBuilder ids = new StringBuilder();
+    try {
+      for (Node<?> n = s.next(); n != null; n = s.next()) {
+        ids.append((ids.length() > 0) ? " " : "").append(n.getAttribute(new QNm("id")).getValue());
+      }
+    } finally {
+      s.close();
+    }
+    return ids.toString();
+  }
+}
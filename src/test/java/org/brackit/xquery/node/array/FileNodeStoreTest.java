@@ -0,0 +1,126 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.array;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.brackit.xquery.BrackitQueryContext;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.node.ArrayCollection;
+import org.brackit.xquery.node.d2linked.D2NodeFactory;
+import org.brackit.xquery.node.parser.DocumentParser;
+import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.node.NodeCollection;
+import org.brackit.xquery.xdm.node.NodeStore;
+import org.junit.After;
+import org.junit.Test;
+
+public class FileNodeStoreTest extends XQueryBaseTest {
+
+  private static final String DOCUMENT = "<r xmlns:p='urn:p'><a id='1'>x<b id='2'>y</b><!--c--></a><p:b/></r>";
+
+  private Path dir;
+
+  @Override
+  protected NodeStore createStore() throws Exception {
+    dir = Files.createTempDirectory("brackit");
+    return new FileNodeStore(dir);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileNodeCollection.deleteDirectory(dir);
+  }
+
+  @Test
+  public void reopenCollection() throws Exception {
+    store.create("test.xml", new DocumentParser(DOCUMENT));
+    String expected = serialize("doc('test.xml')");
+
+    NodeStore reopened = new FileNodeStore(dir);
+    NodeCollection<?> coll = reopened.lookup("test.xml");
+    assertEquals(1, coll.getDocumentCount());
+    assertTrue(((ArrayNode) coll.getDocument()).doc.kinds.isDirect());
+    ctx = new BrackitQueryContext(reopened);
+    assertEquals(expected, serialize("doc('test.xml')"));
+    assertEquals("2", serialize("doc('test.xml')//b/@id/string()"));
+  }
+
+  @Test
+  public void addAndDrop() throws Exception {
+    store.makeDir("dir");
+    NodeCollection<?> coll = store.create("dir/coll");
+    coll.add(new DocumentParser(DOCUMENT));
+    coll.add(new DocumentParser("<s/>"));
+
+    NodeStore reopened = new FileNodeStore(dir);
+    assertEquals(2, reopened.lookup("dir/coll").getDocumentCount());
+    reopened.drop("dir/coll");
+    assertTrue(Files.isDirectory(dir.resolve("dir")));
+    assertFalse(Files.exists(dir.resolve("dir").resolve("coll")));
+  }
+
+  @Test
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void addForeignDocument() throws Exception {
+    ArrayCollection coll = (ArrayCollection) store.create("test.xml");
+    coll.add(new D2NodeFactory().build(new DocumentParser(DOCUMENT)));
+    String expected = serialize("doc('test.xml')");
+
+    NodeStore reopened = new FileNodeStore(dir);
+    assertEquals(1, reopened.lookup("test.xml").getDocumentCount());
+    ctx = new BrackitQueryContext(reopened);
+    assertEquals(expected, serialize("doc('test.xml')"));
+    assertEquals("2", serialize("doc('test.xml')//b/@id/string()"));
+  }
+
+  @Test(expected = DocumentException.class)
+  public void addElement() throws Exception {
+    FileNodeCollection coll = (FileNodeCollection) store.create("test.xml");
+    coll.add(new ArrayNodeFactory().element(new QNm("a")));
+  }
+
+  @Test(expected = DocumentException.class)
+  public void illegalName() throws Exception {
+    store.create("../outside");
+  }
+
+  private String serialize(String query) {
+    PrintStream buf = createBuffer();
+    new XQuery(query).serialize(ctx, buf);
+    return buf.toString();
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.d2linked;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.brackit.xquery.ResultChecker;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.node.d2linked.D2NodeIndex.PathClass;
+import org.brackit.xquery.util.path.Path;
+import org.brackit.xquery.xdm.Axis;
+import org.brackit.xquery.xdm.Kind;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.node.Node;
+import org.brackit.xquery.xdm.type.ElementType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class D2NodeIndexTest extends XQueryBaseTest {
+
+  private static final QNm ID = new QNm("id");
+
+  private static final String DOCUMENT = "<r><a id='1'><b id='2'><c id='3'/><x><b id='4'><c id='5'/></b></x></b>"
+      + "<a id='6'><b id='7'><c id='8'/></b></a></a><b id='9'><c id='10'/></b></r>";
+
+  private boolean index;
+
+  @Before
+  public void enableIndex() {
+    index = D2NodeIndex.INDEX;
+    D2NodeIndex.INDEX = true;
+  }
+
+  @After
+  public void restoreIndex() {
+    D2NodeIndex.INDEX = index;
+  }
+
+  @Test
+  public void lookupDescendants() throws Exception {
+    D2Node doc = (D2Node) storeDocument("test.xml", DOCUMENT).getDocument();
+    D2NodeIndex index = doc.getIndex();
+    assertNotNull(index);
+    assertEquals(4, index.getCount(new QNm("b")));
+    assertEquals("2 4 7 9", ids(doc.performStep(Axis.DESCENDANT, new ElementType(new QNm("b")))));
+
+    Node<?> a = doc.getFirstChild().getFirstChild();
+    assertEquals("2 4 7", ids(a.performStep(Axis.DESCENDANT, new ElementType(new QNm("b")))));
+    assertEquals("6", ids(a.performStep(Axis.DESCENDANT, new ElementType(new QNm("a")))));
+    assertEquals("1 6", ids(a.performStep(Axis.DESCENDANT_OR_SELF, new ElementType(new QNm("a")))));
+    assertEquals("", ids(a.performStep(Axis.DESCENDANT, new ElementType(new QNm("r")))));
+  }
+
+  @Test
+  public void pathSummary() throws Exception {
+    D2Node doc = (D2Node) storeDocument("test.xml", DOCUMENT).getDocument();
+    D2NodeIndex index = doc.getIndex();
+    StringBuilder paths = new StringBuilder();
+    for (PathClass pc : index.getPathClasses()) {
+      paths.append(pc).append('[').append(pc.getCount()).append(']');
+    }
+    assertEquals("/r[1]/r/a[1]/r/a/b[1]/r/a/b/c[1]/r/a/b/x[1]/r/a/b/x/b[1]/r/a/b/x/b/c[1]/r/a/a[1]/r/a/a/b[1]"
+        + "/r/a/a/b/c[1]/r/b[1]/r/b/c[1]", paths.toString());
+    assertEquals("3 5 8", ids(index.paths(Path.parse("//a//b/c"))));
+    assertEquals("3 5 8 10", ids(index.paths(Path.parse("//b/c"))));
+  }
+
+  @Test
+  public void dropIndexOnUpdate() throws Exception {
+    D2Node doc = (D2Node) storeDocument("test.xml", DOCUMENT).getDocument();
+    Node<?> r = doc.getFirstChild();
+    assertNotNull(doc.getIndex());
+    r.append(Kind.ELEMENT, new QNm("b"), null);
+    assertNull(doc.getIndex());
+    assertNull(r.performStep(Axis.DESCENDANT, new ElementType(new QNm("b"))));
+  }
+
+  @Test
+  public void sameResultWithoutIndex() throws Exception {
+    String[] queries = { "count(doc('%s')//b)", "doc('%s')//b/@id/string()", "doc('%s')//a//b/c/@id/string()",
+        "for $a in doc('%s')//a return $a//c/@id/string()", "doc('%s')//*/b/@id/string()" };
+    D2NodeIndex.INDEX = false;
+    storeDocument("plain.xml", DOCUMENT);
+    D2NodeIndex.INDEX = true;
+    storeDocument("indexed.xml", DOCUMENT);
+    for (String query : queries) {
+      Sequence expected = new XQuery(String.format(query, "plain.xml")).execute(ctx);
+      Sequence result = new XQuery(String.format(query, "indexed.xml")).execute(ctx);
+      ResultChecker.dCheck(expected, result);
+    }
+  }
+
+  private static String ids(Stream<? extends Node<?>> s) {
+    StringBuilder ids = new StringBuilder();
+    try {
+      for (Node<?> n = s.next(); n != null; n = s.next()) {
+        ids.append((ids.length() > 0) ? " " : "").append(n.getAttribute(ID).getValue());
+      }
+    } finally {
+      s.close();
+    }
+    return ids.toString();
+  }
+}
@@ -27,10 +27,18 @@
  */
 package org.brackit.xquery.node.d2linked;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.atomic.Una;
 import org.brackit.xquery.node.NodeTest;
 import org.brackit.xquery.node.parser.DocumentParser;
 import org.brackit.xquery.xdm.DocumentException;
+import org.brackit.xquery.xdm.Kind;
 import org.brackit.xquery.xdm.node.NodeCollection;
+import org.junit.Test;
 
 /**
  * @author Sebastian Baechle
@@ -41,4 +49,105 @@ public class D2NodeTest extends NodeTest<D2Node> {
   protected NodeCollection<D2Node> createDocument(DocumentParser documentParser) throws DocumentException {
     return new D2NodeFactory().build(documentParser).getCollection();
   }
+
+  @Test
+  public void documentOrderAfterUpdate() throws Exception {
+    D2Node doc = new D2NodeFactory().build(new DocumentParser("<r><a x='1'><b/></a><c/></r>"));
+    D2Node r = doc.getFirstChild();
+    D2Node a = r.getFirstChild();
+    D2Node b = a.getFirstChild();
+    D2Node c = a.getNextSibling();
+    D2Node x = a.getAttribute(new QNm("x"));
+    assertTrue(a.cmp(x) < 0);
+    assertTrue(x.cmp(b) < 0);
+    assertTrue(b.cmp(c) < 0);
+    assertTrue(b.isDescendantOf(r));
+    assertFalse(c.isDescendantOf(a));
+
+    // numbers are reassigned after structural updates
+    D2Node d = a.insertAfter(new D2NodeFactory().element(new QNm("d")));
+    D2Node e = d.append(Kind.TEXT, null, new Una("e"));
+    D2Node y = b.setAttribute(new QNm("y"), new Una("2"));
+    assertTrue(b.cmp(y) < 0);
+    assertTrue(y.cmp(d) < 0);
+    assertTrue(e.cmp(c) < 0);
+    assertTrue(e.isDescendantOf(d));
+    assertTrue(c.isFollowingOf(e));
+    assertTrue(a.isPrecedingOf(e));
+    b.delete();
+    assertTrue(x.cmp(d) < 0);
+    assertTrue(r.isAncestorOf(e));
+    assertFalse(d.isAncestorOf(x));
+  }
+
+  @Test
+  public void cachedValueAfterUpdate() throws Exception {
+    D2Node doc = new D2NodeFactory().build(new DocumentParser("<r><a>1<b>2</b>3</a><c>4</c></r>"));
+    D2Node r = doc.getFirstChild();
+    D2Node a = r.getFirstChild();
+    D2Node b = a.getFirstChild().getNextSibling();
+    D2Node c = a.getNextSibling();
+    assertEquals("1234", doc.getValue().stringValue());
+    assertEquals("123", a.getValue().stringValue());
+
+    b.getFirstChild().setValue(new Una("x"));
+    assertEquals("1x3", a.getValue().stringValue());
+    assertEquals("1x34", r.getValue().stringValue());
+    assertEquals("1x34", doc.getStrValue().stringValue());
+
+    a.insertAfter(new D2NodeFactory().element(new QNm("d"))).append(Kind.TEXT, null, new Una("y"));
+    assertEquals("1x3y4", r.getValue().stringValue());
+    b.delete();
+    assertEquals("13y4", r.getValue().stringValue());
+    c.setValue(new Una("z"));
+    assertEquals("13yz", doc.getValue().stringValue());
+    a.getFirstChild().replaceWith(Kind.TEXT, null, new Una("0"));
+    assertEquals("03yz", r.getValue().stringValue());
+  }
+
+  @Test
+  public void valueExceedingCacheLimit() throws Exception {
+    int limit = ParentD2Node.VALUE_CACHE_LIMIT;
+    ParentD2Node.VALUE_CACHE_LIMIT = 2;
+    try {
+      D2Node doc = new D2NodeFactory().build(new DocumentParser("<r><a>1<b>2</b>3</a><c>4</c></r>"));
+      D2Node r = doc.getFirstChild();
+      D2Node b = r.getFirstChild().getFirstChild().getNextSibling();
+      assertEquals("1234", r.getValue().stringValue());
+      assertEquals("1234", r.getValue().stringValue());
+      b.getFirstChild().setValue(new Una("x"));
+      assertEquals("1x34", r.getValue().stringValue());
+    } finally {
+      ParentD2Node.VALUE_CACHE_LIMIT = limit;
+    }
+  }
+
+  @Test
+  public void valueOfDeepDocument() throws Exception {
+    D2Node doc = new D2NodeFactory().build(new DocumentParser("<r/>"));
+    D2Node e = doc.getFirstChild();
+    for (int i = 0; i < 100000; i++) {
+      e = e.append(Kind.ELEMENT, new QNm("e"), null);
+    }
+    e.append(Kind.TEXT, null, new Una("deep"));
+    assertEquals("deep", doc.getValue().stringValue());
+  }
+
+  @Test
+  public void orderOfDeepDocument() throws Exception {
+    int depth = 100000;
+    String xml = "<r>" + "<e>".repeat(depth) + "deep" + "</e>".repeat(depth) + "<f/></r>";
+    D2Node doc = new D2NodeFactory().build(new DocumentParser(xml));
+    D2Node r = doc.getFirstChild();
+    D2Node e = r.getFirstChild();
+    D2Node f = e.getNextSibling();
+    D2Node text = e;
+    while (text.getKind() != Kind.TEXT) {
+      text = text.getFirstChild();
+    }
+    assertTrue(e.cmp(text) < 0);
+    assertTrue(text.cmp(f) < 0);
+    assertTrue(text.isDescendantOf(e));
+    assertTrue(f.isFollowingOf(text));
+  }
 }
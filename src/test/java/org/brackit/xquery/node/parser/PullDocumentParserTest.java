@@ -0,0 +1,262 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.node.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.brackit.xquery.atomic.Atomic;
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.xdm.DocumentException;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+public class PullDocumentParserTest {
+
+  private static final String DOCUMENT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<!-- head --><?pi  some data ?>\r\n"
+      + "<a xmlns=\"urn:a\" xmlns:p=\"urn:p\" id='1' p:x=\"a&amp;b&#10;c\td&quot;\">\r\n"
+      + "  text &lt;&gt; &#x263A; ä€😀\r\n"
+      + "  <p:b xml:lang=\"en\"/><![CDATA[<raw> & ]]>tail<!--c1--><!--c2-->\n"
+      + "  <c xmlns=\"\"><d>1</d>  <d>2</d></c>\n"
+      + "</a>\n<!-- after -->";
+
+  /**
+   * Logs all events except the name of end tags, which SAX reports
+   * differently.
+   */
+  private static final class Log extends DefaultHandler {
+    final StringBuilder log = new StringBuilder();
+
+    @Override
+    public void begin() {
+      log.append("begin\n");
+    }
+
+    @Override
+    public void end() {
+      log.append("end\n");
+    }
+
+    @Override
+    public void beginFragment() {
+      log.append("beginFragment\n");
+    }
+
+    @Override
+    public void endFragment() {
+      log.append("endFragment\n");
+    }
+
+    @Override
+    public void startDocument() {
+      log.append("startDocument\n");
+    }
+
+    @Override
+    public void endDocument() {
+      log.append("endDocument\n");
+    }
+
+    @Override
+    public void startMapping(String prefix, String uri) {
+      log.append("mapping ").append(prefix).append('=').append(uri).append('\n');
+    }
+
+    @Override
+    public void startElement(QNm name) {
+      log.append("start ").append(name(name)).append('\n');
+    }
+
+    @Override
+    public void endElement(QNm name) {
+      log.append("endElement\n");
+    }
+
+    @Override
+    public void attribute(QNm name, Atomic value) {
+      log.append("attribute ").append(name(name)).append('=').append(value.stringValue()).append('\n');
+    }
+
+    @Override
+    public void text(Atomic content) {
+      log.append("text [").append(content.stringValue()).append("] ").append(content.type()).append('\n');
+    }
+
+    @Override
+    public void comment(Atomic content) {
+      log.append("comment [").append(content.stringValue()).append("]\n");
+    }
+
+    @Override
+    public void processingInstruction(QNm target, Atomic content) {
+      log.append("pi ").append(name(target)).append(" [").append(content.stringValue()).append("]\n");
+    }
+
+    private static String name(QNm name) {
+      return "{" + name.getNamespaceURI() + "}" + name.getPrefix() + ":" + name.getLocalName();
+    }
+  }
+
+  private static String sax(byte[] document, boolean retainWhitespace) {
+    DocumentParser parser = new DocumentParser(new InputSource(new ByteArrayInputStream(document)));
+    parser.setRetainWhitespace(retainWhitespace);
+    Log log = new Log();
+    parser.parse(log);
+    return log.log.toString();
+  }
+
+  private static String pull(byte[] document, boolean retainWhitespace) {
+    PullDocumentParser parser = new PullDocumentParser(ByteBuffer.wrap(document));
+    parser.setRetainWhitespace(retainWhitespace);
+    Log log = new Log();
+    parser.parse(log);
+    return log.log.toString();
+  }
+
+  private static void check(byte[] document) {
+    assertTrue(PullDocumentParser.accepts(ByteBuffer.wrap(document)));
+    assertEquals(sax(document, false), pull(document, false));
+    assertEquals(sax(document, true), pull(document, true));
+  }
+
+  @Test
+  public void sameEventsAsSax() {
+    check(DOCUMENT.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void sameEventsAsSaxForXMark() throws Exception {
+    check(Files.readAllBytes(Paths.get("src", "test", "resources", "xmark", "auction.xml")));
+  }
+
+  @Test
+  public void shareNames() {
+    QNm[] names = new QNm[2];
+    new PullDocumentParser(ByteBuffer.wrap("<a><b/><b/></a>".getBytes(StandardCharsets.UTF_8))).parse(
+        new DefaultHandler() {
+          int count;
+
+          @Override
+          public void startElement(QNm name) {
+            if (name.getLocalName().equals("b")) {
+              names[count++] = name;
+            }
+          }
+        });
+    assertSame(names[0], names[1]);
+  }
+
+  @Test
+  public void rejectUnsupportedDocuments() {
+    assertFalse(accepts("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><a/>"));
+    assertFalse(accepts("<!-- c --><!DOCTYPE a [<!ENTITY e \"x\">]><a>&e;</a>"));
+    assertFalse(PullDocumentParser.accepts(ByteBuffer.wrap("<a/>".getBytes(StandardCharsets.UTF_16))));
+    assertFalse(accepts("<?xml version=\"1.1\"?><a>&#1;</a>"));
+    assertTrue(accepts("<?xml version='1.0' encoding='utf-8'?><a/>"));
+  }
+
+  @Test
+  public void fallBackToSax() {
+    for (String document : new String[] { "<!DOCTYPE a [<!ENTITY e \"x\">]><a>&e;</a>",
+        "<?xml version=\"1.1\"?><a>&#1;</a>" }) {
+      Log log = new Log();
+      new DocumentParser(document).parse(log);
+      assertTrue(log.log.toString().contains(":a\n"));
+    }
+  }
+
+  @Test
+  public void reportErrors() {
+    for (String document : new String[] { "<a>", "<a></b>", "<a/><b/>", "<p:a/>", "<a>&e;</a>", "<a x='1' x='2'/>",
+        "<a x=1/>", "text<a/>" }) {
+      try {
+        new PullDocumentParser(ByteBuffer.wrap(document.getBytes(StandardCharsets.UTF_8))).parse(new DefaultHandler());
+        fail("no error reported for " + document);
+      } catch (DocumentException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void rejectMalformedDocuments() {
+    for (String document : new String[] { "<a>]]></a>", "<a>x]]>y</a>", "<a>&#0;</a>", "<a>&#xD800;</a>",
+        "<a x='&#xFFFE;'/>", "<a>\u0001</a>", "<a x='\u0001'/>", "<a><!--\u0001--></a>", "<a 1x='1'/>", "<1a/>",
+        "<a:b:c xmlns:a='urn:a'/>", "<a><?xml x?></a>", "<a><?XmL x?></a>", "<?xml version='1.0'?> <?xml x?><a/>",
+        "<a xmlns:p=''/>", "<a xmlns:xml='urn:x'/>", "<a xmlns:p='http://www.w3.org/XML/1998/namespace'/>",
+        "<a xmlns:xmlns='urn:x'/>", "<a xmlns:p='urn:p' xmlns:p='urn:q'/>",
+        "<a xmlns:p='urn:p' xmlns:q='urn:p' p:x='1' q:x='2'/>", "<a><!-- a -- b --></a>", "<a><!-- a ---></a>" }) {
+      byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+      try {
+        sax(bytes, false);
+        fail("SAX reported no error for " + document);
+      } catch (DocumentException expected) {
+      }
+      try {
+        pull(bytes, false);
+        fail("no error reported for " + document);
+      } catch (DocumentException expected) {
+      }
+    }
+    // surrogate code point and overlong encoding of '/'
+    for (byte[] bytes : new byte[][] { { '<', 'a', '>', (byte) 0xED, (byte) 0xA0, (byte) 0x80, '<', '/', 'a', '>' },
+        { '<', 'a', (byte) 0xC0, (byte) 0xAF, '>' } }) {
+      try {
+        pull(bytes, false);
+        fail("no error reported for " + Arrays.toString(bytes));
+      } catch (DocumentException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void namespaceDeclarations() {
+    check(("<a xmlns:xml='http://www.w3.org/XML/1998/namespace' xmlns='urn:a'><b xmlns='' xml:lang='en'/>"
+        + "<p:c xmlns:p='urn:p' p:x='1' x='2'/></a>").getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void namesAndCharacters() {
+    check(("<a\u00e9 _x='1' y.-1='2'><b\u00b7c>&#x10FFFF;&#9;\u00a0]]</b\u00b7c><?p-i?><!-- - --></a\u00e9>")
+        .getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static boolean accepts(String document) {
+    return PullDocumentParser.accepts(ByteBuffer.wrap(document.getBytes(StandardCharsets.UTF_8)));
+  }
+}
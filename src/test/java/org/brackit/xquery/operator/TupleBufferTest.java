@@ -0,0 +1,115 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.operator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.brackit.xquery.ResultChecker;
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.XQueryBaseTest;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.Int64;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.xdm.Sequence;
+import org.junit.Test;
+
+public class TupleBufferTest extends XQueryBaseTest {
+
+  @Test
+  public void deliverAllInOrder() throws Exception {
+    int[] values = new int[3 * Cursor.BATCH_SIZE + 7];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = i;
+    }
+    TupleBuffer buffer = new TupleBuffer(new IntegerSource(values));
+    buffer.open(ctx);
+    for (int i = 0; i < values.length; i++) {
+      assertEquals(new Int32(i), buffer.next(ctx));
+    }
+    assertNull(buffer.next(ctx));
+    assertNull(buffer.next(ctx));
+    buffer.close(ctx);
+  }
+
+  @Test
+  public void reopen() throws Exception {
+    TupleBuffer buffer = new TupleBuffer(new IntegerSource(1, 2, 3));
+    buffer.open(ctx);
+    assertEquals(new Int32(1), buffer.next(ctx));
+    buffer.open(ctx);
+    assertEquals(new Int32(1), buffer.next(ctx));
+    assertEquals(new Int32(2), buffer.next(ctx));
+    assertEquals(new Int32(3), buffer.next(ctx));
+    assertNull(buffer.next(ctx));
+    buffer.close(ctx);
+  }
+
+  @Test
+  public void bufferStartBatch() throws Exception {
+    Tuple[] in = { new Int32(1), new Int32(2), new Int32(3) };
+    Cursor c = new Start().create(ctx, in, in.length);
+    c.open(ctx);
+    Tuple[] buf = new Tuple[2];
+    assertEquals(2, c.next(ctx, buf));
+    assertEquals(new Int32(2), buf[1]);
+    assertEquals(1, c.next(ctx, buf));
+    assertEquals(new Int32(3), buf[0]);
+    assertEquals(0, c.next(ctx, buf));
+    c.close(ctx);
+  }
+
+  @Test
+  public void scanFilterProject() throws Exception {
+    Sequence result = new XQuery("sum(for $i in 1 to 10000 let $j := $i * 2 where $i mod 3 eq 0 return $j)").execute(
+        ctx);
+    ResultChecker.dCheck(new Int32(33336666), result);
+  }
+
+  @Test
+  public void liftedFilter() throws Exception {
+    Sequence result = new XQuery(
+        "string-join(for $i in 1 to 3 return concat($i, ':', count(for $j in 1 to 2000 where $j mod $i eq 0 "
+            + "return $j)), ' ')").execute(ctx);
+    ResultChecker.dCheck(new Str("1:2000 2:1000 3:666"), result);
+  }
+
+  @Test
+  public void forBindBatches() throws Exception {
+    Sequence result = new XQuery("sum(for $i in 1 to 3000 for $j at $p in (10, 20, 30) return $p * $j)").execute(ctx);
+    ResultChecker.dCheck(new Int32(3000 * 140), result);
+  }
+
+  @Test
+  public void tableJoinBatches() throws Exception {
+    Sequence result = new XQuery(
+        "count(for $a in 1 to 2000 for $b in 1 to 2000 where $a mod 1000 eq $b mod 1000 return $b)").execute(ctx);
+    ResultChecker.dCheck(new Int64(4000), result);
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.forkjoin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.brackit.xquery.atomic.QNm;
+import org.brackit.xquery.block.FJControl;
+import org.brackit.xquery.node.SimpleNodeStore;
+import org.brackit.xquery.node.parser.DocumentParser;
+import org.brackit.xquery.node.parser.SubtreeParser;
+import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.node.Node;
+import org.brackit.xquery.xdm.node.NodeCollection;
+import org.junit.Test;
+
+public class ParallelStreamTest {
+
+  private static final QNm ID = new QNm("id");
+
+  private static class Counter implements Stream<Integer> {
+    final int count;
+    int next;
+    boolean closed;
+
+    Counter(int count) {
+      this.count = count;
+    }
+
+    @Override
+    public Integer next() {
+      return (next < count) ? next++ : null;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  @Test
+  public void keepInputOrder() {
+    Counter in = new Counter(1000);
+    int window = 8;
+    try (Stream<Integer> s = new ParallelStream<>(FJControl.POOL, window, in, i -> {
+      if (ThreadLocalRandom.current().nextInt(10) == 0) {
+        Thread.yield();
+      }
+      return i * 2;
+    })) {
+      for (int i = 0; i < 1000; i++) {
+        assertEquals(Integer.valueOf(i * 2), s.next());
+        // bounded number of elements in flight
+        assertTrue(in.next - i - 1 <= window);
+      }
+      assertNull(s.next());
+    }
+    assertTrue(in.closed);
+  }
+
+  @Test
+  public void mapInline() {
+    Counter in = new Counter(10);
+    try (Stream<Integer> s = new ParallelStream<>(null, 4, in, i -> i + 1)) {
+      for (int i = 0; i < 10; i++) {
+        assertEquals(Integer.valueOf(i + 1), s.next());
+        assertEquals(i + 1, in.next);
+      }
+      assertNull(s.next());
+    }
+  }
+
+  @Test
+  public void reportError() {
+    Counter in = new Counter(100);
+    Stream<Integer> s = new ParallelStream<>(FJControl.POOL, 4, in, i -> {
+      if (i == 10) {
+        throw new IllegalStateException();
+      }
+      return i;
+    });
+    try {
+      for (int i = 0; i < 100; i++) {
+        s.next();
+      }
+      fail("error not reported");
+    } catch (IllegalStateException expected) {
+    }
+    assertTrue(in.closed);
+    assertNull(s.next());
+  }
+
+  @Test
+  public void createCollection() {
+    List<String> docs = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      docs.add("<doc id=\"" + i + "\"><a>" + i + "</a></doc>");
+    }
+    Stream<SubtreeParser> parsers = new Stream<>() {
+      int next;
+
+      @Override
+      public SubtreeParser next() {
+        return (next < docs.size()) ? new DocumentParser(docs.get(next++)) : null;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    NodeCollection<?> coll = new SimpleNodeStore().create("docs", parsers);
+    assertEquals(docs.size(), coll.getDocumentCount());
+    try (Stream<? extends Node<?>> it = coll.getDocuments()) {
+      for (int i = 0; i < docs.size(); i++) {
+        Node<?> doc = it.next();
+        assertEquals(Integer.toString(i), doc.getFirstChild().getAttribute(ID).getValue().stringValue());
+      }
+      assertNull(it.next());
+    }
+  }
+}
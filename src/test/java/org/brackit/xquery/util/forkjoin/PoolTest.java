@@ -0,0 +1,117 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.forkjoin;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class PoolTest {
+
+  private static class Sum extends Task {
+    final int from;
+    final int to;
+    long sum;
+
+    Sum(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public void compute() {
+      if (to - from <= 100) {
+        for (int i = from; i < to; i++) {
+          sum += i;
+        }
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      Sum task1 = new Sum(from, mid);
+      Sum task2 = new Sum(mid, to);
+      task2.fork();
+      task1.compute();
+      task2.join();
+      sum = task1.sum + task2.sum;
+    }
+  }
+
+  private static class Fail extends Task {
+    @Override
+    public void compute() {
+      throw new IllegalStateException();
+    }
+  }
+
+  private void check(Pool pool) {
+    try {
+      for (int i = 0; i < 10; i++) {
+        Sum sum = new Sum(0, 100000);
+        pool.submit(sum).join();
+        assertEquals(100000L * 99999 / 2, sum.sum);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void workStealingPool() {
+    check(new WorkStealingPool(4, new WorkerFactory()));
+  }
+
+  @Test
+  public void forkJoinPoolAdapter() {
+    check(new ForkJoinPoolAdapter(4));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void error() {
+    Pool pool = new ForkJoinPoolAdapter(2);
+    try {
+      pool.submit(new Fail()).join();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void forkInForeignPool() throws Throwable {
+    ForkJoinPool foreign = new ForkJoinPool(1);
+    try {
+      foreign.submit(() -> new Sum(0, 10).fork()).get();
+    } catch (ExecutionException e) {
+      throw e.getCause();
+    } finally {
+      foreign.shutdown();
+    }
+  }
+}
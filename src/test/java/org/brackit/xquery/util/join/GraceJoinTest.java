@@ -0,0 +1,110 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.join;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Dbl;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.atomic.Una;
+import org.brackit.xquery.block.FJControl;
+import org.brackit.xquery.operator.TupleImpl;
+import org.brackit.xquery.sequence.ItemSequence;
+import org.brackit.xquery.util.Cmp;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.Stream;
+import org.junit.Test;
+
+public class GraceJoinTest {
+
+  @Test
+  public void inMemory() {
+    GraceJoin join = new GraceJoin(Cmp.eq, false, false, false, 1, 1L << 20);
+    join.add(new Int32(1), new Sequence[] { new Str("a") });
+    PartitionedJoinTable table = join.build(FJControl.POOL);
+    assertTrue(!join.spilled());
+    FastList<Sequence[]> matches = new FastList<Sequence[]>();
+    table.probe(new Int32(1), matches);
+    assertEquals(1, matches.getSize());
+  }
+
+  @Test
+  public void spilledJoinKeepsProbeOrder() {
+    GraceJoin join = new GraceJoin(Cmp.eq, false, false, true, 1, 1);
+    for (int i = 0; i < 1000; i++) {
+      join.add(new Int32(i % 100), new Sequence[] { new Int32(i) });
+    }
+    assertNull(join.build(FJControl.POOL));
+    assertTrue(join.spilled());
+    for (int i = 199; i >= 0; i--) {
+      join.probe(new Int32(i), new TupleImpl(new Int32(i)));
+    }
+    Stream<Tuple> s = join.join();
+    Tuple t;
+    for (int i = 199; i >= 100; i--) {
+      // left join pads unmatched probes
+      t = s.next();
+      assertEquals(new Int32(i), t.get(0));
+      assertNull(t.get(1));
+    }
+    for (int i = 99; i >= 0; i--) {
+      for (int j = 0; j < 10; j++) {
+        t = s.next();
+        assertEquals(new Int32(i), t.get(0));
+        assertEquals(new Int32(i + j * 100), t.get(1));
+      }
+    }
+    assertNull(s.next());
+    s.close();
+  }
+
+  @Test
+  public void spilledGeneralComparison() {
+    GraceJoin join = new GraceJoin(Cmp.eq, true, false, false, 1, 1);
+    Str a = new Str("a");
+    Str b = new Str("b");
+    Str c = new Str("c");
+    join.add(new ItemSequence(new Una("1"), new Str("x")), new Sequence[] { a });
+    join.add(new Dbl(1), new Sequence[] { b });
+    join.add(new Str("x"), new Sequence[] { c });
+    join.build(FJControl.POOL);
+    Tuple probe = new TupleImpl(new Int32(0));
+    // the probe matches the first build tuple in two ways
+    join.probe(new ItemSequence(new Int32(1), new Str("x")), probe);
+    Stream<Tuple> s = join.join();
+    assertEquals(a, s.next().get(1));
+    assertEquals(b, s.next().get(1));
+    assertEquals(c, s.next().get(1));
+    assertNull(s.next());
+    s.close();
+  }
+}
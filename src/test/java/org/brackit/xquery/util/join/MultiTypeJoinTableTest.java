@@ -0,0 +1,100 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.join;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+
+import org.brackit.xquery.atomic.Dbl;
+import org.brackit.xquery.atomic.Int;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.Int64;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.atomic.Una;
+import org.brackit.xquery.sequence.ItemSequence;
+import org.brackit.xquery.util.Cmp;
+import org.brackit.xquery.xdm.Sequence;
+import org.junit.Test;
+
+public class MultiTypeJoinTableTest {
+
+  @Test
+  public void integerKeys() {
+    MultiTypeJoinTable table = new MultiTypeJoinTable(Cmp.eq, false, false);
+    Sequence[][] bindings = new Sequence[10000][];
+    for (int i = 0; i < bindings.length; i++) {
+      bindings[i] = new Sequence[] { new Int32(i) };
+      table.add(new Int32(i % 1000), bindings[i], i + 1);
+    }
+    table.add(new Int(new BigDecimal("123456789012345678901234567890")), bindings[0], bindings.length + 1);
+
+    FastList<Sequence[]> matches = new FastList<Sequence[]>();
+    for (int k = 0; k < 1000; k++) {
+      matches.clear();
+      table.probe(new Int64(k), matches);
+      assertEquals(10, matches.getSize());
+      for (int j = 0; j < 10; j++) {
+        assertSame(bindings[k + j * 1000], matches.get(j));
+      }
+    }
+    assertEquals(0, table.probe(new Int32(1000)).getSize());
+    assertEquals(1, table.probe(new Int(new BigDecimal("123456789012345678901234567890"))).getSize());
+    // promotion of all integer keys to xs:double
+    assertEquals(10, table.probe(new Dbl(42)).getSize());
+    assertEquals(10, table.probe(new Int32(42)).getSize());
+  }
+
+  @Test
+  public void stringKeys() {
+    MultiTypeJoinTable table = new MultiTypeJoinTable(Cmp.eq, false, false);
+    for (int i = 0; i < 5000; i++) {
+      table.add(new Str("k" + (i % 100)), new Sequence[] { new Int32(i) }, i + 1);
+    }
+    FastList<Sequence[]> matches = new FastList<Sequence[]>();
+    table.probe(new Una("k7"), matches);
+    assertEquals(50, matches.getSize());
+    assertEquals(new Int32(7), matches.get(0)[0]);
+    assertEquals(new Int32(4907), matches.get(49)[0]);
+    assertEquals(0, table.probe(new Str("k100")).getSize());
+  }
+
+  @Test
+  public void generalComparison() {
+    MultiTypeJoinTable table = new MultiTypeJoinTable(Cmp.eq, true, false);
+    Sequence[] b1 = new Sequence[] { new Int32(1) };
+    Sequence[] b2 = new Sequence[] { new Int32(2) };
+    table.add(new ItemSequence(new Int32(1), new Int32(2), new Int32(1)), b1, 1);
+    table.add(new ItemSequence(new Int32(2), new Int32(3)), b2, 2);
+    FastList<Sequence[]> matches = table.probe(new ItemSequence(new Int32(3), new Int32(2), new Int32(1)));
+    assertEquals(2, matches.getSize());
+    assertSame(b1, matches.get(0));
+    assertSame(b2, matches.get(1));
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.join;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.brackit.xquery.atomic.Dbl;
+import org.brackit.xquery.atomic.Dec;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.atomic.Una;
+import org.brackit.xquery.block.FJControl;
+import org.brackit.xquery.util.Cmp;
+import org.brackit.xquery.xdm.Sequence;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PartitionedJoinTableTest {
+
+  private int partitionSize;
+
+  @Before
+  public void setUp() {
+    partitionSize = PartitionedJoinTable.PARTITION_SIZE;
+    PartitionedJoinTable.PARTITION_SIZE = 64;
+  }
+
+  @After
+  public void tearDown() {
+    PartitionedJoinTable.PARTITION_SIZE = partitionSize;
+  }
+
+  @Test
+  public void partitionedBuildAndProbe() {
+    PartitionedJoinTable table = new PartitionedJoinTable(Cmp.eq, true, false);
+    Sequence[][] bindings = new Sequence[20000][];
+    for (int i = 0; i < bindings.length; i++) {
+      bindings[i] = new Sequence[] { new Int32(i) };
+      table.add(new Int32(i % 5000), bindings[i]);
+    }
+    table.build(FJControl.POOL);
+
+    FastList<Sequence[]> matches = new FastList<Sequence[]>();
+    for (int k = 0; k < 5000; k += 7) {
+      matches.clear();
+      table.probe(new Int32(k), matches);
+      assertEquals(4, matches.getSize());
+      for (int j = 0; j < 4; j++) {
+        assertSame(bindings[k + j * 5000], matches.get(j));
+      }
+    }
+
+    // keys of other types are answered by the complete table
+    matches.clear();
+    table.probe(new Dbl(42), matches);
+    assertEquals(4, matches.getSize());
+    matches.clear();
+    table.probe(new Una("42"), matches);
+    assertEquals(4, matches.getSize());
+  }
+
+  @Test
+  public void batchProbe() {
+    PartitionedJoinTable table = new PartitionedJoinTable(Cmp.eq, true, false);
+    for (int i = 0; i < 1000; i++) {
+      table.add(new Int32(i), new Sequence[] { new Int32(i) });
+    }
+    table.build(FJControl.POOL);
+
+    Sequence[] keys = new Sequence[] { new Int32(999), null, new Int32(5000), new Dbl(3), new Int32(0) };
+    int[] ranges = new int[2 * keys.length];
+    FastList<Sequence[]> matches = new FastList<Sequence[]>();
+    table.probe(keys, keys.length, matches, ranges);
+    int[] expected = { 999, -1, -1, 3, 0 };
+    for (int i = 0; i < keys.length; i++) {
+      if (expected[i] < 0) {
+        assertEquals(ranges[2 * i], ranges[2 * i + 1]);
+      } else {
+        assertEquals(ranges[2 * i] + 1, ranges[2 * i + 1]);
+        assertEquals(new Int32(expected[i]), matches.get(ranges[2 * i])[0]);
+      }
+    }
+  }
+
+  @Test
+  public void concurrentProbesWithPromotions() throws Exception {
+    for (int n : new int[] { 100, 1000 }) {
+      PartitionedJoinTable table = new PartitionedJoinTable(Cmp.eq, true, false);
+      for (int i = 0; i < n; i++) {
+        table.add(new Int32(i % 50), new Sequence[] { new Int32(i) });
+        table.add(new Una(Integer.toString(i % 50)), new Sequence[] { new Int32(i) });
+      }
+      table.build(FJControl.POOL);
+
+      Sequence[] keys = { new Int32(7), new Dbl(7), new Una("7"), new Str("7"), new Dec("7") };
+      int[] expected = { 2 * n / 50, 2 * n / 50, 2 * n / 50, n / 50, 2 * n / 50 };
+      Thread[] threads = new Thread[4];
+      Throwable[] errors = new Throwable[threads.length];
+      for (int t = 0; t < threads.length; t++) {
+        final int id = t;
+        threads[t] = new Thread(() -> {
+          try {
+            FastList<Sequence[]> matches = new FastList<Sequence[]>();
+            for (int r = 0; r < 200; r++) {
+              int k = (id + r) % keys.length;
+              matches.clear();
+              table.probe(keys[k], matches);
+              assertEquals(expected[k], matches.getSize());
+            }
+          } catch (Throwable e) {
+            errors[id] = e;
+          }
+        });
+        threads[t].start();
+      }
+      for (int t = 0; t < threads.length; t++) {
+        threads[t].join();
+        if (errors[t] != null) {
+          throw new AssertionError(errors[t]);
+        }
+      }
+    }
+  }
+}
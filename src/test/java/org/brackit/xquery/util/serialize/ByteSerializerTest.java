@@ -0,0 +1,132 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.serialize;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import org.brackit.xquery.BrackitQueryContext;
+import org.brackit.xquery.QueryContext;
+import org.brackit.xquery.XQuery;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.node.d2linked.D2NodeFactory;
+import org.brackit.xquery.node.parser.DocumentParser;
+import org.brackit.xquery.xdm.Sequence;
+import org.junit.Test;
+
+public class ByteSerializerTest {
+
+  @Test
+  public void sameLayoutAsStringSerializer() throws Exception {
+    Sequence doc = new D2NodeFactory().build(new DocumentParser(Paths.get("src", "test", "resources", "xmark",
+                                                                          "auction.xml").toFile()));
+    assertEquals(string(doc, false), bytes(doc, false));
+    assertEquals(string(doc, true), bytes(doc, true));
+  }
+
+  @Test
+  public void sameJsonAsStringSerializer() throws Exception {
+    Sequence json = query("{\"a\": [1, 2.5, true, null, \"x\"], \"b\": {\"c\": \"d\"}}");
+    assertEquals(string(json, false), bytes(json, false));
+  }
+
+  @Test
+  public void atomicsAndNodes() throws Exception {
+    Sequence s = query("(1, 'a', <a><b/>t<!--c--></a>, 2)");
+    assertEquals(string(s, false), bytes(s, false));
+    assertEquals(string(s, true), bytes(s, true));
+  }
+
+  @Test
+  public void markupAsStringSerializer() throws Exception {
+    Sequence s = query("<a b='&quot;&lt;&amp;&#10;'>1 &lt; 2 &amp;&amp; 3 &gt; 2</a>");
+    assertEquals(string(s, false), bytes(s, false));
+    assertEquals(string(s, true), bytes(s, true));
+  }
+
+  @Test
+  public void atomicsAsStringSerializer() throws Exception {
+    Sequence s = query("('a<b&amp;c', xs:untypedAtomic('>'), 1.5e0, 2.50, xs:float('NaN'), true(), "
+        + "QName('urn:x', 'p:n'), xs:date('2002-10-10+14:00'), xs:anyURI('a?b&amp;c'), <a>x&lt;y</a>, 'z')");
+    assertEquals("a<b&c", bytes(query("'a<b&amp;c'"), false));
+    assertEquals(string(s, false), bytes(s, false));
+    assertEquals(string(s, true), bytes(s, true));
+  }
+
+  @Test
+  public void jsonStringsAsStringSerializer() throws Exception {
+    Sequence s = query("{\"k\": concat('a\"b\\', codepoints-to-string((10, 9)))}");
+    assertEquals(string(s, false), bytes(s, false));
+    s = query("[<a b='c'>x&amp;y</a>, xs:anyURI('u'), xs:untypedAtomic('v')]");
+    assertEquals(string(s, false), bytes(s, false));
+  }
+
+  @Test
+  public void encodeUtf8() throws Exception {
+    String s = "\u00e4\u20ac" + new String(Character.toChars(0x1f600));
+    assertEquals(s, bytes(new Str(s), false));
+  }
+
+  @Test
+  public void writeToChannel() throws Exception {
+    Sequence s = query("for $i in 1 to 20000 return <i>{$i}</i>");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ByteSerializer serializer = new ByteSerializer(Channels.newChannel(out))) {
+      serializer.serialize(s);
+    }
+    assertEquals(string(s, false), out.toString(StandardCharsets.UTF_8));
+  }
+
+  private static Sequence query(String query) {
+    QueryContext ctx = new BrackitQueryContext();
+    return new XQuery(query).execute(ctx);
+  }
+
+  private static String string(Sequence s, boolean format) {
+    StringWriter out = new StringWriter();
+    try (StringSerializer serializer = new StringSerializer(new PrintWriter(out))) {
+      serializer.setFormat(format);
+      serializer.serialize(s);
+    }
+    return out.toString();
+  }
+
+  private static String bytes(Sequence s, boolean format) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ByteSerializer serializer = new ByteSerializer(out).setFormat(format).setStreaming(true)) {
+      serializer.serialize(s);
+    }
+    return out.toString(StandardCharsets.UTF_8);
+  }
+}
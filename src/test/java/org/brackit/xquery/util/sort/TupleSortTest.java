@@ -0,0 +1,110 @@
+/*
+ * [New BSD License]
+ * Copyright (c) 2011-2012, Brackit Project Team <info@brackit.org>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Brackit Project Team nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.brackit.xquery.util.sort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Comparator;
+import java.util.Random;
+
+import org.brackit.xquery.Tuple;
+import org.brackit.xquery.atomic.Int32;
+import org.brackit.xquery.atomic.Str;
+import org.brackit.xquery.node.d2linked.D2NodeFactory;
+import org.brackit.xquery.node.parser.DocumentParser;
+import org.brackit.xquery.operator.TupleImpl;
+import org.brackit.xquery.sequence.ItemSequence;
+import org.brackit.xquery.xdm.Sequence;
+import org.brackit.xquery.xdm.Stream;
+import org.brackit.xquery.xdm.node.Node;
+import org.junit.Test;
+
+public class TupleSortTest {
+
+  private static final Comparator<Tuple> BY_KEY =
+      (t1, t2) -> Integer.compare(((Int32) t1.get(0)).intValue(), ((Int32) t2.get(0)).intValue());
+
+  @Test
+  public void mainMemorySort() {
+    check(0, 1000);
+  }
+
+  @Test
+  public void externalSort() {
+    // tiny buffer forces many runs and several merge phases
+    check(4096, 20000);
+  }
+
+  @Test
+  public void externalSortRetainsNodes() {
+    Node<?> doc = new D2NodeFactory().build(new DocumentParser("<a><b/></a>"));
+    TupleSort sort = new TupleSort(BY_KEY, 512);
+    for (int i = 100; i > 0; i--) {
+      sort.add(new TupleImpl(new Sequence[] { new Int32(i), doc, new ItemSequence(new Str("x" + i), new Int32(i)) }));
+    }
+    sort.sort();
+    Stream<Tuple> s = sort.stream();
+    for (int i = 1; i <= 100; i++) {
+      Tuple t = s.next();
+      assertEquals(i, ((Int32) t.get(0)).intValue());
+      assertSame(doc, t.get(1));
+      assertEquals(new Str("x" + i), t.get(2).get(Int32.ONE));
+    }
+    assertNull(s.next());
+    s.close();
+  }
+
+  private void check(long maxSize, int n) {
+    Random rnd = new Random(4711);
+    TupleSort sort = new TupleSort(BY_KEY, maxSize);
+    for (int i = 0; i < n; i++) {
+      sort.add(new TupleImpl(new Sequence[] { new Int32(rnd.nextInt(100)), new Int32(i), null }));
+    }
+    sort.sort();
+    Stream<Tuple> s = sort.stream();
+    Tuple prev = null;
+    int cnt = 0;
+    for (Tuple t = s.next(); t != null; t = s.next()) {
+      if (prev != null) {
+        int cmp = BY_KEY.compare(prev, t);
+        if (cmp == 0) {
+          // stable sort retains input order
+          cmp = Integer.compare(((Int32) prev.get(1)).intValue(), ((Int32) t.get(1)).intValue());
+        }
+        assertEquals(-1, Integer.signum(cmp));
+      }
+      assertNull(t.get(2));
+      prev = t;
+      cnt++;
+    }
+    s.close();
+    assertEquals(n, cnt);
+  }
+}